@@ -1,3 +1,4 @@
 #! /bin/bash
+# needs JDK 21 or later, the async facade runs on virtual threads
 rm -rf bin/*.class
-javac -cp ".;lib/postgresql-42.1.4.jar;" src/DBproject.java -d bin/
+javac -cp ".:lib/postgresql-42.1.4.jar" src/*.java -d bin/
@@ -2,6 +2,12 @@
 DBNAME=$1
 PORT=$2
 USER=$3
+shift 3
 
 # Example: source ./run.sh flightDB 5432 user
-java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER
+# Example: source ./run.sh flightDB 5432 user load ../data --rebuild-indexes
+# Example: source ./run.sh flightDB 5432 user generate 10000 --threads 16 --rebuild-indexes
+# Example: source ./run.sh flightDB 9999 user --replicas 10000,10001 --read-routing least-loaded
+# Example: source ./run.sh flightDB 5432 user compact-migrate ../sql/create_compact.sql --batch-rows 50000
+# Example: source ./run.sh flightDB 5432 user bench-scale --sizes 10000,1000000,100000000 --label partitioned
+java -cp lib/*:bin/ DBproject $DBNAME $PORT $USER "$@"
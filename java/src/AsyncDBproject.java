@@ -0,0 +1,236 @@
+import java.io.File;
+import java.time.LocalDate;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class runs DBproject calls asynchronously, each on its own virtual
+ * thread, and returns CompletableFutures for their results.  At most
+ * maxConcurrency calls run at a time; the others wait for a permit.  By
+ * default the limit is the pool size: the driver blocks inside
+ * synchronized code, which pins a virtual thread to its carrier, so
+ * running more calls than there are connections would only park carriers.
+ *
+ * Every call has a timeout, counted from its submission.  A call that
+ * runs past it, or whose future is cancelled, has its running statement
+ * cancelled on the server and completes with a TimeoutException or a
+ * CancellationException.
+ *
+ * A call sees the writes of the thread that submitted it, also when its
+ * reads go to a replica.
+ *
+ */
+
+public class AsyncDBproject{
+	static final long DEFAULT_TIMEOUT_MS = 30 * 1000;
+
+	/**
+	 * A unit of database work run on a virtual thread.
+	 */
+	public interface Call<T>{
+		T call(DBproject esql) throws Exception;
+	}
+
+	private final DBproject _esql;
+	private final Semaphore _permits;
+	private final long _timeoutMs;
+	private final ExecutorService _executor = Executors.newVirtualThreadPerTaskExecutor();
+	private final ScheduledExecutorService _timer;
+
+	public AsyncDBproject(DBproject esql){
+		this(esql, esql.getPool().getMaxSize(), DEFAULT_TIMEOUT_MS);
+	}
+
+	/**
+	 * @param esql the database the calls run against
+	 * @param maxConcurrency the number of calls running at a time
+	 * @param timeoutMs the default timeout of a call, 0 for none
+	 */
+	public AsyncDBproject(DBproject esql, int maxConcurrency, long timeoutMs){
+		if (maxConcurrency < 1)
+			throw new IllegalArgumentException("Invalid concurrency limit: " + maxConcurrency);
+		this._esql = esql;
+		this._permits = new Semaphore(maxConcurrency, true);
+		this._timeoutMs = timeoutMs;
+		this._timer = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "async-timeout");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Method to run a call with the default timeout.
+	 *
+	 * @param call the work to run
+	 * @return the future result of the call
+	 */
+	public <T> CompletableFuture<T> submit(Call<T> call){
+		return submit(call, this._timeoutMs);
+	}
+
+	/**
+	 * Method to run a call on a virtual thread once a permit is free.
+	 *
+	 * @param call the work to run
+	 * @param timeoutMs the time the call may take from now, 0 for no limit
+	 * @return the future result of the call
+	 */
+	public <T> CompletableFuture<T> submit(final Call<T> call, final long timeoutMs){
+		final CallScope scope = new CallScope(timeoutMs);
+		final CompletableFuture<T> result = new CompletableFuture<T>();
+		final long sessionLsn = this._esql.getSessionLsn();
+		//a cancelled future cancels the statement it is waiting for
+		result.whenComplete((r, e) -> {
+			if (result.isCancelled())
+				scope.cancel();
+		});
+		final ScheduledFuture<?> timer = timeoutMs > 0
+			? this._timer.schedule(scope::cancel, timeoutMs, TimeUnit.MILLISECONDS) : null;
+
+		this._executor.execute(() -> {
+			scope.enter();
+			this._esql.setSessionLsn(sessionLsn);
+			try{
+				if (!this._permits.tryAcquire(scope.remainingNanos(), TimeUnit.NANOSECONDS))
+					throw new TimeoutException("Timed out after " + timeoutMs + "ms waiting to run");
+				try{
+					result.complete(call.call(this._esql));
+				}finally{
+					this._permits.release();
+				}//end try
+			}catch (Throwable e){
+				if (scope.isCancelled() && !(e instanceof TimeoutException) && !result.isCancelled()){
+					TimeoutException timeout = new TimeoutException("Timed out after " + timeoutMs + "ms: " + e.getMessage());
+					timeout.initCause(e);
+					e = timeout;
+				}//end if
+				result.completeExceptionally(e);
+			}finally{
+				scope.exit();
+				if (timer != null)
+					timer.cancel(false);
+			}//end try
+		});
+		return result;
+	}//end submit
+
+	/**
+	 * Method to run read-only work, whose queries may go to a replica,
+	 * see DBproject.readOnly.
+	 *
+	 * @param call the work to run
+	 * @param timeoutMs the time the call may take from now, 0 for no limit
+	 * @return the future result of the call
+	 */
+	public <T> CompletableFuture<T> submitRead(Call<T> call, long timeoutMs){
+		return submit(esql -> esql.readOnly(call), timeoutMs);
+	}
+
+	public <T> CompletableFuture<T> submitRead(Call<T> call){
+		return submitRead(call, this._timeoutMs);
+	}
+
+	public CompletableFuture<Integer> executeUpdate(String sql, Object... params){
+		return submit(esql -> esql.executeUpdate(sql, params));
+	}
+
+	public CompletableFuture<Integer> executeQueryAndPrintResult(String query, Object... params){
+		return submit(esql -> esql.executeQueryAndPrintResult(query, params));
+	}
+
+	public CompletableFuture<List<List<String>>> executeQueryAndReturnResult(String query, Object... params){
+		return submit(esql -> esql.executeQueryAndReturnResult(query, params));
+	}
+
+	public CompletableFuture<TypedResult> executeQueryAndReturnTypedResult(String query, Object... params){
+		return submit(esql -> esql.executeQueryAndReturnTypedResult(query, params));
+	}
+
+	/**
+	 * Method to stream a query to a handler, which is called on the
+	 * virtual thread running the query.
+	 *
+	 * @param query the input query string, with '?' placeholders for params
+	 * @param handler receives each row, and may stop the query early
+	 * @param params the values bound to the placeholders
+	 * @return the future number of rows passed to the handler
+	 */
+	public CompletableFuture<Long> executeQueryAndStream(String query, RowHandler handler, Object... params){
+		return submit(esql -> esql.executeQueryAndStream(query, handler, params));
+	}
+
+	public CompletableFuture<Integer> executeQuery(String query, Object... params){
+		return submit(esql -> esql.executeQuery(query, params));
+	}
+
+	public CompletableFuture<Long> count(String query, Object... params){
+		return submit(esql -> esql.count(query, params));
+	}
+
+	public CompletableFuture<Boolean> exists(String query, Object... params){
+		return submit(esql -> esql.exists(query, params));
+	}
+
+	public CompletableFuture<Long> exportQuery(String query, File file, ResultRenderer.Format format, boolean useCopy, Object... params){
+		return submit(esql -> esql.exportQuery(query, file, format, useCopy, params));
+	}
+
+	//the menu operations, with their inputs as arguments
+
+	public CompletableFuture<Integer> addPlane(int id, String make, String model, int age, int seats){
+		return executeUpdate(DBproject.ADD_PLANE_SQL, id, make, model, age, seats);
+	}
+
+	public CompletableFuture<Integer> addPilot(int id, String fullname, String nationality){
+		return executeUpdate(DBproject.ADD_PILOT_SQL, id, fullname, nationality);
+	}
+
+	public CompletableFuture<Integer> addFlight(int fnum, int cost, int numSold, int numStops, String departure,
+			String arrival, String arrivalAirport, String departureAirport){
+		return submit(esql -> esql.addFlight(fnum, cost, numSold, numStops, departure, arrival, arrivalAirport, departureAirport));
+	}
+
+	public CompletableFuture<Integer> addTechnician(int id, String fullName){
+		return executeUpdate(DBproject.ADD_TECHNICIAN_SQL, id, fullName);
+	}
+
+	public CompletableFuture<BookingEngine.Result> bookFlight(int cid, int fid){
+		return submit(esql -> esql.bookFlight(cid, fid));
+	}
+
+	public CompletableFuture<BookingEngine.Result> updateReservationStatus(int cid, int fid, String status){
+		return submit(esql -> esql.updateReservationStatus(cid, fid, status));
+	}
+
+	public CompletableFuture<Integer> getAvailableSeats(int fnum, LocalDate departure){
+		return submitRead(esql -> esql.getAvailableSeats(fnum, departure));
+	}
+
+	public CompletableFuture<List<List<String>>> repairsPerPlane(){
+		return submitRead(esql -> esql.executeQueryAndReturnResult(DBproject.REPAIRS_PER_PLANE_SQL));
+	}
+
+	public CompletableFuture<List<List<String>>> repairsPerYear(){
+		return submitRead(esql -> esql.executeQueryAndReturnResult(DBproject.REPAIRS_PER_YEAR_SQL));
+	}
+
+	public CompletableFuture<Long> passengersWithStatus(int fid, String status){
+		return submitRead(esql -> esql.executeQueryAndReturnTypedResult(DBproject.PASSENGERS_WITH_STATUS_SQL, fid, status).getLong(0, 0));
+	}
+
+	/**
+	 * Method to stop accepting calls.  Calls already submitted still run.
+	 */
+	public void shutdown(){
+		this._executor.shutdown();
+		this._timer.shutdown();
+	}
+}//end AsyncDBproject
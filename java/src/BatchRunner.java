@@ -0,0 +1,207 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class runs the Add* menu operations from an operations file
+ * without prompting.  Each line holds one operation and its fields,
+ * comma separated in column order, e.g.
+ *
+ *   plane,101,Airbus,AirbusA320,5,180
+ *   pilot,300,Jane Doe,Canada
+ *   flight,5000,420,0,1,2014-05-01 16:45,2014-05-02 00:45,TDOBK,JALYJ
+ *   technician,400,John Doe
+ *
+ * Operations of the same kind are sent with addBatch/executeBatch, and
+ * the transaction is committed every commitInterval operations.  A
+ * failing batch is rolled back to its savepoint and replayed one row at
+ * a time, so only the offending lines are rejected.
+ *
+ */
+
+public class BatchRunner{
+	/**
+	 * The operations a file may contain, with their SQL template and the
+	 * number of fields each expects.
+	 */
+	enum Op{
+		PLANE(DBproject.ADD_PLANE_SQL, "ISSII"),
+		PILOT(DBproject.ADD_PILOT_SQL, "ISS"),
+		FLIGHT(DBproject.ADD_FLIGHT_SQL, "IIIISSSS"),
+		TECHNICIAN(DBproject.ADD_TECHNICIAN_SQL, "IS");
+
+		final String sql;
+		//one letter per field: I integer, S string
+		final String fields;
+
+		Op(String sql, String fields){
+			this.sql = sql;
+			this.fields = fields;
+		}
+	}//end Op
+
+	/**
+	 * Rows of one operation kind waiting for executeBatch.
+	 */
+	private static class Pending{
+		final List<Integer> lines = new ArrayList<Integer>();
+		final List<Object[]> values = new ArrayList<Object[]>();
+	}//end Pending
+
+	private final ConnectionPool _pool;
+	private final int _batchSize;
+	private final int _commitInterval;
+
+	private long _succeeded = 0;
+	private long _failed = 0;
+
+	public BatchRunner(ConnectionPool pool, int batchSize, int commitInterval){
+		if (batchSize < 1 || commitInterval < 1)
+			throw new IllegalArgumentException("Batch size and commit interval must be positive");
+		this._pool = pool;
+		this._batchSize = batchSize;
+		this._commitInterval = commitInterval;
+	}
+
+	/**
+	 * Method to run every operation of a file.  Rejected lines are
+	 * reported on standard error and do not stop the run.
+	 *
+	 * @param file the operations file
+	 * @return the number of rejected operations
+	 * @throws java.sql.SQLException when the connection itself failed
+	 * @throws java.io.IOException when the file cannot be read
+	 */
+	public long run(File file) throws SQLException, IOException {
+		long start = System.nanoTime();
+		Map<Op, Pending> pending = new LinkedHashMap<Op, Pending>();
+		for (Op op : Op.values())
+			pending.put(op, new Pending());
+
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try (BufferedReader reader = new BufferedReader(new FileReader(file))){
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+
+			String line;
+			int lineNo = 0;
+			int sinceCommit = 0;
+			while ((line = reader.readLine()) != null){
+				++lineNo;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+					continue;
+
+				Op op;
+				Object[] values;
+				try{
+					String[] parts = line.split(",", -1);
+					op = Op.valueOf(parts[0].trim().toUpperCase());
+					values = parse(op, parts);
+				}catch (RuntimeException e){
+					reject(lineNo, "invalid operation: " + e.getMessage());
+					continue;
+				}//end try
+
+				Pending p = pending.get(op);
+				p.lines.add(lineNo);
+				p.values.add(values);
+				if (p.lines.size() >= this._batchSize)
+					flush(conn, op, p);
+				if (++sinceCommit >= this._commitInterval){
+					flushAll(conn, pending);
+					c.commit();
+					sinceCommit = 0;
+				}//end if
+			}//end while
+			flushAll(conn, pending);
+			c.commit();
+			c.setAutoCommit(true);
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%d operations applied, %d rejected in %.2fs (%.0f ops/sec)%n",
+			this._succeeded, this._failed, secs, (this._succeeded + this._failed) / Math.max(secs, 1e-9));
+		return this._failed;
+	}//end run
+
+	public long getSucceeded(){
+		return this._succeeded;
+	}
+
+	public long getFailed(){
+		return this._failed;
+	}
+
+	//converts the fields of one line into bind values
+	private static Object[] parse(Op op, String[] parts){
+		if (parts.length - 1 != op.fields.length())
+			throw new IllegalArgumentException(op.name().toLowerCase() + " expects " + op.fields.length() + " fields, got " + (parts.length - 1));
+		Object[] values = new Object[op.fields.length()];
+		for (int i = 0; i < values.length; ++i){
+			String field = parts[i + 1].trim();
+			values[i] = op.fields.charAt(i) == 'I' ? (Object) Integer.valueOf(field) : field;
+		}//end for
+		return values;
+	}
+
+	private void flushAll(ConnectionPool.PooledConnection conn, Map<Op, Pending> pending) throws SQLException {
+		for (Map.Entry<Op, Pending> e : pending.entrySet())
+			flush(conn, e.getKey(), e.getValue());
+	}
+
+	//sends the pending rows of one kind, replaying them singly if the batch fails
+	private void flush(ConnectionPool.PooledConnection conn, Op op, Pending p) throws SQLException {
+		if (p.lines.isEmpty())
+			return;
+		Connection c = conn.getConnection();
+		PreparedStatement stmt = conn.prepare(op.sql);
+		Savepoint batchStart = c.setSavepoint();
+		try{
+			for (Object[] values : p.values){
+				StatementCache.bind(stmt, values);
+				stmt.addBatch();
+			}//end for
+			stmt.executeBatch();
+			c.releaseSavepoint(batchStart);
+			this._succeeded += p.lines.size();
+		}catch (BatchUpdateException e){
+			stmt.clearBatch();
+			c.rollback(batchStart);
+			for (int i = 0; i < p.lines.size(); ++i){
+				Savepoint row = c.setSavepoint();
+				try{
+					StatementCache.bind(stmt, p.values.get(i));
+					stmt.executeUpdate();
+					c.releaseSavepoint(row);
+					++this._succeeded;
+				}catch (SQLException rowError){
+					c.rollback(row);
+					reject(p.lines.get(i), rowError.getMessage());
+				}//end try
+			}//end for
+		}//end try
+		p.lines.clear();
+		p.values.clear();
+	}//end flush
+
+	private void reject(int lineNo, String message){
+		++this._failed;
+		System.err.println("Line " + lineNo + " rejected: " + message);
+	}
+}//end BatchRunner
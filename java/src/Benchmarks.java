@@ -0,0 +1,493 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class benchmarks the nine menu operations and the raw execute,
+ * exists and count methods of DBproject against the connected database.
+ * Each benchmark runs for a warm-up period and then a measurement period
+ * on 1..N threads; every operation is timed, so a run reports throughput,
+ * latency percentiles, bytes allocated per operation and GC activity.
+ * The menu operations issue the same calls as the interactive menu with
+ * parameters drawn from the loaded data, and rows written by a benchmark
+ * are removed after it.  Results are written as JSON so runs of
+ * different builds or dataset sizes can be compared.
+ *
+ */
+
+public class Benchmarks{
+	static final String[] STATUSES = {"W", "R", "C"};
+	//flights the booking benchmark books on, restored afterwards
+	static final int BOOKING_FLIGHTS = 1024;
+	//most customer and flight pairs the booking benchmark draws from
+	static final int BOOKING_PAIRS = 1 << 20;
+	static final String CUSTOMER_SQL = "SELECT *\nFROM Customer\nWHERE id = ?";
+	static final String TOUCH_FLIGHT_SQL = "UPDATE Flight SET num_sold = num_sold WHERE fnum = ?";
+	static final String DELETE_RESERVATION_SQL = "DELETE FROM Reservation WHERE rnum = ? AND fid = ?";
+
+	/**
+	 * One benchmarked operation.  setUp and tearDown run outside the
+	 * measurement, op is called concurrently by every worker thread.
+	 */
+	static abstract class Benchmark{
+		final String name;
+
+		Benchmark(String name){
+			this.name = name;
+		}
+
+		void setUp() throws Exception {}
+
+		abstract void op(Random rnd) throws Exception;
+
+		void tearDown() throws Exception {}
+	}//end Benchmark
+
+	/**
+	 * A benchmark inserting rows keyed by a sequence, deleting them again
+	 * in tearDown.
+	 */
+	abstract class InsertBenchmark extends Benchmark{
+		final String sequence;
+		final String deleteSql;
+		final Queue<Integer> created = new ConcurrentLinkedQueue<Integer>();
+
+		InsertBenchmark(String name, String sequence, String deleteSql){
+			super(name);
+			this.sequence = sequence;
+			this.deleteSql = deleteSql;
+		}
+
+		void op(Random rnd) throws Exception {
+			int id = _esql.nextId(this.sequence);
+			insert(id, rnd);
+			this.created.add(id);
+		}
+
+		abstract void insert(int id, Random rnd) throws SQLException;
+
+		void tearDown() throws Exception {
+			Integer id;
+			while ((id = this.created.poll()) != null)
+				_esql.executeUpdate(this.deleteSql, id);
+		}
+	}//end InsertBenchmark
+
+	/**
+	 * Latencies of one worker thread, in nanoseconds.
+	 */
+	static class Samples{
+		long[] latencies = new long[1 << 14];
+		int count = 0;
+		long errors = 0;
+		long allocatedBytes = 0;
+
+		void add(long nanos){
+			if (this.count == this.latencies.length)
+				this.latencies = Arrays.copyOf(this.latencies, this.count * 2);
+			this.latencies[this.count++] = nanos;
+		}
+	}//end Samples
+
+	/**
+	 * The figures of one benchmark at one thread count.
+	 */
+	static class Result{
+		String name;
+		int threads;
+		long ops;
+		long errors;
+		double secs;
+		double opsPerSec;
+		double meanUs;
+		double p50Us;
+		double p90Us;
+		double p99Us;
+		double p999Us;
+		double maxUs;
+		//-1 when the JVM does not count per-thread allocation
+		double allocBytesPerOp;
+		long gcCount;
+		long gcMs;
+	}//end Result
+
+	private final DBproject _esql;
+	private final List<Benchmark> _benchmarks = new ArrayList<Benchmark>();
+	//bind values sampled from the loaded data
+	private int[] _fnums;
+	private LocalDate[] _departures;
+	private int[] _cids;
+	private int[] _reservedFids;
+	private long _reservations;
+
+	public Benchmarks(DBproject esql) throws SQLException {
+		this._esql = esql;
+		sampleData();
+
+		this._benchmarks.add(new InsertBenchmark("1-add-plane", "plane_id_seq", "DELETE FROM Plane WHERE id = ?"){
+			void insert(int id, Random rnd) throws SQLException {
+				_esql.executeUpdate(DBproject.ADD_PLANE_SQL, id, "Boeing", "737", 1 + rnd.nextInt(40), 100 + rnd.nextInt(400));
+			}
+		});
+		this._benchmarks.add(new InsertBenchmark("2-add-pilot", "pilot_id_seq", "DELETE FROM Pilot WHERE id = ?"){
+			void insert(int id, Random rnd) throws SQLException {
+				_esql.executeUpdate(DBproject.ADD_PILOT_SQL, id, "Bench Pilot " + id, "USA");
+			}
+		});
+		this._benchmarks.add(new InsertBenchmark("3-add-flight", "flight_fnum_seq", "DELETE FROM Flight WHERE fnum = ?"){
+			void insert(int id, Random rnd) throws SQLException {
+				_esql.executeUpdate(DBproject.ADD_FLIGHT_SQL, id, 100 + rnd.nextInt(900), 0, rnd.nextInt(3),
+					"2014-05-01 16:45", "2014-05-02 00:45", "BENCH", "BENCH");
+				_esql.invalidateSeats(id);
+			}
+		});
+		this._benchmarks.add(new InsertBenchmark("4-add-technician", "technician_id_seq", "DELETE FROM Technician WHERE id = ?"){
+			void insert(int id, Random rnd) throws SQLException {
+				_esql.executeUpdate(DBproject.ADD_TECHNICIAN_SQL, id, "Bench Technician " + id);
+			}
+		});
+		this._benchmarks.add(new Benchmark("5-book-flight"){
+			final Map<Integer, Integer> soldBefore = new ConcurrentHashMap<Integer, Integer>();
+			//{rnum, fid} of the reservations booked
+			final Queue<int[]> created = new ConcurrentLinkedQueue<int[]>();
+			//customer and flight pairs without a reservation, as cid << 32 | fid, each booked once
+			final Queue<Long> unbooked = new ConcurrentLinkedQueue<Long>();
+
+			//finds the unbooked pairs up front, so every timed call is a new booking
+			void setUp() throws Exception {
+				int[] flights = Arrays.copyOf(_fnums, Math.min(BOOKING_FLIGHTS, _fnums.length));
+				List<Long> pairs = new ArrayList<Long>();
+				for (int fnum : flights){
+					TypedResult rs = _esql.executeQueryAndReturnTypedResult("SELECT num_sold FROM Flight WHERE fnum = ?", fnum);
+					this.soldBefore.put(fnum, rs.getInt(0, 0));
+					TypedResult booked = _esql.executeQueryAndReturnTypedResult("SELECT DISTINCT cid FROM Reservation WHERE fid = ?", fnum);
+					Set<Integer> cids = new HashSet<Integer>();
+					for (int row = 0; row < booked.getRowCount(); ++row)
+						cids.add(booked.getInt(row, 0));
+					for (int cid : _cids)
+						if (!cids.contains(cid) && pairs.size() < BOOKING_PAIRS)
+							pairs.add((long) cid << 32 | (fnum & 0xffffffffL));
+				}//end for
+				Collections.shuffle(pairs, new Random(42));
+				this.unbooked.addAll(pairs);
+			}
+
+			void op(Random rnd) throws Exception {
+				Long pair = this.unbooked.poll();
+				if (pair == null)
+					throw new IllegalStateException("No unbooked customer and flight pair left, raise BOOKING_FLIGHTS");
+				int fid = (int) pair.longValue();
+				BookingEngine.Result r = _esql.bookFlight((int) (pair >>> 32), fid);
+				if (r.created)
+					this.created.add(new int[]{ r.rnum, fid });
+			}
+
+			void tearDown() throws Exception {
+				this.unbooked.clear();
+				int[] booked;
+				while ((booked = this.created.poll()) != null)
+					_esql.executeUpdate(DELETE_RESERVATION_SQL, booked[0], booked[1]);
+				for (Map.Entry<Integer, Integer> e : this.soldBefore.entrySet()){
+					_esql.executeUpdate("UPDATE Flight SET num_sold = ? WHERE fnum = ?", e.getValue(), e.getKey());
+					_esql.invalidateSeats(e.getKey());
+				}//end for
+			}
+		});
+		this._benchmarks.add(new Benchmark("6-available-seats"){
+			void op(Random rnd) throws Exception {
+				int i = rnd.nextInt(_fnums.length);
+				_esql.getAvailableSeats(_fnums[i], _departures[i]);
+			}
+		});
+		this._benchmarks.add(new Benchmark("7-repairs-per-plane"){
+			void op(Random rnd) throws Exception {
+				_esql.executeQueryAndPrintResult(DBproject.REPAIRS_PER_PLANE_SQL);
+			}
+		});
+		this._benchmarks.add(new Benchmark("8-repairs-per-year"){
+			void op(Random rnd) throws Exception {
+				_esql.executeQueryAndPrintResult(DBproject.REPAIRS_PER_YEAR_SQL);
+			}
+		});
+		this._benchmarks.add(new Benchmark("9-passengers-with-status"){
+			void op(Random rnd) throws Exception {
+				_esql.executeQueryAndPrintResult(DBproject.PASSENGERS_WITH_STATUS_SQL,
+					_reservedFids[rnd.nextInt(_reservedFids.length)], STATUSES[rnd.nextInt(STATUSES.length)]);
+			}
+		});
+		this._benchmarks.add(new Benchmark("executeUpdate"){
+			void op(Random rnd) throws Exception {
+				_esql.executeUpdate(TOUCH_FLIGHT_SQL, _fnums[rnd.nextInt(_fnums.length)]);
+			}
+		});
+		this._benchmarks.add(new Benchmark("executeQuery"){
+			void op(Random rnd) throws Exception {
+				_esql.executeQuery(CUSTOMER_SQL, _cids[rnd.nextInt(_cids.length)]);
+			}
+		});
+		this._benchmarks.add(new Benchmark("exists"){
+			void op(Random rnd) throws Exception {
+				_esql.exists(DBproject.CUSTOMER_EXISTS_SQL, _cids[rnd.nextInt(_cids.length)]);
+			}
+		});
+		this._benchmarks.add(new Benchmark("count"){
+			void op(Random rnd) throws Exception {
+				_esql.count(BookingStress.SEATED_SQL, _reservedFids[rnd.nextInt(_reservedFids.length)]);
+			}
+		});
+		this._benchmarks.add(new Benchmark("executeQueryAndPrintResult"){
+			void op(Random rnd) throws Exception {
+				_esql.executeQueryAndPrintResult(CUSTOMER_SQL, _cids[rnd.nextInt(_cids.length)]);
+			}
+		});
+		this._benchmarks.add(new Benchmark("executeQueryAndReturnResult"){
+			void op(Random rnd) throws Exception {
+				_esql.executeQueryAndReturnResult(CUSTOMER_SQL, _cids[rnd.nextInt(_cids.length)]);
+			}
+		});
+	}
+
+	//loads the keys the operations are parameterized with
+	private void sampleData() throws SQLException {
+		TypedResult flights = this._esql.executeQueryAndReturnTypedResult("SELECT fnum, actual_departure_date FROM Flight ORDER BY fnum");
+		TypedResult customers = this._esql.executeQueryAndReturnTypedResult("SELECT id FROM Customer ORDER BY id");
+		TypedResult reserved = this._esql.executeQueryAndReturnTypedResult("SELECT DISTINCT fid FROM Reservation ORDER BY fid");
+		if (flights.getRowCount() == 0 || customers.getRowCount() == 0 || reserved.getRowCount() == 0)
+			throw new SQLException("Benchmarks need a loaded database with flights, customers and reservations");
+
+		this._fnums = new int[flights.getRowCount()];
+		this._departures = new LocalDate[flights.getRowCount()];
+		for (int i = 0; i < this._fnums.length; ++i){
+			this._fnums[i] = flights.getInt(i, 0);
+			this._departures[i] = LocalDate.ofEpochDay(flights.getLong(i, 1));
+		}//end for
+		this._cids = new int[customers.getRowCount()];
+		for (int i = 0; i < this._cids.length; ++i)
+			this._cids[i] = customers.getInt(i, 0);
+		this._reservedFids = new int[reserved.getRowCount()];
+		for (int i = 0; i < this._reservedFids.length; ++i)
+			this._reservedFids[i] = reserved.getInt(i, 0);
+		this._reservations = this._esql.executeQueryAndReturnTypedResult("SELECT count(*) FROM Reservation").getLong(0, 0);
+	}
+
+	/**
+	 * Method to run the selected benchmarks at each thread count and write
+	 * the results as JSON.  Output of the printing operations is discarded
+	 * while they run.
+	 *
+	 * @param only the benchmark names to run, or null for all
+	 * @param threadCounts the numbers of worker threads to measure with
+	 * @param warmupSecs the seconds run before measuring
+	 * @param secs the seconds measured
+	 * @param label a name for this build or run, copied to the JSON
+	 * @param out the JSON file
+	 * @return the results
+	 * @throws java.lang.Exception when a setUp or tearDown failed
+	 */
+	public List<Result> run(List<String> only, int[] threadCounts, int warmupSecs, int secs, String label, File out) throws Exception {
+		List<Result> results = new ArrayList<Result>();
+		PrintStream console = System.out;
+		PrintStream discard = new PrintStream(OutputStream.nullOutputStream());
+		console.printf("%-28s %7s %11s %9s %9s %9s %9s %9s %11s %6s%n", "benchmark", "threads", "ops/s",
+			"p50 us", "p99 us", "p99.9 us", "max us", "errors", "alloc B/op", "gc ms");
+		for (Benchmark b : this._benchmarks){
+			if (only != null && !only.contains(b.name))
+				continue;
+			for (int threads : threadCounts){
+				b.setUp();
+				Result r;
+				System.setOut(discard);
+				try{
+					r = measure(b, threads, warmupSecs, secs);
+				}finally{
+					System.setOut(console);
+					b.tearDown();
+				}//end try
+				console.printf(Locale.ROOT, "%-28s %7d %11.1f %9.1f %9.1f %9.1f %9.1f %9d %11.0f %6d%n", r.name, r.threads,
+					r.opsPerSec, r.p50Us, r.p99Us, r.p999Us, r.maxUs, r.errors, r.allocBytesPerOp, r.gcMs);
+				results.add(r);
+			}//end for
+		}//end for
+		writeJson(results, label, warmupSecs, out);
+		console.println("Results written to " + out);
+		return results;
+	}//end run
+
+	/**
+	 * Method to run one benchmark on a number of threads, timing every
+	 * operation of the measurement period.
+	 *
+	 * @param b the benchmark, set up by the caller
+	 * @param threads the number of worker threads
+	 * @param warmupSecs the seconds run before measuring
+	 * @param secs the seconds measured
+	 * @return the figures of the measurement period
+	 * @throws java.lang.Exception when a worker thread failed
+	 */
+	static Result measure(final Benchmark b, int threads, int warmupSecs, int secs) throws Exception {
+		final long start = System.nanoTime();
+		final long measureFrom = start + TimeUnit.SECONDS.toNanos(warmupSecs);
+		final long end = measureFrom + TimeUnit.SECONDS.toNanos(secs);
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		List<Future<Samples>> running = new ArrayList<Future<Samples>>();
+		for (int t = 0; t < threads; ++t){
+			final Random rnd = new Random(31L * t + b.name.hashCode());
+			running.add(workers.submit(() -> {
+				Samples s = new Samples();
+				long allocFrom = -1;
+				for (long now = System.nanoTime(); now < end; now = System.nanoTime()){
+					boolean measuring = now >= measureFrom;
+					if (measuring && allocFrom < 0)
+						allocFrom = allocatedBytes();
+					//failed operations are counted, but not timed as completed ones
+					try{
+						b.op(rnd);
+						if (measuring)
+							s.add(System.nanoTime() - now);
+					}catch (Exception e){
+						if (measuring) ++s.errors;
+					}//end try
+				}//end for
+				s.allocatedBytes = allocFrom < 0 ? 0 : allocatedBytes() - allocFrom;
+				return s;
+			}));
+		}//end for
+
+		//GC figures cover the measurement period only
+		long wait = TimeUnit.NANOSECONDS.toMillis(measureFrom - System.nanoTime());
+		if (wait > 0)
+			Thread.sleep(wait);
+		long[] gcFrom = gcCounters();
+		List<Samples> samples = new ArrayList<Samples>();
+		for (Future<Samples> f : running)
+			samples.add(f.get());
+		long[] gcTo = gcCounters();
+		double measured = (System.nanoTime() - measureFrom) / 1e9;
+		workers.shutdown();
+		workers.awaitTermination(1, TimeUnit.MINUTES);
+
+		int n = 0;
+		long allocated = 0;
+		boolean allocCounted = allocatedBytes() >= 0;
+		Result r = new Result();
+		for (Samples s : samples){
+			n += s.count;
+			r.errors += s.errors;
+			allocated += s.allocatedBytes;
+		}//end for
+		long[] all = new long[n];
+		int pos = 0;
+		long total = 0;
+		for (Samples s : samples){
+			System.arraycopy(s.latencies, 0, all, pos, s.count);
+			pos += s.count;
+		}//end for
+		Arrays.sort(all);
+		for (long l : all)
+			total += l;
+
+		r.name = b.name;
+		r.threads = threads;
+		r.ops = n;
+		r.secs = measured;
+		r.opsPerSec = n / measured;
+		r.meanUs = n == 0 ? 0 : total / 1e3 / n;
+		r.p50Us = percentile(all, 0.50);
+		r.p90Us = percentile(all, 0.90);
+		r.p99Us = percentile(all, 0.99);
+		r.p999Us = percentile(all, 0.999);
+		r.maxUs = n == 0 ? 0 : all[n - 1] / 1e3;
+		r.allocBytesPerOp = !allocCounted ? -1 : n == 0 ? 0 : (double) allocated / n;
+		r.gcCount = gcTo[0] - gcFrom[0];
+		r.gcMs = gcTo[1] - gcFrom[1];
+		return r;
+	}//end measure
+
+	private static double percentile(long[] sorted, double p){
+		if (sorted.length == 0)
+			return 0;
+		int i = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, Math.min(i, sorted.length - 1))] / 1e3;
+	}
+
+	//bytes allocated by the calling thread, or -1 if not supported
+	private static long allocatedBytes(){
+		java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean){
+			com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+			if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled())
+				return threads.getCurrentThreadAllocatedBytes();
+		}//end if
+		return -1;
+	}
+
+	//{collections, milliseconds} summed over all collectors
+	private static long[] gcCounters(){
+		long[] counters = new long[2];
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()){
+			counters[0] += Math.max(0, gc.getCollectionCount());
+			counters[1] += Math.max(0, gc.getCollectionTime());
+		}//end for
+		return counters;
+	}
+
+	private void writeJson(List<Result> results, String label, int warmupSecs, File out) throws IOException {
+		Writer w = new FileWriter(out);
+		try{
+			w.write("{\n");
+			w.write("  \"label\": " + quote(label) + ",\n");
+			w.write("  \"timestamp\": " + quote(Instant.now().toString()) + ",\n");
+			w.write("  \"java\": " + quote(System.getProperty("java.version")) + ",\n");
+			w.write("  \"processors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+			w.write("  \"poolMaxSize\": " + this._esql.getPool().getMaxSize() + ",\n");
+			w.write("  \"warmupSecs\": " + warmupSecs + ",\n");
+			w.write("  \"dataset\": {\"flights\": " + this._fnums.length + ", \"customers\": " + this._cids.length
+				+ ", \"reservations\": " + this._reservations + "},\n");
+			w.write("  \"results\": [\n");
+			for (int i = 0; i < results.size(); ++i)
+				w.write("    " + toJson(results.get(i)) + (i + 1 < results.size() ? "," : "") + "\n");
+			w.write("  ]\n}\n");
+		}finally{
+			w.close();
+		}//end try
+	}
+
+	//one result as a JSON object on one line
+	static String toJson(Result r){
+		return String.format(Locale.ROOT, "{\"name\": %s, \"threads\": %d, \"ops\": %d, \"errors\": %d, \"secs\": %.3f, "
+			+ "\"opsPerSec\": %.2f, \"latencyUs\": {\"mean\": %.2f, \"p50\": %.2f, \"p90\": %.2f, \"p99\": %.2f, "
+			+ "\"p999\": %.2f, \"max\": %.2f}, \"allocBytesPerOp\": %.1f, \"gcCount\": %d, \"gcMs\": %d}",
+			quote(r.name), r.threads, r.ops, r.errors, r.secs, r.opsPerSec, r.meanUs, r.p50Us, r.p90Us, r.p99Us,
+			r.p999Us, r.maxUs, r.allocBytesPerOp, r.gcCount, r.gcMs);
+	}
+
+	static String quote(String s){
+		if (s == null)
+			return "null";
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+}//end Benchmarks
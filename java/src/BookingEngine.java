@@ -0,0 +1,255 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This class books seats without overselling or double booking.  Each
+ * booking runs in one short transaction that locks the flight's row,
+ * checks for an existing reservation of the customer, and either takes a
+ * seat (status 'R', incrementing Flight.num_sold) or waitlists the
+ * customer (status 'W') when num_sold has reached the plane's capacity.
+ * Concurrent bookings of the same flight queue on the row lock; bookings
+ * of different flights do not block each other.
+ *
+ * Once migration V002 has created the book_flight and
+ * update_reservation_status functions, a booking or status change is one
+ * autocommitted call: one round trip and one commit instead of three to
+ * five statements and a COMMIT.  Without the functions the statements are
+ * sent from here.
+ *
+ */
+
+public class BookingEngine{
+	static final String LOCK_FLIGHT_SQL = "SELECT F.num_sold, P.seats\nFROM Flight F, FlightInfo FI, Plane P\nWHERE F.fnum = ? AND FI.flight_id = F.fnum AND FI.plane_id = P.id\nORDER BY FI.fiid\nLIMIT 1\nFOR UPDATE OF F";
+	static final String FIND_RESERVATION_SQL = "SELECT rnum, status\nFROM Reservation\nWHERE cid = ? AND fid = ?\nLIMIT 1";
+	static final String TAKE_SEAT_SQL = "UPDATE Flight SET num_sold = num_sold + 1 WHERE fnum = ?";
+	//fid keeps the update to one partition of a partitioned Reservation
+	static final String SET_STATUS_SQL = "UPDATE Reservation SET status = ? WHERE rnum = ? AND fid = ?";
+	//locks the flight and finds the customer's reservation in one round trip
+	static final String LOCK_FLIGHT_FIND_RESERVATION_SQL = "SELECT F.num_sold, P.seats, R.rnum, R.status\nFROM Flight F JOIN FlightInfo FI ON FI.flight_id = F.fnum JOIN Plane P ON FI.plane_id = P.id\nLEFT JOIN Reservation R ON R.cid = ? AND R.fid = ?\nWHERE F.fnum = ?\nORDER BY FI.fiid\nLIMIT 1\nFOR UPDATE OF F";
+	//takes (+1) or frees (-1) a seat and sets the status in one statement
+	static final String MOVE_SEAT_SET_STATUS_SQL = "WITH seat AS (UPDATE Flight SET num_sold = num_sold + ? WHERE fnum = ? AND num_sold + ? >= 0)\nUPDATE Reservation SET status = ? WHERE rnum = ? AND fid = ?";
+	static final String BOOK_SQL = "SELECT rnum, status, created FROM book_flight(?, ?, ?)";
+	static final String UPDATE_STATUS_SQL = "SELECT rnum, status FROM update_reservation_status(?, ?, ?)";
+	//undefined_function, raised before migration V002 is applied
+	static final String UNDEFINED_FUNCTION_STATE = "42883";
+
+	/**
+	 * The outcome of a booking or status change.
+	 */
+	public static class Result{
+		public final int rnum;
+		public final String status;
+		//false when the customer already held a reservation on the flight
+		public final boolean created;
+
+		Result(int rnum, String status, boolean created){
+			this.rnum = rnum;
+			this.status = status;
+			this.created = created;
+		}
+	}//end Result
+
+	private final ConnectionPool _pool;
+	//cleared when the server has no book_flight function
+	private volatile boolean _useFunction = true;
+	//cleared when the server has no update_reservation_status function
+	private volatile boolean _useStatusFunction = true;
+
+	public BookingEngine(ConnectionPool pool){
+		this._pool = pool;
+	}
+
+	/**
+	 * Method to reserve a seat for a customer.  If the customer already
+	 * holds a reservation on the flight it is returned unchanged.
+	 *
+	 * @param cid the customer id
+	 * @param fid the flight number
+	 * @param rnum the reservation number for a new reservation
+	 * @return the reservation, with status 'R' or, on a full flight, 'W'
+	 * @throws java.sql.SQLException when the flight does not exist or the
+	 *         transaction failed, in which case nothing was written
+	 */
+	public Result book(int cid, int fid, int rnum) throws SQLException {
+		if (this._useFunction){
+			try{
+				return bookOnServer(cid, fid, rnum);
+			}catch (SQLException e){
+				if (!UNDEFINED_FUNCTION_STATE.equals(e.getSQLState()))
+					throw e;
+				this._useFunction = false;
+			}//end try
+		}//end if
+
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+
+			//serializes bookings of this flight until commit
+			int[] seats = lockFlight(conn, fid);
+
+			Result existing = findReservation(conn, cid, fid);
+			if (existing != null){
+				c.commit();
+				c.setAutoCommit(true);
+				return existing;
+			}//end if
+
+			String status = seats[0] < seats[1] ? "R" : "W";
+			PreparedStatement stmt = conn.prepare(DBproject.ADD_RESERVATION_SQL);
+			StatementCache.bind(stmt, rnum, cid, fid, status);
+			stmt.executeUpdate();
+			if (status.equals("R"))
+				execute(conn, TAKE_SEAT_SQL, fid);
+
+			c.commit();
+			c.setAutoCommit(true);
+			return new Result(rnum, status, true);
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			//rolls back anything left uncommitted
+			this._pool.release(conn);
+		}//end try
+	}//end book
+
+	//the booking as one autocommitted call of book_flight
+	private Result bookOnServer(int cid, int fid, int rnum) throws SQLException {
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			PreparedStatement stmt = conn.prepare(BOOK_SQL);
+			StatementCache.bind(stmt, cid, fid, rnum);
+			ResultSet rs = stmt.executeQuery();
+			try{
+				rs.next();
+				return new Result(rs.getInt(1), rs.getString(2), rs.getBoolean(3));
+			}finally{
+				rs.close();
+			}//end try
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}
+
+	/**
+	 * Method to change the status of a customer's reservation in one
+	 * autocommitted call of update_reservation_status.
+	 *
+	 * @param cid the customer id
+	 * @param fid the flight number
+	 * @param status the new status, W, R or C
+	 * @return the reservation with its resulting status, or null if the
+	 *         customer has no reservation on the flight
+	 * @throws java.sql.SQLException when the flight is full or the call
+	 *         failed, with SQLSTATE 42883 when V002 is not applied and the
+	 *         statements must be sent through updateStatus(Transaction, ...)
+	 */
+	public Result updateStatus(int cid, int fid, String status) throws SQLException {
+		if (!this._useStatusFunction)
+			throw new SQLException("update_reservation_status is not installed", UNDEFINED_FUNCTION_STATE);
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			PreparedStatement stmt = conn.prepare(UPDATE_STATUS_SQL);
+			StatementCache.bind(stmt, cid, fid, status);
+			ResultSet rs = stmt.executeQuery();
+			try{
+				rs.next();
+				int rnum = rs.getInt(1);
+				return rs.wasNull() ? null : new Result(rnum, rs.getString(2), false);
+			}finally{
+				rs.close();
+			}//end try
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			if (UNDEFINED_FUNCTION_STATE.equals(e.getSQLState()))
+				this._useStatusFunction = false;
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}
+
+	/**
+	 * Method to change the status of a customer's reservation, keeping
+	 * Flight.num_sold in step.  Moving a waitlisted reservation to 'R' or
+	 * 'C' needs a free seat; moving a seated one to 'W' frees its seat.
+	 *
+	 * Used before V002 is applied, through DBproject.inTransaction: the
+	 * flight is locked and the reservation found by one query, and the
+	 * write is queued to go out before the commit.
+	 *
+	 * @param tx the transaction to run in
+	 * @param cid the customer id
+	 * @param fid the flight number
+	 * @param status the new status, W, R or C
+	 * @return the reservation with its resulting status, or null if the
+	 *         customer has no reservation on the flight
+	 * @throws java.sql.SQLException when the flight is full or the
+	 *         transaction failed, in which case nothing was written
+	 */
+	public static Result updateStatus(Transaction tx, int cid, int fid, String status) throws SQLException {
+		TypedResult rs = tx.executeQuery(LOCK_FLIGHT_FIND_RESERVATION_SQL, cid, fid, fid);
+		if (rs.getRowCount() == 0)
+			throw new SQLException("Flight " + fid + " does not exist or has no plane assigned");
+		if (rs.isNull(0, 2))
+			return null;
+		int sold = rs.getInt(0, 0);
+		int seats = rs.getInt(0, 1);
+		int rnum = rs.getInt(0, 2);
+
+		//a reservation without a status holds no seat
+		boolean wasSeated = !rs.isNull(0, 3) && !rs.getString(0, 3).equals("W");
+		boolean seated = !status.equals("W");
+		int delta = 0;
+		if (seated && !wasSeated){
+			if (sold >= seats)
+				throw new SQLException("Flight " + fid + " is full, reservation " + rnum + " stays waitlisted");
+			delta = 1;
+		}else if (wasSeated && !seated){
+			delta = -1;
+		}//end if
+		if (delta == 0)
+			tx.queue(SET_STATUS_SQL, status, rnum, fid);
+		else
+			tx.queue(MOVE_SEAT_SET_STATUS_SQL, delta, fid, delta, status, rnum, fid);
+		return new Result(rnum, status, false);
+	}//end updateStatus
+
+	//locks the flight row and returns {num_sold, plane seats}
+	private static int[] lockFlight(ConnectionPool.PooledConnection conn, int fid) throws SQLException {
+		PreparedStatement stmt = conn.prepare(LOCK_FLIGHT_SQL);
+		StatementCache.bind(stmt, fid);
+		ResultSet rs = stmt.executeQuery();
+		try{
+			if (!rs.next())
+				throw new SQLException("Flight " + fid + " does not exist or has no plane assigned");
+			return new int[]{ rs.getInt(1), rs.getInt(2) };
+		}finally{
+			rs.close();
+		}//end try
+	}
+
+	private static Result findReservation(ConnectionPool.PooledConnection conn, int cid, int fid) throws SQLException {
+		PreparedStatement stmt = conn.prepare(FIND_RESERVATION_SQL);
+		StatementCache.bind(stmt, cid, fid);
+		ResultSet rs = stmt.executeQuery();
+		try{
+			return rs.next() ? new Result(rs.getInt(1), rs.getString(2), false) : null;
+		}finally{
+			rs.close();
+		}//end try
+	}
+
+	private static int execute(ConnectionPool.PooledConnection conn, String sql, Object... params) throws SQLException {
+		PreparedStatement stmt = conn.prepare(sql);
+		StatementCache.bind(stmt, params);
+		return stmt.executeUpdate();
+	}
+}//end BookingEngine
@@ -0,0 +1,104 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * This class hammers one flight with concurrent bookings and checks that
+ * the booking engine neither oversells the plane nor books a customer
+ * twice.  Customers are reused across attempts, so the same customer is
+ * booked by several threads at once.  The reservations it creates are
+ * deleted and the flight's num_sold restored afterwards.
+ *
+ */
+
+public class BookingStress{
+	static final String FLIGHT_SEATS_SQL = "SELECT F.num_sold, P.seats\nFROM Flight F, FlightInfo FI, Plane P\nWHERE F.fnum = ? AND FI.flight_id = F.fnum AND FI.plane_id = P.id\nORDER BY FI.fiid\nLIMIT 1";
+	//counted with DBproject.count
+	static final String DOUBLE_BOOKED_SQL = "SELECT cid\nFROM Reservation\nWHERE fid = ?\nGROUP BY cid\nHAVING count(*) > 1";
+	static final String SEATED_SQL = "SELECT 1\nFROM Reservation\nWHERE fid = ? AND status <> 'W'";
+
+	/**
+	 * Method to run the stress test and print its figures.
+	 *
+	 * @param esql the connected database
+	 * @param fnum the flight to book
+	 * @param threads the number of concurrent booking threads
+	 * @param attempts the total number of booking attempts
+	 * @throws java.lang.Exception when a check failed or the run broke
+	 */
+	public static void run(final DBproject esql, final int fnum, int threads, int attempts) throws Exception {
+		List<List<String>> flight = esql.executeQueryAndReturnResult(FLIGHT_SEATS_SQL, fnum);
+		if (flight.isEmpty())
+			throw new SQLException("Flight " + fnum + " does not exist or has no plane assigned");
+		final int soldBefore = Integer.parseInt(flight.get(0).get(0));
+		final int seats = Integer.parseInt(flight.get(0).get(1));
+		long doubleBefore = esql.count(DOUBLE_BOOKED_SQL, fnum);
+		long seatedBefore = esql.count(SEATED_SQL, fnum);
+
+		final List<List<String>> customers = esql.executeQueryAndReturnResult("SELECT id FROM Customer ORDER BY id");
+		final Queue<Integer> created = new ConcurrentLinkedQueue<Integer>();
+		final AtomicInteger seated = new AtomicInteger();
+		final AtomicInteger waitlisted = new AtomicInteger();
+		final AtomicInteger existing = new AtomicInteger();
+		final AtomicInteger errors = new AtomicInteger();
+		final AtomicReference<SQLException> firstError = new AtomicReference<SQLException>();
+
+		System.out.printf("Flight %d: %d of %d seats sold, %d attempts on %d threads%n", fnum, soldBefore, seats, attempts, threads);
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		List<Future<?>> done = new ArrayList<Future<?>>();
+		long start = System.nanoTime();
+		for (int i = 0; i < attempts; ++i){
+			final int cid = Integer.parseInt(customers.get(i % customers.size()).get(0));
+			done.add(workers.submit(() -> {
+				try{
+					BookingEngine.Result r = esql.bookFlight(cid, fnum);
+					if (!r.created){
+						existing.incrementAndGet();
+						return;
+					}//end if
+					created.add(r.rnum);
+					if (r.status.equals("W")) waitlisted.incrementAndGet();
+					else seated.incrementAndGet();
+				}catch (SQLException e){
+					errors.incrementAndGet();
+					firstError.compareAndSet(null, e);
+				}//end try
+			}));
+		}//end for
+		for (Future<?> f : done)
+			f.get();
+		double secs = (System.nanoTime() - start) / 1e9;
+		workers.shutdown();
+		workers.awaitTermination(1, TimeUnit.MINUTES);
+
+		int soldAfter = Integer.parseInt(esql.executeQueryAndReturnResult(FLIGHT_SEATS_SQL, fnum).get(0).get(0));
+		long seatedRows = esql.count(SEATED_SQL, fnum) - seatedBefore;
+		long doubleAfter = esql.count(DOUBLE_BOOKED_SQL, fnum);
+
+		//restores the flight before reporting
+		for (Integer rnum : created)
+			esql.executeUpdate("DELETE FROM Reservation WHERE rnum = ? AND fid = ?", rnum, fnum);
+		esql.executeUpdate("UPDATE Flight SET num_sold = ? WHERE fnum = ?", soldBefore, fnum);
+		esql.invalidateSeats(fnum);
+
+		int oversold = Math.max(0, soldAfter - Math.max(seats, soldBefore));
+		long doubleBooked = doubleAfter - doubleBefore;
+		System.out.printf("%.2fs, %.0f bookings/sec: %d seated, %d waitlisted, %d already booked, %d errors%n",
+			secs, attempts / Math.max(secs, 1e-9), seated.get(), waitlisted.get(), existing.get(), errors.get());
+		System.out.printf("num_sold %d -> %d, oversold %d, double booked customers %d%n", soldBefore, soldAfter, oversold, doubleBooked);
+		if (firstError.get() != null)
+			System.out.println("First error: " + firstError.get().getMessage());
+
+		if (errors.get() > 0 || oversold > 0 || doubleBooked > 0 || soldAfter - soldBefore != seated.get() || seatedRows != seated.get())
+			throw new IllegalStateException("Booking stress test FAILED", firstError.get());
+		System.out.println("Booking stress test passed");
+	}//end run
+}//end BookingStress
@@ -0,0 +1,324 @@
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class loads the data/*.csv files from the client through the
+ * COPY ... FROM STDIN protocol, so the files do not have to be copied
+ * into the server's data directory first.  Tables without foreign keys
+ * are loaded in parallel on separate pooled connections, followed by the
+ * tables that reference them.  The rows may also come from another
+ * Source, e.g. a DataGenerator, in the same csv format.
+ *
+ */
+
+public class BulkLoader{
+	//bytes handed to the driver per CopyData message
+	static final int COPY_BUFFER_SIZE = 1 << 20;
+
+	/**
+	 * One table of sql/create.sql and the csv file it is loaded from.
+	 */
+	static class Table{
+		final String name;
+		final String file;
+		final String columns;
+
+		Table(String name, String file, String columns){
+			this.name = name;
+			this.file = file;
+			this.columns = columns;
+		}
+	}//end Table
+
+	//tables without foreign keys, loaded in parallel first
+	static final Table[] INDEPENDENT = {
+		new Table("Customer", "customer.csv", "id, fname, lname, gtype, dob, address, phone, zipcode"),
+		new Table("Pilot", "pilots.csv", "id, fullname, nationality"),
+		new Table("Plane", "planes.csv", "id, make, model, age, seats"),
+		new Table("Technician", "technician.csv", "id, full_name"),
+		new Table("Flight", "flights.csv", "fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport")
+	};
+
+	//tables that only reference INDEPENDENT ones, loaded in parallel once those are done
+	static final Table[] DEPENDENT = {
+		new Table("Reservation", "reservation.csv", "rnum, cid, fid, status"),
+		new Table("FlightInfo", "flightinfo.csv", "fiid, flight_id, pilot_id, plane_id"),
+		new Table("Repairs", "repairs.csv", "rid, repair_date, repair_code, pilot_id, plane_id, technician_id"),
+		new Table("Schedule", "schedule.csv", "id, flightNum, departure_time, arrival_time")
+	};
+
+	/**
+	 * Where the rows of a load come from.
+	 */
+	interface Source{
+		/**
+		 * @param loader the loader to copy with, see copyIn
+		 * @param tables tables loaded together, none referencing another
+		 * @return tasks copying the tables' rows, run concurrently, each
+		 *         returning the number of rows it copied
+		 */
+		List<Callable<Long>> copyTasks(BulkLoader loader, Table[] tables);
+	}//end Source
+
+	private final ConnectionPool _pool;
+
+	public BulkLoader(ConnectionPool pool){
+		this._pool = pool;
+	}
+
+	/**
+	 * Method to replace the contents of all nine tables with the csv files
+	 * in a directory.  Per-table throughput is printed to standard out.
+	 *
+	 * @param dataDir the directory holding the csv files
+	 * @param rebuildIndexes drop keys and indexes before the load and
+	 *        recreate them afterwards
+	 * @throws java.sql.SQLException when a COPY or DDL statement failed
+	 * @throws java.io.IOException when a csv file cannot be read
+	 */
+	public void load(final File dataDir, boolean rebuildIndexes) throws SQLException, IOException {
+		load((loader, tables) -> {
+			List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+			for (final Table table : tables)
+				tasks.add(() -> copyTable(table, dataDir));
+			return tasks;
+		}, rebuildIndexes);
+	}
+
+	/**
+	 * Method to replace the contents of all nine tables with the rows of a
+	 * source.
+	 *
+	 * @param source the rows of each table
+	 * @param rebuildIndexes drop keys and indexes before the load and
+	 *        recreate them afterwards
+	 * @throws java.sql.SQLException when a COPY or DDL statement failed
+	 * @throws java.io.IOException when the source failed to read its rows
+	 */
+	public void load(Source source, boolean rebuildIndexes) throws SQLException, IOException {
+		//a compact copy kept in step would cost every copied row an upsert
+		new CompactSchemaMigrator(this._pool).stopSync();
+		long start = System.nanoTime();
+		List<String> constraints = new ArrayList<String>();
+		List<String> foreignKeys = new ArrayList<String>();
+		List<String> indexes = new ArrayList<String>();
+
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			Statement stmt = conn.getConnection().createStatement();
+			stmt.executeUpdate("TRUNCATE " + tableList() + " CASCADE");
+			if (rebuildIndexes)
+				dropIndexes(stmt, constraints, foreignKeys, indexes);
+			stmt.close();
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+
+		invokeAll(source.copyTasks(this, INDEPENDENT));
+		invokeAll(source.copyTasks(this, DEPENDENT));
+		resetSequences();
+
+		if (rebuildIndexes){
+			long rebuild = System.nanoTime();
+			//keys and indexes are per table and independent, foreign keys need the keys first
+			runParallel(constraints);
+			runParallel(indexes);
+			runParallel(foreignKeys);
+			System.out.printf("Rebuilt %d keys, %d indexes and %d foreign keys in %.2fs%n",
+				constraints.size(), indexes.size(), foreignKeys.size(), (System.nanoTime() - rebuild) / 1e9);
+		}//end if
+		System.out.printf("Load finished in %.2fs%n", (System.nanoTime() - start) / 1e9);
+	}//end load
+
+	/**
+	 * Method to stream one csv file into its table on a pooled connection.
+	 *
+	 * @param table the table to load
+	 * @param dataDir the directory holding the csv file
+	 * @return the number of rows copied
+	 * @throws java.sql.SQLException when the COPY failed
+	 * @throws java.io.IOException when the csv file cannot be read
+	 */
+	public long copyTable(Table table, File dataDir) throws SQLException, IOException {
+		long start = System.nanoTime();
+		long rows;
+		try (InputStream from = new FileInputStream(new File(dataDir, table.file))){
+			rows = copyIn(table, from);
+		}//end try
+		double secs = (System.nanoTime() - start) / 1e9;
+		System.out.printf("%-12s %10d rows %8.2fs %12.0f rows/sec%n", table.name, rows, secs, rows / Math.max(secs, 1e-9));
+		return rows;
+	}//end copyTable
+
+	/**
+	 * Method to stream rows in the csv format of the data files into a
+	 * table, in one transaction on a pooled connection.
+	 *
+	 * @param table the table to load
+	 * @param from the rows, one line each
+	 * @return the number of rows copied
+	 * @throws java.sql.SQLException when the COPY failed
+	 * @throws java.io.IOException when the rows cannot be read
+	 */
+	public long copyIn(Table table, InputStream from) throws SQLException, IOException {
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			//the load is re-runnable, so it does not wait for the WAL flush
+			Statement stmt = c.createStatement();
+			stmt.execute("SET LOCAL synchronous_commit TO OFF");
+			stmt.close();
+
+			CopyManager copy = c.unwrap(PGConnection.class).getCopyAPI();
+			long rows = copy.copyIn("COPY " + table.name + " (" + table.columns + ") FROM STDIN WITH DELIMITER ','",
+				from, COPY_BUFFER_SIZE);
+			c.commit();
+			c.setAutoCommit(true);
+			return rows;
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}//end copyIn
+
+	//moves each table's key sequence past the loaded keys, the key is the first csv column
+	private void resetSequences() throws SQLException {
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			Statement stmt = conn.getConnection().createStatement();
+			for (Table[] phase : new Table[][]{ INDEPENDENT, DEPENDENT }){
+				for (Table t : phase){
+					String key = t.columns.substring(0, t.columns.indexOf(',')).toLowerCase();
+					stmt.executeQuery("SELECT setval(pg_get_serial_sequence('" + t.name.toLowerCase() + "', '" + key + "'), " +
+						"COALESCE(max(" + key + "), 0) + 1, false) FROM " + t.name).close();
+				}//end for
+			}//end for
+			stmt.close();
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}
+
+	//collects the DDL to recreate keys and indexes, then drops them
+	private static void dropIndexes(Statement stmt, List<String> constraints, List<String> foreignKeys,
+			List<String> indexes) throws SQLException {
+		String tables = "(" + regclassList() + ")";
+		List<String> drops = new ArrayList<String>();
+
+		ResultSet rs = stmt.executeQuery(
+			"SELECT conrelid::regclass, conname, contype, pg_get_constraintdef(oid) FROM pg_constraint " +
+			"WHERE conrelid IN " + tables + " AND contype IN ('p', 'u', 'f') ORDER BY contype = 'f' DESC");
+		while (rs.next()){
+			String add = "ALTER TABLE " + rs.getString(1) + " ADD CONSTRAINT " + quote(rs.getString(2)) + " " + rs.getString(4);
+			("f".equals(rs.getString(3)) ? foreignKeys : constraints).add(add);
+			drops.add("ALTER TABLE " + rs.getString(1) + " DROP CONSTRAINT " + quote(rs.getString(2)));
+		}//end while
+		rs.close();
+
+		//indexes that do not back a constraint
+		rs = stmt.executeQuery(
+			"SELECT indexrelid::regclass, pg_get_indexdef(indexrelid) FROM pg_index I " +
+			"WHERE indrelid IN " + tables + " AND NOT EXISTS (SELECT 1 FROM pg_constraint C WHERE C.conindid = I.indexrelid)");
+		List<String> indexDrops = new ArrayList<String>();
+		while (rs.next()){
+			indexes.add(rs.getString(2));
+			indexDrops.add("DROP INDEX " + rs.getString(1));
+		}//end while
+		rs.close();
+
+		//foreign keys come first in drops, so referenced keys are dropped after them
+		for (String sql : indexDrops)
+			stmt.executeUpdate(sql);
+		for (String sql : drops)
+			stmt.executeUpdate(sql);
+	}
+
+	//runs the given DDL statements concurrently, one pooled connection each
+	private void runParallel(List<String> statements) throws SQLException, IOException {
+		List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+		for (final String sql : statements){
+			tasks.add(() -> {
+				ConnectionPool.PooledConnection conn = this._pool.borrow();
+				try{
+					Statement stmt = conn.getConnection().createStatement();
+					stmt.executeUpdate(sql);
+					stmt.close();
+					return 0L;
+				}catch (SQLException e){
+					conn.checkBroken(e);
+					throw e;
+				}finally{
+					this._pool.release(conn);
+				}//end try
+			});
+		}//end for
+		invokeAll(tasks);
+	}
+
+	private void invokeAll(List<Callable<Long>> tasks) throws SQLException, IOException {
+		if (tasks.isEmpty())
+			return;
+		ExecutorService workers = Executors.newFixedThreadPool(Math.min(tasks.size(), this._pool.getMaxSize()));
+		try{
+			for (Future<Long> f : workers.invokeAll(tasks)){
+				try{
+					f.get();
+				}catch (ExecutionException e){
+					Throwable cause = e.getCause();
+					if (cause instanceof SQLException) throw (SQLException) cause;
+					if (cause instanceof IOException) throw (IOException) cause;
+					throw new RuntimeException(cause);
+				}//end try
+			}//end for
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while loading", e);
+		}finally{
+			workers.shutdownNow();
+		}//end try
+	}
+
+	private static String tableList(){
+		StringBuilder sb = new StringBuilder();
+		for (Table t : INDEPENDENT)
+			sb.append(sb.length() == 0 ? "" : ", ").append(t.name);
+		for (Table t : DEPENDENT)
+			sb.append(", ").append(t.name);
+		return sb.toString();
+	}
+
+	private static String regclassList(){
+		StringBuilder sb = new StringBuilder();
+		for (String name : tableList().split(", "))
+			sb.append(sb.length() == 0 ? "" : ", ").append("'").append(name.toLowerCase()).append("'::regclass");
+		return sb.toString();
+	}
+
+	private static String quote(String identifier){
+		return "\"" + identifier.replace("\"", "\"\"") + "\"";
+	}
+}//end BulkLoader
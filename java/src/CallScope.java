@@ -0,0 +1,100 @@
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class bounds the database work of one call in time and lets it be
+ * cancelled from another thread.  A scope is entered on the thread doing
+ * the work; the connection pool then limits its waits for a connection to
+ * the scope's deadline, and cancelling the scope cancels the statement
+ * running on the connection it holds through Statement.cancel.  Later
+ * statements and borrows of a cancelled scope fail with SQLSTATE 57014
+ * (query_canceled).
+ *
+ */
+
+public class CallScope{
+	static final String CANCELED_STATE = "57014";
+	private static final ThreadLocal<CallScope> CURRENT = new ThreadLocal<CallScope>();
+
+	//System.nanoTime() deadline, unused without a timeout
+	private final long _deadline;
+	private final long _timeoutMs;
+	private volatile boolean _cancelled = false;
+	//the connection the scope holds, guarded by this
+	private ConnectionPool.PooledConnection _conn = null;
+
+	/**
+	 * @param timeoutMs the time the call may take, or 0 for no limit
+	 */
+	public CallScope(long timeoutMs){
+		this._timeoutMs = Math.max(0, timeoutMs);
+		this._deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(this._timeoutMs);
+	}
+
+	/**
+	 * @return the scope entered on the calling thread, or null
+	 */
+	static CallScope current(){
+		return CURRENT.get();
+	}
+
+	/**
+	 * Method to make this the scope of the calling thread's database work.
+	 */
+	public void enter(){
+		CURRENT.set(this);
+	}
+
+	public void exit(){
+		CURRENT.remove();
+	}
+
+	/**
+	 * Method to cancel the call: the statement it is running, if any, is
+	 * cancelled on the server and its next statement or borrow fails.
+	 */
+	public synchronized void cancel(){
+		this._cancelled = true;
+		if (this._conn != null)
+			this._conn.cancel();
+	}
+
+	/**
+	 * @return true if the call was cancelled or ran past its deadline
+	 */
+	public boolean isCancelled(){
+		return this._cancelled || remainingNanos() == 0;
+	}
+
+	/**
+	 * @return the nanoseconds left before the deadline, 0 once it passed,
+	 *         Long.MAX_VALUE without a timeout
+	 */
+	public long remainingNanos(){
+		if (this._timeoutMs == 0)
+			return Long.MAX_VALUE;
+		return Math.max(0, this._deadline - System.nanoTime());
+	}
+
+	public long getTimeoutMs(){
+		return this._timeoutMs;
+	}
+
+	//fails if the scope may not start more work
+	void check() throws SQLException {
+		if (this._cancelled)
+			throw new SQLException("Call was cancelled", CANCELED_STATE);
+		if (remainingNanos() == 0)
+			throw new SQLException("Call timed out after " + this._timeoutMs + "ms", CANCELED_STATE);
+	}
+
+	synchronized void attach(ConnectionPool.PooledConnection conn){
+		this._conn = conn;
+	}
+
+	//waits for a cancel in progress, so it never reaches the next borrower
+	synchronized void detach(ConnectionPool.PooledConnection conn){
+		if (this._conn == conn)
+			this._conn = null;
+	}
+}//end CallScope
@@ -0,0 +1,361 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class migrates the database online to the compact layout of
+ * sql/create_compact.sql, and compares the two layouts.  The migration
+ * creates the compact schema next to the original tables, installs
+ * triggers that mirror every write to them, and copies the existing rows
+ * in short transactions, a range of keys at a time, so the application
+ * keeps reading and writing the original tables throughout.  The triggers
+ * are removed once the copy is verified, unless asked to keep the compact
+ * tables in step; they cost every write a second, dynamic upsert, so bulk
+ * loads and the scaling benchmark remove them before they start.
+ *
+ * The report prints, per table, the table and index sizes, the pages and
+ * server time of a sequential scan, and the time a client takes to fetch
+ * every row, for the original and the compact layout.
+ *
+ */
+
+public class CompactSchemaMigrator{
+	static final int DEFAULT_BATCH_ROWS = 10000;
+	//runs of each scan, the median is reported
+	static final int RUNS = 3;
+	static final int FETCH_SIZE = 10000;
+	static final String TABLES_SQL = "SELECT name, key FROM compact.synced ORDER BY load_order";
+	static final String BACKFILL_SQL = "SELECT compact.backfill(?, ?, ?)";
+	static final String SYNCING_SQL = "SELECT EXISTS (SELECT 1 FROM pg_trigger WHERE tgname = 'compact_sync')";
+	//table and index sizes, summed over the partitions of a partitioned table
+	static final String SIZES_SQL = "SELECT sum(pg_table_size(C.oid)), sum(pg_indexes_size(C.oid)) FROM pg_class C\nWHERE C.oid = to_regclass(?) OR C.oid IN (SELECT relid FROM pg_partition_tree(to_regclass(?)))";
+	//the lookup tables of the compact layout, counted in its totals
+	static final String[] COMPACT_ONLY = {"airport", "reservationstatus", "repaircode"};
+	static final Pattern BUFFERS = Pattern.compile("Buffers: shared(?: hit=(\\d+))?(?: read=(\\d+))?");
+
+	/**
+	 * One table in both layouts.
+	 */
+	static class Comparison{
+		final String name;
+		long rows;
+		final long[] tableBytes = new long[2];
+		final long[] indexBytes = new long[2];
+		final long[] pages = new long[2];
+		final double[] scanMs = new double[2];
+		final double[] fetchMs = new double[2];
+
+		Comparison(String name){
+			this.name = name;
+		}
+	}//end Comparison
+
+	private final ConnectionPool _pool;
+
+	public CompactSchemaMigrator(ConnectionPool pool){
+		this._pool = pool;
+	}
+
+	/**
+	 * Method to create the compact schema and fill it while the original
+	 * tables stay in use.  Running it again starts over.
+	 *
+	 * @param createSql sql/create_compact.sql
+	 * @param batchRows the keys copied per transaction
+	 * @param keepSync leave the triggers in place, so the compact tables stay in step
+	 * @throws java.sql.SQLException when a step failed or the row counts differ afterwards
+	 * @throws java.io.IOException when the file cannot be read
+	 */
+	public void migrate(File createSql, int batchRows, boolean keepSync) throws SQLException, IOException {
+		if (batchRows < 1)
+			throw new IllegalArgumentException("Invalid batch rows: " + batchRows);
+		String sql = new String(Files.readAllBytes(createSql.toPath()), StandardCharsets.UTF_8);
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			Connection c = conn.getConnection();
+			Statement stmt = c.createStatement();
+			try{
+				c.setAutoCommit(false);
+				stmt.execute(sql);
+				stmt.execute("SELECT compact.start_sync()");
+				c.commit();
+			}catch (SQLException e){
+				c.rollback();
+				throw e;
+			}finally{
+				c.setAutoCommit(true);
+			}//end try
+			System.out.println("Created the compact schema, writes are mirrored to it from now on");
+
+			List<String[]> tables = tables(stmt);
+			PreparedStatement backfill = c.prepareStatement(BACKFILL_SQL);
+			for (String[] t : tables){
+				long start = System.nanoTime();
+				long copied = 0;
+				ResultSet rs = stmt.executeQuery("SELECT min(" + t[1] + "), max(" + t[1] + ") FROM public." + t[0]);
+				rs.next();
+				long from = rs.getLong(1);
+				boolean empty = rs.wasNull();
+				long last = rs.getLong(2);
+				rs.close();
+				//each batch commits on its own, so its row locks are held briefly
+				for (long lo = from; !empty && lo <= last; lo += batchRows){
+					backfill.setString(1, t[0]);
+					backfill.setInt(2, (int) lo);
+					backfill.setInt(3, (int) Math.min(lo + batchRows, (long) Integer.MAX_VALUE));
+					rs = backfill.executeQuery();
+					rs.next();
+					copied += rs.getLong(1);
+					rs.close();
+				}//end for
+				System.out.printf(Locale.ROOT, "Copied %d rows of %s in %.2fs%n", copied, t[0], (System.nanoTime() - start) / 1e9);
+			}//end for
+			backfill.close();
+
+			long start = System.nanoTime();
+			stmt.execute("SELECT compact.finish_migration()");
+			System.out.printf(Locale.ROOT, "Added the foreign keys and indexes in %.2fs%n", (System.nanoTime() - start) / 1e9);
+
+			for (String[] t : tables){
+				//one statement, so both counts come from the same snapshot
+				ResultSet rs = stmt.executeQuery("SELECT (SELECT count(*) FROM public." + t[0] + "), (SELECT count(*) FROM compact." + t[0] + ")");
+				rs.next();
+				long original = rs.getLong(1);
+				long compact = rs.getLong(2);
+				rs.close();
+				if (original != compact)
+					throw new SQLException("compact." + t[0] + " has " + compact + " rows, public." + t[0] + " has " + original);
+			}//end for
+			if (keepSync){
+				System.out.println("Migration complete, the compact tables are kept in step until compact-stop-sync or compact-drop");
+			}else{
+				stmt.execute("SELECT compact.stop_sync()");
+				System.out.println("Migration complete, later writes are not copied to the compact tables");
+			}//end if
+			stmt.close();
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}//end migrate
+
+	/**
+	 * Method to measure every table in both layouts.
+	 *
+	 * @return the measurements, per table
+	 * @throws java.sql.SQLException when the compact schema is missing or a query failed
+	 */
+	public List<Comparison> compare() throws SQLException {
+		List<Comparison> result = new ArrayList<Comparison>();
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			Connection c = conn.getConnection();
+			Statement stmt = c.createStatement();
+			PreparedStatement sizes = c.prepareStatement(SIZES_SQL);
+			for (String[] t : tables(stmt)){
+				Comparison cmp = new Comparison(t[0]);
+				String[] names = {"public." + t[0], "compact." + t[0]};
+				for (int i = 0; i < names.length; ++i){
+					sizes.setString(1, names[i]);
+					sizes.setString(2, names[i]);
+					ResultSet rs = sizes.executeQuery();
+					rs.next();
+					cmp.tableBytes[i] = rs.getLong(1);
+					cmp.indexBytes[i] = rs.getLong(2);
+					rs.close();
+					scan(stmt, names[i], cmp, i);
+					cmp.fetchMs[i] = fetch(c, names[i], cmp);
+				}//end for
+				result.add(cmp);
+			}//end for
+			for (String name : COMPACT_ONLY){
+				Comparison cmp = new Comparison(name);
+				sizes.setString(1, "compact." + name);
+				sizes.setString(2, "compact." + name);
+				ResultSet rs = sizes.executeQuery();
+				rs.next();
+				cmp.tableBytes[1] = rs.getLong(1);
+				cmp.indexBytes[1] = rs.getLong(2);
+				rs.close();
+				result.add(cmp);
+			}//end for
+			sizes.close();
+			stmt.close();
+			return result;
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}//end compare
+
+	//median execution time and the pages of a sequential scan of a table, read from EXPLAIN
+	private static void scan(Statement stmt, String table, Comparison cmp, int layout) throws SQLException {
+		double[] ms = new double[RUNS];
+		for (int run = 0; run < RUNS; ++run){
+			ResultSet rs = stmt.executeQuery("EXPLAIN (ANALYZE, BUFFERS) SELECT * FROM " + table);
+			boolean topNode = true;
+			while (rs.next()){
+				String line = rs.getString(1);
+				Matcher m = BUFFERS.matcher(line);
+				if (topNode && m.find()){
+					cmp.pages[layout] = (m.group(1) == null ? 0 : Long.parseLong(m.group(1)))
+						+ (m.group(2) == null ? 0 : Long.parseLong(m.group(2)));
+					topNode = false;
+				}//end if
+				m = QueryPlanVerifier.EXECUTION_TIME.matcher(line);
+				if (m.find())
+					ms[run] = Double.parseDouble(m.group(1));
+			}//end while
+			rs.close();
+		}//end for
+		Arrays.sort(ms);
+		cmp.scanMs[layout] = ms[RUNS / 2];
+	}
+
+	//median milliseconds to stream every row of a table to the client
+	private static double fetch(Connection c, String table, Comparison cmp) throws SQLException {
+		double[] ms = new double[RUNS];
+		//the driver only fetches in batches inside a transaction
+		c.setAutoCommit(false);
+		try{
+			Statement stmt = c.createStatement();
+			stmt.setFetchSize(FETCH_SIZE);
+			for (int run = 0; run < RUNS; ++run){
+				long start = System.nanoTime();
+				ResultSet rs = stmt.executeQuery("SELECT * FROM " + table);
+				int columns = rs.getMetaData().getColumnCount();
+				long rows = 0;
+				while (rs.next()){
+					for (int i = 1; i <= columns; ++i)
+						rs.getString(i);
+					++rows;
+				}//end while
+				rs.close();
+				ms[run] = (System.nanoTime() - start) / 1e6;
+				cmp.rows = rows;
+			}//end for
+			stmt.close();
+			c.commit();
+		}finally{
+			c.setAutoCommit(true);
+		}//end try
+		Arrays.sort(ms);
+		return ms[RUNS / 2];
+	}
+
+	/**
+	 * Method to print the comparison of the two layouts, with totals.
+	 *
+	 * @param out the stream to print to
+	 * @throws java.sql.SQLException when the compact schema is missing or a query failed
+	 */
+	public void report(PrintStream out) throws SQLException {
+		List<Comparison> result = compare();
+		out.println("sizes in kB, times in ms, each as original / compact");
+		out.printf("%-18s %10s %17s %17s %17s %21s %21s%n", "table", "rows", "table", "indexes", "scan pages",
+			"scan ms", "fetch ms");
+		Comparison total = new Comparison("total");
+		for (Comparison cmp : result){
+			print(out, cmp);
+			total.rows += cmp.rows;
+			for (int i = 0; i < 2; ++i){
+				total.tableBytes[i] += cmp.tableBytes[i];
+				total.indexBytes[i] += cmp.indexBytes[i];
+				total.pages[i] += cmp.pages[i];
+				total.scanMs[i] += cmp.scanMs[i];
+				total.fetchMs[i] += cmp.fetchMs[i];
+			}//end for
+		}//end for
+		print(out, total);
+		long before = total.tableBytes[0] + total.indexBytes[0];
+		long after = total.tableBytes[1] + total.indexBytes[1];
+		if (before > 0)
+			out.printf(Locale.ROOT, "compact layout: %.1f%% smaller, sequential scans %.1f%% faster%n", 100.0 * (before - after) / before,
+				total.scanMs[0] == 0 ? 0 : 100.0 * (total.scanMs[0] - total.scanMs[1]) / total.scanMs[0]);
+	}
+
+	private static void print(PrintStream out, Comparison cmp){
+		out.printf(Locale.ROOT, "%-18s %10d %17s %17s %17s %21s %21s%n", cmp.name, cmp.rows,
+			cmp.tableBytes[0] / 1024 + " / " + cmp.tableBytes[1] / 1024,
+			cmp.indexBytes[0] / 1024 + " / " + cmp.indexBytes[1] / 1024,
+			cmp.pages[0] + " / " + cmp.pages[1],
+			String.format(Locale.ROOT, "%.1f / %.1f", cmp.scanMs[0], cmp.scanMs[1]),
+			String.format(Locale.ROOT, "%.1f / %.1f", cmp.fetchMs[0], cmp.fetchMs[1]));
+	}
+
+	/**
+	 * Method to stop mirroring writes to the compact tables, e.g. before a
+	 * bulk load.  The compact tables are left as they are, and stale.
+	 *
+	 * @return true if writes were being mirrored
+	 * @throws java.sql.SQLException when the triggers could not be removed
+	 */
+	public boolean stopSync() throws SQLException {
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			Statement stmt = conn.getConnection().createStatement();
+			ResultSet rs = stmt.executeQuery(SYNCING_SQL);
+			rs.next();
+			boolean syncing = rs.getBoolean(1);
+			rs.close();
+			if (syncing){
+				stmt.execute("SELECT compact.stop_sync()");
+				System.out.println("Stopped copying writes to the compact schema, it is left stale until compact-migrate runs again");
+			}//end if
+			stmt.close();
+			return syncing;
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}
+
+	/**
+	 * Method to drop the compact schema, with the triggers mirroring writes
+	 * to it.
+	 *
+	 * @throws java.sql.SQLException when the drop failed
+	 */
+	public void drop() throws SQLException {
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			Statement stmt = conn.getConnection().createStatement();
+			stmt.execute("DROP SCHEMA IF EXISTS compact CASCADE");
+			stmt.close();
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}
+
+	//the synced tables, parents first, as {name, key column}
+	private static List<String[]> tables(Statement stmt) throws SQLException {
+		List<String[]> tables = new ArrayList<String[]>();
+		ResultSet rs = stmt.executeQuery(TABLES_SQL);
+		while (rs.next())
+			tables.add(new String[]{rs.getString(1), rs.getString(2)});
+		rs.close();
+		return tables;
+	}
+}//end CompactSchemaMigrator
@@ -0,0 +1,350 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * This class defines a bounded pool of physical PostgreSQL connections.
+ * Borrowers wait in a fair queue for one of maxSize permits, idle
+ * connections beyond minSize are closed after idleTimeout, and idle
+ * connections are validated before they are handed out again.
+ *
+ */
+
+public class ConnectionPool{
+	//connections used more recently than this are not re-validated on borrow
+	static final long VALIDATION_BYPASS_MS = 500;
+	//seconds the driver waits for a validation round trip
+	static final int VALIDATION_TIMEOUT_SEC = 5;
+
+	/**
+	 * A physical connection together with its prepared statement cache.
+	 * Instances are only used by one borrower at a time.
+	 */
+	public static class PooledConnection{
+		private final ConnectionPool _pool;
+		private final Connection _connection;
+		private final StatementCache _statements;
+		private volatile long _lastUsed;
+		private boolean _broken = false;
+		//the statement last fetched, which a CallScope may cancel
+		private volatile PreparedStatement _current = null;
+
+		PooledConnection(ConnectionPool pool, Connection connection, StatementCache statements){
+			this._pool = pool;
+			this._connection = connection;
+			this._statements = statements;
+			this._lastUsed = System.currentTimeMillis();
+		}
+
+		public Connection getConnection(){
+			return this._connection;
+		}
+
+		/**
+		 * @return the pool the connection must be released to
+		 */
+		public ConnectionPool getPool(){
+			return this._pool;
+		}
+
+		/**
+		 * Method to fetch the cached prepared statement for a SQL template.
+		 *
+		 * @param sql the SQL template
+		 * @return the cached statement, which must not be closed
+		 * @throws java.sql.SQLException when the statement cannot be prepared
+		 */
+		public PreparedStatement prepare(String sql) throws SQLException {
+			CallScope scope = CallScope.current();
+			if (scope != null)
+				scope.check();
+			PreparedStatement stmt = this._statements.prepare(sql);
+			this._current = stmt;
+			return stmt;
+		}
+
+		//cancels the statement if it is executing, the driver ignores idle ones
+		void cancel(){
+			PreparedStatement stmt = this._current;
+			if (stmt == null)
+				return;
+			try{
+				stmt.cancel();
+			}catch (SQLException e){
+				// ignored, the statement finishes on its own.
+			}//end try
+		}
+
+		/**
+		 * Method to mark the connection as unusable when a statement failed
+		 * with a connection exception (SQLSTATE class 08).  Broken
+		 * connections are closed instead of returned to the pool.
+		 *
+		 * @param e the failure raised while using the connection
+		 */
+		public void checkBroken(SQLException e){
+			String state = e.getSQLState();
+			if (state != null && state.startsWith("08"))
+				this._broken = true;
+		}
+	}//end PooledConnection
+
+	private final String _url;
+	private final Properties _properties;
+	private final int _minSize;
+	private final int _maxSize;
+	private final long _idleTimeoutMs;
+	private final long _acquireTimeoutMs;
+	private final int _statementCacheSize;
+	private final int _prepareThreshold;
+
+	//one permit per connection a borrower may hold, handed out in FIFO order
+	private final Semaphore _permits;
+	//idle connections, most recently used first
+	private final ConcurrentLinkedDeque<PooledConnection> _idle = new ConcurrentLinkedDeque<PooledConnection>();
+	//every open connection, borrowed or idle
+	private final Set<PooledConnection> _all = ConcurrentHashMap.newKeySet();
+	private final AtomicInteger _size = new AtomicInteger();
+	private final ScheduledExecutorService _evictor;
+
+	//statement cache counters of connections that were already closed
+	private final AtomicLong _retiredHits = new AtomicLong();
+	private final AtomicLong _retiredMisses = new AtomicLong();
+	private final AtomicLong _timeouts = new AtomicLong();
+	private volatile boolean _closed = false;
+
+	public ConnectionPool(String url, Properties properties, int minSize, int maxSize, long idleTimeoutMs,
+			long acquireTimeoutMs, int statementCacheSize, int prepareThreshold) throws SQLException {
+		if (minSize < 0 || maxSize < 1 || minSize > maxSize)
+			throw new IllegalArgumentException("Invalid pool size: min " + minSize + ", max " + maxSize);
+		this._url = url;
+		this._properties = properties;
+		this._minSize = minSize;
+		this._maxSize = maxSize;
+		this._idleTimeoutMs = idleTimeoutMs;
+		this._acquireTimeoutMs = acquireTimeoutMs;
+		this._statementCacheSize = statementCacheSize;
+		this._prepareThreshold = prepareThreshold;
+		this._permits = new Semaphore(maxSize, true);
+
+		//opens the minimum number of connections up front, so a bad URL fails here
+		for (int i = 0; i < minSize; ++i)
+			this._idle.addFirst(open());
+
+		this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "pool-evictor");
+			t.setDaemon(true);
+			return t;
+		});
+		long period = Math.max(1000, idleTimeoutMs / 2);
+		this._evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to borrow a connection.  The caller waits in a fair queue
+	 * for at most the acquisition timeout and must hand the connection
+	 * back with release.  Inside a CallScope the wait also ends at the
+	 * scope's deadline, and the scope can cancel the connection's statements.
+	 *
+	 * @return a validated connection
+	 * @throws java.sql.SQLException when no connection became available in time
+	 */
+	public PooledConnection borrow() throws SQLException {
+		if (this._closed)
+			throw new SQLException("Connection pool is closed", "08003");
+		CallScope scope = CallScope.current();
+		long waitNanos = TimeUnit.MILLISECONDS.toNanos(this._acquireTimeoutMs);
+		if (scope != null){
+			scope.check();
+			waitNanos = Math.min(waitNanos, scope.remainingNanos());
+		}//end if
+		try{
+			if (!this._permits.tryAcquire(waitNanos, TimeUnit.NANOSECONDS)){
+				if (scope != null)
+					scope.check();
+				this._timeouts.incrementAndGet();
+				throw new SQLException("Timed out after " + this._acquireTimeoutMs + "ms waiting for a connection", "08001");
+			}//end if
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", "08001", e);
+		}//end try
+		return take(scope);
+	}//end borrow
+
+	/**
+	 * Method to borrow a connection only if one is free now, e.g. to pick
+	 * another server instead of queueing for a busy one.
+	 *
+	 * @return a validated connection, or null when every connection is borrowed
+	 * @throws java.sql.SQLException when the server cannot be reached
+	 */
+	public PooledConnection tryBorrow() throws SQLException {
+		if (this._closed)
+			throw new SQLException("Connection pool is closed", "08003");
+		CallScope scope = CallScope.current();
+		if (scope != null)
+			scope.check();
+		if (!this._permits.tryAcquire())
+			return null;
+		return take(scope);
+	}
+
+	//hands out a connection for a permit the caller acquired
+	private PooledConnection take(CallScope scope) throws SQLException {
+		try{
+			//reuses the warmest idle connection that still answers
+			PooledConnection conn;
+			while ((conn = this._idle.pollFirst()) != null){
+				if (isUsable(conn))
+					break;
+				discard(conn);
+			}//end while
+			if (conn == null)
+				conn = open();
+			conn._current = null;
+			if (scope != null)
+				scope.attach(conn);
+			return conn;
+		}catch (SQLException | RuntimeException e){
+			this._permits.release();
+			throw e;
+		}//end try
+	}
+
+	/**
+	 * Method to return a borrowed connection.  Open transactions are rolled
+	 * back, and broken connections are closed instead of pooled.
+	 *
+	 * @param conn the connection obtained from borrow
+	 */
+	public void release(PooledConnection conn){
+		CallScope scope = CallScope.current();
+		if (scope != null)
+			scope.detach(conn);
+		try{
+			if (conn._broken || this._closed){
+				discard(conn);
+				return;
+			}//end if
+			try{
+				if (!conn._connection.getAutoCommit()){
+					conn._connection.rollback();
+					conn._connection.setAutoCommit(true);
+				}//end if
+			}catch (SQLException e){
+				discard(conn);
+				return;
+			}//end try
+			conn._lastUsed = System.currentTimeMillis();
+			this._idle.addFirst(conn);
+		}finally{
+			this._permits.release();
+		}//end try
+	}//end release
+
+	public int getSize(){
+		return this._size.get();
+	}
+
+	public int getIdleCount(){
+		return this._idle.size();
+	}
+
+	public int getMaxSize(){
+		return this._maxSize;
+	}
+
+	/**
+	 * @return the connections borrowed and not yet released
+	 */
+	public int getBorrowedCount(){
+		return this._maxSize - this._permits.availablePermits();
+	}
+
+	public long getAcquireTimeouts(){
+		return this._timeouts.get();
+	}
+
+	public long getStatementCacheHits(){
+		long hits = this._retiredHits.get();
+		for (PooledConnection conn : this._all)
+			hits += conn._statements.getHits();
+		return hits;
+	}
+
+	public long getStatementCacheMisses(){
+		long misses = this._retiredMisses.get();
+		for (PooledConnection conn : this._all)
+			misses += conn._statements.getMisses();
+		return misses;
+	}
+
+	/**
+	 * Method to close every idle connection and stop the evictor.  Borrowed
+	 * connections are closed when they are released.
+	 */
+	public void close(){
+		this._closed = true;
+		this._evictor.shutdownNow();
+		PooledConnection conn;
+		while ((conn = this._idle.pollFirst()) != null)
+			discard(conn);
+	}//end close
+
+	private PooledConnection open() throws SQLException {
+		Connection connection = DriverManager.getConnection(this._url, this._properties);
+		PooledConnection conn = new PooledConnection(this, connection,
+			new StatementCache(connection, this._statementCacheSize, this._prepareThreshold));
+		this._all.add(conn);
+		this._size.incrementAndGet();
+		return conn;
+	}
+
+	private boolean isUsable(PooledConnection conn){
+		if (System.currentTimeMillis() - conn._lastUsed < VALIDATION_BYPASS_MS)
+			return true;
+		try{
+			return conn._connection.isValid(VALIDATION_TIMEOUT_SEC);
+		}catch (SQLException e){
+			return false;
+		}//end try
+	}
+
+	private void discard(PooledConnection conn){
+		if (!this._all.remove(conn))
+			return;
+		this._size.decrementAndGet();
+		this._retiredHits.addAndGet(conn._statements.getHits());
+		this._retiredMisses.addAndGet(conn._statements.getMisses());
+		conn._statements.close();
+		try{
+			conn._connection.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+
+	//closes connections idle for longer than the idle timeout, down to minSize
+	private void evictIdle(){
+		long cutoff = System.currentTimeMillis() - this._idleTimeoutMs;
+		Iterator<PooledConnection> it = this._idle.descendingIterator();
+		while (it.hasNext() && this._size.get() > this._minSize){
+			PooledConnection conn = it.next();
+			if (conn._lastUsed < cutoff && this._idle.removeLastOccurrence(conn))
+				discard(conn);
+		}//end while
+	}
+}//end ConnectionPool
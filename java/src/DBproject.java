@@ -11,18 +11,34 @@
  */
 
 
-import java.sql.DriverManager;
 import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.net.URI;
 import java.util.List;
+import java.util.Properties;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * This class defines a simple embedded SQL utility class that is designed to
@@ -31,19 +47,128 @@ import java.util.ArrayList;
  */
 
 public class DBproject{
-	//reference to physical database connection
-	private Connection _connection = null;
-	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	//number of prepared statements kept open per connection
+	static final int STATEMENT_CACHE_SIZE = 64;
+	//executions of a template before the driver prepares it server-side
+	static final int PREPARE_THRESHOLD = 3;
+	//rows per round trip when streaming a query through a cursor
+	static final int DEFAULT_FETCH_SIZE = 1000;
+	//operations per executeBatch and per commit in batch mode
+	static final int DEFAULT_BATCH_SIZE = 500;
+	static final int DEFAULT_COMMIT_INTERVAL = 5000;
+	//flights whose seat inventory is kept in memory
+	static final int SEAT_CACHE_SIZE = 10000;
+	//sequence values reserved per round trip by nextId
+	static final int ID_BLOCK_SIZE = 50;
+	static final String RESERVATION_SEQUENCE = "reservation_rnum_seq";
+	//median EXPLAIN ANALYZE execution time allowed per menu query
+	static final int DEFAULT_PLAN_BUDGET_MS = 5;
+	//seconds between dumps of the statistics to --stats-file
+	static final int DEFAULT_STATS_DUMP_SECS = 15;
+	//statistics names of the menu operations, by menu number, null for those not recorded
+	static final String[] MENU_OPERATIONS = {"1 add plane", "2 add pilot", "3 add flight", "4 add technician",
+		"5 book flight", "6 available seats", "7 repairs per plane", "8 repairs per year", "9 passengers with status",
+		null, "11 search routes", "12 departures in window"};
+
+	//parameterized SQL templates issued by the menu operations
+	static final String ADD_PLANE_SQL = "INSERT INTO Plane (id, make, model, age, seats) VALUES (?, ?, ?, ?, ?)";
+	static final String ADD_PILOT_SQL = "INSERT INTO Pilot (id, fullname, nationality) VALUES (?, ?, ?)";
+	static final String ADD_FLIGHT_SQL = "INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+	static final String ADD_TECHNICIAN_SQL = "INSERT INTO Technician (id, full_name) VALUES (?, ?)";
+	static final String CUSTOMER_EXISTS_SQL = "SELECT 1\nFROM Customer\nWHERE id = ?";
+	static final String FLIGHT_EXISTS_SQL = "SELECT 1\nFROM Flight\nWHERE fnum = ?";
+	static final String RESERVATION_STATUS_SQL = "SELECT status\nFROM Reservation\nWHERE cid = ? AND fid = ?";
+	static final String ADD_RESERVATION_SQL = "INSERT INTO Reservation (rnum, cid, fid, status) VALUES (?, ?, ?, ?)";
+	//the inventories of a comma-separated list of flights, one row each
+	static final String SEAT_INVENTORY_BATCH_SQL = "SELECT DISTINCT ON (F.fnum) F.fnum, P.seats, F.num_sold, F.actual_departure_date\nFROM Flight F, FlightInfo FI, Plane P\nWHERE F.fnum = ANY (string_to_array(?, ',')::int[]) AND FI.flight_id = F.fnum AND FI.plane_id = P.id\nORDER BY F.fnum, FI.fiid";
+	static final String SEAT_INVENTORY_SQL = "SELECT P.seats, F.num_sold, F.actual_departure_date\nFROM Flight F, FlightInfo FI, Plane P\nWHERE F.fnum = ? AND FI.flight_id = F.fnum AND FI.plane_id = P.id\nORDER BY FI.fiid\nLIMIT 1";
+	static final String REPAIRS_PER_PLANE_SQL = "SELECT plane_id as id, repair_count as count\nFROM RepairsPerPlane\nWHERE repair_count > 0\nORDER BY repair_count DESC";
+	static final String REPAIRS_PER_YEAR_SQL = "SELECT repair_year as \"Year\", repair_count as count\nFROM RepairsPerYear\nWHERE repair_count > 0\nORDER BY repair_count ASC";
+	static final String REBUILD_REPAIR_SUMMARIES_SQL = "SELECT rebuild_repair_summaries()";
+	static final String PASSENGERS_WITH_STATUS_SQL = "SELECT COUNT(*)\nFROM Reservation\nWHERE fid = ? AND status = ?";
+
+	//connection pool sizing, used by the four argument constructor
+	static final int POOL_MIN_SIZE = 1;
+	static final int POOL_MAX_SIZE = 8;
+	static final long POOL_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+	static final long POOL_ACQUIRE_TIMEOUT_MS = 30 * 1000;
+
+	//pool of physical database connections shared by all callers
+	private ConnectionPool _pool = null;
+	//the database, login and pool size, for the replicas' pools
+	private String _dbname = null;
+	private Properties _props = null;
+	private int _poolMax = POOL_MAX_SIZE;
+	//sends the reads of readOnly work to replicas, off unless configured
+	private volatile ReplicaRouter _replicas = null;
+	//plane capacity and seats sold per flight, for seat availability
+	private final SeatInventoryCache _seatCache = new SeatInventoryCache(SEAT_CACHE_SIZE);
+	//race-free seat booking on top of the pool
+	private BookingEngine _bookingEngine = null;
+	//keys from the DB sequences, reserved in blocks
+	private IdAllocator _ids = null;
+	//latency, rows, bytes and errors of every execute method and menu operation
+	private final StatsRegistry _stats = new StatsRegistry();
+	private final OperationStats _updateStats = this._stats.get("executeUpdate");
+	private final OperationStats _printStats = this._stats.get("executeQueryAndPrintResult");
+	private final OperationStats _returnStats = this._stats.get("executeQueryAndReturnResult");
+	private final OperationStats _typedStats = this._stats.get("executeQueryAndReturnTypedResult");
+	private final OperationStats _streamStats = this._stats.get("executeQueryAndStream");
+	private final OperationStats _queryStats = this._stats.get("executeQuery");
+	private final OperationStats _countStats = this._stats.get("count");
+	private final OperationStats _existsStats = this._stats.get("exists");
+	private final OperationStats _exportStats = this._stats.get("exportQuery");
+	private final OperationStats _bookStats = this._stats.get("bookFlight");
+	private final OperationStats _statusStats = this._stats.get("updateReservationStatus");
+	private final OperationStats _txStats = this._stats.get("inTransaction");
+	//itineraries over the Flight graph, built on first use
+	private RouteIndex _routes = null;
+	//departures by time window, built on first use
+	private DepartureIndex _departures = null;
+	//batches concurrent bookings into shared commits, off unless configured
+	private volatile GroupCommitBooker _groupCommit = null;
+	//runs calls on virtual threads, created on first use
+	private AsyncDBproject _async = null;
+	//Plane, Pilot, Technician and Customer mapped from a file, off unless configured
+	private volatile ReferenceSnapshot _snapshot = null;
+	private ScheduledExecutorService _snapshotRefresher = null;
+	//the time spent at a prompt is not counted against the menu operation
+	static BufferedReader in = new BufferedReader(new InputStreamReader(System.in)){
+		public String readLine() throws IOException {
+			long start = System.nanoTime ();
+			try{
+				return super.readLine ();
+			}finally{
+				StatsRegistry.addWait (System.nanoTime () - start);
+			}//end try
+		}
+	};
 	
 	public DBproject(String dbname, String dbport, String user, String passwd) throws SQLException {
+		this(dbname, dbport, user, passwd, POOL_MIN_SIZE, POOL_MAX_SIZE);
+	}
+
+	public DBproject(String dbname, String dbport, String user, String passwd, int poolMin, int poolMax) throws SQLException {
 		System.out.print("Connecting to database...");
 		try{
-			// constructs the connection URL
-			String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
+			// constructs the connection URL, strings are sent untyped so the
+			// server infers DATE and domain parameters from the template, and
+			// batched INSERTs are rewritten into multi-row statements
+			String url = url ("localhost", dbport, dbname);
 			System.out.println ("Connection URL: " + url + "\n");
 			
-			// obtain a physical connection
-	        this._connection = DriverManager.getConnection(url, user, passwd);
+			Properties props = new Properties();
+			props.setProperty("user", user);
+			props.setProperty("password", passwd);
+			this._dbname = dbname;
+			this._props = props;
+			this._poolMax = poolMax;
+
+			// opens the pool, which obtains the first physical connections
+	        this._pool = new ConnectionPool(url, props, poolMin, poolMax, POOL_IDLE_TIMEOUT_MS,
+	        	POOL_ACQUIRE_TIMEOUT_MS, STATEMENT_CACHE_SIZE, PREPARE_THRESHOLD);
+	        this._bookingEngine = new BookingEngine(this._pool);
+	        this._ids = new IdAllocator(this._pool, ID_BLOCK_SIZE);
 	        System.out.println("Done");
 		}catch(Exception e){
 			System.err.println("Error - Unable to Connect to Database: " + e.getMessage());
@@ -52,22 +177,39 @@ public class DBproject{
 		}
 	}
 	
+	static String url (String host, String port, String dbname){
+		return "jdbc:postgresql://" + host + ":" + port + "/" + dbname + "?stringtype=unspecified&reWriteBatchedInserts=true";
+	}
+
 	/**
 	 * Method to execute an update SQL statement.  Update SQL instructions
 	 * includes CREATE, INSERT, UPDATE, DELETE, and DROP.
 	 * 
-	 * @param sql the input SQL string
+	 * @param sql the input SQL string, with '?' placeholders for params
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows affected
 	 * @throws java.sql.SQLException when update failed
 	 * */
-	public void executeUpdate (String sql) throws SQLException { 
-		// creates a statement object
-		Statement stmt = this._connection.createStatement ();
-
-		// issues the update instruction
-		stmt.executeUpdate (sql);
+	public int executeUpdate (String sql, Object... params) throws SQLException { 
+		// borrows a connection and fetches its cached statement object
+		long start = System.nanoTime ();
+		ConnectionPool.PooledConnection conn = this._pool.borrow ();
+		try{
+			PreparedStatement stmt = conn.prepare (sql);
+			StatementCache.bind (stmt, params);
 
-		// close the instruction
-	    stmt.close ();
+			// issues the update instruction
+			int rowCount = stmt.executeUpdate ();
+			this._stats.record (this._updateStats, sql, params, start, rowCount, 0);
+			noteWrite (conn);
+			return rowCount;
+		}catch (SQLException e){
+			conn.checkBroken (e);
+			this._stats.recordError (this._updateStats, sql, params, start);
+			throw e;
+		}finally{
+			this._pool.release (conn);
+		}//end try
 	}//end executeUpdate
 
 	/**
@@ -75,42 +217,44 @@ public class DBproject{
 	 * method issues the query to the DBMS and outputs the results to
 	 * standard out.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with '?' placeholders for params
+	 * @param params the values bound to the placeholders
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQueryAndPrintResult (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQueryAndPrintResult (String query, Object... params) throws SQLException {
+		//borrows a connection and fetches its cached statement object
+		long start = System.nanoTime ();
+		ConnectionPool.PooledConnection conn = borrowRead ();
+		try{
+			PreparedStatement stmt = conn.prepare (query);
+			StatementCache.bind (stmt, params);
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
 
-		/*
-		 *  obtains the metadata object for the returned result set.  The metadata
-		 *  contains row and column info.
-		 */
-		ResultSetMetaData rsmd = rs.getMetaData ();
-		int numCol = rsmd.getColumnCount ();
-		int rowCount = 0;
-		
-		//iterates through the result set and output them to standard out.
-		boolean outputHeader = true;
-		while (rs.next()){
-			if(outputHeader){
-				for(int i = 1; i <= numCol; i++){
-					System.out.print(rsmd.getColumnName(i) + "\t");
-			    }
-			    System.out.println();
-			    outputHeader = false;
-			}
-			for (int i=1; i<=numCol; ++i)
-				System.out.print (rs.getString (i) + "\t");
-			System.out.println ();
-			++rowCount;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			/*
+			 *  renders the result set to standard out through a buffer, with the
+			 *  column names read from the metadata once.
+			 */
+			ResultRenderer renderer = new ResultRenderer (new OutputStreamWriter (System.out),
+				ResultRenderer.Format.TEXT, ResultRenderer.DEFAULT_BUFFER_SIZE);
+			int rowCount = (int) renderer.render (rs);
+			renderer.flush ();
+			rs.close ();
+			this._stats.record (this._printStats, query, params, start, rowCount, renderer.getCharsWritten ());
+			return rowCount;
+		}catch (IOException e){
+			//standard out is a PrintStream, which does not throw
+			this._stats.recordError (this._printStats, query, params, start);
+			throw new SQLException ("Unable to print the result: " + e.getMessage (), e);
+		}catch (SQLException e){
+			conn.checkBroken (e);
+			this._stats.recordError (this._printStats, query, params, start);
+			throw e;
+		}finally{
+			conn.getPool ().release (conn);
+		}//end try
 	}
 	
 	/**
@@ -118,92 +262,925 @@ public class DBproject{
 	 * method issues the query to the DBMS and returns the results as
 	 * a list of records. Each record in turn is a list of attribute values
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with '?' placeholders for params
+	 * @param params the values bound to the placeholders
 	 * @return the query result as a list of records
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException { 
-		//creates a statement object 
-		Statement stmt = this._connection.createStatement (); 
-		
-		//issues the query instruction 
-		ResultSet rs = stmt.executeQuery (query); 
-	 
-		/*
-		 * obtains the metadata object for the returned result set.  The metadata 
-		 * contains row and column info. 
-		*/ 
-		ResultSetMetaData rsmd = rs.getMetaData (); 
-		int numCol = rsmd.getColumnCount (); 
-		int rowCount = 0; 
-	 
-		//iterates through the result set and saves the data returned by the query. 
-		boolean outputHeader = false;
-		List<List<String>> result  = new ArrayList<List<String>>(); 
-		while (rs.next()){
-			List<String> record = new ArrayList<String>(); 
-			for (int i=1; i<=numCol; ++i) 
-				record.add(rs.getString (i)); 
-			result.add(record); 
-		}//end while 
-		stmt.close (); 
-		return result; 
+	public List<List<String>> executeQueryAndReturnResult (String query, Object... params) throws SQLException { 
+		//borrows a connection and fetches its cached statement object 
+		long start = System.nanoTime ();
+		ConnectionPool.PooledConnection conn = borrowRead ();
+		try{
+			PreparedStatement stmt = conn.prepare (query); 
+			StatementCache.bind (stmt, params);
+			
+			//issues the query instruction 
+			ResultSet rs = stmt.executeQuery (); 
+		 
+			/*
+			 * obtains the metadata object for the returned result set.  The metadata 
+			 * contains row and column info. 
+			*/ 
+			ResultSetMetaData rsmd = rs.getMetaData (); 
+			int numCol = rsmd.getColumnCount (); 
+			int rowCount = 0; 
+			long bytes = 0;
+		 
+			//iterates through the result set and saves the data returned by the query. 
+			boolean outputHeader = false;
+			List<List<String>> result  = new ArrayList<List<String>>(); 
+			while (rs.next()){
+				List<String> record = new ArrayList<String>(); 
+				for (int i=1; i<=numCol; ++i){
+					String value = rs.getString (i);
+					if (value != null)
+						bytes += value.length ();
+					record.add(value); 
+				}//end for
+				result.add(record); 
+			}//end while 
+			rs.close (); 
+			this._stats.record (this._returnStats, query, params, start, result.size (), bytes);
+			return result; 
+		}catch (SQLException e){
+			conn.checkBroken (e);
+			this._stats.recordError (this._returnStats, query, params, start);
+			throw e;
+		}finally{
+			conn.getPool ().release (conn);
+		}//end try
 	}//end executeQueryAndReturnResult
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
+	 * method issues the query to the DBMS and returns the results decoded
+	 * into columnar, primitive-typed buffers, chosen from the result set
+	 * metadata.
+	 * 
+	 * @param query the input query string, with '?' placeholders for params
+	 * @param params the values bound to the placeholders
+	 * @return the query result as typed columns
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public TypedResult executeQueryAndReturnTypedResult (String query, Object... params) throws SQLException {
+		return executeQueryAndReturnTypedResult (new TypedResult (), query, params);
+	}
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * decode the results into an existing typed result, reusing its buffers.
+	 * 
+	 * @param result the typed result to refill
+	 * @param query the input query string, with '?' placeholders for params
+	 * @param params the values bound to the placeholders
+	 * @return result, holding the rows of this query
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public TypedResult executeQueryAndReturnTypedResult (TypedResult result, String query, Object... params) throws SQLException {
+		//borrows a connection and fetches its cached statement object
+		long start = System.nanoTime ();
+		ConnectionPool.PooledConnection conn = borrowRead ();
+		try{
+			PreparedStatement stmt = conn.prepare (query);
+			StatementCache.bind (stmt, params);
+
+			//issues the query instruction and decodes every row
+			ResultSet rs = stmt.executeQuery ();
+			result.fill (rs);
+			rs.close ();
+			this._stats.record (this._typedStats, query, params, start, result.getRowCount (), result.getByteSize ());
+			return result;
+		}catch (SQLException e){
+			conn.checkBroken (e);
+			this._stats.recordError (this._typedStats, query, params, start);
+			throw e;
+		}finally{
+			conn.getPool ().release (conn);
+		}//end try
+	}//end executeQueryAndReturnTypedResult
+
+	/**
+	 * Method to execute an input query SQL instruction (i.e. SELECT) and
+	 * stream the results to a handler.  The query runs inside a read
+	 * transaction with the given fetch size, so the driver pulls rows from
+	 * a server-side cursor and only one batch is held in memory at a time.
+	 * 
+	 * @param query the input query string, with '?' placeholders for params
+	 * @param fetchSize the number of rows fetched per round trip
+	 * @param handler receives each row, and may stop the query early
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows passed to the handler
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long executeQueryAndStream (String query, int fetchSize, RowHandler handler, Object... params) throws SQLException {
+		//borrows a connection, cursors only exist inside a transaction
+		long start = System.nanoTime ();
+		ConnectionPool.PooledConnection conn = borrowRead ();
+		PreparedStatement stmt = null;
+		try{
+			conn.getConnection ().setAutoCommit (false);
+			stmt = conn.prepare (query);
+			StatementCache.bind (stmt, params);
+			stmt.setFetchSize (fetchSize);
+
+			//issues the query instruction
+			ResultSet rs = stmt.executeQuery ();
+
+			//hands each row to the handler until it asks to stop
+			long rowCount = 0;
+			while (rs.next()){
+				++rowCount;
+				if (!handler.handleRow (rs))
+					break;
+			}//end while
+			rs.close ();
+			conn.getConnection ().commit ();
+			conn.getConnection ().setAutoCommit (true);
+			this._stats.record (this._streamStats, query, params, start, rowCount, 0);
+			return rowCount;
+		}catch (SQLException e){
+			conn.checkBroken (e);
+			this._stats.recordError (this._streamStats, query, params, start);
+			throw e;
+		}finally{
+			//the statement is cached, later callers expect the default fetch size
+			if (stmt != null){
+				try{
+					stmt.setFetchSize (0);
+				}catch (SQLException e){
+					// ignored.
+				}//end try
+			}//end if
+			conn.getPool ().release (conn);
+		}//end try
+	}//end executeQueryAndStream
+
+	/**
+	 * Method to stream the results of a query with the default fetch size.
+	 * 
+	 * @param query the input query string, with '?' placeholders for params
+	 * @param handler receives each row, and may stop the query early
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows passed to the handler
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long executeQueryAndStream (String query, RowHandler handler, Object... params) throws SQLException {
+		return executeQueryAndStream (query, DEFAULT_FETCH_SIZE, handler, params);
+	}
 	
 	/**
 	 * Method to execute an input query SQL instruction (i.e. SELECT).  This
-	 * method issues the query to the DBMS and returns the number of results
+	 * method issues the query to the DBMS and returns the number of results.
+	 * The rows are counted by the server, see count.
 	 * 
-	 * @param query the input query string
+	 * @param query the input query string, with '?' placeholders for params
+	 * @param params the values bound to the placeholders
 	 * @return the number of rows returned
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
-	public int executeQuery (String query) throws SQLException {
-		//creates a statement object
-		Statement stmt = this._connection.createStatement ();
+	public int executeQuery (String query, Object... params) throws SQLException {
+		return (int) countRows (this._queryStats, query, params);
+	}
 
-		//issues the query instruction
-		ResultSet rs = stmt.executeQuery (query);
+	/**
+	 * Method to count the rows of a query without fetching them.  The query
+	 * is wrapped in SELECT count(*) FROM (...), so only the count crosses
+	 * the wire.
+	 * 
+	 * @param query the input query string, with '?' placeholders for params
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows the query returns
+	 * @throws java.sql.SQLException when failed to execute the query
+	 */
+	public long count (String query, Object... params) throws SQLException {
+		return countRows (this._countStats, query, params);
+	}
 
-		int rowCount = 0;
+	private long countRows (OperationStats op, String query, Object[] params) throws SQLException {
+		String sql = "SELECT count(*) FROM (" + subquery (query) + ") q";
+		//borrows a connection and fetches its cached statement object
+		long start = System.nanoTime ();
+		ConnectionPool.PooledConnection conn = borrowRead ();
+		try{
+			PreparedStatement stmt = conn.prepare (sql);
+			StatementCache.bind (stmt, params);
+			stmt.setMaxRows (1);
 
-		//iterates through the result set and count nuber of results.
-		if(rs.next()){
-			rowCount++;
-		}//end while
-		stmt.close ();
-		return rowCount;
+			//issues the query instruction, the one row holds the count
+			ResultSet rs = stmt.executeQuery ();
+			rs.next ();
+			long rowCount = rs.getLong (1);
+			rs.close ();
+			this._stats.record (op, sql, params, start, rowCount, 8);
+			return rowCount;
+		}catch (SQLException e){
+			conn.checkBroken (e);
+			this._stats.recordError (op, sql, params, start);
+			throw e;
+		}finally{
+			conn.getPool ().release (conn);
+		}//end try
 	}
-	
+
 	/**
-	 * Method to fetch the last value from sequence. This
-	 * method issues the query to the DBMS and returns the current 
-	 * value of sequence used for autogenerated keys
+	 * Method to test whether a query returns any row.  The query is
+	 * wrapped in SELECT EXISTS (...), so the server stops at the first row
+	 * found, e.g. after one index probe, and sends back a single boolean.
 	 * 
-	 * @param sequence name of the DB sequence
-	 * @return current value of a sequence
+	 * @param query the input query string, with '?' placeholders for params
+	 * @param params the values bound to the placeholders
+	 * @return true if the query returns at least one row
 	 * @throws java.sql.SQLException when failed to execute the query
 	 */
+	public boolean exists (String query, Object... params) throws SQLException {
+		String sql = "SELECT EXISTS (" + subquery (query) + ")";
+		//borrows a connection and fetches its cached statement object
+		long start = System.nanoTime ();
+		ConnectionPool.PooledConnection conn = borrowRead ();
+		try{
+			PreparedStatement stmt = conn.prepare (sql);
+			StatementCache.bind (stmt, params);
+			stmt.setMaxRows (1);
+
+			//issues the query instruction, the one row holds the answer
+			ResultSet rs = stmt.executeQuery ();
+			rs.next ();
+			boolean found = rs.getBoolean (1);
+			rs.close ();
+			this._stats.record (this._existsStats, sql, params, start, found ? 1 : 0, 1);
+			return found;
+		}catch (SQLException e){
+			conn.checkBroken (e);
+			this._stats.recordError (this._existsStats, sql, params, start);
+			throw e;
+		}finally{
+			conn.getPool ().release (conn);
+		}//end try
+	}
+
+	//drops the terminating semicolon, which is not allowed in a subquery
+	private static String subquery (String query){
+		int end = query.length ();
+		while (end > 0 && (Character.isWhitespace (query.charAt (end - 1)) || query.charAt (end - 1) == ';'))
+			--end;
+		return end == query.length () ? query : query.substring (0, end);
+	}
+
+	/**
+	 * Method to report how often a SQL template was served from the
+	 * prepared statement caches of the pooled connections.
+	 * 
+	 * @return the number of cache hits
+	 */
+	public long getStatementCacheHits(){
+		return this._pool.getStatementCacheHits();
+	}
+
+	/**
+	 * Method to report how often a SQL template had to be prepared.
+	 * 
+	 * @return the number of cache misses
+	 */
+	public long getStatementCacheMisses(){
+		return this._pool.getStatementCacheMisses();
+	}
+
+	/**
+	 * Method to expose the operation statistics, e.g. to attribute calls
+	 * to a menu operation or to configure the slow query log.
+	 * 
+	 * @return the statistics of the execute methods and menu operations
+	 */
+	public StatsRegistry getStats(){
+		return this._stats;
+	}
+
+	/**
+	 * Method to print the operation statistics followed by the figures of
+	 * the connection pool and the caches.
+	 * 
+	 * @param out the stream to print to
+	 */
+	public void printStats(PrintStream out){
+		this._stats.print (out);
+		out.printf ("connection pool: %d open, %d idle, max %d, %d acquire timeouts%n", this._pool.getSize (),
+			this._pool.getIdleCount (), this._pool.getMaxSize (), this._pool.getAcquireTimeouts ());
+		out.printf ("statement cache: %d hits, %d misses%n", getStatementCacheHits (), getStatementCacheMisses ());
+		out.printf ("seat cache: %d flights, %.1f%% hit rate, %d evictions%n", this._seatCache.size (),
+			this._seatCache.getHitRate () * 100, this._seatCache.getEvictions ());
+		ReplicaRouter replicas = this._replicas;
+		if (replicas != null)
+			replicas.print (out);
+	}
+
+	/**
+	 * Method to expose the asynchronous facade, which runs calls on virtual
+	 * threads, at most as many at a time as the pool has connections.
+	 * 
+	 * @return the asynchronous facade of this database
+	 */
+	public synchronized AsyncDBproject async(){
+		if (this._async == null)
+			this._async = new AsyncDBproject (this);
+		return this._async;
+	}
+
+	/**
+	 * Method to expose the connection pool, e.g. to size worker threads
+	 * after its maximum.
+	 * 
+	 * @return the connection pool shared by all execute methods
+	 */
+	public ConnectionPool getPool(){
+		return this._pool;
+	}
+
+	/**
+	 * Method to send the reads of readOnly work to streaming replicas of
+	 * the database, with the same name, login and pool size.  A replica
+	 * that cannot be reached yet is used once it answers.
+	 * 
+	 * @param endpoints the replicas, as host:port, or a port on localhost
+	 * @param policy how a read picks among the replicas
+	 * @throws java.sql.SQLException when a replica's pool cannot be created
+	 */
+	public synchronized void setReplicas(String[] endpoints, ReplicaRouter.Policy policy) throws SQLException {
+		ConnectionPool[] pools = new ConnectionPool[endpoints.length];
+		for (int i = 0; i < endpoints.length; ++i){
+			String endpoint = endpoints[i].trim ();
+			int colon = endpoint.lastIndexOf (':');
+			//opens no connection up front, so a replica that is down does not stop the start
+			pools[i] = new ConnectionPool (url (colon < 0 ? "localhost" : endpoint.substring (0, colon), endpoint.substring (colon + 1), this._dbname),
+				this._props, 0, this._poolMax, POOL_IDLE_TIMEOUT_MS, POOL_ACQUIRE_TIMEOUT_MS, STATEMENT_CACHE_SIZE, PREPARE_THRESHOLD);
+		}//end for
+		ReplicaRouter previous = this._replicas;
+		this._replicas = endpoints.length == 0 ? null : new ReplicaRouter (this._pool, endpoints, pools, policy);
+		if (previous != null)
+			previous.close ();
+	}
+
+	/**
+	 * Method to run read-only work, e.g. a report.  With replicas
+	 * configured its queries go to a replica that has replayed the writes
+	 * this thread made, or to the primary when none has.  Writes inside the
+	 * work still go to the primary.
+	 * 
+	 * @param work the work to run
+	 * @return the value returned by the work
+	 * @throws java.lang.Exception when the work failed
+	 */
+	public <T> T readOnly(AsyncDBproject.Call<T> work) throws Exception {
+		ReplicaRouter replicas = this._replicas;
+		if (replicas == null)
+			return work.call (this);
+		replicas.enter ();
+		try{
+			return work.call (this);
+		}finally{
+			replicas.exit ();
+		}//end try
+	}
+
+	/**
+	 * @return the primary WAL position this thread's reads must see, 0 without replicas
+	 */
+	public long getSessionLsn(){
+		ReplicaRouter replicas = this._replicas;
+		return replicas == null ? 0 : replicas.getSessionLsn ();
+	}
+
+	/**
+	 * Method to carry the reads-see-writes position of a thread to another,
+	 * e.g. to the thread of an asynchronous call.
+	 * 
+	 * @param lsn a position returned by getSessionLsn
+	 */
+	public void setSessionLsn(long lsn){
+		ReplicaRouter replicas = this._replicas;
+		if (replicas != null)
+			replicas.setSessionLsn (lsn);
+	}
+
+	//borrows for a query, from a replica inside readOnly work
+	private ConnectionPool.PooledConnection borrowRead () throws SQLException {
+		ReplicaRouter replicas = this._replicas;
+		return replicas == null ? this._pool.borrow () : replicas.borrow ();
+	}
+
+	//records the primary's WAL position after this thread wrote, on the connection held or a new one
+	private void noteWrite (ConnectionPool.PooledConnection conn){
+		ReplicaRouter replicas = this._replicas;
+		if (replicas != null)
+			replicas.noteWrite (conn);
+	}
+
+	//queries the primary even inside readOnly work, for results cached for every thread
+	private TypedResult queryPrimary (String query, Object... params) throws SQLException {
+		ReplicaRouter replicas = this._replicas;
+		if (replicas == null)
+			return executeQueryAndReturnTypedResult (query, params);
+		int depth = replicas.suspend ();
+		try{
+			return executeQueryAndReturnTypedResult (query, params);
+		}finally{
+			replicas.resume (depth);
+		}//end try
+	}
 	
-	public int getCurrSeqVal(String sequence) throws SQLException {
-		Statement stmt = this._connection.createStatement ();
-		
-		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-		if (rs.next()) return rs.getInt(1);
-		return -1;
+	/**
+	 * Method to book a flight for a customer in one short transaction.  The
+	 * flight's row is locked while the seat is counted, so concurrent
+	 * bookings never oversell the plane or book a customer twice.
+	 * 
+	 * The reservation number is taken from reservation_rnum_seq.  With
+	 * group commit enabled the booking commits together with the other
+	 * bookings queued at the time.
+	 * 
+	 * @param cid the customer id
+	 * @param fid the flight number
+	 * @return the reservation, 'R' if a seat was taken, 'W' if the flight is full
+	 * @throws java.sql.SQLException when the booking failed, nothing was written
+	 */
+	public BookingEngine.Result bookFlight(int cid, int fid) throws SQLException {
+		long start = System.nanoTime ();
+		GroupCommitBooker group = this._groupCommit;
+		try{
+			int rnum = nextId (RESERVATION_SEQUENCE);
+			BookingEngine.Result result = group != null ? group.book (cid, fid, rnum) : this._bookingEngine.book (cid, fid, rnum);
+			if (result.created){
+				this._seatCache.invalidate (fid);
+				noteWrite (null);
+			}//end if
+			this._stats.record (this._bookStats, BookingEngine.BOOK_SQL, new Object[]{ cid, fid }, start, result.created ? 1 : 0, 0);
+			return result;
+		}catch (SQLException e){
+			//a group commit that timed out may still commit the booking
+			if (group != null && CallScope.CANCELED_STATE.equals (e.getSQLState ())){
+				this._seatCache.invalidate (fid);
+				noteWrite (null);
+			}//end if
+			this._stats.recordError (this._bookStats, BookingEngine.BOOK_SQL, new Object[]{ cid, fid }, start);
+			throw e;
+		}//end try
 	}
 
 	/**
-	 * Method to close the physical connection if it is open.
+	 * Method to turn group commit of bookings on or off.  It needs the
+	 * book_flights function of migration V002.
+	 * 
+	 * @param maxBatch the most bookings per commit, 0 to turn group commit off
+	 * @param maxDelayMicros the time a batch waits to fill, 0 for none
+	 * @param committers the number of batches committing at a time
 	 */
-	public void cleanup(){
+	public synchronized void setGroupCommit(int maxBatch, int maxDelayMicros, int committers){
+		GroupCommitBooker previous = this._groupCommit;
+		this._groupCommit = maxBatch > 0 ? new GroupCommitBooker (this._pool, maxBatch, maxDelayMicros, committers) : null;
+		if (previous != null)
+			previous.close ();
+	}
+
+	/**
+	 * Method to run the statements of one logical operation as a single
+	 * transaction on one connection: autocommit is turned off, the work
+	 * runs, its queued statements are sent and the transaction commits
+	 * once.  The transaction is rolled back if the work throws.
+	 * 
+	 * @param work the statements to run, through the given Transaction
+	 * @return the value returned by the work
+	 * @throws java.sql.SQLException when a statement or the commit failed
+	 */
+	public <T> T inTransaction(Transaction.Work<T> work) throws SQLException {
+		long start = System.nanoTime ();
+		ConnectionPool.PooledConnection conn = this._pool.borrow ();
+		Transaction tx = new Transaction (conn);
 		try{
-			if (this._connection != null){
-				this._connection.close ();
+			Connection c = conn.getConnection ();
+			c.setAutoCommit (false);
+			T result = work.run (tx);
+			tx.flush ();
+			c.commit ();
+			c.setAutoCommit (true);
+			this._stats.record (this._txStats, null, null, start, 0, 0);
+			noteWrite (conn);
+			return result;
+		}catch (SQLException e){
+			conn.checkBroken (e);
+			this._stats.recordError (this._txStats, null, null, start);
+			throw e;
+		}finally{
+			tx.discard ();
+			//rolls back anything left uncommitted
+			this._pool.release (conn);
+		}//end try
+	}//end inTransaction
+
+	/**
+	 * Method to change the status of a reservation, taking or freeing its
+	 * seat on the flight as needed.
+	 * 
+	 * @param cid the customer id
+	 * @param fid the flight number
+	 * @param status the new status, W, R or C
+	 * @return the updated reservation, or null if there is none
+	 * @throws java.sql.SQLException when the flight is full or the update failed
+	 */
+	public BookingEngine.Result updateReservationStatus(int cid, int fid, String status) throws SQLException {
+		long start = System.nanoTime ();
+		try{
+			BookingEngine.Result result;
+			try{
+				result = this._bookingEngine.updateStatus (cid, fid, status);
+				noteWrite (null);
+			}catch (SQLException e){
+				if (!BookingEngine.UNDEFINED_FUNCTION_STATE.equals (e.getSQLState ()))
+					throw e;
+				//without V002 the statements are sent from here, inTransaction notes the write
+				result = inTransaction (tx -> BookingEngine.updateStatus (tx, cid, fid, status));
+			}//end try
+			this._seatCache.invalidate (fid);
+			this._stats.record (this._statusStats, BookingEngine.SET_STATUS_SQL, new Object[]{ cid, fid, status }, start, result == null ? 0 : 1, 0);
+			return result;
+		}catch (SQLException e){
+			this._stats.recordError (this._statusStats, BookingEngine.SET_STATUS_SQL, new Object[]{ cid, fid, status }, start);
+			throw e;
+		}//end try
+	}
+
+	/**
+	 * Method to find the number of available seats of a flight, i.e. the
+	 * capacity of its plane minus the seats sold.  The answer is served
+	 * from the seat inventory cache, which is filled on a miss.
+	 * 
+	 * @param fnum the flight number
+	 * @param departure the departure date to match, or null for any
+	 * @return the available seats, or -1 if no such flight departs then
+	 * @throws java.sql.SQLException when failed to load the flight
+	 */
+	public int getAvailableSeats(int fnum, LocalDate departure) throws SQLException {
+		SeatInventoryCache.Entry entry = this._seatCache.get (fnum);
+		if (entry == null){
+			long generation = this._seatCache.generation ();
+			TypedResult rs = queryPrimary (SEAT_INVENTORY_SQL, fnum);
+			if (rs.getRowCount () == 0)
+				return -1;
+			entry = new SeatInventoryCache.Entry (rs.getInt (0, 0), rs.getInt (0, 1), rs.getLong (0, 2));
+			this._seatCache.put (fnum, entry, generation);
+		}//end if
+		if (departure != null && departure.toEpochDay () != entry.departureDay)
+			return -1;
+		return entry.available ();
+	}
+
+	/**
+	 * Method to look up the available seats of many flights, with one
+	 * query for all the flights missing from the seat inventory cache.
+	 * 
+	 * @param fnums the flight numbers
+	 * @return the available seats of each flight, -1 for flights without a plane
+	 * @throws java.sql.SQLException when the query failed
+	 */
+	public int[] getAvailableSeats(int[] fnums) throws SQLException {
+		int[] seats = new int[fnums.length];
+		StringBuilder missing = new StringBuilder ();
+		for (int i = 0; i < fnums.length; ++i){
+			SeatInventoryCache.Entry entry = this._seatCache.get (fnums[i]);
+			seats[i] = entry == null ? -1 : entry.available ();
+			if (entry == null)
+				missing.append (missing.length () == 0 ? "" : ",").append (fnums[i]);
+		}//end for
+		if (missing.length () == 0)
+			return seats;
+
+		long generation = this._seatCache.generation ();
+		TypedResult rs = queryPrimary (SEAT_INVENTORY_BATCH_SQL, missing.toString ());
+		Map<Integer, SeatInventoryCache.Entry> loaded = new HashMap<Integer, SeatInventoryCache.Entry> ();
+		for (int row = 0; row < rs.getRowCount (); ++row){
+			SeatInventoryCache.Entry entry = new SeatInventoryCache.Entry (rs.getInt (row, 1), rs.getInt (row, 2), rs.getLong (row, 3));
+			loaded.put (rs.getInt (row, 0), entry);
+			this._seatCache.put (rs.getInt (row, 0), entry, generation);
+		}//end for
+		for (int i = 0; i < fnums.length; ++i){
+			SeatInventoryCache.Entry entry = loaded.get (fnums[i]);
+			if (seats[i] < 0 && entry != null)
+				seats[i] = entry.available ();
+		}//end for
+		return seats;
+	}
+
+	/**
+	 * Method to drop a flight from the seat inventory cache after its
+	 * bookings, seats sold or plane changed.
+	 * 
+	 * @param fnum the flight number
+	 */
+	public void invalidateSeats(int fnum){
+		this._seatCache.invalidate (fnum);
+	}
+
+	/**
+	 * Method to add a flight, keeping the seat inventory cache and the
+	 * route index current.
+	 * 
+	 * @param fnum the flight number
+	 * @param cost the cost of a seat
+	 * @param numSold the seats already sold
+	 * @param numStops the number of stops
+	 * @param departure the departure date, yyyy-MM-dd with an optional HH:mm
+	 * @param arrival the arrival date, yyyy-MM-dd with an optional HH:mm
+	 * @param arrivalAirport the airport code it arrives at
+	 * @param departureAirport the airport code it leaves from
+	 * @return the number of rows inserted
+	 * @throws java.sql.SQLException when the insert failed
+	 * @throws java.time.DateTimeException when a date is not in either form, nothing was inserted
+	 */
+	public int addFlight(int fnum, int cost, int numSold, int numStops, String departure, String arrival,
+			String arrivalAirport, String departureAirport) throws SQLException {
+		//the indexes parse the dates after the insert commits, so they must parse now
+		RouteIndex.parseMinute (departure);
+		RouteIndex.parseMinute (arrival);
+		int rows = executeUpdate (ADD_FLIGHT_SQL, fnum, cost, numSold, numStops, departure, arrival, arrivalAirport, departureAirport);
+		invalidateSeats (fnum);
+		RouteIndex routes;
+		DepartureIndex departures;
+		synchronized (this){
+			routes = this._routes;
+			departures = this._departures;
+		}//end synchronized
+		if (routes != null)
+			routes.add (fnum, cost, departureAirport, arrivalAirport, departure, arrival);
+		if (departures != null)
+			departures.add (fnum, departureAirport, departure, arrival);
+		return rows;
+	}
+
+	/**
+	 * Method to fetch the route index, loading it from Flight and Schedule
+	 * on first use.  Flights added through addFlight are added to it.
+	 * 
+	 * @return the route index
+	 * @throws java.sql.SQLException when the flights cannot be read
+	 */
+	public synchronized RouteIndex getRouteIndex() throws SQLException {
+		if (this._routes == null){
+			long start = System.nanoTime ();
+			this._routes = RouteIndex.load (this);
+			System.out.printf ("Indexed %d flight legs between %d airports in %.0f ms%n", this._routes.getLegCount (),
+				this._routes.getAirportCount (), (System.nanoTime () - start) / 1e6);
+		}//end if
+		return this._routes;
+	}
+
+	/**
+	 * Method to drop the in-memory indexes after flights were written
+	 * around addFlight, so they are rebuilt on next use.
+	 */
+	public synchronized void invalidateFlightIndexes(){
+		this._routes = null;
+		this._departures = null;
+	}
+
+	/**
+	 * Method to fetch the departure index, loading it from Schedule and
+	 * Flight on first use.  Flights added through addFlight are added to it.
+	 * 
+	 * @return the departure index
+	 * @throws java.sql.SQLException when the schedule cannot be read
+	 */
+	public synchronized DepartureIndex getDepartureIndex() throws SQLException {
+		if (this._departures == null){
+			long start = System.nanoTime ();
+			this._departures = DepartureIndex.load (this);
+			System.out.printf ("Indexed %d departures from %d airports in %.0f ms%n", this._departures.size (),
+				this._departures.getAirportCount (), (System.nanoTime () - start) / 1e6);
+		}//end if
+		return this._departures;
+	}
+
+	/**
+	 * Method to answer reference lookups from a snapshot file, writing it
+	 * first when it does not exist.  With a refresh period the file is
+	 * rewritten in the background and the new snapshot swapped in once
+	 * mapped, so lookups never wait for a reload.
+	 * 
+	 * @param file the snapshot file
+	 * @param refreshSecs the seconds between rewrites, 0 for none
+	 * @throws java.sql.SQLException when the tables cannot be read
+	 * @throws java.io.IOException when the file cannot be written or mapped
+	 */
+	public void useSnapshot(File file, int refreshSecs) throws SQLException, IOException {
+		long start = System.nanoTime ();
+		if (!file.exists ())
+			ReferenceSnapshot.write (this, file);
+		ReferenceSnapshot snapshot = ReferenceSnapshot.open (file);
+		this._snapshot = snapshot;
+		System.out.printf ("Mapped reference snapshot of %d rows (%d bytes) in %.1f ms%n", snapshot.getRowCount (),
+			snapshot.getByteSize (), (System.nanoTime () - start) / 1e6);
+		synchronized (this){
+			if (this._snapshotRefresher != null)
+				this._snapshotRefresher.shutdownNow ();
+			this._snapshotRefresher = null;
+			if (refreshSecs > 0){
+				this._snapshotRefresher = Executors.newSingleThreadScheduledExecutor (r -> {
+					Thread t = new Thread (r, "snapshot-refresh");
+					t.setDaemon (true);
+					return t;
+				});
+				this._snapshotRefresher.scheduleWithFixedDelay (() -> refreshSnapshot (file), refreshSecs, refreshSecs, TimeUnit.SECONDS);
 			}//end if
+		}//end synchronized
+	}
+
+	//rewrites the snapshot file and swaps the new snapshot in, on the refresh thread
+	private void refreshSnapshot(File file){
+		try{
+			ReferenceSnapshot.write (this, file);
+			this._snapshot = ReferenceSnapshot.open (file);
+		}catch (Exception e){
+			//keeps serving the previous snapshot
+			System.err.println ("Reference snapshot refresh failed: " + e.getMessage ());
+		}//end try
+	}
+
+	/**
+	 * @return the reference snapshot in use, or null when there is none
+	 */
+	public ReferenceSnapshot getSnapshot(){
+		return this._snapshot;
+	}
+
+	/**
+	 * Method to check a customer exists, from the reference snapshot when
+	 * it holds the customer.  Customers added after the snapshot was
+	 * written are looked up in the database.
+	 * 
+	 * @param cid the customer id
+	 * @return true if the customer exists
+	 * @throws java.sql.SQLException when the lookup failed
+	 */
+	public boolean customerExists(int cid) throws SQLException {
+		ReferenceSnapshot snapshot = this._snapshot;
+		if (snapshot != null && snapshot.contains (ReferenceSnapshot.Table.CUSTOMER, cid))
+			return true;
+		return exists (CUSTOMER_EXISTS_SQL, cid);
+	}
+
+	/**
+	 * @return the seat inventory cache, for its hit-rate statistics
+	 */
+	public SeatInventoryCache getSeatCache(){
+		return this._seatCache;
+	}
+
+	/**
+	 * Method to allocate the next key of a sequence.  Keys are served from
+	 * blocks reserved ahead of time, so most calls do not reach the DBMS.
+	 * Safe to call from several threads.
+	 * 
+	 * @param sequence name of the DB sequence
+	 * @return a new key of the sequence
+	 * @throws java.sql.SQLException when failed to reserve a block of keys
+	 */
+	public int nextId(String sequence) throws SQLException {
+		return this._ids.next (sequence);
+	}
+
+	/**
+	 * Method to recompute the repair summary tables behind menu options 7
+	 * and 8 from the full repair history.  The triggers on Repairs keep
+	 * them current otherwise.
+	 * 
+	 * @throws java.sql.SQLException when the rebuild failed
+	 */
+	public void rebuildRepairSummaries() throws SQLException {
+		executeQueryAndReturnResult (REBUILD_REPAIR_SUMMARIES_SQL);
+	}
+
+	/**
+	 * Method to apply the schema migrations of a directory that have not
+	 * been applied to this database yet.
+	 * 
+	 * @param dir the directory holding the V<version>__<description>.sql files
+	 * @return the number of migrations applied
+	 * @throws java.sql.SQLException when a migration failed
+	 * @throws java.io.IOException when a migration file cannot be read
+	 */
+	public int migrate(File dir) throws SQLException, IOException {
+		return new SchemaMigrator (this._pool).migrate (dir);
+	}
+
+	/**
+	 * Method to EXPLAIN ANALYZE the queries behind the menu options and the
+	 * booking path and check that each uses its index within a budget.
+	 * 
+	 * @param budgetMs the allowed median execution time per query
+	 * @return true if every query passed
+	 * @throws java.sql.SQLException when a query failed
+	 */
+	public boolean verifyPlans(double budgetMs) throws SQLException {
+		return new QueryPlanVerifier (this._pool, budgetMs).verify ();
+	}
+
+	/**
+	 * Method to export the result of a query to a file.
+	 * 
+	 * @param query the input query string, with '?' placeholders for params
+	 * @param file the file to write, replaced if it exists
+	 * @param format TSV, CSV or JSONL
+	 * @param useCopy stream the rows with COPY ... TO STDOUT, which takes no params
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows exported
+	 * @throws java.sql.SQLException when failed to execute the query
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public long exportQuery(String query, File file, ResultRenderer.Format format, boolean useCopy, Object... params) throws SQLException, IOException {
+		long start = System.nanoTime ();
+		try{
+			if (useCopy && params.length > 0)
+				throw new SQLException ("COPY export does not take bind parameters");
+			ResultExporter exporter = new ResultExporter (this._pool);
+			long rows = useCopy ? exporter.copyOut (query, file, format) : exporter.export (query, file, format, params);
+			this._stats.record (this._exportStats, query, params, start, rows, file.length ());
+			return rows;
 		}catch (SQLException e){
-	         // ignored.
+			this._stats.recordError (this._exportStats, query, params, start);
+			throw e;
+		}//end try
+	}
+
+	/**
+	 * Method to replace the contents of all tables with the csv files in a
+	 * directory.  The files are streamed from this client through COPY,
+	 * independent tables in parallel followed by the ones referencing them.
+	 * 
+	 * @param dataDir the directory holding the data/*.csv files
+	 * @param rebuildIndexes drop keys and indexes around the load
+	 * @throws java.sql.SQLException when a COPY statement failed
+	 * @throws java.io.IOException when a csv file cannot be read
+	 */
+	public void bulkLoad(File dataDir, boolean rebuildIndexes) throws SQLException, IOException {
+		new BulkLoader (this._pool).load (dataDir, rebuildIndexes);
+		noteWrite (null);
+		this._seatCache.clear ();
+		invalidateFlightIndexes ();
+	}
+
+	/**
+	 * Method to replace all tables with a generated dataset, copied
+	 * straight from the generator without csv files.
+	 * 
+	 * @param generator the dataset
+	 * @param rebuildIndexes drop keys and indexes before the load and
+	 *        recreate them afterwards
+	 * @throws java.sql.SQLException when a COPY or DDL statement failed
+	 * @throws java.io.IOException when generating rows failed
+	 */
+	public void loadGenerated(DataGenerator generator, boolean rebuildIndexes) throws SQLException, IOException {
+		generator.load (new BulkLoader (this._pool), rebuildIndexes);
+		noteWrite (null);
+		this._seatCache.clear ();
+		invalidateFlightIndexes ();
+	}
+
+	/**
+	 * Method to run the add operations of an operations file in JDBC
+	 * batches.  Rejected lines are reported and skipped.
+	 * 
+	 * @param opsFile the operations file, one operation per line
+	 * @param batchSize the number of like operations sent per executeBatch
+	 * @param commitInterval the number of operations per transaction
+	 * @return the number of rejected operations
+	 * @throws java.sql.SQLException when the connection failed
+	 * @throws java.io.IOException when the file cannot be read
+	 */
+	public long executeBatchFile(File opsFile, int batchSize, int commitInterval) throws SQLException, IOException {
+		try{
+			return new BatchRunner (this._pool, batchSize, commitInterval).run (opsFile);
+		}finally{
+			noteWrite (null);
+			this._seatCache.clear ();
+			invalidateFlightIndexes ();
 		}//end try
+	}
+
+	/**
+	 * Method to close the pooled physical connections.
+	 */
+	public void cleanup(){
+		synchronized (this){
+			if (this._async != null)
+				this._async.shutdown ();
+			if (this._groupCommit != null)
+				this._groupCommit.close ();
+			if (this._snapshotRefresher != null)
+				this._snapshotRefresher.shutdownNow ();
+			if (this._replicas != null)
+				this._replicas.close ();
+		}//end synchronized
+		this._stats.close ();
+		if (this._pool != null){
+			this._pool.close ();
+		}//end if
 	}//end cleanup
 
 	/**
@@ -212,10 +1189,11 @@ public class DBproject{
 	 * @param args the command line arguments this inclues the <mysql|pgsql> <login file>
 	 */
 	public static void main (String[] args) {
-		if (args.length != 3) {
+		if (args.length < 3) {
 			System.err.println (
 				"Usage: " + "java [-classpath <classpath>] " + DBproject.class.getName () +
-		            " <dbname> <port> <user>");
+		            " <dbname> <port> <user> [command] [options]");
+			printCommands ();
 			return;
 		}//end if
 		
@@ -239,6 +1217,25 @@ public class DBproject{
 			String user = args[2];
 			
 			esql = new DBproject (dbname, dbport, user, "");
+
+			//options after the connection arguments, e.g. --slow-ms, apply to both modes
+			String[] cmd = Arrays.copyOfRange (args, 3, args.length);
+			applyStatsOptions (esql, cmd);
+			int groupCommit = intOption (cmd, "--group-commit", 0);
+			if (groupCommit > 0)
+				esql.setGroupCommit (groupCommit, intOption (cmd, "--group-commit-delay-us", 0), intOption (cmd, "--committers", 2));
+			String replicas = stringOption (cmd, "--replicas", null);
+			if (replicas != null)
+				esql.setReplicas (replicas.split (","), ReplicaRouter.Policy.parse (stringOption (cmd, "--read-routing", "round-robin")));
+			String snapshot = stringOption (cmd, "--snapshot", null);
+			if (snapshot != null)
+				esql.useSnapshot (new File (snapshot), intOption (cmd, "--snapshot-refresh-secs", 0));
+
+			//runs one non-interactive command instead of the menu
+			if (cmd.length > 0 && !cmd[0].startsWith ("--")) {
+				runCommand (esql, cmd);
+				return;
+			}//end if
 			
 			boolean keepon = true;
 			while(keepon){
@@ -253,20 +1250,32 @@ public class DBproject{
 				System.out.println("7. List total number of repairs per plane in descending order");
 				System.out.println("8. List total number of repairs per year in ascending order");
 				System.out.println("9. Find total number of passengers with a given status");
-				System.out.println("10. < EXIT");
+				System.out.println("10. Show statistics");
+				System.out.println("11. Search routes between two airports");
+				System.out.println("12. List flights departing in a time window");
+				System.out.println("13. < EXIT");
 				
-				switch (readChoice()){
+				int choice = readChoice();
+				//attributes the database work of a menu operation to it
+				if (choice >= 1 && choice <= MENU_OPERATIONS.length && MENU_OPERATIONS[choice - 1] != null)
+					esql.getStats ().beginOperation (MENU_OPERATIONS[choice - 1]);
+				switch (choice){
 					case 1: AddPlane(esql); break;
 					case 2: AddPilot(esql); break;
 					case 3: AddFlight(esql); break;
 					case 4: AddTechnician(esql); break;
 					case 5: BookFlight(esql); break;
-					case 6: ListNumberOfAvailableSeats(esql); break;
-					case 7: ListsTotalNumberOfRepairsPerPlane(esql); break;
-					case 8: ListTotalNumberOfRepairsPerYear(esql); break;
-					case 9: FindPassengersCountWithStatus(esql); break;
-					case 10: keepon = false; break;
+					//the reports only read, so they may run on a replica
+					case 6: esql.readOnly (e -> { ListNumberOfAvailableSeats(e); return null; }); break;
+					case 7: esql.readOnly (e -> { ListsTotalNumberOfRepairsPerPlane(e); return null; }); break;
+					case 8: esql.readOnly (e -> { ListTotalNumberOfRepairsPerYear(e); return null; }); break;
+					case 9: esql.readOnly (e -> { FindPassengersCountWithStatus(e); return null; }); break;
+					case 10: esql.printStats (System.out); break;
+					case 11: SearchRoutes(esql); break;
+					case 12: ListDeparturesInWindow(esql); break;
+					case 13: keepon = false; break;
 				}
+				esql.getStats ().endOperation ();
 			}
 		}catch(Exception e){
 			System.err.println (e.getMessage ());
@@ -283,6 +1292,271 @@ public class DBproject{
 		}
 	}
 
+	/**
+	 * Method to run a non-interactive command given after the connection
+	 * arguments.
+	 * 
+	 * @param esql the connected database
+	 * @param cmd the command name followed by its arguments
+	 * @throws java.lang.Exception when the command failed
+	 */
+	public static void runCommand(DBproject esql, String[] cmd) throws Exception {
+		switch (cmd[0]){
+			case "load":
+				if (cmd.length < 2) break;
+				esql.bulkLoad (new File (cmd[1]), Arrays.asList (cmd).contains ("--rebuild-indexes"));
+				return;
+			case "generate":
+				if (cmd.length < 2) break;
+				DataGenerator generator = new DataGenerator (Double.parseDouble (cmd[1]), intOption (cmd, "--seed", 1),
+					intOption (cmd, "--threads", Runtime.getRuntime ().availableProcessors ()));
+				String outDir = stringOption (cmd, "--out", null);
+				if (outDir != null)
+					generator.write (new File (outDir));
+				else
+					esql.loadGenerated (generator, Arrays.asList (cmd).contains ("--rebuild-indexes"));
+				return;
+			case "batch":
+				if (cmd.length < 2) break;
+				esql.executeBatchFile (new File (cmd[1]), intOption (cmd, "--batch-size", DEFAULT_BATCH_SIZE),
+					intOption (cmd, "--commit-every", DEFAULT_COMMIT_INTERVAL));
+				return;
+			case "stress-booking":
+				if (cmd.length < 2) break;
+				BookingStress.run (esql, Integer.parseInt (cmd[1]), intOption (cmd, "--threads", 16),
+					intOption (cmd, "--attempts", 2000));
+				return;
+			case "rebuild-summaries":
+				esql.rebuildRepairSummaries ();
+				System.out.println ("Repair summaries rebuilt");
+				return;
+			case "migrate":
+				if (cmd.length < 2) break;
+				esql.migrate (new File (cmd[1]));
+				return;
+			case "compact-migrate":
+				if (cmd.length < 2) break;
+				CompactSchemaMigrator compact = new CompactSchemaMigrator (esql.getPool ());
+				compact.migrate (new File (cmd[1]), intOption (cmd, "--batch-rows", CompactSchemaMigrator.DEFAULT_BATCH_ROWS),
+					Arrays.asList (cmd).contains ("--keep-sync"));
+				compact.report (System.out);
+				return;
+			case "compact-report":
+				new CompactSchemaMigrator (esql.getPool ()).report (System.out);
+				return;
+			case "compact-stop-sync":
+				if (!new CompactSchemaMigrator (esql.getPool ()).stopSync ())
+					System.out.println ("Writes were not being copied to the compact schema");
+				return;
+			case "compact-drop":
+				new CompactSchemaMigrator (esql.getPool ()).drop ();
+				System.out.println ("Compact schema dropped");
+				return;
+			case "verify-plans":
+				if (!esql.verifyPlans (intOption (cmd, "--budget-ms", DEFAULT_PLAN_BUDGET_MS)))
+					throw new IllegalStateException ("Query plan verification FAILED");
+				return;
+			case "export":
+				if (cmd.length < 3) break;
+				File file = new File (cmd[1]);
+				String format = stringOption (cmd, "--format", null);
+				long start = System.nanoTime ();
+				long rows = esql.exportQuery (cmd[2], file, format == null ? ResultRenderer.Format.forFile (file) : ResultRenderer.Format.parse (format),
+					Arrays.asList (cmd).contains ("--copy"));
+				System.out.printf ("Exported %d rows to %s in %.2fs%n", rows, file, (System.nanoTime () - start) / 1e9);
+				return;
+			case "reports":
+				if (cmd.length < 3) break;
+				printReports (esql, Integer.parseInt (cmd[1]), cmd[2], intOption (cmd, "--timeout-ms", (int) AsyncDBproject.DEFAULT_TIMEOUT_MS));
+				return;
+			case "bench":
+				String only = stringOption (cmd, "--only", null);
+				String[] counts = stringOption (cmd, "--threads", "1," + esql.getPool ().getMaxSize ()).split (",");
+				int[] threadCounts = new int[counts.length];
+				for (int i = 0; i < counts.length; ++i)
+					threadCounts[i] = Integer.parseInt (counts[i].trim ());
+				new Benchmarks (esql).run (only == null ? null : Arrays.asList (only.split (",")), threadCounts,
+					intOption (cmd, "--warmup-secs", 5), intOption (cmd, "--secs", 10),
+					stringOption (cmd, "--label", null), new File (stringOption (cmd, "--out", "benchmarks.json")));
+				return;
+			case "bench-scale":
+				String sizeList = stringOption (cmd, "--sizes", null);
+				int[] sizes = ReservationScaling.DEFAULT_SIZES;
+				if (sizeList != null){
+					String[] parts = sizeList.split (",");
+					sizes = new int[parts.length];
+					for (int i = 0; i < parts.length; ++i)
+						sizes[i] = Integer.parseInt (parts[i].trim ());
+				}//end if
+				new ReservationScaling (esql, intOption (cmd, "--per-flight", 100)).run (sizes, intOption (cmd, "--threads", 4),
+					intOption (cmd, "--warmup-secs", 5), intOption (cmd, "--secs", 10), Arrays.asList (cmd).contains ("--keep"),
+					stringOption (cmd, "--label", null), new File (stringOption (cmd, "--out", "scaling.json")));
+				return;
+			case "serve":
+				ReservationServer server = new ReservationServer (esql,
+					intOption (cmd, "--max-inflight", esql.getPool ().getMaxSize () * ReservationServer.IN_FLIGHT_PER_CONNECTION),
+					intOption (cmd, "--timeout-ms", (int) ReservationServer.DEFAULT_TIMEOUT_MS));
+				server.start (intOption (cmd, "--port", ReservationServer.DEFAULT_PORT));
+				CountDownLatch stopped = new CountDownLatch (1);
+				Thread serving = Thread.currentThread ();
+				Runtime.getRuntime ().addShutdownHook (new Thread (() -> {
+					server.stop ();
+					stopped.countDown ();
+					//lets main disconnect from the database before the JVM exits
+					try{
+						serving.join (5000);
+					}catch (InterruptedException e){
+					}//end try
+				}));
+				stopped.await ();
+				System.out.println ("Stopped after rejecting " + server.getRejected () + " requests");
+				return;
+			case "routes":
+				if (cmd.length < 5) break;
+				printRoutes (esql, cmd[1], cmd[2], RouteIndex.parseMinute (cmd[3]), RouteIndex.parseWindowEnd (cmd[4]),
+					RouteIndex.Rank.valueOf (stringOption (cmd, "--by", "cost").toUpperCase ()),
+					intOption (cmd, "--max-legs", RouteIndex.DEFAULT_MAX_LEGS),
+					intOption (cmd, "--min-connect-mins", RouteIndex.DEFAULT_MIN_CONNECT_MINUTES),
+					intOption (cmd, "--max-layover-mins", RouteIndex.DEFAULT_MAX_LAYOVER_MINUTES),
+					intOption (cmd, "--limit", 10));
+				return;
+			case "departures":
+				if (cmd.length < 3) break;
+				printDepartures (esql, RouteIndex.parseMinute (cmd[1]), RouteIndex.parseWindowEnd (cmd[2]),
+					stringOption (cmd, "--airport", null), intOption (cmd, "--limit", 50));
+				return;
+			case "snapshot":
+				if (cmd.length < 2) break;
+				long writeStart = System.nanoTime ();
+				long written = ReferenceSnapshot.write (esql, new File (cmd[1]));
+				System.out.printf ("Wrote %d reference rows to %s in %.2fs%n", written, cmd[1], (System.nanoTime () - writeStart) / 1e9);
+				return;
+			case "load-test":
+				LoadTestClient client = new LoadTestClient (URI.create (stringOption (cmd, "--url", "http://127.0.0.1:" + ReservationServer.DEFAULT_PORT)),
+					intOption (cmd, "--clients", 64));
+				int secs = intOption (cmd, "--secs", 10);
+				client.run (intOption (cmd, "--warmup-secs", 2), secs,
+					sampleKeys (esql, "SELECT fnum FROM Flight ORDER BY random() LIMIT 1000"),
+					sampleKeys (esql, "SELECT id FROM Customer ORDER BY random() LIMIT 1000"),
+					Double.parseDouble (stringOption (cmd, "--book-ratio", "0")));
+				client.print (System.out, secs);
+				return;
+		}//end switch
+		System.err.println ("Unknown or incomplete command: " + String.join (" ", cmd));
+		printCommands ();
+	}//end runCommand
+
+	/**
+	 * Method to run reports 7, 8 and 9 concurrently, so their database
+	 * latencies overlap, and print them in menu order.
+	 * 
+	 * @param esql the connected database
+	 * @param fnum the flight of report 9
+	 * @param status the reservation status of report 9
+	 * @param timeoutMs the time each report may take
+	 * @throws java.lang.Exception when a report failed or timed out
+	 */
+	public static void printReports(DBproject esql, int fnum, String status, long timeoutMs) throws Exception {
+		AsyncDBproject async = esql.async ();
+		long start = System.nanoTime ();
+		CompletableFuture<List<List<String>>> perPlane = async.submitRead (e -> e.executeQueryAndReturnResult (REPAIRS_PER_PLANE_SQL), timeoutMs);
+		CompletableFuture<List<List<String>>> perYear = async.submitRead (e -> e.executeQueryAndReturnResult (REPAIRS_PER_YEAR_SQL), timeoutMs);
+		CompletableFuture<List<List<String>>> passengers = async.submitRead (e -> e.executeQueryAndReturnResult (PASSENGERS_WITH_STATUS_SQL, fnum, status), timeoutMs);
+
+		String[] titles = {"7. Repairs per plane", "8. Repairs per year", "9. Passengers of flight " + fnum + " with status " + status};
+		List<CompletableFuture<List<List<String>>>> reports = Arrays.asList (perPlane, perYear, passengers);
+		for (int i = 0; i < titles.length; ++i){
+			System.out.println (titles[i]);
+			try{
+				for (List<String> row : reports.get (i).get ())
+					System.out.println (String.join ("\t", row));
+			}catch (ExecutionException e){
+				System.out.println ("Report failed: " + e.getCause ().getMessage ());
+			}//end try
+		}//end for
+		System.out.printf ("Reports ran in %.1f ms%n", (System.nanoTime () - start) / 1e6);
+	}
+
+	/**
+	 * Method to configure the slow query log and the periodic statistics
+	 * dump from the command line options.
+	 * 
+	 * @param esql the connected database
+	 * @param cmd the arguments after the connection arguments
+	 * @throws java.io.IOException when the slow query log cannot be opened
+	 */
+	public static void applyStatsOptions(DBproject esql, String[] cmd) throws IOException {
+		int slowMs = intOption (cmd, "--slow-ms", -1);
+		String slowLog = stringOption (cmd, "--slow-log", null);
+		if (slowMs >= 0)
+			esql.getStats ().setSlowQueryLog (slowMs, slowLog == null ? null : new File (slowLog));
+		String statsFile = stringOption (cmd, "--stats-file", null);
+		if (statsFile != null)
+			esql.getStats ().startDump (new File (statsFile), intOption (cmd, "--stats-every", DEFAULT_STATS_DUMP_SECS));
+	}
+
+	public static void printCommands() {
+		System.err.println ("Options, also accepted without a command:");
+		System.err.println ("  --slow-ms N [--slow-log file]   log calls taking N ms or more, to stderr by default");
+		System.err.println ("  --stats-file file [--stats-every N]   rewrite file with the operation statistics every N seconds");
+		System.err.println ("  --group-commit N [--group-commit-delay-us N] [--committers N]   commit up to N concurrent bookings at once");
+		System.err.println ("  --replicas [host:]port,... [--read-routing round-robin|least-loaded]   run reports 6-9 on streaming replicas");
+		System.err.println ("  --snapshot file [--snapshot-refresh-secs N]   look up planes, pilots, technicians and customers in a mapped");
+		System.err.println ("      snapshot file, written if missing and rewritten every N seconds");
+		System.err.println ("Commands:");
+		System.err.println ("  load <datadir> [--rebuild-indexes]   replace all tables with the csv files in datadir");
+		System.err.println ("  generate <scale> [--seed N] [--threads N] [--out dir] [--rebuild-indexes]   replace all tables with a generated");
+		System.err.println ("      dataset, scale 1 about the size of data/, or write it as csv files to dir");
+		System.err.println ("  batch <opsfile> [--batch-size N] [--commit-every N]   run add plane/pilot/flight/technician operations from a file");
+		System.err.println ("  stress-booking <fnum> [--threads N] [--attempts N]   book one flight concurrently and check for oversells");
+		System.err.println ("  rebuild-summaries   recompute the repair summary tables from Repairs");
+		System.err.println ("  migrate <dir>   apply the V<n>__<description>.sql migrations not applied yet");
+		System.err.println ("  compact-migrate <create_compact.sql> [--batch-rows N] [--keep-sync]   copy the tables online to the compact");
+		System.err.println ("      layout and compare the two, --keep-sync keeps copying writes to it (load, generate and bench-scale stop it)");
+		System.err.println ("  compact-report   compare the sizes and scan times of the original and compact layouts");
+		System.err.println ("  compact-stop-sync   stop copying writes to the compact layout, leaving it stale");
+		System.err.println ("  compact-drop   drop the compact layout and stop mirroring writes to it");
+		System.err.println ("  verify-plans [--budget-ms N]   check the menu queries use their indexes within N ms");
+		System.err.println ("  export <file> <query> [--format tsv|csv|jsonl] [--copy]   write a query result to a file, --copy streams it with COPY");
+		System.err.println ("  reports <fnum> <status> [--timeout-ms N]   run reports 7, 8 and 9 concurrently");
+		System.err.println ("  bench [--threads 1,8] [--warmup-secs N] [--secs N] [--only a,b] [--label L] [--out file.json]");
+		System.err.println ("      benchmark the menu operations and execute methods, writing JSON results");
+		System.err.println ("  bench-scale [--sizes 10000,...,100000000] [--per-flight N] [--threads N] [--warmup-secs N] [--secs N]");
+		System.err.println ("      [--keep] [--label L] [--out file.json]   grow Reservation step by step and benchmark it at each size");
+		System.err.println ("  routes <from> <to> <earliest> <latest> [--by cost|duration] [--max-legs N] [--min-connect-mins N]");
+		System.err.println ("      [--max-layover-mins N] [--limit N]   best itineraries departing between two dates (yyyy-MM-dd [HH:mm])");
+		System.err.println ("  departures <earliest> <latest> [--airport X] [--limit N]   flights departing in a window, with their free seats");
+		System.err.println ("  serve [--port 8080] [--max-inflight N] [--timeout-ms N]   serve the menu operations over HTTP until stopped");
+		System.err.println ("  snapshot <file>   write the reference snapshot of Plane, Pilot, Technician and Customer");
+		System.err.println ("  load-test [--url U] [--clients N] [--warmup-secs N] [--secs N] [--book-ratio R]");
+		System.err.println ("      measure requests/sec of a running server, a fraction R of the requests booking flights");
+	}
+
+	//the integer keys returned by a query
+	private static int[] sampleKeys(DBproject esql, String query) throws SQLException {
+		TypedResult rs = esql.executeQueryAndReturnTypedResult (query);
+		int[] keys = new int[rs.getRowCount ()];
+		for (int i = 0; i < keys.length; ++i)
+			keys[i] = rs.getInt (i, 0);
+		return keys;
+	}
+
+	//reads "--name value" from a command, or returns the default
+	private static int intOption(String[] cmd, String name, int defaultValue) {
+		for (int i = 0; i + 1 < cmd.length; ++i)
+			if (cmd[i].equals (name))
+				return Integer.parseInt (cmd[i + 1]);
+		return defaultValue;
+	}
+
+	//reads "--name value" from a command, or returns the default
+	private static String stringOption(String[] cmd, String name, String defaultValue) {
+		for (int i = 0; i + 1 < cmd.length; ++i)
+			if (cmd[i].equals (name))
+				return cmd[i + 1];
+		return defaultValue;
+	}
+
 	public static int readChoice() {
 		int input;
 		// returns only if a correct value is given.
@@ -300,547 +1574,411 @@ public class DBproject{
 	}//end readChoice
 
 	public static void AddPlane(DBproject esql) {//1
-	    String model;
-	    int plane_ID;
-	    String make;
-	    int age;
-	    int num_seats;
-	    String query;  
-		
+		int plane_ID;
+		String make;
+		String model;
+		int age;
+		int num_seats;
+
 		//plane_ID
-	    do {
+		do {
 			System.out.print("Input plane ID number: ");
-	       	try { // read the integer, parse it and break.
-       			plane_ID = Integer.parseInt(in.readLine());
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
-
-	    //model
-	    do {
-		System.out.print("Input plane model: ");
-	       	try { // read the integer, parse it and break.
-       			model = Integer.parseInt(in.readLine());
+			try { // read the integer, parse it and break.
+				plane_ID = Integer.parseInt(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+				continue;
+			}//end try
+		}while (true);
+
+		//model
+		do {
+			System.out.print("Input plane model: ");
+			try {
+				model = in.readLine();
 				if (model.length() <= 0 || model.length() > 64) {
-			   		throw new RuntimeException("Invalid input. Plane model cannot be null or exceed 64 characters";
-			 	}
-					
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
-	    
+					throw new RuntimeException("Invalid input. Plane model cannot be empty or exceed 64 characters");
+				}
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid! " + e.getMessage());
+				continue;
+			}//end try
+		}while (true);
 
-	    //make
-	    do {
+		//make
+		do {
 			System.out.print("Input plane make: ");
-	       	try { // read the integer, parse it and break.
-       			make = Integer.parseInt(in.readLine());
+			try {
+				make = in.readLine();
 				if (make.length() <= 0 || make.length() > 32) {
-			    	throw new RuntimeException("Invalid input. Plane model cannot be null or exceed 64 characters");
+					throw new RuntimeException("Invalid input. Plane make cannot be empty or exceed 32 characters");
 				}
-			}
-    		break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid! " + e.getMessage());
+				continue;
+			}//end try
+		}while (true);
 
 		//age
-	    do {
+		do {
 			System.out.print("Input plane age: ");
-	       	try { // read the integer, parse it and break.
-       			model = Integer.parseInt(in.readLine());
-				if(age < 0 || age > 30) {
-			    	throw new RuntimeException("Age cannot be negative or greater than 30");
+			try { // read the integer, parse it and break.
+				age = Integer.parseInt(in.readLine());
+				if (age < 0) {
+					throw new RuntimeException("Invalid input. Plane age cannot be negative");
 				}
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
-
-	    //num_seats
-	    do {
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid! " + e.getMessage());
+				continue;
+			}//end try
+		}while (true);
+
+		//num_seats
+		do {
 			System.out.print("Input number of seats on plane: ");
-	       	try { // read the integer, parse it and break.
-       			num_seats = Integer.parseInt(in.readLine());
-				if(age < 0 || age > 500) {
-			    	throw new RuntimeException("Number of plane seats cannot be negative or greater than 250");
+			try { // read the integer, parse it and break.
+				num_seats = Integer.parseInt(in.readLine());
+				if (num_seats <= 0 || num_seats >= 500) {
+					throw new RuntimeException("Invalid input. Number of seats must be between 1 and 499");
 				}
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid! " + e.getMessage());
+				continue;
+			}//end try
+		}while (true);
 
 		//query
-	    try {
-			query = "INSERT INTO Plane (ID, make, model, age, num_seats) VALUES (" + plane_ID + ", \'" + make + "\', \'" + model + "\', \'" + age + ", " + num_seats + "):";
-			esql.executeUpdate(query);
-	    }catch (Exception e){
+		try {
+			esql.executeUpdate(ADD_PLANE_SQL, plane_ID, make, model, age, num_seats);
+		}catch (Exception e){
 			System.err.println("Query failed: " + e.getMessage());
-	    }
-
+		}//end try
 	}
 
 	public static void AddPilot(DBproject esql) {//2
-	    int pilot_ID;
-	    String name;
-	    String nationality;
-	    String query;
+		int pilot_ID;
+		String name;
+		String nationality;
 
 		//pilot_ID
-	    do {
+		do {
 			System.out.print("Input pilot ID number: ");
-	       	try { // read the integer, parse it and break.
-       			pilot_ID = Integer.parseInt(in.readLine());
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
-
-	    //name
-	    do {
+			try { // read the integer, parse it and break.
+				pilot_ID = Integer.parseInt(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+				continue;
+			}//end try
+		}while (true);
+
+		//name
+		do {
 			System.out.print("Input pilot name: ");
-	       	try { // read the integer, parse it and break.
-       			make = Integer.parseInt(in.readLine());
+			try {
+				name = in.readLine();
 				if (name.length() <= 0 || name.length() > 128) {
-			    	throw new RuntimeException("Invalid input. Pilot name cannot exceed 128 characters");
+					throw new RuntimeException("Invalid input. Pilot name cannot be empty or exceed 128 characters");
 				}
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid! " + e.getMessage());
+				continue;
+			}//end try
+		}while (true);
 
 		//nationality
-	    do {
-			System.out.print("Please make your choice: ");
-	       	try { // read the integer, parse it and break.
-       			model = Integer.parseInt(in.readLine());
-			if(nationality.length() <= 0 || nationality.length() > 24) {
-			    throw new RuntimeException("INVALID INPUT! Pilot's nationality cannot be 0, negative or greater than 24 characters");
-			}
-    		break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
-
-	//query   
-	 	try {
-			query = "INSERT INTO Pilots (ID, name, nationality) VALUES (" + pilot_ID + ", \'" + name + ", " + nationality + "):";
-			esql.executeUpdate(query);
-	    }catch (Exception e){
+		do {
+			System.out.print("Input pilot nationality: ");
+			try {
+				nationality = in.readLine();
+				if (nationality.length() <= 0 || nationality.length() > 24) {
+					throw new RuntimeException("Invalid input. Pilot nationality cannot be empty or exceed 24 characters");
+				}
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid! " + e.getMessage());
+				continue;
+			}//end try
+		}while (true);
+
+		//query
+		try {
+			esql.executeUpdate(ADD_PILOT_SQL, pilot_ID, name, nationality);
+		}catch (Exception e){
 			System.err.println("Query failed: " + e.getMessage());
-	    }
+		}//end try
 	}
 
 	public static void AddFlight(DBproject esql) {//3
 		// Given a pilot, plane and flight, adds a flight in the DB
-	    int flight_num;
-	    int cost;
-	    int num_sold;
-	    int num_stops;
-	    String actual_depart_date;
-	    //String actual_depart_time;
-	    String actual_arrive_date;
-	    //String actual_arrive_time;
-	    //String source;
-	    //String destination;
+		int flight_num;
+		int cost;
+		int num_sold;
+		int num_stops;
+		String actual_departure_date;
+		String actual_arrival_date;
 		String arrival_airport;
 		String departure_airport;
-	    LocalDate departDate;
-	    DateTimeFormatter format = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
-
 
-	    //flight_num
-	    do {
-		System.out.print("Input flight number: ");
-		try {
-		    flight_num = Integer.parseInt(in.readLine());
-		    break;
-		}catch(Exception e){
-		    System.out.println("Your input is invalid!");
-		}
-	    }while(true);
+		//flight_num
+		do {
+			System.out.print("Input flight number: ");
+			try { // read the integer, parse it and break.
+				flight_num = Integer.parseInt(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+				continue;
+			}//end try
+		}while (true);
 
-	    //cost
-	    do {
+		//cost
+		do {
 			System.out.print("Input flight cost: ");
-	       	try { // read the integer, parse it and break.
-       			model = Integer.parseInt(in.readLine());
+			try { // read the integer, parse it and break.
+				cost = Integer.parseInt(in.readLine());
 				if (cost <= 0) {
-			    	throw new RuntimeException("Invalid input. Cost cannot be less than or equal to 0");
+					throw new RuntimeException("Invalid input. Cost cannot be less than or equal to 0");
 				}
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
-	    
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid! " + e.getMessage());
+				continue;
+			}//end try
+		}while (true);
+
 		//num_sold
-	    do {
+		do {
 			System.out.print("Input number of seats sold: ");
-	       	try { // read the integer, parse it and break.
-       			num_sold = Integer.parseInt(in.readLine());
+			try { // read the integer, parse it and break.
+				num_sold = Integer.parseInt(in.readLine());
 				if (num_sold < 0) {
-			    	throw new RuntimeException("Invalid input. Cannot have negatve number of seats sold");
+					throw new RuntimeException("Invalid input. Cannot have negative number of seats sold");
 				}
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
-
-	    //num_stops 
-	    do {
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid! " + e.getMessage());
+				continue;
+			}//end try
+		}while (true);
+
+		//num_stops
+		do {
 			System.out.print("Input number of stops: ");
-	       	try { // read the integer, parse it and break.
-       			num_stops = Integer.parseInt(in.readLine());
+			try { // read the integer, parse it and break.
+				num_stops = Integer.parseInt(in.readLine());
 				if (num_stops < 0) {
-			    	throw new RuntimeException("Invalid input. Cannot have negative number of stops.");
+					throw new RuntimeException("Invalid input. Cannot have negative number of stops");
 				}
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
-
-		//	String actual_arrive_date;
-	    //String actual_arrive_time;
-	    do {
-			System.out.print("Input actual departure date: ");
-	       	try { // read the integer, parse it and break.
-       			actual_departure_date = in.readLine();
-				//actual_departure time = in.readLine();
-		        LocalDate add = LocalDate.parse(actual_departure_date, format);
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
-		
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid! " + e.getMessage());
+				continue;
+			}//end try
+		}while (true);
+
+		//actual_departure_date
+		do {
+			System.out.print("Input actual departure date (yyyy-MM-dd [HH:mm]): ");
+			try { // read the date, check it parses and break.
+				actual_departure_date = in.readLine().trim();
+				RouteIndex.parseMinute(actual_departure_date);
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+				continue;
+			}//end try
+		}while (true);
+
 		//actual_arrival_date
-	    do {
-		System.out.print("Input actual departure date: ");
-	       	try { // read the integer, parse it and break.
-       			actual_arrival_date = in.readLine();
-				//actual_arrival_time = in.readLine();
-		        LocalDate aad = LocalDate.parse(actual_arrival_date, format);
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
-
-	    //source
-	    /*do {
-		System.out.print("Input flight source: ");
-	       	try { // read the integer, parse it and break.
-       			source = in.readLine();
-				if(source <= 0 || source > 5) {
-			    	throw new RuntimeException("Flight source cannot be 0 or negative or exceed 5 characters.");
-				}
-    			break;
-       		}catch (Exception e) {
-       			System.out.println("Your input is invalid!");
-       			continue;
-       		}//end try
-	    }while (true);
-		*/
-		//destination
-		/*do {
-			System.out.print("Input flight destination: ");
-			try { // read the integer, parse it and break.
-				source = in.readLine();
-				if(source <= 0 || source > 5) {
-					throw new RuntimeException("Flight source cannot be 0 or negative or exceed 5 characters.");
-				}
-			    break;
+		do {
+			System.out.print("Input actual arrival date (yyyy-MM-dd [HH:mm]): ");
+			try { // read the date, check it parses and break.
+				actual_arrival_date = in.readLine().trim();
+				RouteIndex.parseMinute(actual_arrival_date);
+				break;
 			}catch (Exception e) {
-			    System.out.println("Your input is invalid!");
-			    continue;
+				System.out.println("Your input is invalid!");
+				continue;
 			}//end try
-		}*/
-			//arrival_airport
-			
+		}while (true);
+
+		//arrival_airport
 		do {
-			System.out.print("Please input arrival_airport code: ");
-			try{
+			System.out.print("Input arrival airport code: ");
+			try {
 				arrival_airport = in.readLine();
-				if (arrival_airport.length() <= 0) {
-					throw new RuntimeException("INVALID INPUT! The airport code cannot be 0 or negative");
-				}
-				else if (arrival_airport.length() > 5) {
-					throw new RuntimeException("INVALID INPUT! Airport code cannoy exceed 5 characters");
+				if (arrival_airport.length() <= 0 || arrival_airport.length() > 5) {
+					throw new RuntimeException("Invalid input. Airport code cannot be empty or exceed 5 characters");
 				}
 				break;
 			}catch (Exception e) {
-				System.out.println("Your input is invalid! Your exception is: " + e);
+				System.out.println("Your input is invalid! " + e.getMessage());
 				continue;
-			}
-					
-		}while(true);
-	    
+			}//end try
+		}while (true);
+
 		//departure_airport
 		do {
-			System.out.print("Please input arrival_airport code: ");
-			try{
+			System.out.print("Input departure airport code: ");
+			try {
 				departure_airport = in.readLine();
-				if (departure_airport.length() <= 0) {
-					throw new RuntimeException("INVALID INPUT! The departure code cannot be 0 or negative");
-				}
-				else if (departure_airport.length() > 5) {
-					throw new RuntimeException("INVALID INPUT! Departure code cannoy exceed 5 characters");
+				if (departure_airport.length() <= 0 || departure_airport.length() > 5) {
+					throw new RuntimeException("Invalid input. Airport code cannot be empty or exceed 5 characters");
 				}
 				break;
 			}catch (Exception e) {
-				System.out.println("Your input is invalid! Your exception is: " + e);
+				System.out.println("Your input is invalid! " + e.getMessage());
 				continue;
-			}
-					
-		}while(true);
-		
+			}//end try
+		}while (true);
+
+		//query
 		try {
-			query = "INSERT INTO Flight (flight_num, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport) VALUES (" + flight_num + ", \'" + cost + "\', \'" + num_sold + "\', \'" + num_stops + "\', \'" + actual_departure_date + "\', \'" + actual_arrival_date + "\', \'" + arrival_airport + "\', \'" + departure_airport + "\');";
+			esql.addFlight(flight_num, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport);
 		}catch (Exception e){
 			System.err.println("Query failed: " + e.getMessage());
-	    }
-
-
-
+		}//end try
 	}
 
 	public static void AddTechnician(DBproject esql) {//4
-		int techId;
+		int tech_ID;
 		String full_name;
-		String query;
-		
-		do{
-			System.out.print("Input technician's ID number: ");
-			try {
-				techID = Integer.parseInt(in.readLine());
+
+		//tech_ID
+		do {
+			System.out.print("Input technician ID number: ");
+			try { // read the integer, parse it and break.
+				tech_ID = Integer.parseInt(in.readLine());
 				break;
 			}catch (Exception e) {
 				System.out.println("Your input is invalid!");
-			}
-		}
-		
+				continue;
+			}//end try
+		}while (true);
+
+		//full_name
 		do {
-			System.out.print("Please input Technician fullname: ");
-			try{
+			System.out.print("Input technician full name: ");
+			try {
 				full_name = in.readLine();
-				if (full_name.length() <= 0) {
-					throw new RuntimeException("INVALID INPUT! Technician name cannot be 0 or negative");
-				}
-				else if (fullname.length() > 128) {
-					throw new RuntimeException("INVALID INPUT! Technician name cannot exceed 128 characters");
+				if (full_name.length() <= 0 || full_name.length() > 128) {
+					throw new RuntimeException("Invalid input. Technician name cannot be empty or exceed 128 characters");
 				}
 				break;
 			}catch (Exception e) {
-				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				System.out.println("Your input is invalid! " + e.getMessage());
 				continue;
-			}
-		}while(true);
-		
+			}//end try
+		}while (true);
+
+		//query
 		try {
-			query = "INSERT INTO Technician (id, full_name) VALUES (" + techId + ", \'" + fullname + "\');";
-			esql.executeUpdate(query);
-		}catch (Exception e) {
+			esql.executeUpdate(ADD_TECHNICIAN_SQL, tech_ID, full_name);
+		}catch (Exception e){
 			System.err.println("Query failed: " + e.getMessage());
-		}
-		
-		
+		}//end try
 	}
 
 	public static void BookFlight(DBproject esql) {//5
 		// Given a customer and a flight that he/she wants to book, add a reservation to the DB
 		int custID;
-	    int flightnumber;
-        String userInput;
-	    String query;
-		int rNum;
-		String query;
-		
-		do {
-            System.out.print("Input Customer ID: ");
-            try {
-                custID = Integer.parseInt(in.readLine());
-                break;
-            }catch (Exception e){
-                System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-                continue;
-            }
-		}while(true);
+		int flightNumber;
+		String reservationStatus;
 		
 		do {
-			
+			System.out.print("Input Customer ID: ");
+			try {
+				custID = Integer.parseInt(in.readLine());
+				if (!esql.customerExists(custID))
+					throw new RuntimeException("Customer " + custID + " does not exist");
+				break;
+			}catch (Exception e){
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
+				continue;
+			}
 		}while(true);
 		
 		do {
-			System.out.print("Input Customer ID: ");
+			System.out.print("Input Flight Number: ");
 			try {
-				rNum = Integer.parseInt(in.readLine());
+				flightNumber = Integer.parseInt(in.readLine());
+				if (!esql.exists(FLIGHT_EXISTS_SQL, flightNumber))
+					throw new RuntimeException("Flight " + flightNumber + " does not exist");
 				break;
 			}catch (Exception e) {
-				System.out.println("Your input is invalid!");
+				System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
 				continue;
 			}
-		}while (true);
+		}while(true);
 		
-		/*try {
-			query = "INSERT INTO BookFlight (rNum, full_name) VALUES (" + rNum + "\');";
-			esql.executeUpdate(query);
+		try {
+			List<List<String>> reservation = esql.executeQueryAndReturnResult(RESERVATION_STATUS_SQL, custID, flightNumber);
+			if (reservation.isEmpty()) { //reservation doesn't exist
+				System.out.print("Your reservation is not in our database. Would you like to book one? (y/n): ");
+				if (!readYesNo())
+					return;
+				
+				//takes a seat if one is left, otherwise waitlists the customer
+				BookingEngine.Result booked = esql.bookFlight(custID, flightNumber);
+				if (!booked.created)
+					System.out.println("Customer already holds reservation " + booked.rnum + " with status " + booked.status);
+				else if (booked.status.equals("W"))
+					System.out.println("Flight is full. Reservation " + booked.rnum + " is on the waitlist (W)");
+				else
+					System.out.println("Reservation " + booked.rnum + " booked with status " + booked.status);
+			}else {
+				System.out.println("We found your reservation with status " + reservation.get(0).get(0).trim() + "! Would you like to update it? (y/n)");
+				if (!readYesNo())
+					return;
+				do {
+					System.out.print("Please input new Reservation Status (W/R/C): ");
+					try {
+						reservationStatus = in.readLine();
+						if(!reservationStatus.equals("W") && !reservationStatus.equals("R") && !reservationStatus.equals("C")) {
+							throw new RuntimeException("INVALID INPUT! Status can only be W, R, or C");
+						}
+						break;
+					}catch (Exception e) {
+						System.out.println("INVALID INPUT! Your exception is " + e.getMessage());
+						continue;
+					}
+				}while(true);
+				
+				BookingEngine.Result updated = esql.updateReservationStatus(custID, flightNumber, reservationStatus);
+				System.out.println("Reservation " + updated.rnum + " now has status " + updated.status);
+			}
 		}catch (Exception e) {
 			System.err.println("Query failed: " + e.getMessage());
 		}
-		*/
-	        try
-	        {
-	            query = "SELECT status\nFROM Reservation\nWHERE cid = " + custID + " AND fid = " + flightNumber + ";";
-	            if(esql.executeQueryAndPrintResult(query) == 0) //reservation doesn't exist
-	            {
-	                while (true)
-	                {
-	                    System.out.println("Your reservation is not in our database. Would you like to book one? (y/n): ");
-	                    try
-	                    {
-	                        userInput = in.readLine();
-	                        if (userInput.equals("y"))
-	                        {
-	                            while (true)
-	                            {
-	                                System.out.print("Please input Reservation Number: ");
-	                                try
-	                                {
-	                                    reservationNum = Integer.parseInt(in.readLine());
-	                                    break;
-	                                }
-	                                catch (Exception e)
-	                                {
-	                                    System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-	                                }
-	                            }
-	                            while (true)
-	                            {
-	                                System.out.print("Please input Reservation Status(W/R/C): ");
-	                                try
-	                                {
-	                                    reservationStatus = in.readLine();
-	                                    if(!reservationStatus.equals("W") && !reservationStatus.equals("R") && !reservationStatus.equals("C")) {
-	                                        throw new RuntimeException("Your input is invalid! Status can only be W, R, or C");
-	                                    }
-	                                    break;
-	                                }
-	                                catch (Exception e)
-	                                {
-	                                    System.out.println("Your input is invalid! Your exception is " + e.getMessage());
-	                                }
-	                                try
-	                                {
-	                                    query = "INSERT INTO Reservation (rnum, cid, fid, status) VALUES (" + rNum + ", " + custID + ", " + flightNumber + ", \'" + reservationStatus + "\');";
-	                                    esql.executeUpdate(query);
-	                                }
-	                                catch (Exception e)
-	                                {
-	                                    System.out.println("Your input is invalid! Your exception is " + e.getMessage());
-	                                }
-	                            }
-	                        }
-	                        else if (!userInput.equals("n"))
-	                        {
-	                            throw new RuntimeException("INVALID INPUT! Must input y/n");
-	                        }
-	                        break;
-	                    }
-	                    catch (Exception e)
-	                    {
-	                        System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-	                        continue;
-	                    }
-	                }
-	            }
-	                else
-	                {
-	                    while (true)
-	                    {
-	                        try
-	                        {
-	                            System.out.println("We found your reservation! Would you like to update it? (y/n)");
-	                            userInput = in.readLine();
-	                            if (userInput.equals("y"))
-	                            {
-	                                while (true)
-	                                {
-	                                    System.out.print("Please input new Reservation Status: " );
-	                                    try
-	                                    {
-	                                        reservationStatus = in.readLine();
-	                                        if(!reservationStatus.equals("W") && !reservationStatus.equals("R") && !reservationStatus.equals("C")) {
-	                                            throw new RuntimeException("INVALID INPUT! Status can only be W, R, or C");
-	                                        }
-	                                        break;
-	                                    }
-	                                    catch (Exception e)
-	                                    {
-	                                        System.out.println("INVALID INPUT! Your exception is " + e.getMessage());
-	                                        continue;
-	                                    }
-	                                }
-	                                try
-	                                {
-	                                    query = "UPDATE Reservation SET status = \'" + reservationStatus + "\' WHERE cid = " + custID + " AND fid = " + flightNumber + ";";
-	                                    esql.executeUpdate(query);
-	                                }
-	                                catch (Exception e)
-	                                {
-	                                    System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-	                                }
-	                            }
-	                            else if (!userInput.equals("n"))
-	                            {
-	                                throw new RuntimeException("INVALID INPUT! Must input y or n");
-	                            }
-	                            break;
-	                        }
-	                        catch (Exception e)
-	                        {
-	                            System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-	                            continue;
-	                        }
-	                    }
-	                }
-	            }
-	            catch (Exception e)
-	            {
-	                System.out.println("Your input is invalid! Your exception is: " + e.getMessage());
-	            }
 	}
 
+	public static boolean readYesNo() {
+		String userInput;
+		// returns only if y or n is given.
+		do {
+			try {
+				userInput = in.readLine();
+				if (userInput.equals("y") || userInput.equals("n"))
+					return userInput.equals("y");
+				throw new RuntimeException("INVALID INPUT! Must input y or n");
+			}catch (Exception e) {
+				System.out.print("Your input is invalid! Your exception is: " + e.getMessage() + " ");
+				continue;
+			}
+		}while (true);
+	}//end readYesNo
+
 	public static void ListNumberOfAvailableSeats(DBproject esql) {//6
 		// For flight number and date, find the number of availalbe seats (i.e. total plane capacity minus booked seats )
 		int flightNum;
 		String departTime;
-		String query;
 		
 		do {
 			System.out.print("Input Flight Number: ");
@@ -854,12 +1992,13 @@ public class DBproject{
 		} while (true);
 		
 		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+		LocalDate leaveDate;
 		
 		do {
 			System.out.print("Input Departure Time (YYYY-MM-DD hh:mm): ");
 			try {
 				departTime = in.readLine();
-				LocalDate leaveDate = LocalDate.parse(departTime, formatter);
+				leaveDate = LocalDate.parse(departTime, formatter);
 				break;
 			}catch (Exception e) {
 				System.out.println("Your input is invalid!");
@@ -868,10 +2007,12 @@ public class DBproject{
 		} while (true);
 		
 		try {
-			query = "SELECT Total_Seats - Seats_Sold as \"Seats Available\"\nFROM(\nSELECT P.seats as Total_Seats\nFROM Plane P, FlightInfo FI\nWHERE FI.flight_id = " + flightNum + " AND FI.plane_id = P.id\n)total,\n(\nSELECT F.num_sold as Seats_Sold\nFROM Flight F\nWHERE F.fnum = " + flightNum + " AND F.actual_departure_date = \'" + departTime + "\'\n)sold;";
-			
-			if(esql.executeQueryAndPrintResult(query) == 0) {
+			int seats = esql.getAvailableSeats(flightNum, leaveDate);
+			if(seats < 0) {
 				System.out.println("Flight or Departure Time does not exist");
+			}else {
+				System.out.println("Seats Available");
+				System.out.println(seats);
 			}
 
 		}catch (Exception e) {
@@ -880,26 +2021,22 @@ public class DBproject{
 	}
 
 	public static void ListsTotalNumberOfRepairsPerPlane(DBproject esql) {//7
-		// Count number of repairs per planes and list them in descending order
-		String query;
+		// Count number of repairs per planes and list them in descending order,
+		// read from the RepairsPerPlane summary kept current by triggers
 		
 		try {
-			query = "SELECT P.id, count(R.rid)\nFROM Plane P, Repairs R\nWHERE P.id = R.plane_id\nGROUP BY P.id\nORDER BY count DESC;";
-			
-			esql.executeQueryAndPrintResult(query);
+			esql.executeQueryAndPrintResult(REPAIRS_PER_PLANE_SQL);
 		}catch (Exception e) {
 			System.err.println (e.getMessage());
 		}
 	}
 
 	public static void ListTotalNumberOfRepairsPerYear(DBproject esql) {//8
-		// Count repairs per year and list them in ascending order
-		String query;
+		// Count repairs per year and list them in ascending order,
+		// read from the RepairsPerYear summary kept current by triggers
 		
 		try {
-			query = "SELECT EXTRACT (year FROM R.repair_date) as \"Year\", count(R.rid)\nFROM repairs R\nGROUP BY \"Year\"\nORDER BY count ASC;";
-			
-			esql.executeQueryAndPrintResult(query);
+			esql.executeQueryAndPrintResult(REPAIRS_PER_YEAR_SQL);
 		}catch (Exception e) {
 			System.err.println (e.getMessage());
 		}
@@ -909,7 +2046,6 @@ public class DBproject{
 		// Find how many passengers there are with a status (i.e. W,C,R) and list that number.
 		int flightNum;
 		String status;
-	    String query;
 	    
 	    do {
 			System.out.print("Input Flight Number: ");
@@ -937,12 +2073,198 @@ public class DBproject{
 		}while (true);
 		
 		try {
-			query = "SELECT COUNT(*)\nFROM Reservation\nWHERE fid = " + flightNum + " AND status = \'" + status + "\';";
-			
-			esql.executeQueryAndPrintResult(query);
+			esql.executeQueryAndPrintResult(PASSENGERS_WITH_STATUS_SQL, flightNum, status);
+		}catch (Exception e) {
+			System.err.println (e.getMessage());
+		}
+
+	}
+
+	public static void SearchRoutes(DBproject esql) {//11
+		// Find direct and connecting itineraries between two airports, departing in a date window
+		String origin;
+		String destination;
+		int earliest;
+		int latest;
+		RouteIndex.Rank rank;
+
+		do {
+			System.out.print("Input Departure Airport Code: ");
+			try {
+				origin = in.readLine().trim();
+				if (origin.isEmpty() || origin.length() > 5) {
+					throw new RuntimeException("INVALID INPUT! Airport codes have 1 to 5 characters");
+				}
+				break;
+			}catch (Exception e) {
+				System.out.println(e.getMessage());
+			}
+		}while (true);
+
+		do {
+			System.out.print("Input Arrival Airport Code: ");
+			try {
+				destination = in.readLine().trim();
+				if (destination.isEmpty() || destination.length() > 5) {
+					throw new RuntimeException("INVALID INPUT! Airport codes have 1 to 5 characters");
+				}
+				break;
+			}catch (Exception e) {
+				System.out.println(e.getMessage());
+			}
+		}while (true);
+
+		do {
+			System.out.print("Input Earliest Departure (YYYY-MM-DD [hh:mm]): ");
+			try {
+				earliest = RouteIndex.parseMinute(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+			}
+		}while (true);
+
+		do {
+			System.out.print("Input Latest Departure (YYYY-MM-DD [hh:mm]): ");
+			try {
+				// a date alone covers the whole day
+				latest = RouteIndex.parseWindowEnd(in.readLine());
+				if (latest < earliest) {
+					throw new RuntimeException("INVALID INPUT! The latest departure is before the earliest");
+				}
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+			}
+		}while (true);
+
+		do {
+			System.out.print("Rank by (C)ost or (D)uration: ");
+			try {
+				String choice = in.readLine().trim().toUpperCase();
+				if (!choice.equals("C") && !choice.equals("D")) {
+					throw new RuntimeException("Valid inputs: C, D");
+				}
+				rank = choice.equals("C") ? RouteIndex.Rank.COST : RouteIndex.Rank.DURATION;
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+			}
+		}while (true);
+
+		try {
+			printRoutes(esql, origin, destination, earliest, latest, rank, RouteIndex.DEFAULT_MAX_LEGS,
+				RouteIndex.DEFAULT_MIN_CONNECT_MINUTES, RouteIndex.DEFAULT_MAX_LAYOVER_MINUTES, 10);
+		}catch (Exception e) {
+			System.err.println (e.getMessage());
+		}
+	}
+
+	public static void ListDeparturesInWindow(DBproject esql) {//12
+		// List flights departing between two times, optionally from one airport, with their available seats
+		int from;
+		int to;
+		String airport;
+
+		do {
+			System.out.print("Input Earliest Departure (YYYY-MM-DD [hh:mm]): ");
+			try {
+				from = RouteIndex.parseMinute(in.readLine());
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+			}
+		}while (true);
+
+		do {
+			System.out.print("Input Latest Departure (YYYY-MM-DD [hh:mm]): ");
+			try {
+				// a date alone covers the whole day
+				to = RouteIndex.parseWindowEnd(in.readLine());
+				if (to < from) {
+					throw new RuntimeException("INVALID INPUT! The latest departure is before the earliest");
+				}
+				break;
+			}catch (Exception e) {
+				System.out.println("Your input is invalid!");
+			}
+		}while (true);
+
+		do {
+			System.out.print("Input Departure Airport Code (empty for all): ");
+			try {
+				airport = in.readLine().trim();
+				if (airport.length() > 5) {
+					throw new RuntimeException("INVALID INPUT! Airport codes have 1 to 5 characters");
+				}
+				break;
+			}catch (Exception e) {
+				System.out.println(e.getMessage());
+			}
+		}while (true);
+
+		try {
+			printDepartures(esql, from, to, airport.isEmpty() ? null : airport, 50);
 		}catch (Exception e) {
 			System.err.println (e.getMessage());
 		}
+	}
+
+	/**
+	 * Method to print the departures in a time window with their available
+	 * seats.
+	 * 
+	 * @param esql the connected database
+	 * @param from the first minute of the window, since the epoch
+	 * @param to the last minute of the window, since the epoch
+	 * @param airport the airport code departures leave from, or null for all
+	 * @param limit the most departures printed
+	 * @throws java.sql.SQLException when the index or the seats cannot be loaded
+	 */
+	public static void printDepartures(DBproject esql, int from, int to, String airport, int limit) throws SQLException {
+		DepartureIndex departures = esql.getDepartureIndex ();
+		long start = System.nanoTime ();
+		long total = departures.count (from, to, airport);
+		List<DepartureIndex.Departure> found = departures.between (from, to, airport, limit);
+		double lookupMs = (System.nanoTime () - start) / 1e6;
+
+		int[] fnums = new int[found.size ()];
+		for (int i = 0; i < fnums.length; ++i)
+			fnums[i] = found.get (i).fnum;
+		int[] seats = esql.getAvailableSeats (fnums);
+		for (int i = 0; i < fnums.length; ++i){
+			DepartureIndex.Departure d = found.get (i);
+			System.out.printf ("%-6d %-5s %s -> %s  %s%n", d.fnum, d.airport, RouteIndex.formatMinute (d.departure),
+				RouteIndex.formatMinute (d.arrival), seats[i] < 0 ? "no plane assigned" : seats[i] + " seats available");
+		}//end for
+		System.out.printf ("%d of %d departures, found in %.3f ms%n", found.size (), total, lookupMs);
+	}
 
+	/**
+	 * Method to print the best itineraries between two airports.
+	 * 
+	 * @param esql the connected database
+	 * @param origin the airport code to leave from
+	 * @param destination the airport code to arrive at
+	 * @param earliest the earliest first departure, in epoch minutes
+	 * @param latest the latest first departure, in epoch minutes
+	 * @param rank cost or duration
+	 * @param maxLegs the most flights per itinerary
+	 * @param minConnect the least minutes between connecting flights
+	 * @param maxLayover the most minutes between connecting flights
+	 * @param limit the number of itineraries printed
+	 * @throws java.sql.SQLException when the route index cannot be loaded
+	 */
+	public static void printRoutes(DBproject esql, String origin, String destination, int earliest, int latest,
+			RouteIndex.Rank rank, int maxLegs, int minConnect, int maxLayover, int limit) throws SQLException {
+		RouteIndex routes = esql.getRouteIndex ();
+		long start = System.nanoTime ();
+		List<RouteIndex.Itinerary> found = routes.search (origin, destination, earliest, latest, rank, maxLegs, minConnect, maxLayover, limit);
+		double ms = (System.nanoTime () - start) / 1e6;
+		if (found.isEmpty ())
+			System.out.println ("No itineraries from " + origin + " to " + destination + " in this window");
+		for (int i = 0; i < found.size (); ++i)
+			System.out.println ((i + 1) + ". " + found.get (i));
+		System.out.printf ("%d itineraries in %.2f ms%n", found.size (), ms);
 	}
 }
@@ -0,0 +1,475 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class generates datasets of any size for the nine tables of
+ * sql/create.sql, in the csv format of the data directory.  Scale factor
+ * 1 gives about the row counts of the bundled files: 250 customers, 2000
+ * flights and 10000 reservations.  Scale factor 10000 gives 100 million
+ * reservations.
+ *
+ * Every row depends only on the seed and its position.  A dataset is
+ * therefore the same for any number of threads, and any range of rows
+ * can be generated on its own.  Values that several tables share, such
+ * as a flight's plane, seats and times, come from hashes of the keys.
+ * This keeps the tables consistent: every foreign key points at an
+ * existing row, a flight's num_sold counts its reservations holding a
+ * seat, a reservation is waitlisted only once its flight is full, and
+ * every value lies within its column's domain.
+ *
+ * Rows are written to csv files or copied straight into the database
+ * through BulkLoader.  Several ranges of a table are generated at a time.
+ *
+ */
+
+public class DataGenerator{
+	//rows generated per chunk handed to a writer
+	static final int CHUNK_ROWS = 65536;
+	static final int DAY_MINUTES = 1440;
+	//departures fall in the two years from this day, birthdays and repairs around it
+	static final LocalDate EPOCH = LocalDate.of(2014, 1, 1);
+	static final int DEPARTURE_DAYS = 730;
+	//primes the customers of a flight are spread by, the first not dividing the customer count is used
+	static final long[] CUSTOMER_STRIDES = {7919, 7927, 7933};
+
+	//salts of the hashes deriving values shared between tables
+	static final int PLANE_SEATS = 1;
+	static final int FLIGHT_PLANE = 2;
+	static final int FLIGHT_PILOT = 3;
+	static final int DEPARTURE = 4;
+	static final int DURATION = 5;
+	static final int RESERVATION_CUSTOMER = 6;
+	static final int CANCELLED = 7;
+	static final int AIRPORT_CODE = 8;
+	//salt of the random numbers of a row, plus the table's position
+	static final int ROW = 100;
+
+	static final String[] FIRST_NAMES = {"Armand", "Alberto", "Wyatt", "Grace", "Lena", "Marco", "Priya", "Tomas", "Hana", "Omar",
+		"Ines", "Felix", "Chloe", "Ravi", "Sofia", "Jonas", "Amara", "Diego", "Mei", "Lucas", "Nadia", "Pavel", "Zoe", "Kofi",
+		"Elena", "Hugo", "Yara", "Ivan", "Leila", "Sven", "Maya", "Arjun"};
+	static final String[] LAST_NAMES = {"Enderle", "Scarlett", "Ruoff", "Nakamura", "Okafor", "Lindqvist", "Moreau", "Patel",
+		"Kowalski", "Haddad", "Fischer", "Silva", "Nguyen", "Duarte", "Jensen", "Rossi", "Tanaka", "Mensah", "Novak", "Garcia",
+		"Brennan", "Ivanova", "Schmidt", "Costa", "Larsen", "Ortiz", "Adeyemi", "Dubois", "Kim", "Berg", "Romano", "Walsh"};
+	static final String[] STREETS = {"Chapel Drive", "Bald Hill Street", "Campfire Ave.", "Oak Lane", "Maple Street",
+		"Harbor Road", "Sunset Blvd.", "Mill Street", "Church Road", "Lake Avenue", "Pine Court", "River Road"};
+	static final String[] CITIES = {"Melbourne", "Baton Rouge", "Cockeysville", "Riverside", "Springfield", "Fairview",
+		"Madison", "Georgetown", "Salem", "Franklin", "Clinton", "Arlington"};
+	static final String[] NATIONALITIES = {"Australia", "Morocco", "India", "USA", "Canada", "Brazil", "Germany", "Japan",
+		"Nigeria", "France", "Mexico", "Sweden"};
+	static final String[][] PLANE_MODELS = {{"Airbus", "AirbusA300"}, {"Airbus", "AirbusA320"}, {"Airbus", "AirbusA350"},
+		{"Boeing", "Boeing737"}, {"Boeing", "Boeing777"}, {"Boeing", "Boeing787"}, {"Bombadier", "CRJ900"},
+		{"Embraer", "E175"}};
+	static final String[] STATUSES = {"R", "C", "W"};
+	static final String[] REPAIR_CODES = {"MJ", "MN", "SV"};
+
+	/**
+	 * Appends one row of a table, without the line end.
+	 */
+	interface RowWriter{
+		void append(long i, SplittableRandom rnd, StringBuilder sb);
+	}//end RowWriter
+
+	//a table of BulkLoader, its row count and how its rows are made
+	private static class TableRows{
+		final BulkLoader.Table table;
+		final long count;
+		final int salt;
+		final RowWriter writer;
+
+		TableRows(BulkLoader.Table table, long count, int salt, RowWriter writer){
+			this.table = table;
+			this.count = count;
+			this.salt = salt;
+			this.writer = writer;
+		}
+	}//end TableRows
+
+	private final long _seed;
+	private final int _threads;
+	private final int _customers;
+	private final int _pilots;
+	private final int _planes;
+	private final int _technicians;
+	private final int _flights;
+	private final int _reservations;
+	private final int _repairs;
+	private final int _airports;
+	private final long _customerStride;
+	private final List<TableRows> _tables = new ArrayList<TableRows>();
+
+	/**
+	 * @param scale the dataset size, 1 for about the bundled data
+	 * @param seed the seed every value is derived from
+	 * @param threads the number of ranges generated at a time
+	 */
+	public DataGenerator(double scale, long seed, int threads){
+		if (!(scale > 0) || threads < 1)
+			throw new IllegalArgumentException("Invalid scale " + scale + " or threads " + threads);
+		this._seed = seed;
+		this._threads = threads;
+		this._customers = rows(250, scale);
+		this._pilots = rows(250, scale);
+		this._planes = rows(67, scale);
+		this._technicians = rows(250, scale);
+		this._flights = rows(2000, scale);
+		this._reservations = rows(10000, scale);
+		this._repairs = rows(549, scale);
+		this._airports = (int) Math.max(20, Math.min(2 * Math.sqrt(this._flights), 26L * 26 * 26 * 26 * 26));
+		long stride = CUSTOMER_STRIDES[0];
+		for (long p : CUSTOMER_STRIDES){
+			if (this._customers % p != 0){
+				stride = p;
+				break;
+			}//end if
+		}//end for
+		this._customerStride = stride;
+
+		for (BulkLoader.Table t : BulkLoader.INDEPENDENT)
+			this._tables.add(rowsOf(t));
+		for (BulkLoader.Table t : BulkLoader.DEPENDENT)
+			this._tables.add(rowsOf(t));
+	}
+
+	//the rows of a table at a scale, keys are INTEGER columns
+	private static int rows(int base, double scale){
+		double n = Math.max(1, Math.round(base * scale));
+		if (n > Integer.MAX_VALUE)
+			throw new IllegalArgumentException("Scale " + scale + " needs more than " + Integer.MAX_VALUE + " keys");
+		return (int) n;
+	}
+
+	private TableRows rowsOf(BulkLoader.Table t){
+		int salt = ROW + this._tables.size();
+		switch (t.name){
+			case "Customer":
+				return new TableRows(t, this._customers, salt, (i, rnd, sb) -> {
+					sb.append(i).append(',').append(pick(rnd, FIRST_NAMES)).append(',').append(pick(rnd, LAST_NAMES)).append(',')
+						.append(rnd.nextBoolean() ? 'F' : 'M').append(',');
+					//born 14 to 74 years before EPOCH
+					appendDate(sb, -14 * 365 - rnd.nextInt(60 * 365));
+					sb.append(',').append(1 + rnd.nextInt(9999)).append(' ').append(pick(rnd, STREETS)).append(' ')
+						.append(pick(rnd, CITIES)).append(',');
+					sb.append(2 + rnd.nextInt(8));
+					appendDigits(sb, rnd.nextInt(1000000000), 9);
+					sb.append(',');
+					appendDigits(sb, rnd.nextInt(100000), 5);
+					if (rnd.nextInt(4) == 0){
+						sb.append('-');
+						appendDigits(sb, rnd.nextInt(10000), 4);
+					}//end if
+				});
+			case "Pilot":
+				return new TableRows(t, this._pilots, salt, (i, rnd, sb) ->
+					sb.append(i).append(',').append(pick(rnd, FIRST_NAMES)).append(' ').append(pick(rnd, LAST_NAMES)).append(',')
+						.append(pick(rnd, NATIONALITIES)));
+			case "Plane":
+				return new TableRows(t, this._planes, salt, (i, rnd, sb) -> {
+					String[] model = PLANE_MODELS[rnd.nextInt(PLANE_MODELS.length)];
+					sb.append(i).append(',').append(model[0]).append(',').append(model[1]).append(',').append(rnd.nextInt(41))
+						.append(',').append(seats(i));
+				});
+			case "Technician":
+				return new TableRows(t, this._technicians, salt, (i, rnd, sb) ->
+					sb.append(i).append(',').append(pick(rnd, FIRST_NAMES)).append(' ').append(pick(rnd, LAST_NAMES)));
+			case "Flight":
+				return new TableRows(t, this._flights, salt, (i, rnd, sb) -> {
+					sb.append(i).append(',').append(100 + rnd.nextInt(900)).append(',').append(sold(i)).append(',')
+						.append(rnd.nextInt(4)).append(',');
+					appendMinute(sb, departure(i));
+					sb.append(',');
+					appendMinute(sb, arrival(i));
+					int from = rnd.nextInt(this._airports);
+					int to = (from + 1 + rnd.nextInt(this._airports - 1)) % this._airports;
+					sb.append(',');
+					appendAirport(sb, to);
+					sb.append(',');
+					appendAirport(sb, from);
+				});
+			case "Reservation":
+				return new TableRows(t, this._reservations, salt, (i, rnd, sb) ->
+					sb.append(i).append(',').append(customerOf(i)).append(',').append(i % this._flights).append(',').append(status(i)));
+			case "FlightInfo":
+				return new TableRows(t, this._flights, salt, (i, rnd, sb) ->
+					sb.append(i).append(',').append(i).append(',').append(pilotOf(i)).append(',').append(planeOf(i)));
+			case "Repairs":
+				return new TableRows(t, this._repairs, salt, (i, rnd, sb) -> {
+					sb.append(i).append(',');
+					//the four years before EPOCH and the two after
+					appendDate(sb, rnd.nextInt(6 * 365) - 4 * 365);
+					sb.append(',').append(pick(rnd, REPAIR_CODES)).append(',').append(rnd.nextInt(this._pilots)).append(',')
+						.append(rnd.nextInt(this._planes)).append(',').append(rnd.nextInt(this._technicians));
+				});
+			case "Schedule":
+				return new TableRows(t, this._flights, salt, (i, rnd, sb) -> {
+					sb.append(i).append(',').append(i).append(',');
+					appendMinute(sb, departure(i));
+					sb.append(',');
+					appendMinute(sb, arrival(i));
+				});
+		}//end switch
+		throw new IllegalArgumentException("No generator for table " + t.name);
+	}
+
+	//the seats of a plane, within _SEATS
+	private int seats(long plane){
+		return 20 + pick(PLANE_SEATS, plane, 430);
+	}
+
+	private int planeOf(long flight){
+		return pick(FLIGHT_PLANE, flight, this._planes);
+	}
+
+	private int pilotOf(long flight){
+		return pick(FLIGHT_PILOT, flight, this._pilots);
+	}
+
+	//departure minute since EPOCH
+	private int departure(long flight){
+		return pick(DEPARTURE, flight, DEPARTURE_DAYS * DAY_MINUTES);
+	}
+
+	//arrival minute since EPOCH, 45 minutes to 14 hours after departure
+	private int arrival(long flight){
+		return departure(flight) + 45 + pick(DURATION, flight, 14 * 60);
+	}
+
+	//reservation r is the (r / flights)th of flight r % flights
+	private long bookings(long flight){
+		return flight < this._reservations ? (this._reservations - 1 - flight) / this._flights + 1 : 0;
+	}
+
+	private long sold(long flight){
+		return Math.min(bookings(flight), seats(planeOf(flight)));
+	}
+
+	//W once the flight's seats are taken, else C for about one in ten and R
+	private String status(long reservation){
+		long flight = reservation % this._flights;
+		if (reservation / this._flights >= seats(planeOf(flight)))
+			return STATUSES[2];
+		return pick(CANCELLED, reservation, 10) == 0 ? STATUSES[1] : STATUSES[0];
+	}
+
+	//customers of one flight are distinct until it has more reservations than there are customers
+	private long customerOf(long reservation){
+		long flight = reservation % this._flights;
+		long k = reservation / this._flights;
+		return (pick(RESERVATION_CUSTOMER, flight, this._customers) + k % this._customers * this._customerStride) % this._customers;
+	}
+
+	private void appendAirport(StringBuilder sb, int airport){
+		long h = hash(AIRPORT_CODE, airport) >>> 1;
+		for (int i = 0; i < 5; ++i, h /= 26)
+			sb.append((char) ('A' + h % 26));
+	}
+
+	private long hash(int salt, long i){
+		return mix(this._seed + salt * 0x9E3779B97F4A7C15L + mix(i));
+	}
+
+	private int pick(int salt, long i, int n){
+		return (int) ((hash(salt, i) >>> 1) % n);
+	}
+
+	//the 64-bit finalizer of MurmurHash3
+	private static long mix(long z){
+		z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+		z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+		return z ^ (z >>> 33);
+	}
+
+	private static String pick(SplittableRandom rnd, String[] values){
+		return values[rnd.nextInt(values.length)];
+	}
+
+	//yyyy-MM-dd of a day since EPOCH
+	private static void appendDate(StringBuilder sb, int day){
+		LocalDate d = EPOCH.plusDays(day);
+		sb.append(d.getYear()).append('-');
+		appendDigits(sb, d.getMonthValue(), 2);
+		sb.append('-');
+		appendDigits(sb, d.getDayOfMonth(), 2);
+	}
+
+	//yyyy-MM-dd HH:mm of a minute since EPOCH, as in the bundled flights.csv
+	private static void appendMinute(StringBuilder sb, int minute){
+		appendDate(sb, minute / DAY_MINUTES);
+		sb.append(' ');
+		appendDigits(sb, minute % DAY_MINUTES / 60, 2);
+		sb.append(':');
+		appendDigits(sb, minute % 60, 2);
+	}
+
+	//value with leading zeros to width digits
+	private static void appendDigits(StringBuilder sb, int value, int width){
+		String s = Integer.toString(value);
+		for (int i = s.length(); i < width; ++i)
+			sb.append('0');
+		sb.append(s);
+	}
+
+	//the csv lines of rows [from, to) of a table
+	private byte[] chunk(TableRows rows, long from, long to){
+		StringBuilder sb = new StringBuilder((int) (to - from) * 48);
+		for (long i = from; i < to; ++i){
+			rows.writer.append(i, new SplittableRandom(hash(rows.salt, i)), sb);
+			sb.append('\n');
+		}//end for
+		return sb.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	/**
+	 * The csv lines of a range of rows, generated a chunk at a time as
+	 * they are read.
+	 */
+	private class RowStream extends InputStream{
+		final TableRows rows;
+		final long to;
+		long next;
+		byte[] buf = new byte[0];
+		int pos = 0;
+
+		RowStream(TableRows rows, long from, long to){
+			this.rows = rows;
+			this.next = from;
+			this.to = to;
+		}
+
+		public int read(){
+			return fill() ? this.buf[this.pos++] & 0xff : -1;
+		}
+
+		public int read(byte[] b, int off, int len){
+			if (len == 0)
+				return 0;
+			if (!fill())
+				return -1;
+			int n = Math.min(len, this.buf.length - this.pos);
+			System.arraycopy(this.buf, this.pos, b, off, n);
+			this.pos += n;
+			return n;
+		}
+
+		private boolean fill(){
+			while (this.pos == this.buf.length){
+				if (this.next >= this.to)
+					return false;
+				long end = Math.min(this.next + CHUNK_ROWS, this.to);
+				this.buf = chunk(this.rows, this.next, end);
+				this.pos = 0;
+				this.next = end;
+			}//end while
+			return true;
+		}
+	}//end RowStream
+
+	/**
+	 * Method to write the dataset as the csv files of a data directory,
+	 * loadable with the load command or sql/load.sql.  Chunks of a table
+	 * are generated concurrently and written in order.
+	 *
+	 * @param dir the directory, created if missing
+	 * @return the number of rows written
+	 * @throws java.io.IOException when a file cannot be written
+	 */
+	public long write(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs())
+			throw new IOException("Cannot create directory " + dir);
+		long start = System.nanoTime();
+		long total = 0;
+		ExecutorService workers = Executors.newFixedThreadPool(this._threads);
+		try{
+			for (final TableRows rows : this._tables){
+				long tableStart = System.nanoTime();
+				OutputStream out = new BufferedOutputStream(new FileOutputStream(new File(dir, rows.table.file)), 1 << 20);
+				try{
+					//at most two chunks per thread are held ahead of the writer
+					Deque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+					long from = 0;
+					while (from < rows.count || !pending.isEmpty()){
+						while (from < rows.count && pending.size() < 2 * this._threads){
+							final long lo = from, hi = Math.min(from + CHUNK_ROWS, rows.count);
+							pending.add(workers.submit(() -> chunk(rows, lo, hi)));
+							from = hi;
+						}//end while
+						out.write(pending.poll().get());
+					}//end while
+				}catch (ExecutionException e){
+					throw new IOException("Generating " + rows.table.name + " failed", e.getCause());
+				}catch (InterruptedException e){
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while generating " + rows.table.name, e);
+				}finally{
+					out.close();
+				}//end try
+				double secs = (System.nanoTime() - tableStart) / 1e9;
+				System.out.printf("%-12s %10d rows %8.2fs %12.0f rows/sec%n", rows.table.name, rows.count, secs, rows.count / Math.max(secs, 1e-9));
+				total += rows.count;
+			}//end for
+		}finally{
+			workers.shutdownNow();
+		}//end try
+		System.out.printf("Generated %d rows into %s in %.2fs%n", total, dir, (System.nanoTime() - start) / 1e9);
+		return total;
+	}//end write
+
+	/**
+	 * Method to replace the contents of all nine tables with the dataset,
+	 * copying ranges of each table concurrently on pooled connections.
+	 *
+	 * @param loader the loader of the target database
+	 * @param rebuildIndexes drop keys and indexes before the load and
+	 *        recreate them afterwards, much faster for large datasets
+	 * @return the number of rows copied
+	 * @throws java.sql.SQLException when a COPY or DDL statement failed
+	 * @throws java.io.IOException when generating rows failed
+	 */
+	public long load(BulkLoader loader, boolean rebuildIndexes) throws SQLException, IOException {
+		final LongAdder copied = new LongAdder();
+		loader.load((l, tables) -> {
+			List<Callable<Long>> tasks = new ArrayList<Callable<Long>>();
+			for (final TableRows rows : this._tables){
+				if (!contains(tables, rows.table))
+					continue;
+				long perTask = Math.max(CHUNK_ROWS, (rows.count + this._threads - 1) / this._threads);
+				for (long from = 0; from < rows.count; from += perTask){
+					final long lo = from, hi = Math.min(from + perTask, rows.count);
+					tasks.add(() -> {
+						long n = l.copyIn(rows.table, new RowStream(rows, lo, hi));
+						copied.add(n);
+						return n;
+					});
+				}//end for
+			}//end for
+			return tasks;
+		}, rebuildIndexes);
+		System.out.printf("Generated and copied %d rows: %d customers, %d flights, %d reservations%n", copied.sum(),
+			this._customers, this._flights, this._reservations);
+		return copied.sum();
+	}//end load
+
+	private static boolean contains(BulkLoader.Table[] tables, BulkLoader.Table table){
+		for (BulkLoader.Table t : tables)
+			if (t == table)
+				return true;
+		return false;
+	}
+}//end DataGenerator
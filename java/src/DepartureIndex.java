@@ -0,0 +1,348 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class answers "which flights depart between T1 and T2", overall
+ * or from one airport, from an in-memory index of Schedule.  Departures
+ * are partitioned by airport, and each partition keeps departure minutes,
+ * arrival minutes and flight numbers in parallel int arrays sorted by
+ * departure, so a window is two binary searches and a scan of the rows
+ * it holds.  Times are minutes since the epoch, and DATE values count as
+ * midnight.
+ *
+ * Inserts go to a small sorted delta per partition, which is merged into
+ * the main arrays once it fills, so an insert never shifts a large array.
+ * Lookups run concurrently; inserts take a write lock.
+ *
+ */
+
+public class DepartureIndex{
+	//Schedule rows, and flights without any at their actual dates
+	static final String LOAD_SQL = "SELECT S.flightNum, F.departure_airport, S.departure_time, S.arrival_time\nFROM Schedule S, Flight F\nWHERE F.fnum = S.flightNum\nUNION ALL\nSELECT F.fnum, F.departure_airport, F.actual_departure_date, F.actual_arrival_date\nFROM Flight F\nWHERE NOT EXISTS (SELECT 1 FROM Schedule S WHERE S.flightNum = F.fnum)";
+	static final int LOAD_FETCH_SIZE = 10000;
+	//departures inserted into a partition before its delta is merged
+	static final int DELTA_SIZE = 1024;
+
+	/**
+	 * One departure of a flight.
+	 */
+	public static class Departure{
+		public final int fnum;
+		public final String airport;
+		public final int departure;
+		public final int arrival;
+
+		Departure(int fnum, String airport, int departure, int arrival){
+			this.fnum = fnum;
+			this.airport = airport;
+			this.departure = departure;
+			this.arrival = arrival;
+		}
+	}//end Departure
+
+	//the departures of one airport
+	private static class Partition{
+		final String airport;
+		int size = 0;
+		int[] dep = new int[16];
+		int[] arr = new int[16];
+		int[] fnum = new int[16];
+		//recent inserts, sorted, merged into the arrays above when full
+		int deltaSize = 0;
+		final int[] deltaDep = new int[DELTA_SIZE];
+		final int[] deltaArr = new int[DELTA_SIZE];
+		final int[] deltaFnum = new int[DELTA_SIZE];
+
+		Partition(String airport){
+			this.airport = airport;
+		}
+
+		void append(int fnum, int dep, int arr){
+			if (this.size == this.dep.length){
+				int n = this.size * 2;
+				this.dep = Arrays.copyOf(this.dep, n);
+				this.arr = Arrays.copyOf(this.arr, n);
+				this.fnum = Arrays.copyOf(this.fnum, n);
+			}//end if
+			this.dep[this.size] = dep;
+			this.arr[this.size] = arr;
+			this.fnum[this.size] = fnum;
+			++this.size;
+		}
+
+		//sorts appended rows by departure through packed (departure, row) keys
+		void sort(){
+			long[] keys = new long[this.size];
+			for (int i = 0; i < this.size; ++i)
+				keys[i] = ((long) this.dep[i] << 32) | i;
+			Arrays.sort(keys);
+			int[] arr = new int[this.dep.length];
+			int[] fnum = new int[this.dep.length];
+			for (int i = 0; i < this.size; ++i){
+				int row = (int) keys[i];
+				arr[i] = this.arr[row];
+				fnum[i] = this.fnum[row];
+				this.dep[i] = (int) (keys[i] >> 32);
+			}//end for
+			this.arr = arr;
+			this.fnum = fnum;
+		}
+
+		void insert(int fnum, int dep, int arr){
+			if (this.deltaSize == DELTA_SIZE)
+				merge();
+			int at = upperBound(this.deltaDep, this.deltaSize, dep);
+			System.arraycopy(this.deltaDep, at, this.deltaDep, at + 1, this.deltaSize - at);
+			System.arraycopy(this.deltaArr, at, this.deltaArr, at + 1, this.deltaSize - at);
+			System.arraycopy(this.deltaFnum, at, this.deltaFnum, at + 1, this.deltaSize - at);
+			this.deltaDep[at] = dep;
+			this.deltaArr[at] = arr;
+			this.deltaFnum[at] = fnum;
+			++this.deltaSize;
+		}
+
+		//merges the delta into the main arrays, from the back so no row moves twice
+		void merge(){
+			int n = this.size + this.deltaSize;
+			if (n > this.dep.length){
+				int capacity = Math.max(n, this.dep.length * 2);
+				this.dep = Arrays.copyOf(this.dep, capacity);
+				this.arr = Arrays.copyOf(this.arr, capacity);
+				this.fnum = Arrays.copyOf(this.fnum, capacity);
+			}//end if
+			int i = this.size - 1, j = this.deltaSize - 1;
+			for (int k = n - 1; j >= 0; --k){
+				if (i >= 0 && this.dep[i] > this.deltaDep[j]){
+					this.dep[k] = this.dep[i];
+					this.arr[k] = this.arr[i];
+					this.fnum[k] = this.fnum[i];
+					--i;
+				}else{
+					this.dep[k] = this.deltaDep[j];
+					this.arr[k] = this.deltaArr[j];
+					this.fnum[k] = this.deltaFnum[j];
+					--j;
+				}//end if
+			}//end for
+			this.size = n;
+			this.deltaSize = 0;
+		}
+
+		/**
+		 * A position in the departures of a window, over the main arrays
+		 * and the delta together.
+		 */
+		class Cursor{
+			int i;
+			int j;
+			final int to;
+
+			Cursor(int from, int to){
+				this.i = lowerBound(dep, size, from);
+				this.j = lowerBound(deltaDep, deltaSize, from);
+				this.to = to;
+			}
+
+			//the next departure minute, or Integer.MAX_VALUE past the window
+			int peek(){
+				int main = this.i < size && dep[this.i] <= this.to ? dep[this.i] : Integer.MAX_VALUE;
+				int delta = this.j < deltaSize && deltaDep[this.j] <= this.to ? deltaDep[this.j] : Integer.MAX_VALUE;
+				return Math.min(main, delta);
+			}
+
+			Departure next(){
+				if (this.i < size && dep[this.i] <= this.to && (this.j >= deltaSize || dep[this.i] <= deltaDep[this.j])){
+					++this.i;
+					return new Departure(fnum[this.i - 1], airport, dep[this.i - 1], arr[this.i - 1]);
+				}//end if
+				++this.j;
+				return new Departure(deltaFnum[this.j - 1], airport, deltaDep[this.j - 1], deltaArr[this.j - 1]);
+			}
+		}//end Cursor
+
+		int count(int from, int to){
+			return upperBound(this.dep, this.size, to) - lowerBound(this.dep, this.size, from)
+				+ upperBound(this.deltaDep, this.deltaSize, to) - lowerBound(this.deltaDep, this.deltaSize, from);
+		}
+	}//end Partition
+
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+	private final Map<String, Partition> _partitions = new HashMap<String, Partition>();
+	private long _size = 0;
+
+	/**
+	 * Method to build an index of every Schedule row, and of the flights
+	 * without one at their actual dates.
+	 *
+	 * @param esql the database to read
+	 * @return the index
+	 * @throws java.sql.SQLException when the schedule cannot be read
+	 */
+	public static DepartureIndex load(DBproject esql) throws SQLException {
+		final DepartureIndex index = new DepartureIndex();
+		esql.executeQueryAndStream(LOAD_SQL, LOAD_FETCH_SIZE, rs -> {
+			Timestamp dep = rs.getTimestamp(3);
+			Timestamp arr = rs.getTimestamp(4);
+			if (dep != null && arr != null){
+				index.partition(rs.getString(2)).append(rs.getInt(1), RouteIndex.toMinute(dep.toLocalDateTime()),
+					RouteIndex.toMinute(arr.toLocalDateTime()));
+				++index._size;
+			}//end if
+			return true;
+		});
+		//appended out of order, sorted once
+		for (Partition p : index._partitions.values())
+			p.sort();
+		return index;
+	}
+
+	/**
+	 * Method to add a departure, e.g. of a flight just inserted.
+	 *
+	 * @param fnum the flight number
+	 * @param airport the airport code it leaves from
+	 * @param departure the departure, yyyy-MM-dd with an optional HH:mm
+	 * @param arrival the arrival, yyyy-MM-dd with an optional HH:mm
+	 */
+	public void add(int fnum, String airport, String departure, String arrival){
+		int dep = RouteIndex.parseMinute(departure);
+		int arr = RouteIndex.parseMinute(arrival);
+		this._lock.writeLock().lock();
+		try{
+			partition(airport).insert(fnum, dep, arr);
+			++this._size;
+		}finally{
+			this._lock.writeLock().unlock();
+		}//end try
+	}
+
+	/**
+	 * Method to list departures in a time window, in departure order.
+	 *
+	 * @param from the first minute of the window, since the epoch
+	 * @param to the last minute of the window, since the epoch
+	 * @param airport the airport code departures leave from, or null for all
+	 * @param limit the most departures returned
+	 * @return the departures, earliest first
+	 */
+	public List<Departure> between(int from, int to, String airport, int limit){
+		List<Departure> out = new ArrayList<Departure>();
+		this._lock.readLock().lock();
+		try{
+			List<Partition.Cursor> cursors = new ArrayList<Partition.Cursor>();
+			if (airport != null){
+				Partition p = this._partitions.get(airport.trim());
+				if (p != null)
+					cursors.add(p.new Cursor(from, to));
+			}else{
+				for (Partition p : this._partitions.values()){
+					Partition.Cursor c = p.new Cursor(from, to);
+					if (c.peek() != Integer.MAX_VALUE)
+						cursors.add(c);
+				}//end for
+			}//end if
+			//merges the airports' windows, taking the earliest next departure each time
+			while (out.size() < limit){
+				Partition.Cursor first = null;
+				int firstMinute = Integer.MAX_VALUE;
+				for (Partition.Cursor c : cursors){
+					int minute = c.peek();
+					if (minute < firstMinute){
+						first = c;
+						firstMinute = minute;
+					}//end if
+				}//end for
+				if (first == null)
+					break;
+				out.add(first.next());
+			}//end while
+			return out;
+		}finally{
+			this._lock.readLock().unlock();
+		}//end try
+	}
+
+	/**
+	 * Method to count departures in a time window without listing them.
+	 *
+	 * @param from the first minute of the window, since the epoch
+	 * @param to the last minute of the window, since the epoch
+	 * @param airport the airport code departures leave from, or null for all
+	 * @return the number of departures
+	 */
+	public long count(int from, int to, String airport){
+		this._lock.readLock().lock();
+		try{
+			if (airport != null){
+				Partition p = this._partitions.get(airport.trim());
+				return p == null ? 0 : p.count(from, to);
+			}//end if
+			long n = 0;
+			for (Partition p : this._partitions.values())
+				n += p.count(from, to);
+			return n;
+		}finally{
+			this._lock.readLock().unlock();
+		}//end try
+	}
+
+	public long size(){
+		this._lock.readLock().lock();
+		try{
+			return this._size;
+		}finally{
+			this._lock.readLock().unlock();
+		}//end try
+	}
+
+	public int getAirportCount(){
+		this._lock.readLock().lock();
+		try{
+			return this._partitions.size();
+		}finally{
+			this._lock.readLock().unlock();
+		}//end try
+	}
+
+	private Partition partition(String airport){
+		airport = airport.trim();
+		Partition p = this._partitions.get(airport);
+		if (p == null){
+			p = new Partition(airport);
+			this._partitions.put(airport, p);
+		}//end if
+		return p;
+	}
+
+	//first position in a[0..size) at or after minute
+	private static int lowerBound(int[] a, int size, int minute){
+		int lo = 0, hi = size;
+		while (lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if (a[mid] < minute)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}//end while
+		return lo;
+	}
+
+	//first position in a[0..size) after minute
+	private static int upperBound(int[] a, int size, int minute){
+		int lo = 0, hi = size;
+		while (lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if (a[mid] <= minute)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}//end while
+		return lo;
+	}
+}//end DepartureIndex
@@ -0,0 +1,203 @@
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * This class books seats with group commit.  Callers queue their booking
+ * and wait; a few committer threads take whatever bookings are queued,
+ * up to a batch size, and run them as one call of the book_flights
+ * function of migration V002.  The batch is one statement and one
+ * transaction, so its bookings share a single commit and WAL flush, and
+ * booking throughput is no longer bounded by one flush per booking.
+ *
+ * Each booking still succeeds or fails on its own.  A committer does not
+ * wait for a batch to fill unless a delay is set: bookings arriving while
+ * a batch commits form the next batch.
+ *
+ */
+
+public class GroupCommitBooker{
+	static final String BOOK_BATCH_SQL = "SELECT idx, rnum, status, created, error FROM book_flights(?, ?, ?)";
+
+	//a queued booking and the caller waiting for it
+	private static class Pending{
+		final int cid;
+		final int fid;
+		final int rnum;
+		final CompletableFuture<BookingEngine.Result> result = new CompletableFuture<BookingEngine.Result>();
+
+		Pending(int cid, int fid, int rnum){
+			this.cid = cid;
+			this.fid = fid;
+			this.rnum = rnum;
+		}
+	}//end Pending
+
+	private final ConnectionPool _pool;
+	private final int _maxBatch;
+	private final long _maxDelayNanos;
+	private final BlockingQueue<Pending> _queue = new LinkedBlockingQueue<Pending>();
+	private final Thread[] _committers;
+	private volatile boolean _closed = false;
+
+	/**
+	 * @param pool the pool the committers borrow from
+	 * @param maxBatch the most bookings per commit
+	 * @param maxDelayMicros the time a committer waits for a batch to fill, 0 for none
+	 * @param committers the number of batches committing at a time
+	 */
+	public GroupCommitBooker(ConnectionPool pool, int maxBatch, int maxDelayMicros, int committers){
+		if (maxBatch < 1 || committers < 1)
+			throw new IllegalArgumentException("Invalid group commit settings: batch " + maxBatch + ", committers " + committers);
+		this._pool = pool;
+		this._maxBatch = maxBatch;
+		this._maxDelayNanos = TimeUnit.MICROSECONDS.toNanos(maxDelayMicros);
+		this._committers = new Thread[committers];
+		for (int i = 0; i < committers; ++i){
+			this._committers[i] = new Thread(this::commitLoop, "group-commit-" + i);
+			this._committers[i].setDaemon(true);
+			this._committers[i].start();
+		}//end for
+	}
+
+	/**
+	 * Method to book a seat in the next group commit, waiting for it.
+	 * When the caller's CallScope runs out first the booking may still
+	 * commit.
+	 *
+	 * @param cid the customer id
+	 * @param fid the flight number
+	 * @param rnum the reservation number for a new reservation
+	 * @return the reservation, see BookingEngine.book
+	 * @throws java.sql.SQLException when the booking failed or timed out
+	 */
+	public BookingEngine.Result book(int cid, int fid, int rnum) throws SQLException {
+		if (this._closed)
+			throw new SQLException("Group commit is closed");
+		Pending p = new Pending(cid, fid, rnum);
+		this._queue.add(p);
+		CallScope scope = CallScope.current();
+		try{
+			if (scope == null)
+				return p.result.get();
+			return p.result.get(scope.remainingNanos(), TimeUnit.NANOSECONDS);
+		}catch (ExecutionException e){
+			if (e.getCause() instanceof SQLException)
+				throw (SQLException) e.getCause();
+			throw new SQLException(e.getCause());
+		}catch (TimeoutException e){
+			throw new SQLException("Call timed out after " + scope.getTimeoutMs() + "ms waiting for group commit", CallScope.CANCELED_STATE);
+		}catch (InterruptedException e){
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted waiting for group commit", CallScope.CANCELED_STATE);
+		}//end try
+	}//end book
+
+	private void commitLoop(){
+		List<Pending> batch = new ArrayList<Pending>(this._maxBatch);
+		while (!this._closed || !this._queue.isEmpty()){
+			try{
+				Pending first = this._queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null)
+					continue;
+				batch.add(first);
+				this._queue.drainTo(batch, this._maxBatch - 1);
+				long deadline = System.nanoTime() + this._maxDelayNanos;
+				while (batch.size() < this._maxBatch && this._maxDelayNanos > 0){
+					Pending next = this._queue.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+					if (next == null)
+						break;
+					batch.add(next);
+					this._queue.drainTo(batch, this._maxBatch - batch.size());
+				}//end while
+				commit(batch);
+			}catch (InterruptedException e){
+				return;
+			}catch (RuntimeException e){
+				for (Pending p : batch)
+					p.result.completeExceptionally(e);
+			}finally{
+				batch.clear();
+			}//end try
+		}//end while
+	}//end commitLoop
+
+	//runs a batch as one book_flights call and completes its bookings
+	private void commit(List<Pending> batch){
+		Integer[] cids = new Integer[batch.size()];
+		Integer[] fids = new Integer[batch.size()];
+		Integer[] rnums = new Integer[batch.size()];
+		for (int i = 0; i < cids.length; ++i){
+			cids[i] = batch.get(i).cid;
+			fids[i] = batch.get(i).fid;
+			rnums[i] = batch.get(i).rnum;
+		}//end for
+
+		ConnectionPool.PooledConnection conn = null;
+		try{
+			conn = this._pool.borrow();
+			Connection c = conn.getConnection();
+			Array cidArray = c.createArrayOf("integer", cids);
+			Array fidArray = c.createArrayOf("integer", fids);
+			Array rnumArray = c.createArrayOf("integer", rnums);
+			PreparedStatement stmt = conn.prepare(BOOK_BATCH_SQL);
+			stmt.setArray(1, cidArray);
+			stmt.setArray(2, fidArray);
+			stmt.setArray(3, rnumArray);
+			ResultSet rs = stmt.executeQuery();
+			try{
+				while (rs.next()){
+					Pending p = batch.get(rs.getInt(1) - 1);
+					String error = rs.getString(5);
+					if (error == null)
+						p.result.complete(new BookingEngine.Result(rs.getInt(2), rs.getString(3), rs.getBoolean(4)));
+					else
+						//error is the SQLSTATE, a space and the message
+						p.result.completeExceptionally(new SQLException(error.substring(6), error.substring(0, 5)));
+				}//end while
+			}finally{
+				rs.close();
+			}//end try
+			for (Pending p : batch)
+				if (!p.result.isDone())
+					p.result.completeExceptionally(new SQLException("Booking missing from the book_flights result"));
+		}catch (SQLException e){
+			if (conn != null)
+				conn.checkBroken(e);
+			for (Pending p : batch)
+				p.result.completeExceptionally(e);
+		}finally{
+			if (conn != null)
+				this._pool.release(conn);
+		}//end try
+	}//end commit
+
+	/**
+	 * Method to stop the committers once the queued bookings are committed.
+	 * Bookings queued after they stopped fail.
+	 */
+	public void close(){
+		this._closed = true;
+		for (Thread t : this._committers){
+			try{
+				t.join(5000);
+			}catch (InterruptedException e){
+				Thread.currentThread().interrupt();
+				break;
+			}//end try
+		}//end for
+		Pending p;
+		while ((p = this._queue.poll()) != null)
+			p.result.completeExceptionally(new SQLException("Group commit is closed"));
+	}
+}//end GroupCommitBooker
@@ -0,0 +1,84 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class hands out keys from database sequences without a nextval
+ * round trip per key.  For each sequence it reserves a block of values
+ * in one query and serves them from memory until the block runs out.
+ * Keys are unique across clients, but not gap free: values left in a
+ * block when the process exits are never used.
+ *
+ */
+
+public class IdAllocator{
+	static final String NEXT_BLOCK_SQL = "SELECT nextval(?::regclass)\nFROM generate_series(1, ?)";
+
+	/**
+	 * The reserved, not yet used values of one sequence.
+	 */
+	private static class Block{
+		long[] values = new long[0];
+		int next = 0;
+	}//end Block
+
+	private final ConnectionPool _pool;
+	private final int _blockSize;
+	private final ConcurrentHashMap<String, Block> _blocks = new ConcurrentHashMap<String, Block>();
+
+	public IdAllocator(ConnectionPool pool, int blockSize){
+		if (blockSize < 1)
+			throw new IllegalArgumentException("Block size must be positive");
+		this._pool = pool;
+		this._blockSize = blockSize;
+	}
+
+	/**
+	 * Method to allocate the next key of a sequence.  Threads share the
+	 * reserved blocks; only the thread that empties a block waits for the
+	 * database.
+	 *
+	 * @param sequence name of the DB sequence
+	 * @return a key no other caller has received
+	 * @throws java.sql.SQLException when a new block cannot be reserved
+	 */
+	public int next(String sequence) throws SQLException {
+		Block block = this._blocks.computeIfAbsent(sequence, s -> new Block());
+		synchronized (block){
+			if (block.next == block.values.length){
+				block.values = reserve(sequence);
+				block.next = 0;
+			}//end if
+			long value = block.values[block.next++];
+			if (value > Integer.MAX_VALUE)
+				throw new SQLException("Sequence " + sequence + " exceeded the INTEGER key range");
+			return (int) value;
+		}//end synchronized
+	}//end next
+
+	public int getBlockSize(){
+		return this._blockSize;
+	}
+
+	//fetches blockSize values of a sequence in one round trip
+	private long[] reserve(String sequence) throws SQLException {
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			PreparedStatement stmt = conn.prepare(NEXT_BLOCK_SQL);
+			StatementCache.bind(stmt, sequence, this._blockSize);
+			ResultSet rs = stmt.executeQuery();
+			long[] values = new long[this._blockSize];
+			int n = 0;
+			while (rs.next())
+				values[n++] = rs.getLong(1);
+			rs.close();
+			return values;
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}
+}//end IdAllocator
@@ -0,0 +1,139 @@
+import java.io.PrintStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class drives a ReservationServer with a closed loop of clients,
+ * each on its own virtual thread sending its next request as soon as the
+ * previous one is answered, and reports the requests per second and the
+ * latency of the answers by status.
+ *
+ * Each request is a seat availability lookup, or with probability
+ * bookRatio a booking, on a flight and customer drawn from the samples.
+ *
+ */
+
+public class LoadTestClient{
+	private final URI _base;
+	private final int _clients;
+	private final HttpClient _http;
+	private final OperationStats _ok = new OperationStats("ok");
+	private final OperationStats _rejected = new OperationStats("503");
+	private final OperationStats _failed = new OperationStats("failed");
+	private final Map<Integer, LongAdder> _statuses = new ConcurrentHashMap<Integer, LongAdder>();
+
+	/**
+	 * @param base the server address, such as http://127.0.0.1:8080
+	 * @param clients the number of concurrent clients
+	 */
+	public LoadTestClient(URI base, int clients){
+		this._base = base;
+		this._clients = clients;
+		this._http = HttpClient.newBuilder()
+			.version(HttpClient.Version.HTTP_1_1)
+			.connectTimeout(Duration.ofSeconds(5))
+			.executor(Executors.newVirtualThreadPerTaskExecutor())
+			.build();
+	}
+
+	/**
+	 * Method to run the clients for a warm-up period, whose requests are
+	 * not counted, and then a measurement period.
+	 *
+	 * @param warmupSecs the seconds before measuring
+	 * @param secs the seconds measured
+	 * @param fnums the flights requests are made for
+	 * @param cids the customers bookings are made for
+	 * @param bookRatio the fraction of requests that are bookings
+	 * @throws java.lang.InterruptedException when interrupted while waiting for the clients
+	 */
+	public void run(int warmupSecs, int secs, int[] fnums, int[] cids, double bookRatio) throws InterruptedException {
+		if (fnums.length == 0 || (bookRatio > 0 && cids.length == 0))
+			throw new IllegalArgumentException("No flights or customers to request");
+		long start = System.nanoTime();
+		final long measureFrom = start + warmupSecs * 1000000000L;
+		final long end = measureFrom + secs * 1000000000L;
+
+		ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor();
+		for (int i = 0; i < this._clients; ++i){
+			clients.execute(() -> {
+				ThreadLocalRandom rnd = ThreadLocalRandom.current();
+				long now;
+				while ((now = System.nanoTime()) < end){
+					HttpRequest request = rnd.nextDouble() < bookRatio
+						? booking(cids[rnd.nextInt(cids.length)], fnums[rnd.nextInt(fnums.length)])
+						: seats(fnums[rnd.nextInt(fnums.length)]);
+					int status;
+					try{
+						status = this._http.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+					}catch (InterruptedException e){
+						return;
+					}catch (Exception e){
+						status = -1;
+					}//end try
+					long nanos = System.nanoTime() - now;
+					if (now < measureFrom)
+						continue;
+					this._statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+					if (status >= 200 && status < 300)
+						this._ok.record(nanos, 1, 0, false);
+					else if (status == 503)
+						this._rejected.record(nanos, 0, 0, true);
+					else
+						this._failed.record(nanos, 0, 0, true);
+				}//end while
+			});
+		}//end for
+		clients.shutdown();
+		clients.awaitTermination(warmupSecs + secs + 60, TimeUnit.SECONDS);
+	}//end run
+
+	private HttpRequest seats(int fnum){
+		return HttpRequest.newBuilder(this._base.resolve("/flights/" + fnum + "/seats"))
+			.timeout(Duration.ofSeconds(10)).GET().build();
+	}
+
+	private HttpRequest booking(int cid, int fnum){
+		return HttpRequest.newBuilder(this._base.resolve("/bookings"))
+			.timeout(Duration.ofSeconds(10))
+			.header("Content-Type", "application/json")
+			.POST(HttpRequest.BodyPublishers.ofString("{\"cid\": " + cid + ", \"fid\": " + fnum + "}"))
+			.build();
+	}
+
+	/**
+	 * Method to print the throughput and latencies of the measured period.
+	 *
+	 * @param out the stream to print to
+	 * @param secs the length of the measured period
+	 */
+	public void print(PrintStream out, int secs){
+		long total = this._ok.getCount() + this._rejected.getCount() + this._failed.getCount();
+		out.printf("%d clients, %d requests in %ds: %.1f req/s, %.1f ok/s%n", this._clients, total, secs,
+			(double) total / secs, (double) this._ok.getCount() / secs);
+		out.printf("%-8s %10s %10s %10s %10s %10s%n", "answer", "count", "p50 ms", "p90 ms", "p99 ms", "max ms");
+		for (OperationStats op : new OperationStats[]{this._ok, this._rejected, this._failed}){
+			if (op.getCount() == 0)
+				continue;
+			out.printf("%-8s %10d %10.2f %10.2f %10.2f %10.2f%n", op.getName(), op.getCount(),
+				op.percentile(0.50) / 1e6, op.percentile(0.90) / 1e6, op.percentile(0.99) / 1e6, op.getMaxNanos() / 1e6);
+		}//end for
+		List<String> statuses = new ArrayList<String>();
+		for (Map.Entry<Integer, LongAdder> e : new TreeMap<Integer, LongAdder>(this._statuses).entrySet())
+			statuses.add((e.getKey() < 0 ? "no answer" : "HTTP " + e.getKey()) + ": " + e.getValue().sum());
+		out.println(String.join(", ", statuses));
+	}
+}//end LoadTestClient
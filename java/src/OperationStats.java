@@ -0,0 +1,135 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class counts the calls, errors, rows and bytes of one operation
+ * and keeps a histogram of its latencies.  Recording is lock-free: the
+ * counters are LongAdders and the histogram is an array of atomic
+ * buckets, so threads recording the same operation do not serialize.
+ * Buckets are log-linear, 16 per power of two, which bounds the error of
+ * a reported percentile to 1/16 of its value.
+ *
+ */
+
+public class OperationStats{
+	//latencies below 2^SUB_BITS ns get a bucket each
+	static final int SUB_BITS = 4;
+	static final int SUB_BUCKETS = 1 << SUB_BITS;
+	static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BITS) * SUB_BUCKETS;
+
+	private final String _name;
+	private final AtomicLongArray _buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder _count = new LongAdder();
+	private final LongAdder _errors = new LongAdder();
+	private final LongAdder _rows = new LongAdder();
+	private final LongAdder _bytes = new LongAdder();
+	private final LongAdder _totalNanos = new LongAdder();
+	private final AtomicLong _maxNanos = new AtomicLong();
+
+	public OperationStats(String name){
+		this._name = name;
+	}
+
+	/**
+	 * Method to record one call of the operation.
+	 *
+	 * @param nanos the latency of the call
+	 * @param rows the rows returned or affected
+	 * @param bytes the bytes of the values fetched
+	 * @param failed true if the call threw
+	 */
+	public void record(long nanos, long rows, long bytes, boolean failed){
+		nanos = Math.max(0, nanos);
+		this._buckets.incrementAndGet(bucketOf(nanos));
+		this._count.increment();
+		this._totalNanos.add(nanos);
+		if (rows != 0)
+			this._rows.add(rows);
+		if (bytes != 0)
+			this._bytes.add(bytes);
+		if (failed)
+			this._errors.increment();
+		long max;
+		while (nanos > (max = this._maxNanos.get()) && !this._maxNanos.compareAndSet(max, nanos));
+	}
+
+	static int bucketOf(long nanos){
+		if (nanos < SUB_BUCKETS)
+			return (int) nanos;
+		int exp = 63 - Long.numberOfLeadingZeros(nanos);
+		int sub = (int) (nanos >>> (exp - SUB_BITS)) & (SUB_BUCKETS - 1);
+		return SUB_BUCKETS + (exp - SUB_BITS) * SUB_BUCKETS + sub;
+	}
+
+	//the largest latency falling into a bucket
+	static long upperBoundOf(int bucket){
+		if (bucket < SUB_BUCKETS)
+			return bucket;
+		int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+		long sub = SUB_BUCKETS + (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+		return ((sub + 1) << shift) - 1;
+	}
+
+	/**
+	 * Method to estimate a latency percentile from the histogram.  Calls
+	 * recorded while it runs may or may not be included.
+	 *
+	 * @param p the percentile, between 0 and 1
+	 * @return the latency in nanoseconds, or 0 before the first call
+	 */
+	public long percentile(double p){
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; ++i){
+			counts[i] = this._buckets.get(i);
+			total += counts[i];
+		}//end for
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(p * total));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; ++i){
+			seen += counts[i];
+			if (seen >= rank)
+				return Math.min(upperBoundOf(i), this._maxNanos.get());
+		}//end for
+		return this._maxNanos.get();
+	}
+
+	public String getName(){
+		return this._name;
+	}
+
+	public long getCount(){
+		return this._count.sum();
+	}
+
+	public long getErrors(){
+		return this._errors.sum();
+	}
+
+	public long getRows(){
+		return this._rows.sum();
+	}
+
+	public long getBytes(){
+		return this._bytes.sum();
+	}
+
+	public long getTotalNanos(){
+		return this._totalNanos.sum();
+	}
+
+	public long getMaxNanos(){
+		return this._maxNanos.get();
+	}
+
+	/**
+	 * @return the mean latency in nanoseconds, or 0 before the first call
+	 */
+	public double getMeanNanos(){
+		long count = getCount();
+		return count == 0 ? 0 : (double) getTotalNanos() / count;
+	}
+}//end OperationStats
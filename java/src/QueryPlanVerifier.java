@@ -0,0 +1,204 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class runs EXPLAIN (ANALYZE, BUFFERS) for every query the menu
+ * operations issue and checks that the expected index is used and that
+ * the median execution time stays within a budget.  Bind values are
+ * sampled from the loaded data, so run it against a dataset of the size
+ * being tuned for.  Everything runs in one transaction that is rolled
+ * back, so the FOR UPDATE lock of the booking path is released.
+ *
+ * On a partitioned table the expected index is a partitioned index, and
+ * the plan must use the index of exactly one partition: a plan that
+ * scans several partitions was not pruned.
+ *
+ */
+
+public class QueryPlanVerifier{
+	//executions per query, the median execution time is checked
+	static final int RUNS = 5;
+	static final Pattern EXECUTION_TIME = Pattern.compile("Execution [Tt]ime: ([0-9.]+) ms");
+	static final Pattern BUFFERS = Pattern.compile("Buffers: (.*)");
+	//the indexes of the partitions of a partitioned index, none for a plain one
+	static final String PARTITION_INDEXES_SQL = "SELECT relid::text FROM pg_partition_tree(to_regclass(?)) WHERE level > 0";
+
+	/**
+	 * One menu query, how to sample its bind values and the index it
+	 * should be answered from.
+	 */
+	static class Check{
+		final String name;
+		final String sql;
+		//query returning one row of bind values, or null without parameters
+		final String sampleSql;
+		//index the plan must use, or null for latency only
+		final String index;
+
+		Check(String name, String sql, String sampleSql, String index){
+			this.name = name;
+			this.sql = sql;
+			this.sampleSql = sampleSql;
+			this.index = index;
+		}
+	}//end Check
+
+	static final Check[] CHECKS = {
+		new Check("book: find reservation", BookingEngine.FIND_RESERVATION_SQL,
+			"SELECT cid, fid FROM Reservation ORDER BY rnum DESC LIMIT 1", "reservation_cid_fid_idx"),
+		new Check("book: lock flight", BookingEngine.LOCK_FLIGHT_SQL,
+			"SELECT flight_id FROM FlightInfo ORDER BY fiid DESC LIMIT 1", "flightinfo_flight_id_idx"),
+		new Check("5 reservation status", DBproject.RESERVATION_STATUS_SQL,
+			"SELECT cid, fid FROM Reservation ORDER BY rnum DESC LIMIT 1", "reservation_cid_fid_idx"),
+		new Check("6 seat inventory", DBproject.SEAT_INVENTORY_SQL,
+			"SELECT flight_id FROM FlightInfo ORDER BY fiid DESC LIMIT 1", "flightinfo_flight_id_idx"),
+		new Check("7 repairs per plane", DBproject.REPAIRS_PER_PLANE_SQL, null, null),
+		new Check("8 repairs per year", DBproject.REPAIRS_PER_YEAR_SQL, null, null),
+		new Check("9 passengers with status", DBproject.PASSENGERS_WITH_STATUS_SQL,
+			"SELECT fid, status FROM Reservation ORDER BY rnum DESC LIMIT 1", "reservation_fid_status_idx")
+	};
+
+	private final ConnectionPool _pool;
+	private final double _budgetMs;
+
+	public QueryPlanVerifier(ConnectionPool pool, double budgetMs){
+		this._pool = pool;
+		this._budgetMs = budgetMs;
+	}
+
+	/**
+	 * Method to verify every check and print one line per query, plus the
+	 * full plan of each failing one.
+	 *
+	 * @return true if every query used its index within the budget
+	 * @throws java.sql.SQLException when a query or its sampling failed
+	 */
+	public boolean verify() throws SQLException {
+		boolean allPassed = true;
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			Connection c = conn.getConnection();
+			c.setAutoCommit(false);
+			System.out.printf("%-28s %-28s %10s  %-34s %s%n", "query", "index", "median ms", "buffers", "result");
+			for (Check check : CHECKS){
+				Object[] params = sample(c, check.sampleSql);
+				double[] times = new double[RUNS];
+				List<String> plan = null;
+				for (int i = 0; i < RUNS; ++i){
+					plan = explain(c, check.sql, params);
+					times[i] = executionTime(plan);
+				}//end for
+				Arrays.sort(times);
+				double median = times[RUNS / 2];
+
+				int used = check.index == null ? 0 : indexesUsed(plan, indexes(c, check.index));
+				boolean indexed = check.index == null || used == 1;
+				boolean passed = indexed && median <= this._budgetMs;
+				allPassed &= passed;
+				System.out.printf("%-28s %-28s %10.3f  %-34s %s%n", check.name,
+					check.index == null ? "-" : used == 0 ? "NOT USED" : used > 1 ? "NOT PRUNED" : check.index,
+					median, buffers(plan), passed ? "PASS" : "FAIL");
+				if (!passed)
+					for (String line : plan)
+						System.out.println("    " + line);
+			}//end for
+			c.rollback();
+			c.setAutoCommit(true);
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+		System.out.println(allPassed ? "All query plans within budget" : "Query plan verification FAILED");
+		return allPassed;
+	}//end verify
+
+	//reads one row of bind values from the data
+	private static Object[] sample(Connection c, String sampleSql) throws SQLException {
+		if (sampleSql == null)
+			return new Object[0];
+		PreparedStatement stmt = c.prepareStatement(sampleSql);
+		ResultSet rs = stmt.executeQuery();
+		try{
+			if (!rs.next())
+				throw new SQLException("No data to sample bind values from: " + sampleSql);
+			Object[] params = new Object[rs.getMetaData().getColumnCount()];
+			for (int i = 0; i < params.length; ++i)
+				params[i] = rs.getObject(i + 1);
+			return params;
+		}finally{
+			rs.close();
+			stmt.close();
+		}//end try
+	}
+
+	private static List<String> explain(Connection c, String sql, Object[] params) throws SQLException {
+		PreparedStatement stmt = c.prepareStatement("EXPLAIN (ANALYZE, BUFFERS) " + sql);
+		StatementCache.bind(stmt, params);
+		ResultSet rs = stmt.executeQuery();
+		List<String> plan = new ArrayList<String>();
+		while (rs.next())
+			plan.add(rs.getString(1));
+		rs.close();
+		stmt.close();
+		return plan;
+	}
+
+	private static double executionTime(List<String> plan){
+		for (String line : plan){
+			Matcher m = EXECUTION_TIME.matcher(line);
+			if (m.find())
+				return Double.parseDouble(m.group(1));
+		}//end for
+		return Double.NaN;
+	}
+
+	//the index, and the indexes of its partitions when it is partitioned
+	private static List<String> indexes(Connection c, String index) throws SQLException {
+		List<String> indexes = new ArrayList<String>();
+		indexes.add(index);
+		PreparedStatement stmt = c.prepareStatement(PARTITION_INDEXES_SQL);
+		stmt.setString(1, index);
+		ResultSet rs = stmt.executeQuery();
+		try{
+			while (rs.next())
+				indexes.add(rs.getString(1));
+		}finally{
+			rs.close();
+			stmt.close();
+		}//end try
+		return indexes;
+	}
+
+	//how many of the indexes the plan scans
+	private static int indexesUsed(List<String> plan, List<String> indexes){
+		int used = 0;
+		for (String index : indexes){
+			for (String line : plan){
+				if (line.contains("Index") && line.contains(" " + index + " ")){
+					++used;
+					break;
+				}//end if
+			}//end for
+		}//end for
+		return used;
+	}
+
+	//buffer counts of the top plan node, which include its children
+	private static String buffers(List<String> plan){
+		for (String line : plan){
+			Matcher m = BUFFERS.matcher(line);
+			if (m.find())
+				return m.group(1);
+		}//end for
+		return "-";
+	}
+}//end QueryPlanVerifier
@@ -0,0 +1,567 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.time.LocalDate;
+
+/**
+ * This class is a read-only snapshot of the reference tables Plane,
+ * Pilot, Technician and Customer, kept in a memory-mapped file.  Each
+ * table is an array of fixed-size records addressed by id, followed by a
+ * heap with the records' strings.  A lookup computes a slot and reads the
+ * mapped pages in place, so it creates no objects; only the strings asked
+ * for are decoded.  Opening a snapshot maps the file and reads its
+ * header, which takes milliseconds whatever the size of the tables, and
+ * the OS pages records in as they are used.
+ *
+ * Dense ids are addressed directly at id minus the smallest id.  Sparse
+ * ids go through an open-addressing table stored in the file.  Snapshots
+ * are written to a temporary file and renamed over the old one, so a
+ * reader never maps a partial file, and a snapshot already mapped stays
+ * valid after it is replaced.
+ *
+ *   header   magic, version, creation time, number of tables
+ *   tables   per table: its number, record size, smallest id, slots, rows,
+ *            addressing, and the offsets and sizes of its slots and heap
+ *   slots    per slot: a used byte, the id, then the columns.  INT and
+ *            DATE columns take 4 bytes, TEXT columns a heap offset and a
+ *            2 byte length, -1 for null
+ *   heap     the UTF-8 strings, without the blank padding of CHAR columns
+ *
+ */
+
+public class ReferenceSnapshot{
+	static final int MAGIC = 0x52534e50;
+	static final int VERSION = 1;
+	static final int HEADER_SIZE = 24;
+	static final int TABLE_ENTRY_SIZE = 48;
+	static final int LOAD_FETCH_SIZE = 10000;
+	//ids are addressed directly while they span at most this many slots per row
+	static final int MAX_DIRECT_SPREAD = 2;
+	static final int HEAP_BUFFER_SIZE = 64 * 1024;
+	//stored for a null DATE
+	static final int NULL_DATE = Integer.MIN_VALUE;
+
+	static final char INT = 'I';
+	static final char DATE = 'D';
+	static final char TEXT = 'S';
+
+	/**
+	 * The tables kept in a snapshot and the layout of their records.
+	 */
+	public enum Table{
+		PLANE("Plane", "make, model, age, seats", "SSII"),
+		PILOT("Pilot", "fullname, nationality", "SS"),
+		TECHNICIAN("Technician", "full_name", "S"),
+		CUSTOMER("Customer", "fname, lname, gtype, dob, address, phone, zipcode", "SSSDSSS");
+
+		final String name;
+		final String[] columns;
+		final String types;
+		//byte offset of each column in a record, after the used byte and the id
+		final int[] offsets;
+		final int recordSize;
+
+		Table(String name, String columns, String types){
+			this.name = name;
+			this.columns = columns.split(", ");
+			this.types = types;
+			this.offsets = new int[types.length()];
+			int offset = 5;
+			for (int i = 0; i < this.offsets.length; ++i){
+				this.offsets[i] = offset;
+				offset += types.charAt(i) == TEXT ? 6 : 4;
+			}//end for
+			this.recordSize = offset;
+		}
+
+		/**
+		 * @return the query reading the id and the columns of the table
+		 */
+		public String getSelectSql(){
+			return "SELECT id, " + String.join(", ", this.columns) + "\nFROM " + this.name;
+		}
+
+		public String getName(){
+			return this.name;
+		}
+
+		public int getColumnCount(){
+			return this.columns.length;
+		}
+
+		public String getColumnName(int column){
+			return this.columns[column];
+		}
+
+		/**
+		 * @param column the column number
+		 * @return INT, DATE or TEXT
+		 */
+		public char getColumnType(int column){
+			return this.types.charAt(column);
+		}
+
+		/**
+		 * Method to find a column by name, e.g. once before many lookups.
+		 *
+		 * @param name the column name
+		 * @return the column number
+		 */
+		public int column(String name){
+			for (int i = 0; i < this.columns.length; ++i)
+				if (this.columns[i].equals(name))
+					return i;
+			throw new IllegalArgumentException(this.name + " has no column " + name);
+		}
+	}//end Table
+
+	//the mapped records of one table
+	private static class Section{
+		final MappedByteBuffer slots;
+		final MappedByteBuffer heap;
+		final int recordSize;
+		final int minId;
+		final int slotCount;
+		final int rows;
+		final boolean direct;
+
+		Section(MappedByteBuffer slots, MappedByteBuffer heap, int recordSize, int minId, int slotCount, int rows, boolean direct){
+			this.slots = slots;
+			this.heap = heap;
+			this.recordSize = recordSize;
+			this.minId = minId;
+			this.slotCount = slotCount;
+			this.rows = rows;
+			this.direct = direct;
+		}
+	}//end Section
+
+	private final File _file;
+	private final long _created;
+	private final long _bytes;
+	//by Table ordinal, null for a table missing from the file
+	private final Section[] _sections;
+
+	private ReferenceSnapshot(File file, long created, long bytes, Section[] sections){
+		this._file = file;
+		this._created = created;
+		this._bytes = bytes;
+		this._sections = sections;
+	}
+
+	/**
+	 * Method to map a snapshot file.  Only the header is read; records are
+	 * paged in on first use.
+	 *
+	 * @param file the snapshot written by write
+	 * @return the snapshot
+	 * @throws java.io.IOException when the file cannot be mapped or is not a snapshot
+	 */
+	public static ReferenceSnapshot open(File file) throws IOException {
+		FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try{
+			long size = ch.size();
+			ByteBuffer header = read(ch, 0, HEADER_SIZE, size, file);
+			if (header.getInt() != MAGIC)
+				throw new IOException(file + " is not a reference snapshot");
+			int version = header.getInt();
+			if (version != VERSION)
+				throw new IOException(file + " has snapshot version " + version + ", expected " + VERSION);
+			long created = header.getLong();
+			int tables = header.getInt();
+
+			Section[] sections = new Section[Table.values().length];
+			ByteBuffer entries = read(ch, HEADER_SIZE, (long) tables * TABLE_ENTRY_SIZE, size, file);
+			for (int i = 0; i < tables; ++i){
+				int ordinal = entries.getInt();
+				int recordSize = entries.getInt();
+				int minId = entries.getInt();
+				int slotCount = entries.getInt();
+				int rows = entries.getInt();
+				boolean direct = entries.getInt() != 0;
+				long slotsOffset = entries.getLong();
+				long heapOffset = entries.getLong();
+				long heapSize = entries.getLong();
+				long slotBytes = (long) slotCount * recordSize;
+				if (ordinal < 0 || ordinal >= sections.length || recordSize != Table.values()[ordinal].recordSize)
+					throw new IOException(file + " was written with another record layout");
+				if (slotsOffset + slotBytes > size || heapOffset + heapSize > size)
+					throw new IOException(file + " is truncated");
+				sections[ordinal] = new Section(ch.map(FileChannel.MapMode.READ_ONLY, slotsOffset, slotBytes),
+					ch.map(FileChannel.MapMode.READ_ONLY, heapOffset, heapSize), recordSize, minId, slotCount, rows, direct);
+			}//end for
+			return new ReferenceSnapshot(file, created, size, sections);
+		}finally{
+			//the mappings stay valid once the channel is closed
+			ch.close();
+		}//end try
+	}
+
+	//reads length bytes at offset of a file of the given size
+	private static ByteBuffer read(FileChannel ch, long offset, long length, long size, File file) throws IOException {
+		if (offset + length > size)
+			throw new IOException(file + " is not a reference snapshot or is truncated");
+		ByteBuffer buf = ByteBuffer.allocate((int) length);
+		while (buf.hasRemaining())
+			if (ch.read(buf, offset + buf.position()) < 0)
+				throw new IOException(file + " is truncated");
+		buf.flip();
+		return buf;
+	}
+
+	/**
+	 * Method to write a snapshot of the reference tables, replacing the
+	 * file at once when it is complete.  Each table is streamed through a
+	 * cursor, so memory use does not grow with the tables.  Rows inserted
+	 * while a table is read may be left out.
+	 *
+	 * @param esql the database to read
+	 * @param file the snapshot file to write or replace
+	 * @return the number of rows written
+	 * @throws java.sql.SQLException when a table cannot be read
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public static long write(DBproject esql, File file) throws SQLException, IOException {
+		File tmp = new File(file.getPath() + ".tmp");
+		long rows = 0;
+		Writer w = new Writer(tmp);
+		try{
+			for (Table table : Table.values()){
+				TypedResult range = esql.executeQueryAndReturnTypedResult("SELECT min(id), max(id), count(*)\nFROM " + table.name);
+				int minId = range.isNull(0, 0) ? 0 : range.getInt(0, 0);
+				int maxId = range.isNull(0, 1) ? -1 : range.getInt(0, 1);
+				w.beginTable(table, minId, maxId, range.getLong(0, 2));
+				esql.executeQueryAndStream(table.getSelectSql() + "\nWHERE id BETWEEN ? AND ?", LOAD_FETCH_SIZE, rs -> {
+					if (!w.beginRow(rs.getInt(1)))
+						return true;
+					try{
+						for (int col = 0; col < table.columns.length; ++col){
+							switch (table.types.charAt(col)){
+								case INT:
+									w.putInt(col, rs.getInt(col + 2));
+									break;
+								case DATE:
+									Date d = rs.getDate(col + 2);
+									w.putDate(col, d == null ? null : d.toLocalDate());
+									break;
+								default:
+									w.putString(col, rs.getString(col + 2));
+							}//end switch
+						}//end for
+					}catch (IOException e){
+						throw new UncheckedIOException(e);
+					}//end try
+					return true;
+				}, minId, maxId);
+				rows += w.endTable();
+			}//end for
+			w.finish();
+		}catch (UncheckedIOException e){
+			throw e.getCause();
+		}finally{
+			w.close();
+		}//end try
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return rows;
+	}
+
+	/**
+	 * This class writes the snapshot file one table and one row at a
+	 * time.  Tables are written in any order, each at most once.
+	 */
+	static class Writer implements Closeable{
+		private final File _file;
+		private final FileChannel _ch;
+		private final ByteBuffer _entries;
+		private final ByteBuffer _heapBuffer = ByteBuffer.allocateDirect(HEAP_BUFFER_SIZE);
+		private boolean _done = false;
+		private int _tables = 0;
+		//end of the tables written so far
+		private long _end;
+
+		//the table being written
+		private Table _table;
+		private MappedByteBuffer _slots;
+		private long _slotsOffset;
+		private int _minId;
+		private int _slotCount;
+		private boolean _direct;
+		private int _maxRows;
+		private int _rows;
+		private long _heapOffset;
+		private long _heapSize;
+		private int _record;
+
+		Writer(File file) throws IOException {
+			this._file = file;
+			this._ch = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+			this._entries = ByteBuffer.allocate(Table.values().length * TABLE_ENTRY_SIZE);
+			this._end = HEADER_SIZE + this._entries.capacity();
+		}
+
+		/**
+		 * Method to start a table, sizing its slots for the ids given.
+		 *
+		 * @param table the table
+		 * @param minId the smallest id
+		 * @param maxId the largest id, below minId for an empty table
+		 * @param rows the number of rows
+		 * @throws java.io.IOException when the slots cannot be mapped
+		 */
+		void beginTable(Table table, int minId, int maxId, long rows) throws IOException {
+			long spread = Math.max(0, (long) maxId - minId + 1);
+			this._table = table;
+			this._minId = minId;
+			this._direct = spread <= Math.max(rows * MAX_DIRECT_SPREAD, 1024);
+			long slotCount = this._direct ? spread : Long.highestOneBit(Math.max(rows, 8) * 2 - 1) << 1;
+			if (slotCount * table.recordSize > Integer.MAX_VALUE)
+				throw new IOException(table.name + " is too large for a snapshot: " + rows + " rows with ids " + minId + " to " + maxId);
+			this._slotCount = (int) slotCount;
+			//an open-addressing table is kept at most three quarters full
+			this._maxRows = this._direct ? this._slotCount : this._slotCount / 4 * 3;
+			this._rows = 0;
+			this._slotsOffset = (this._end + 7) & ~7L;
+			this._slots = this._ch.map(FileChannel.MapMode.READ_WRITE, this._slotsOffset, slotCount * table.recordSize);
+			this._heapOffset = this._slotsOffset + slotCount * table.recordSize;
+			this._heapSize = 0;
+			this._heapBuffer.clear();
+		}
+
+		/**
+		 * Method to start the record of a row.
+		 *
+		 * @param id the id of the row
+		 * @return false when the row is skipped, e.g. inserted after the table was sized
+		 */
+		boolean beginRow(int id){
+			if (this._rows == this._maxRows)
+				return false;
+			int size = this._table.recordSize;
+			if (this._direct){
+				long slot = (long) id - this._minId;
+				if (slot < 0 || slot >= this._slotCount)
+					return false;
+				this._record = (int) slot * size;
+			}else{
+				int mask = this._slotCount - 1;
+				int slot = hash(id) & mask;
+				while (this._slots.get(slot * size) != 0 && this._slots.getInt(slot * size + 1) != id)
+					slot = (slot + 1) & mask;
+				this._record = slot * size;
+			}//end if
+			if (this._slots.get(this._record) == 0)
+				++this._rows;
+			this._slots.put(this._record, (byte) 1);
+			this._slots.putInt(this._record + 1, id);
+			return true;
+		}
+
+		void putInt(int column, int value){
+			this._slots.putInt(this._record + this._table.offsets[column], value);
+		}
+
+		void putDate(int column, LocalDate value){
+			putInt(column, value == null ? NULL_DATE : (int) value.toEpochDay());
+		}
+
+		void putString(int column, String value) throws IOException {
+			int at = this._record + this._table.offsets[column];
+			if (value == null){
+				this._slots.putInt(at, 0);
+				this._slots.putShort(at + 4, (short) -1);
+				return;
+			}//end if
+			//CHAR columns come padded with blanks
+			int end = value.length();
+			while (end > 0 && value.charAt(end - 1) == ' ')
+				--end;
+			byte[] bytes = value.substring(0, end).getBytes(StandardCharsets.UTF_8);
+			if (bytes.length > Short.MAX_VALUE || this._heapSize + bytes.length > Integer.MAX_VALUE)
+				throw new IOException(this._table.name + "." + this._table.columns[column] + " is too large for a snapshot");
+			this._slots.putInt(at, (int) this._heapSize);
+			this._slots.putShort(at + 4, (short) bytes.length);
+			if (bytes.length > this._heapBuffer.remaining())
+				flushHeap();
+			if (bytes.length > this._heapBuffer.remaining())
+				writeFully(ByteBuffer.wrap(bytes), this._heapOffset + this._heapSize);
+			else
+				this._heapBuffer.put(bytes);
+			this._heapSize += bytes.length;
+		}
+
+		/**
+		 * Method to finish the current table.
+		 *
+		 * @return the number of rows written to it
+		 * @throws java.io.IOException when its strings cannot be written
+		 */
+		int endTable() throws IOException {
+			flushHeap();
+			this._slots.force();
+			this._entries.putInt(this._table.ordinal()).putInt(this._table.recordSize).putInt(this._minId)
+				.putInt(this._slotCount).putInt(this._rows).putInt(this._direct ? 1 : 0)
+				.putLong(this._slotsOffset).putLong(this._heapOffset).putLong(this._heapSize);
+			++this._tables;
+			this._end = this._heapOffset + this._heapSize;
+			this._slots = null;
+			return this._rows;
+		}
+
+		/**
+		 * Method to write the header once every table is written and flush
+		 * the file to disk.
+		 *
+		 * @throws java.io.IOException when the file cannot be written
+		 */
+		void finish() throws IOException {
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).putInt(this._tables).putInt(0);
+			header.flip();
+			writeFully(header, 0);
+			this._entries.flip();
+			writeFully(this._entries, HEADER_SIZE);
+			this._ch.force(true);
+			this._done = true;
+		}
+
+		//writes the buffered strings of the current table after those already written
+		private void flushHeap() throws IOException {
+			this._heapBuffer.flip();
+			writeFully(this._heapBuffer, this._heapOffset + this._heapSize - this._heapBuffer.remaining());
+			this._heapBuffer.clear();
+		}
+
+		private void writeFully(ByteBuffer buf, long offset) throws IOException {
+			while (buf.hasRemaining())
+				offset += this._ch.write(buf, offset);
+		}
+
+		/**
+		 * Method to close the file, deleting it unless finish was called.
+		 */
+		@Override
+		public void close() throws IOException {
+			this._ch.close();
+			if (!this._done)
+				Files.deleteIfExists(this._file.toPath());
+		}
+	}//end Writer
+
+	//spreads sequential ids over an open-addressing table
+	private static int hash(int id){
+		int h = id * 0x9e3779b9;
+		return h ^ (h >>> 16);
+	}
+
+	/**
+	 * Method to find the record of a row.
+	 *
+	 * @param table the table
+	 * @param id the id of the row
+	 * @return the record, for the get methods, or -1 when the row is not in the snapshot
+	 */
+	public int find(Table table, int id){
+		Section s = this._sections[table.ordinal()];
+		if (s == null)
+			return -1;
+		if (s.direct){
+			long slot = (long) id - s.minId;
+			if (slot < 0 || slot >= s.slotCount)
+				return -1;
+			int record = (int) slot * s.recordSize;
+			return s.slots.get(record) != 0 ? record : -1;
+		}//end if
+		int mask = s.slotCount - 1;
+		for (int slot = hash(id) & mask; ; slot = (slot + 1) & mask){
+			int record = slot * s.recordSize;
+			if (s.slots.get(record) == 0)
+				return -1;
+			if (s.slots.getInt(record + 1) == id)
+				return record;
+		}//end for
+	}
+
+	public boolean contains(Table table, int id){
+		return find(table, id) >= 0;
+	}
+
+	/**
+	 * @param table the table
+	 * @param record a record returned by find
+	 * @param column the number of an INT or DATE column, DATE as an epoch day
+	 * @return the value
+	 */
+	public int getInt(Table table, int record, int column){
+		return this._sections[table.ordinal()].slots.getInt(record + table.offsets[column]);
+	}
+
+	/**
+	 * @param table the table
+	 * @param record a record returned by find
+	 * @param column the number of a DATE column
+	 * @return the date, or null
+	 */
+	public LocalDate getDate(Table table, int record, int column){
+		int day = getInt(table, record, column);
+		return day == NULL_DATE ? null : LocalDate.ofEpochDay(day);
+	}
+
+	/**
+	 * @param table the table
+	 * @param record a record returned by find
+	 * @param column the number of a TEXT column
+	 * @return the value without blank padding, or null
+	 */
+	public String getString(Table table, int record, int column){
+		Section s = this._sections[table.ordinal()];
+		int at = record + table.offsets[column];
+		int length = s.slots.getShort(at + 4);
+		if (length < 0)
+			return null;
+		byte[] bytes = new byte[length];
+		s.heap.get(s.slots.getInt(at), bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @param table the table
+	 * @return the number of rows of the table in the snapshot
+	 */
+	public int getRowCount(Table table){
+		Section s = this._sections[table.ordinal()];
+		return s == null ? 0 : s.rows;
+	}
+
+	public long getRowCount(){
+		long rows = 0;
+		for (Table table : Table.values())
+			rows += getRowCount(table);
+		return rows;
+	}
+
+	public File getFile(){
+		return this._file;
+	}
+
+	/**
+	 * @return when the snapshot was written, in milliseconds since the epoch
+	 */
+	public long getCreated(){
+		return this._created;
+	}
+
+	public long getByteSize(){
+		return this._bytes;
+	}
+}//end ReferenceSnapshot
@@ -0,0 +1,306 @@
+import java.io.PrintStream;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class routes reads to streaming replicas of the primary.  Only
+ * reads made inside DBproject.readOnly are routed; everything else, and
+ * every write, uses the primary.
+ *
+ * Reads honour read-your-writes per thread.  After a thread writes, it
+ * records the primary's WAL position (LSN).  Until a replica has replayed
+ * past that position, the thread's reads go to the primary.  Each replica's
+ * replay position is polled in the background, so routing itself costs
+ * no round trip.  A replica that cannot be reached is skipped until a poll
+ * reaches it again, and its reads fail over to the primary.
+ *
+ */
+
+public class ReplicaRouter{
+	static final String REPLAY_LSN_SQL = "SELECT pg_last_wal_replay_lsn() - '0/0'";
+	static final String CURRENT_LSN_SQL = "SELECT pg_current_wal_lsn() - '0/0'";
+	//milliseconds between polls of a replica's replay position
+	static final long POLL_MS = 50;
+	//milliseconds a replica that failed is skipped before it is polled again
+	static final long RETRY_MS = 5000;
+
+	/**
+	 * How a read picks among the replicas that have replayed its writes.
+	 */
+	public enum Policy{
+		//each replica in turn
+		ROUND_ROBIN,
+		//the replica with the fewest borrowed connections
+		LEAST_LOADED;
+
+		/**
+		 * @param name round-robin or least-loaded
+		 * @return the policy
+		 */
+		public static Policy parse(String name){
+			return valueOf(name.trim().toUpperCase().replace('-', '_'));
+		}
+	}//end Policy
+
+	//one replica and what is known of it
+	private static class Replica{
+		final String endpoint;
+		final ConnectionPool pool;
+		//WAL position replayed at the last poll, -1 when unknown or not a standby
+		volatile long replayLsn = -1;
+		volatile long downUntil = 0;
+		final LongAdder reads = new LongAdder();
+
+		Replica(String endpoint, ConnectionPool pool){
+			this.endpoint = endpoint;
+			this.pool = pool;
+		}
+	}//end Replica
+
+	//the routing state of one thread
+	private static class Session{
+		//nesting of readOnly, reads are routed while above 0
+		int depth = 0;
+		//primary WAL position after the thread's last write
+		long lsn = 0;
+	}//end Session
+
+	private final ConnectionPool _primary;
+	private final Replica[] _replicas;
+	private final Policy _policy;
+	private final AtomicInteger _next = new AtomicInteger();
+	private final ThreadLocal<Session> _session = ThreadLocal.withInitial(Session::new);
+	private final ScheduledExecutorService _poller;
+	private final LongAdder _primaryReads = new LongAdder();
+	private final LongAdder _failovers = new LongAdder();
+	private final LongAdder _saturated = new LongAdder();
+
+	/**
+	 * @param primary the pool of the primary
+	 * @param endpoints a name per replica, for statistics
+	 * @param pools a pool per replica
+	 * @param policy how reads pick a replica
+	 */
+	public ReplicaRouter(ConnectionPool primary, String[] endpoints, ConnectionPool[] pools, Policy policy){
+		this._primary = primary;
+		this._policy = policy;
+		this._replicas = new Replica[pools.length];
+		for (int i = 0; i < pools.length; ++i)
+			this._replicas[i] = new Replica(endpoints[i], pools[i]);
+		//a thread per replica, so a replica slow to answer does not delay the others' polls
+		this._poller = Executors.newScheduledThreadPool(Math.max(1, pools.length), r -> {
+			Thread t = new Thread(r, "replica-poll");
+			t.setDaemon(true);
+			return t;
+		});
+		for (Replica r : this._replicas)
+			this._poller.scheduleWithFixedDelay(() -> poll(r), 0, POLL_MS, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Method to start routing the calling thread's reads, see DBproject.readOnly.
+	 */
+	public void enter(){
+		++this._session.get().depth;
+	}
+
+	public void exit(){
+		--this._session.get().depth;
+	}
+
+	/**
+	 * Method to send the calling thread's reads to the primary, e.g. for
+	 * a result that is cached for other threads.
+	 *
+	 * @return the state to hand to resume
+	 */
+	public int suspend(){
+		Session s = this._session.get();
+		int depth = s.depth;
+		s.depth = 0;
+		return depth;
+	}
+
+	public void resume(int depth){
+		this._session.get().depth = depth;
+	}
+
+	/**
+	 * Method to borrow a connection for a read: from a replica that has
+	 * replayed the thread's writes when routed, otherwise from the primary.
+	 * A replica whose connections are all borrowed is passed over without
+	 * waiting, and only one that cannot be reached is taken out of service.
+	 * Release the connection to its own pool, see PooledConnection.getPool.
+	 *
+	 * @return the connection
+	 * @throws java.sql.SQLException when the primary cannot be reached either
+	 */
+	public ConnectionPool.PooledConnection borrow() throws SQLException {
+		Session s = this._session.get();
+		if (s.depth == 0)
+			return this._primary.borrow();
+		boolean[] tried = new boolean[this._replicas.length];
+		for (int attempt = 0; attempt < this._replicas.length; ++attempt){
+			int i = choose(s.lsn, tried);
+			if (i < 0)
+				break;
+			tried[i] = true;
+			Replica r = this._replicas[i];
+			try{
+				ConnectionPool.PooledConnection conn = r.pool.tryBorrow();
+				if (conn == null){
+					this._saturated.increment();
+					continue;
+				}//end if
+				r.reads.increment();
+				return conn;
+			}catch (SQLException e){
+				if (CallScope.CANCELED_STATE.equals(e.getSQLState()))
+					throw e;
+				markDown(r, e);
+				this._failovers.increment();
+			}//end try
+		}//end for
+		this._primaryReads.increment();
+		return this._primary.borrow();
+	}
+
+	//the index of the replica a read goes to, or -1 when none untried is up and caught up
+	private int choose(long lsn, boolean[] tried){
+		long now = System.currentTimeMillis();
+		int n = this._replicas.length;
+		int first = this._policy == Policy.ROUND_ROBIN ? Math.floorMod(this._next.getAndIncrement(), n) : 0;
+		int best = -1;
+		for (int k = 0; k < n; ++k){
+			int i = (first + k) % n;
+			Replica r = this._replicas[i];
+			if (tried[i] || r.downUntil > now || r.replayLsn < lsn)
+				continue;
+			if (this._policy == Policy.ROUND_ROBIN)
+				return i;
+			if (best < 0 || r.pool.getBorrowedCount() < this._replicas[best].pool.getBorrowedCount())
+				best = i;
+		}//end for
+		return best;
+	}
+
+	/**
+	 * Method to record that the calling thread wrote to the primary, so
+	 * its later reads see the write.  When the primary's position cannot be
+	 * read, the thread's reads stay on the primary.
+	 *
+	 * @param conn a primary connection the caller holds, or null to borrow one
+	 */
+	public void noteWrite(ConnectionPool.PooledConnection conn){
+		Session s = this._session.get();
+		try{
+			long lsn;
+			if (conn != null)
+				lsn = queryLsn(conn, CURRENT_LSN_SQL);
+			else
+				lsn = queryLsn(this._primary, CURRENT_LSN_SQL);
+			s.lsn = Math.max(s.lsn, lsn);
+		}catch (SQLException e){
+			s.lsn = Long.MAX_VALUE;
+		}//end try
+	}
+
+	/**
+	 * @return the primary WAL position the calling thread's reads must see
+	 */
+	public long getSessionLsn(){
+		return this._session.get().lsn;
+	}
+
+	/**
+	 * Method to carry a session to another thread, e.g. the virtual thread
+	 * running an asynchronous call.
+	 *
+	 * @param lsn a position returned by getSessionLsn
+	 */
+	public void setSessionLsn(long lsn){
+		this._session.get().lsn = lsn;
+	}
+
+	//refreshes a replica's replay position, and finds out whether it is up
+	private void poll(Replica r){
+		if (r.downUntil > System.currentTimeMillis())
+			return;
+		try{
+			//a replica busy serving reads is up, its position is refreshed next time
+			ConnectionPool.PooledConnection conn = r.pool.tryBorrow();
+			if (conn == null)
+				return;
+			try{
+				r.replayLsn = queryLsn(conn, REPLAY_LSN_SQL);
+			}finally{
+				r.pool.release(conn);
+			}//end try
+			r.downUntil = 0;
+		}catch (SQLException e){
+			markDown(r, e);
+		}//end try
+	}
+
+	private void markDown(Replica r, SQLException e){
+		if (r.downUntil == 0)
+			System.err.println("Replica " + r.endpoint + " unavailable, reading from the primary: " + e.getMessage());
+		r.downUntil = System.currentTimeMillis() + RETRY_MS;
+	}
+
+	private static long queryLsn(ConnectionPool pool, String sql) throws SQLException {
+		ConnectionPool.PooledConnection conn = pool.borrow();
+		try{
+			return queryLsn(conn, sql);
+		}finally{
+			pool.release(conn);
+		}//end try
+	}
+
+	//runs an LSN query, -1 when it returns null, e.g. on a server that is not a standby
+	private static long queryLsn(ConnectionPool.PooledConnection conn, String sql) throws SQLException {
+		try{
+			PreparedStatement stmt = conn.prepare(sql);
+			ResultSet rs = stmt.executeQuery();
+			try{
+				rs.next();
+				long lsn = rs.getLong(1);
+				return rs.wasNull() ? -1 : lsn;
+			}finally{
+				rs.close();
+			}//end try
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}//end try
+	}
+
+	/**
+	 * Method to print where reads went and how far each replica has replayed.
+	 *
+	 * @param out the stream to print to
+	 */
+	public void print(PrintStream out){
+		long now = System.currentTimeMillis();
+		out.printf("reads on the primary: %d, replica failovers: %d, busy replicas passed over: %d, routing %s%n",
+			this._primaryReads.sum(), this._failovers.sum(), this._saturated.sum(), this._policy.name().toLowerCase().replace('_', '-'));
+		for (Replica r : this._replicas)
+			out.printf("replica %s: %s, %d reads, replayed LSN %d, %d of %d connections borrowed%n", r.endpoint,
+				r.downUntil > now ? "down" : "up", r.reads.sum(), r.replayLsn, r.pool.getBorrowedCount(), r.pool.getMaxSize());
+	}
+
+	/**
+	 * Method to stop polling and close the replicas' pools.
+	 */
+	public void close(){
+		this._poller.shutdownNow();
+		for (Replica r : this._replicas)
+			r.pool.close();
+	}
+}//end ReplicaRouter
@@ -0,0 +1,293 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * This class measures how the Reservation queries scale with the size of
+ * the table.  It grows Reservation in steps, e.g. from ten thousand to a
+ * hundred million rows, and after each step times the passenger status
+ * count of menu option 9, the reservation lookup of menu option 5 and a
+ * booking, on the grown rows.  Reservations are spread over synthetic
+ * flights at a fixed number per flight, so the work of one query stays
+ * the same while the table grows: with the indexes of V001, and on the
+ * partitioned Reservation of sql/migrations/partitioned, the latencies
+ * should stay flat, and where they rise the table has outgrown its cache.
+ *
+ * Rows are generated on the server with generate_series, a chunk per
+ * transaction, and are deleted after the run unless they are kept.  The
+ * keys of every generated row follow from its position, so the queries
+ * are parameterized without reading the rows back.
+ *
+ */
+
+public class ReservationScaling{
+	//rows inserted or deleted per statement
+	static final int CHUNK = 1000000;
+	//spreads consecutive rows of a flight over different customers
+	static final long CUSTOMER_STRIDE = 7919;
+	static final String SCALE_AIRPORT = "SCALE";
+	static final String RESERVE_FNUMS_SQL = "SELECT setval('flight_fnum_seq', nextval('flight_fnum_seq') + ? - 1)";
+	static final String ADD_FLIGHTS_SQL = "INSERT INTO Flight (fnum, cost, num_sold, num_stops, actual_departure_date, actual_arrival_date, arrival_airport, departure_airport)\nSELECT g, 100, 0, 0, DATE '2030-01-01', DATE '2030-01-02', '" + SCALE_AIRPORT + "', '" + SCALE_AIRPORT + "'\nFROM generate_series(?, ?) g";
+	static final String ADD_FLIGHT_INFO_SQL = "INSERT INTO FlightInfo (fiid, flight_id, pilot_id, plane_id)\nSELECT nextval('flightinfo_fiid_seq'), g, (SELECT min(id) FROM Pilot), (SELECT min(id) FROM Plane)\nFROM generate_series(?, ?) g";
+	//row g goes to flight base + g / perFlight, customer ids[g * stride % customers] and status R, R, R, W, C by g % 5
+	static final String ADD_RESERVATIONS_SQL = "INSERT INTO Reservation (rnum, cid, fid, status)\nSELECT nextval('reservation_rnum_seq'), C.ids[1 + ((g::bigint * " + CUSTOMER_STRIDE + ") % cardinality(C.ids))::int], ? + g / ?, (ARRAY['R', 'R', 'R', 'W', 'C'])[1 + g % 5]\nFROM (SELECT array_agg(id ORDER BY id) AS ids FROM Customer) C, generate_series(?, ?) g";
+	static final String DELETE_RESERVATIONS_SQL = "DELETE FROM Reservation WHERE fid BETWEEN ? AND ?";
+	static final String DELETE_FLIGHT_INFO_SQL = "DELETE FROM FlightInfo WHERE flight_id BETWEEN ? AND ?";
+	static final String DELETE_FLIGHTS_SQL = "DELETE FROM Flight WHERE fnum BETWEEN ? AND ?";
+	static final String VACUUM_SQL = "VACUUM (ANALYZE) Reservation";
+	static final String PARTITIONS_SQL = "SELECT count(*) FROM pg_inherits WHERE inhparent = 'reservation'::regclass";
+	static final int[] DEFAULT_SIZES = {10000, 100000, 1000000, 10000000, 100000000};
+
+	/**
+	 * The measurements at one table size.
+	 */
+	static class Step{
+		long reservations;
+		double loadSecs;
+		final List<Benchmarks.Result> results = new ArrayList<Benchmarks.Result>();
+	}//end Step
+
+	private final DBproject _esql;
+	private final int _perFlight;
+	private int[] _cids;
+	//the reservations in the table before the run
+	private long _existing;
+	//the synthetic flights are _fnumBase up to _fnumBase + _flights - 1
+	private int _fnumBase;
+	private int _flights = 0;
+	//the rows generated so far
+	private volatile int _generated = 0;
+
+	/**
+	 * @param esql the database to grow, with customers, pilots and planes loaded
+	 * @param perFlight the reservations generated per synthetic flight
+	 */
+	public ReservationScaling(DBproject esql, int perFlight){
+		if (perFlight < 1)
+			throw new IllegalArgumentException("Invalid reservations per flight: " + perFlight);
+		this._esql = esql;
+		this._perFlight = perFlight;
+	}
+
+	/**
+	 * Method to grow Reservation to each size in turn, benchmark it, and
+	 * write the results as JSON.
+	 *
+	 * @param sizes the numbers of rows to generate, each on top of the loaded data
+	 * @param threads the number of worker threads measuring
+	 * @param warmupSecs the seconds run before measuring
+	 * @param secs the seconds measured per benchmark and size
+	 * @param keep leave the generated rows in the database
+	 * @param label a name for this build or schema, copied to the JSON
+	 * @param out the JSON file
+	 * @return the measurements per size
+	 * @throws java.lang.Exception when growing, a benchmark or the clean-up failed
+	 */
+	public List<Step> run(int[] sizes, int threads, int warmupSecs, int secs, boolean keep, String label, File out) throws Exception {
+		sizes = sizes.clone();
+		Arrays.sort(sizes);
+		//a compact copy kept in step would cost every generated row and booking an upsert
+		new CompactSchemaMigrator(this._esql.getPool()).stopSync();
+		TypedResult customers = this._esql.executeQueryAndReturnTypedResult("SELECT id FROM Customer ORDER BY id");
+		if (customers.getRowCount() == 0)
+			throw new SQLException("Scaling needs a loaded database with customers, pilots and planes");
+		this._cids = new int[customers.getRowCount()];
+		for (int i = 0; i < this._cids.length; ++i)
+			this._cids[i] = customers.getInt(i, 0);
+		this._existing = this._esql.executeQueryAndReturnTypedResult("SELECT count(*) FROM Reservation").getLong(0, 0);
+		long partitions = this._esql.executeQueryAndReturnTypedResult(PARTITIONS_SQL).getLong(0, 0);
+		System.out.println("Reservation is " + (partitions == 0 ? "not partitioned" : "partitioned " + partitions + " ways")
+			+ ", " + this._existing + " rows loaded");
+
+		List<Step> steps = new ArrayList<Step>();
+		addFlights(sizes[sizes.length - 1]);
+		try{
+			for (int size : sizes){
+				Step step = new Step();
+				long start = System.nanoTime();
+				grow(size);
+				step.loadSecs = (System.nanoTime() - start) / 1e9;
+				step.reservations = this._existing + this._generated;
+				System.out.printf(Locale.ROOT, "%n%d reservations, grown in %.1fs%n", step.reservations, step.loadSecs);
+				System.out.printf("%-28s %7s %11s %9s %9s %9s %9s %9s%n", "benchmark", "threads", "ops/s",
+					"p50 us", "p99 us", "p99.9 us", "max us", "errors");
+				for (Benchmarks.Benchmark b : benchmarks()){
+					b.setUp();
+					Benchmarks.Result r;
+					try{
+						r = Benchmarks.measure(b, threads, warmupSecs, secs);
+					}finally{
+						b.tearDown();
+					}//end try
+					System.out.printf(Locale.ROOT, "%-28s %7d %11.1f %9.1f %9.1f %9.1f %9.1f %9d%n", r.name, r.threads,
+						r.opsPerSec, r.p50Us, r.p99Us, r.p999Us, r.maxUs, r.errors);
+					step.results.add(r);
+				}//end for
+				steps.add(step);
+			}//end for
+		}finally{
+			if (!keep)
+				removeFlights();
+		}//end try
+
+		printSummary(steps);
+		writeJson(steps, label, partitions, threads, warmupSecs, out);
+		System.out.println("Results written to " + out);
+		return steps;
+	}//end run
+
+	//the operations measured at each size, on the generated rows
+	private List<Benchmarks.Benchmark> benchmarks(){
+		List<Benchmarks.Benchmark> benchmarks = new ArrayList<Benchmarks.Benchmark>();
+		benchmarks.add(new Benchmarks.Benchmark("9-passengers-with-status"){
+			void op(Random rnd) throws Exception {
+				_esql.executeQueryAndReturnResult(DBproject.PASSENGERS_WITH_STATUS_SQL, fid(row(rnd)),
+					Benchmarks.STATUSES[rnd.nextInt(Benchmarks.STATUSES.length)]);
+			}
+		});
+		benchmarks.add(new Benchmarks.Benchmark("5-reservation-status"){
+			void op(Random rnd) throws Exception {
+				int g = row(rnd);
+				_esql.executeQueryAndReturnResult(DBproject.RESERVATION_STATUS_SQL, cid(g), fid(g));
+			}
+		});
+		benchmarks.add(new Benchmarks.Benchmark("book-flight"){
+			//{rnum, fid} of the reservations booked
+			final Queue<int[]> created = new ConcurrentLinkedQueue<int[]>();
+
+			void op(Random rnd) throws Exception {
+				int fid = fid(row(rnd));
+				BookingEngine.Result r = _esql.bookFlight(_cids[rnd.nextInt(_cids.length)], fid);
+				if (r.created)
+					this.created.add(new int[]{ r.rnum, fid });
+			}
+
+			void tearDown() throws Exception {
+				int[] booked;
+				while ((booked = this.created.poll()) != null)
+					_esql.executeUpdate(Benchmarks.DELETE_RESERVATION_SQL, booked[0], booked[1]);
+			}
+		});
+		return benchmarks;
+	}
+
+	private int row(Random rnd){
+		return rnd.nextInt(this._generated);
+	}
+
+	//the flight of generated row g, as ADD_RESERVATIONS_SQL computes it
+	private int fid(int g){
+		return this._fnumBase + g / this._perFlight;
+	}
+
+	//the customer of generated row g, as ADD_RESERVATIONS_SQL computes it
+	private int cid(int g){
+		return this._cids[(int) ((g * CUSTOMER_STRIDE) % this._cids.length)];
+	}
+
+	//creates the flights, with a plane and pilot each, that the largest size needs
+	private void addFlights(int rows) throws SQLException {
+		int flights = (int) (((long) rows + this._perFlight - 1) / this._perFlight);
+		long last = this._esql.executeQueryAndReturnTypedResult(RESERVE_FNUMS_SQL, flights).getLong(0, 0);
+		this._fnumBase = (int) (last - flights + 1);
+		this._flights = flights;
+		long start = System.nanoTime();
+		insert(ADD_FLIGHTS_SQL, this._fnumBase, this._fnumBase + flights);
+		insert(ADD_FLIGHT_INFO_SQL, this._fnumBase, this._fnumBase + flights);
+		this._esql.executeUpdate("ANALYZE Flight, FlightInfo");
+		System.out.printf(Locale.ROOT, "Added %d flights %d..%d in %.1fs%n", flights, this._fnumBase, last,
+			(System.nanoTime() - start) / 1e9);
+	}
+
+	//generates rows until rows have been generated, then refreshes statistics and the visibility map
+	private void grow(int rows) throws SQLException {
+		if (rows <= this._generated)
+			return;
+		insert(ADD_RESERVATIONS_SQL, this._generated, rows, this._fnumBase, this._perFlight);
+		this._generated = rows;
+		this._esql.executeUpdate(VACUUM_SQL);
+	}
+
+	private void removeFlights() throws SQLException {
+		if (this._flights == 0)
+			return;
+		long start = System.nanoTime();
+		int last = this._fnumBase + this._flights - 1;
+		//whole flights per statement, about CHUNK reservations each
+		int step = Math.max(1, CHUNK / this._perFlight);
+		for (int from = this._fnumBase; from <= last; from += step){
+			int to = (int) Math.min((long) from + step - 1, last);
+			this._esql.executeUpdate(DELETE_RESERVATIONS_SQL, from, to);
+		}//end for
+		for (int from = this._fnumBase; from <= last; from += CHUNK){
+			int to = (int) Math.min((long) from + CHUNK - 1, last);
+			this._esql.executeUpdate(DELETE_FLIGHT_INFO_SQL, from, to);
+			this._esql.executeUpdate(DELETE_FLIGHTS_SQL, from, to);
+		}//end for
+		this._esql.executeUpdate(VACUUM_SQL);
+		System.out.printf(Locale.ROOT, "%nRemoved the generated flights and reservations in %.1fs%n", (System.nanoTime() - start) / 1e9);
+		this._flights = 0;
+		this._generated = 0;
+	}
+
+	//runs a statement ending in generate_series(?, ?) over [from, to), a chunk per statement
+	private void insert(String sql, int from, int to, Object... params) throws SQLException {
+		Object[] bind = Arrays.copyOf(params, params.length + 2);
+		for (int lo = from; lo < to; lo += CHUNK){
+			bind[params.length] = lo;
+			bind[params.length + 1] = (int) Math.min((long) lo + CHUNK, to) - 1;
+			this._esql.executeUpdate(sql, bind);
+		}//end for
+	}
+
+	//median latency of every benchmark by table size, the figures that should stay flat
+	private static void printSummary(List<Step> steps){
+		if (steps.isEmpty())
+			return;
+		System.out.printf("%nMedian latency in us by reservations%n%-28s", "benchmark");
+		for (Step s : steps)
+			System.out.printf(" %12d", s.reservations);
+		System.out.println();
+		for (int i = 0; i < steps.get(0).results.size(); ++i){
+			System.out.printf("%-28s", steps.get(0).results.get(i).name);
+			for (Step s : steps)
+				System.out.printf(Locale.ROOT, " %12.1f", s.results.get(i).p50Us);
+			System.out.println();
+		}//end for
+	}
+
+	private void writeJson(List<Step> steps, String label, long partitions, int threads, int warmupSecs, File out) throws IOException {
+		Writer w = new FileWriter(out);
+		try{
+			w.write("{\n");
+			w.write("  \"label\": " + Benchmarks.quote(label) + ",\n");
+			w.write("  \"timestamp\": " + Benchmarks.quote(Instant.now().toString()) + ",\n");
+			w.write("  \"java\": " + Benchmarks.quote(System.getProperty("java.version")) + ",\n");
+			w.write("  \"partitions\": " + partitions + ",\n");
+			w.write("  \"reservationsPerFlight\": " + this._perFlight + ",\n");
+			w.write("  \"threads\": " + threads + ",\n");
+			w.write("  \"warmupSecs\": " + warmupSecs + ",\n");
+			w.write("  \"steps\": [\n");
+			for (int i = 0; i < steps.size(); ++i){
+				Step s = steps.get(i);
+				w.write(String.format(Locale.ROOT, "    {\"reservations\": %d, \"loadSecs\": %.3f, \"results\": [\n", s.reservations, s.loadSecs));
+				for (int j = 0; j < s.results.size(); ++j)
+					w.write("      " + Benchmarks.toJson(s.results.get(j)) + (j + 1 < s.results.size() ? "," : "") + "\n");
+				w.write("    ]}" + (i + 1 < steps.size() ? "," : "") + "\n");
+			}//end for
+			w.write("  ]\n}\n");
+		}finally{
+			w.close();
+		}//end try
+	}
+}//end ReservationScaling
@@ -0,0 +1,637 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * This class serves the menu operations over HTTP with JSON bodies, on
+ * the JDK's built-in server.  Every request is handled on its own virtual
+ * thread and its database work runs through the asynchronous facade, so
+ * at most pool-size requests use the database at a time and each one is
+ * bounded by a timeout.
+ *
+ * Admission control caps the requests in flight.  A request arriving
+ * when the cap is reached is answered 503 at once, rather than queued,
+ * so overload cannot build a queue whose wait exceeds every client's
+ * timeout.
+ *
+ *   POST /planes              {"id", "make", "model", "age", "seats"}
+ *   POST /pilots              {"id", "fullname", "nationality"}
+ *   POST /flights             {"fnum", "cost", "num_sold", "num_stops", "departure",
+ *                              "arrival", "arrival_airport", "departure_airport"}
+ *   POST /technicians         {"id", "full_name"}
+ *   POST /bookings            {"cid", "fid"}
+ *   POST /bookings/status     {"cid", "fid", "status"}
+ *   GET  /flights/{fnum}/seats[?date=yyyy-MM-dd]
+ *   GET  /flights/{fnum}/passengers?status=W|R|C
+ *   GET  /reports/repairs-per-plane
+ *   GET  /reports/repairs-per-year
+ *   GET  /routes?from=X&to=Y&earliest=yyyy-MM-dd[THH:mm]&latest=...[&by=cost|duration]
+ *                             [&max_legs=N][&min_connect=minutes][&max_layover=minutes][&limit=N]
+ *   GET  /departures?from=yyyy-MM-dd[THH:mm]&to=...[&airport=X][&limit=N]
+ *   GET  /planes/{id}, /pilots/{id}, /technicians/{id}, /customers/{id}
+ *                             from the reference snapshot when one is in use
+ *   GET  /stats               operation statistics in the Prometheus text format
+ *
+ * Keys omitted from the add requests are taken from the table's sequence.
+ *
+ */
+
+public class ReservationServer{
+	static final int DEFAULT_PORT = 8080;
+	//requests in flight per pooled connection before 503s are returned
+	static final int IN_FLIGHT_PER_CONNECTION = 4;
+	static final long DEFAULT_TIMEOUT_MS = 2000;
+	static final int MAX_BODY_BYTES = 64 * 1024;
+	//the routes statistics are kept for, any other request is counted as "http other"
+	static final Set<String> ROUTES = new HashSet<String>(Arrays.asList("GET /flights/{id}/seats",
+		"GET /flights/{id}/passengers", "GET /reports/repairs-per-plane", "GET /reports/repairs-per-year", "GET /routes",
+		"GET /departures", "GET /planes/{id}", "GET /pilots/{id}", "GET /technicians/{id}", "GET /customers/{id}",
+		"GET /stats", "POST /planes", "POST /pilots", "POST /flights", "POST /technicians", "POST /bookings",
+		"POST /bookings/status"));
+
+	/**
+	 * A failure answered with a status code and message.
+	 */
+	static class HttpError extends Exception{
+		private static final long serialVersionUID = 1L;
+		final int status;
+
+		HttpError(int status, String message){
+			super(message);
+			this.status = status;
+		}
+	}//end HttpError
+
+	private final DBproject _esql;
+	private final AsyncDBproject _async;
+	private final Semaphore _inFlight;
+	private final int _maxInFlight;
+	private final LongAdder _rejected = new LongAdder();
+	private final ExecutorService _executor = Executors.newVirtualThreadPerTaskExecutor();
+	private HttpServer _server = null;
+
+	/**
+	 * @param esql the database served
+	 * @param maxInFlight the requests admitted at a time
+	 * @param timeoutMs the time a request's database work may take
+	 */
+	public ReservationServer(DBproject esql, int maxInFlight, long timeoutMs){
+		this._esql = esql;
+		//one call per pooled connection, each bounded by the request timeout
+		this._async = new AsyncDBproject(esql, esql.getPool().getMaxSize(), timeoutMs);
+		this._maxInFlight = maxInFlight;
+		this._inFlight = new Semaphore(maxInFlight);
+	}
+
+	/**
+	 * Method to start serving on the loopback interface.
+	 *
+	 * @param port the TCP port
+	 * @throws java.io.IOException when the port cannot be bound
+	 */
+	public void start(int port) throws IOException {
+		this._server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 1024);
+		this._server.createContext("/", this::handle);
+		this._server.setExecutor(this._executor);
+		this._server.start();
+		System.out.printf("Serving on http://127.0.0.1:%d/ with %d requests in flight, %d connections%n",
+			port, this._maxInFlight, this._esql.getPool().getMaxSize());
+	}
+
+	/**
+	 * Method to stop accepting requests, giving those in flight up to a
+	 * second to finish.
+	 */
+	public void stop(){
+		if (this._server != null)
+			this._server.stop(1);
+		this._executor.shutdown();
+		this._async.shutdown();
+	}
+
+	public long getRejected(){
+		return this._rejected.sum();
+	}
+
+	private void handle(HttpExchange ex) throws IOException {
+		long start = System.nanoTime();
+		String route = routeOf(ex.getRequestMethod(), ex.getRequestURI().getPath());
+		if (!this._inFlight.tryAcquire()){
+			this._rejected.increment();
+			ex.getResponseHeaders().set("Retry-After", "1");
+			send(ex, 503, "{\"error\": \"overloaded\"}");
+			this._esql.getStats().get("http rejected").record(System.nanoTime() - start, 0, 0, true);
+			return;
+		}//end if
+		boolean failed = true;
+		try{
+			int status;
+			String body;
+			try{
+				body = dispatch(ex);
+				status = ex.getRequestMethod().equals("POST") ? 201 : 200;
+			}catch (HttpError e){
+				status = e.status;
+				body = error(e.getMessage());
+			}catch (TimeoutException e){
+				status = 504;
+				body = error(e.getMessage());
+			}catch (SQLException e){
+				status = statusOf(e);
+				body = error(e.getMessage());
+			}catch (NumberFormatException e){
+				status = 400;
+				body = error("Invalid number: " + e.getMessage());
+			}catch (IllegalArgumentException e){
+				status = 400;
+				body = error(e.getMessage());
+			}catch (DateTimeException e){
+				status = 400;
+				body = error(e.getMessage());
+			}catch (Exception e){
+				status = 500;
+				body = error(String.valueOf(e.getMessage()));
+			}//end try
+			send(ex, status, body);
+			failed = status >= 500;
+		}finally{
+			this._inFlight.release();
+			this._esql.getStats().get("http " + route).record(System.nanoTime() - start, 0, 0, failed);
+		}//end try
+	}//end handle
+
+	//the database work of a request, answered with a JSON body
+	private String dispatch(HttpExchange ex) throws Exception {
+		String method = ex.getRequestMethod();
+		String[] path = ex.getRequestURI().getPath().replaceAll("^/+|/+$", "").split("/");
+		Map<String, String> query = parseQuery(ex.getRequestURI().getRawQuery());
+
+		if (method.equals("GET")){
+			if (path.length == 3 && path[0].equals("flights") && path[2].equals("seats")){
+				int fnum = Integer.parseInt(path[1]);
+				String date = query.get("date");
+				int seats = await(this._async.getAvailableSeats(fnum, date == null ? null : LocalDate.parse(date)));
+				if (seats < 0)
+					throw new HttpError(404, "Flight " + fnum + " not found" + (date == null ? "" : " on " + date));
+				return "{\"fnum\": " + fnum + ", \"available\": " + seats + "}";
+			}//end if
+			if (path.length == 3 && path[0].equals("flights") && path[2].equals("passengers")){
+				int fnum = Integer.parseInt(path[1]);
+				String status = status(query.get("status"));
+				long count = await(this._async.passengersWithStatus(fnum, status));
+				return "{\"fnum\": " + fnum + ", \"status\": \"" + status + "\", \"count\": " + count + "}";
+			}//end if
+			if (path.length == 2 && path[0].equals("reports") && path[1].equals("repairs-per-plane"))
+				return toJson(await(this._async.submitRead(e -> e.executeQueryAndReturnTypedResult(DBproject.REPAIRS_PER_PLANE_SQL))));
+			if (path.length == 2 && path[0].equals("reports") && path[1].equals("repairs-per-year"))
+				return toJson(await(this._async.submitRead(e -> e.executeQueryAndReturnTypedResult(DBproject.REPAIRS_PER_YEAR_SQL))));
+			if (path.length == 1 && path[0].equals("routes"))
+				return routes(query);
+			if (path.length == 1 && path[0].equals("departures"))
+				return departures(query);
+			if (path.length == 2 && referenceTable(path[0]) != null)
+				return reference(referenceTable(path[0]), Integer.parseInt(path[1]));
+			if (path.length == 1 && path[0].equals("stats")){
+				StringWriter w = new StringWriter();
+				this._esql.getStats().writeMetrics(w);
+				ex.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+				return w.toString();
+			}//end if
+			throw new HttpError(404, "No such resource");
+		}//end if
+
+		if (!method.equals("POST"))
+			throw new HttpError(405, "Method not allowed");
+		Map<String, String> body = parseObject(readBody(ex));
+		String resource = String.join("/", path);
+		switch (resource){
+			//keys are drawn inside the call, so the request timeout covers them
+			case "planes":{
+				String make = required(body, "make");
+				String model = required(body, "model");
+				int age = Integer.parseInt(required(body, "age"));
+				int seats = Integer.parseInt(required(body, "seats"));
+				int id = await(this._async.submit(e -> {
+					int k = key(e, body, "id", "plane_id_seq");
+					e.executeUpdate(DBproject.ADD_PLANE_SQL, k, make, model, age, seats);
+					return k;
+				}));
+				return "{\"id\": " + id + "}";
+			}
+			case "pilots":{
+				String fullname = required(body, "fullname");
+				String nationality = required(body, "nationality");
+				int id = await(this._async.submit(e -> {
+					int k = key(e, body, "id", "pilot_id_seq");
+					e.executeUpdate(DBproject.ADD_PILOT_SQL, k, fullname, nationality);
+					return k;
+				}));
+				return "{\"id\": " + id + "}";
+			}
+			case "flights":{
+				int cost = Integer.parseInt(required(body, "cost"));
+				int numSold = Integer.parseInt(required(body, "num_sold"));
+				int numStops = Integer.parseInt(required(body, "num_stops"));
+				String departure = required(body, "departure");
+				String arrival = required(body, "arrival");
+				String arrivalAirport = required(body, "arrival_airport");
+				String departureAirport = required(body, "departure_airport");
+				int fnum = await(this._async.submit(e -> {
+					int k = key(e, body, "fnum", "flight_fnum_seq");
+					e.addFlight(k, cost, numSold, numStops, departure, arrival, arrivalAirport, departureAirport);
+					return k;
+				}));
+				return "{\"fnum\": " + fnum + "}";
+			}
+			case "technicians":{
+				String fullName = required(body, "full_name");
+				int id = await(this._async.submit(e -> {
+					int k = key(e, body, "id", "technician_id_seq");
+					e.executeUpdate(DBproject.ADD_TECHNICIAN_SQL, k, fullName);
+					return k;
+				}));
+				return "{\"id\": " + id + "}";
+			}
+			case "bookings":{
+				BookingEngine.Result r = await(this._async.bookFlight(Integer.parseInt(required(body, "cid")),
+					Integer.parseInt(required(body, "fid"))));
+				return "{\"rnum\": " + r.rnum + ", \"status\": \"" + r.status + "\", \"created\": " + r.created + "}";
+			}
+			case "bookings/status":{
+				BookingEngine.Result r = await(this._async.updateReservationStatus(Integer.parseInt(required(body, "cid")),
+					Integer.parseInt(required(body, "fid")), status(body.get("status"))));
+				if (r == null)
+					throw new HttpError(404, "No reservation of this customer on this flight");
+				return "{\"rnum\": " + r.rnum + ", \"status\": \"" + r.status + "\"}";
+			}
+			default:
+				throw new HttpError(404, "No such resource");
+		}//end switch
+	}//end dispatch
+
+	//waits for a call, unwrapping the failure it completed with
+	private static <T> T await(CompletableFuture<T> f) throws Exception {
+		try{
+			return f.get();
+		}catch (ExecutionException e){
+			Throwable cause = e.getCause();
+			if (cause instanceof Exception)
+				throw (Exception) cause;
+			throw e;
+		}//end try
+	}
+
+	//searches the route index on the request thread, it only reads the database when first loaded
+	private String routes(Map<String, String> query) throws SQLException, HttpError {
+		RouteIndex.Rank rank;
+		try{
+			rank = RouteIndex.Rank.valueOf(query.getOrDefault("by", "cost").toUpperCase());
+		}catch (IllegalArgumentException e){
+			throw new HttpError(400, "by must be cost or duration");
+		}//end try
+		List<RouteIndex.Itinerary> found = this._esql.getRouteIndex().search(required(query, "from"), required(query, "to"),
+			RouteIndex.parseMinute(required(query, "earliest")), RouteIndex.parseWindowEnd(required(query, "latest")), rank,
+			intParam(query, "max_legs", RouteIndex.DEFAULT_MAX_LEGS), intParam(query, "min_connect", RouteIndex.DEFAULT_MIN_CONNECT_MINUTES),
+			intParam(query, "max_layover", RouteIndex.DEFAULT_MAX_LAYOVER_MINUTES), intParam(query, "limit", 10));
+
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < found.size(); ++i){
+			RouteIndex.Itinerary it = found.get(i);
+			sb.append(i == 0 ? "" : ", ").append("{\"cost\": ").append(it.cost)
+				.append(", \"duration_minutes\": ").append(it.getDurationMinutes()).append(", \"legs\": [");
+			for (int leg = 0; leg < it.fnums.length; ++leg){
+				sb.append(leg == 0 ? "{" : ", {").append("\"fnum\": ").append(it.fnums[leg]).append(", \"from\": ");
+				quote(sb, it.airports[leg]);
+				sb.append(", \"to\": ");
+				quote(sb, it.airports[leg + 1]);
+				sb.append(", \"departure\": ");
+				quote(sb, RouteIndex.formatMinute(it.departures[leg]));
+				sb.append(", \"arrival\": ");
+				quote(sb, RouteIndex.formatMinute(it.arrivals[leg]));
+				sb.append('}');
+			}//end for
+			sb.append("]}");
+		}//end for
+		return sb.append(']').toString();
+	}
+
+	//the departures in a window with their available seats, which are read through the pool
+	private String departures(Map<String, String> query) throws Exception {
+		int from = RouteIndex.parseMinute(required(query, "from"));
+		int to = RouteIndex.parseWindowEnd(required(query, "to"));
+		List<DepartureIndex.Departure> found = this._esql.getDepartureIndex().between(from, to, query.get("airport"),
+			intParam(query, "limit", 50));
+		int[] fnums = new int[found.size()];
+		for (int i = 0; i < fnums.length; ++i)
+			fnums[i] = found.get(i).fnum;
+		int[] seats = await(this._async.submit(esql -> esql.getAvailableSeats(fnums)));
+
+		StringBuilder sb = new StringBuilder("[");
+		for (int i = 0; i < fnums.length; ++i){
+			DepartureIndex.Departure d = found.get(i);
+			sb.append(i == 0 ? "{" : ", {").append("\"fnum\": ").append(d.fnum).append(", \"airport\": ");
+			quote(sb, d.airport);
+			sb.append(", \"departure\": ");
+			quote(sb, RouteIndex.formatMinute(d.departure));
+			sb.append(", \"arrival\": ");
+			quote(sb, RouteIndex.formatMinute(d.arrival));
+			sb.append(", \"available\": ").append(seats[i] < 0 ? "null" : String.valueOf(seats[i])).append('}');
+		}//end for
+		return sb.append(']').toString();
+	}
+
+	//answers from the reference snapshot, and from the database for rows it lacks
+	private String reference(ReferenceSnapshot.Table table, int id) throws Exception {
+		ReferenceSnapshot snapshot = this._esql.getSnapshot();
+		int record = snapshot == null ? -1 : snapshot.find(table, id);
+		if (record < 0){
+			TypedResult rs = await(this._async.executeQueryAndReturnTypedResult(table.getSelectSql() + "\nWHERE id = ?", id));
+			if (rs.getRowCount() == 0)
+				throw new HttpError(404, table.getName() + " " + id + " not found");
+			return appendRow(new StringBuilder(), rs, 0).toString();
+		}//end if
+		StringBuilder sb = new StringBuilder("{\"id\": ").append(id);
+		for (int col = 0; col < table.getColumnCount(); ++col){
+			sb.append(", ");
+			quote(sb, table.getColumnName(col));
+			sb.append(": ");
+			Object value;
+			if (table.getColumnType(col) == ReferenceSnapshot.INT)
+				value = snapshot.getInt(table, record, col);
+			else if (table.getColumnType(col) == ReferenceSnapshot.DATE)
+				value = snapshot.getDate(table, record, col);
+			else
+				value = snapshot.getString(table, record, col);
+			if (value == null)
+				sb.append("null");
+			else if (value instanceof Integer)
+				sb.append(value);
+			else
+				quote(sb, value.toString());
+		}//end for
+		return sb.append('}').toString();
+	}
+
+	private static ReferenceSnapshot.Table referenceTable(String resource){
+		switch (resource){
+			case "planes": return ReferenceSnapshot.Table.PLANE;
+			case "pilots": return ReferenceSnapshot.Table.PILOT;
+			case "technicians": return ReferenceSnapshot.Table.TECHNICIAN;
+			case "customers": return ReferenceSnapshot.Table.CUSTOMER;
+			default: return null;
+		}//end switch
+	}
+
+	private static int intParam(Map<String, String> query, String name, int defaultValue){
+		String value = query.get(name);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	private static int key(DBproject esql, Map<String, String> body, String name, String sequence) throws SQLException {
+		String value = body.get(name);
+		return value == null ? esql.nextId(sequence) : Integer.parseInt(value);
+	}
+
+	private static String required(Map<String, String> body, String name) throws HttpError {
+		String value = body.get(name);
+		if (value == null)
+			throw new HttpError(400, "Missing field " + name);
+		return value;
+	}
+
+	private static String status(String status) throws HttpError {
+		if (status == null || !(status.equals("W") || status.equals("R") || status.equals("C")))
+			throw new HttpError(400, "status must be W, R or C");
+		return status;
+	}
+
+	//constraint violations are the client's fault, cancellations are timeouts
+	private static int statusOf(SQLException e){
+		String state = e.getSQLState();
+		if (state == null)
+			return 500;
+		if (state.equals("23505"))
+			return 409;
+		//no_data_found, raised by book_flight for a missing flight
+		if (state.equals("P0002"))
+			return 404;
+		if (state.startsWith("23") || state.startsWith("22"))
+			return 400;
+		if (state.equals(CallScope.CANCELED_STATE))
+			return 504;
+		if (state.startsWith("08"))
+			return 503;
+		return 500;
+	}
+
+	//the route template statistics are kept under, so clients cannot add entries at will
+	private static String routeOf(String method, String path){
+		String route = method + " /" + path.replaceAll("^/+|/+$", "").replaceAll("(^|/)[0-9]+(?=/|$)", "$1{id}");
+		return ROUTES.contains(route) ? route : "other";
+	}
+
+	private static String toJson(TypedResult rs){
+		StringBuilder sb = new StringBuilder("[");
+		for (int row = 0; row < rs.getRowCount(); ++row){
+			if (row > 0) sb.append(", ");
+			appendRow(sb, rs, row);
+		}//end for
+		return sb.append(']').toString();
+	}
+
+	private static StringBuilder appendRow(StringBuilder sb, TypedResult rs, int row){
+		sb.append('{');
+		for (int col = 0; col < rs.getColumnCount(); ++col){
+			if (col > 0) sb.append(", ");
+			quote(sb, rs.getColumnName(col));
+			sb.append(": ");
+			if (rs.isNull(row, col))
+				sb.append("null");
+			else if (rs.getColumnKind(col) == TypedResult.TEXT || rs.getColumnKind(col) == TypedResult.DATE
+					|| rs.getColumnKind(col) == TypedResult.TIMESTAMP)
+				quote(sb, rs.getString(row, col));
+			else
+				sb.append(rs.getString(row, col));
+		}//end for
+		return sb.append('}');
+	}
+
+	private static String error(String message){
+		StringBuilder sb = new StringBuilder("{\"error\": ");
+		quote(sb, message);
+		return sb.append('}').toString();
+	}
+
+	private static void quote(StringBuilder sb, String s){
+		sb.append('"');
+		for (int i = 0; i < s.length(); ++i){
+			char ch = s.charAt(i);
+			switch (ch){
+				case '"': sb.append("\\\""); break;
+				case '\\': sb.append("\\\\"); break;
+				case '\n': sb.append("\\n"); break;
+				case '\r': sb.append("\\r"); break;
+				case '\t': sb.append("\\t"); break;
+				default:
+					if (ch < 0x20) sb.append(String.format("\\u%04x", (int) ch));
+					else sb.append(ch);
+			}//end switch
+		}//end for
+		sb.append('"');
+	}
+
+	private static void send(HttpExchange ex, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		if (!ex.getResponseHeaders().containsKey("Content-Type"))
+			ex.getResponseHeaders().set("Content-Type", "application/json");
+		ex.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = ex.getResponseBody()){
+			out.write(bytes);
+		}//end try
+	}
+
+	private static String readBody(HttpExchange ex) throws IOException, HttpError {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (InputStream in = ex.getRequestBody()){
+			byte[] chunk = new byte[4096];
+			int n;
+			while ((n = in.read(chunk)) > 0){
+				buf.write(chunk, 0, n);
+				if (buf.size() > MAX_BODY_BYTES)
+					throw new HttpError(413, "Request body too large");
+			}//end while
+		}//end try
+		return buf.toString(StandardCharsets.UTF_8.name());
+	}
+
+	private static Map<String, String> parseQuery(String raw){
+		Map<String, String> params = new HashMap<String, String>();
+		if (raw == null || raw.isEmpty())
+			return params;
+		for (String pair : raw.split("&")){
+			int eq = pair.indexOf('=');
+			String name = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+			params.put(name, eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+		}//end for
+		return params;
+	}
+
+	/**
+	 * Method to parse a flat JSON object.  Values are returned as their
+	 * text, with strings unescaped and null as a missing value.
+	 *
+	 * @param json the request body
+	 * @return the members of the object
+	 * @throws HttpError when the body is not a flat JSON object
+	 */
+	static Map<String, String> parseObject(String json) throws HttpError {
+		Map<String, String> members = new HashMap<String, String>();
+		int[] pos = {skip(json, 0)};
+		expect(json, pos, '{');
+		if (peek(json, pos) == '}')
+			return members;
+		while (true){
+			String name = string(json, pos);
+			expect(json, pos, ':');
+			String value;
+			if (peek(json, pos) == '"'){
+				value = string(json, pos);
+			}else{
+				int start = pos[0];
+				while (pos[0] < json.length() && ",} \t\r\n".indexOf(json.charAt(pos[0])) < 0)
+					++pos[0];
+				value = json.substring(start, pos[0]);
+				if (value.isEmpty() || value.startsWith("{") || value.startsWith("["))
+					throw new HttpError(400, "Only flat JSON objects are accepted");
+				if (value.equals("null"))
+					value = null;
+			}//end if
+			if (value != null)
+				members.put(name, value);
+			if (peek(json, pos) == ','){
+				++pos[0];
+				continue;
+			}//end if
+			expect(json, pos, '}');
+			return members;
+		}//end while
+	}
+
+	private static int skip(String s, int i){
+		while (i < s.length() && Character.isWhitespace(s.charAt(i)))
+			++i;
+		return i;
+	}
+
+	private static char peek(String s, int[] pos) throws HttpError {
+		pos[0] = skip(s, pos[0]);
+		if (pos[0] >= s.length())
+			throw new HttpError(400, "Unexpected end of JSON");
+		return s.charAt(pos[0]);
+	}
+
+	private static void expect(String s, int[] pos, char ch) throws HttpError {
+		if (peek(s, pos) != ch)
+			throw new HttpError(400, "Expected '" + ch + "' at offset " + pos[0]);
+		++pos[0];
+	}
+
+	private static String string(String s, int[] pos) throws HttpError {
+		expect(s, pos, '"');
+		StringBuilder sb = new StringBuilder();
+		while (pos[0] < s.length()){
+			char ch = s.charAt(pos[0]++);
+			if (ch == '"')
+				return sb.toString();
+			if (ch != '\\'){
+				sb.append(ch);
+				continue;
+			}//end if
+			if (pos[0] >= s.length())
+				break;
+			char esc = s.charAt(pos[0]++);
+			switch (esc){
+				case 'n': sb.append('\n'); break;
+				case 'r': sb.append('\r'); break;
+				case 't': sb.append('\t'); break;
+				case 'b': sb.append('\b'); break;
+				case 'f': sb.append('\f'); break;
+				case 'u':
+					if (pos[0] + 4 > s.length())
+						throw new HttpError(400, "Invalid \\u escape");
+					try{
+						sb.append((char) Integer.parseInt(s.substring(pos[0], pos[0] + 4), 16));
+					}catch (NumberFormatException e){
+						throw new HttpError(400, "Invalid \\u escape");
+					}//end try
+					pos[0] += 4;
+					break;
+				default: sb.append(esc);
+			}//end switch
+		}//end while
+		throw new HttpError(400, "Unterminated JSON string");
+	}
+}//end ReservationServer
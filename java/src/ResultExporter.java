@@ -0,0 +1,143 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+
+/**
+ * This class exports the result of a query to a file in TSV, CSV or
+ * JSON-lines format.  By default the rows are read through a server-side
+ * cursor and rendered with a ResultRenderer.  With COPY, the server
+ * formats the rows itself and the driver's bytes are written to the file
+ * as they arrive, without decoding any row in Java.
+ *
+ */
+
+public class ResultExporter{
+	//characters or bytes buffered before a write to the file
+	static final int EXPORT_BUFFER_SIZE = 1 << 20;
+	//rows per round trip when reading through a cursor
+	static final int EXPORT_FETCH_SIZE = 10000;
+
+	private final ConnectionPool _pool;
+
+	public ResultExporter(ConnectionPool pool){
+		this._pool = pool;
+	}
+
+	/**
+	 * Method to export a query through a cursor and the renderer.
+	 *
+	 * @param query the query, with '?' placeholders for params
+	 * @param file the file to write, replaced if it exists
+	 * @param format TSV, CSV or JSONL
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows exported
+	 * @throws java.sql.SQLException when the query failed
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public long export(String query, File file, ResultRenderer.Format format, Object... params) throws SQLException, IOException {
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)){
+			Connection c = conn.getConnection();
+			//cursors only exist inside a transaction
+			c.setAutoCommit(false);
+			PreparedStatement stmt = c.prepareStatement(query);
+			StatementCache.bind(stmt, params);
+			stmt.setFetchSize(EXPORT_FETCH_SIZE);
+
+			ResultRenderer renderer = new ResultRenderer(out, format, EXPORT_BUFFER_SIZE);
+			ResultSet rs = stmt.executeQuery();
+			long rows = renderer.render(rs);
+			renderer.flush();
+			rs.close();
+			stmt.close();
+			c.commit();
+			c.setAutoCommit(true);
+			return rows;
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}//end export
+
+	/**
+	 * Method to export a query with COPY ... TO STDOUT.  COPY takes no
+	 * bind parameters, so the query must be complete.
+	 *
+	 * @param query the query, without placeholders
+	 * @param file the file to write, replaced if it exists
+	 * @param format TSV, CSV or JSONL
+	 * @return the number of rows exported
+	 * @throws java.sql.SQLException when the query failed
+	 * @throws java.io.IOException when the file cannot be written
+	 */
+	public long copyOut(String query, File file, ResultRenderer.Format format) throws SQLException, IOException {
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file), EXPORT_BUFFER_SIZE)){
+			Connection c = conn.getConnection();
+			//COPY wraps the query in parentheses, where a terminating semicolon is a syntax error
+			query = subquery(query);
+			String copy;
+			switch (format){
+				case CSV:
+					copy = "COPY (" + query + ") TO STDOUT WITH (FORMAT csv, HEADER)";
+					break;
+				case JSONL:
+					//row_to_json escapes control characters, so these quote and
+					//delimiter characters never occur and each object is written as is
+					copy = "COPY (SELECT row_to_json(q) FROM (" + query + ") q) TO STDOUT WITH (FORMAT csv, QUOTE E'\\x01', DELIMITER E'\\x02')";
+					break;
+				default:
+					//the text format has no header before PostgreSQL 15, so it is written here
+					writeTsvHeader(c, query, out);
+					copy = "COPY (" + query + ") TO STDOUT";
+			}//end switch
+			CopyManager copyApi = c.unwrap(PGConnection.class).getCopyAPI();
+			long rows = copyApi.copyOut(copy, out);
+			out.flush();
+			return rows;
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}//end copyOut
+
+	private static void writeTsvHeader(Connection c, String query, OutputStream out) throws SQLException, IOException {
+		PreparedStatement stmt = c.prepareStatement(query);
+		try{
+			//describes the query without running it
+			ResultSetMetaData rsmd = stmt.getMetaData();
+			StringBuilder header = new StringBuilder();
+			for (int i = 1; i <= rsmd.getColumnCount(); ++i){
+				if (i > 1) header.append('\t');
+				header.append(rsmd.getColumnName(i));
+			}//end for
+			out.write(header.append('\n').toString().getBytes(StandardCharsets.UTF_8));
+		}finally{
+			stmt.close();
+		}//end try
+	}
+
+	//drops the terminating semicolon, which is not allowed in a subquery
+	private static String subquery(String query){
+		int end = query.length();
+		while (end > 0 && (Character.isWhitespace(query.charAt(end - 1)) || query.charAt(end - 1) == ';'))
+			--end;
+		return end == query.length() ? query : query.substring(0, end);
+	}
+}//end ResultExporter
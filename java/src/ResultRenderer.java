@@ -0,0 +1,336 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * This class writes query results as text in one of several formats.
+ * Output is collected in a char buffer and handed to the underlying
+ * writer one buffer at a time, and the column names and types are read
+ * from the metadata once per result rather than once per row.
+ *
+ * TEXT is the console layout of executeQueryAndPrintResult.  TSV uses the
+ * escapes of PostgreSQL's COPY text format, CSV follows RFC 4180, and
+ * JSONL writes one JSON object per row.
+ *
+ */
+
+public class ResultRenderer{
+	public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+	public enum Format{
+		TEXT, TSV, CSV, JSONL;
+
+		/**
+		 * @param name tsv, csv or jsonl, in any case
+		 * @return the matching file format
+		 */
+		public static Format parse(String name){
+			Format f = valueOf(name.toUpperCase());
+			if (f == TEXT)
+				throw new IllegalArgumentException("TEXT is the console format, use tsv, csv or jsonl");
+			return f;
+		}
+
+		/**
+		 * @param file the output file
+		 * @return CSV for .csv, JSONL for .json and .jsonl, TSV otherwise
+		 */
+		public static Format forFile(File file){
+			String name = file.getName().toLowerCase();
+			if (name.endsWith(".csv")) return CSV;
+			if (name.endsWith(".jsonl") || name.endsWith(".json")) return JSONL;
+			return TSV;
+		}
+	}//end Format
+
+	private final Writer _out;
+	private final Format _format;
+	private final char[] _buf;
+	private int _pos = 0;
+	private long _chars = 0;
+
+	//layout of the result being rendered
+	private int _numCol = 0;
+	private String[] _names = new String[0];
+	//JSONL: the "name": prefix of each column
+	private String[] _keys = new String[0];
+	//JSONL: numeric and boolean columns are written unquoted
+	private boolean[] _bare = new boolean[0];
+	private boolean _headerDone = false;
+
+	public ResultRenderer(Writer out, Format format, int bufferSize){
+		this._out = out;
+		this._format = format;
+		this._buf = new char[Math.max(bufferSize, 64)];
+	}
+
+	/**
+	 * Method to render every remaining row of a result set.
+	 *
+	 * @param rs the result set, positioned before the first row
+	 * @return the number of rows rendered
+	 * @throws java.sql.SQLException when a column cannot be read
+	 * @throws java.io.IOException when the writer failed
+	 */
+	public long render(ResultSet rs) throws SQLException, IOException {
+		begin(rs.getMetaData());
+		long rowCount = 0;
+		while (rs.next()){
+			row(rs);
+			++rowCount;
+		}//end while
+		return rowCount;
+	}
+
+	/**
+	 * Method to start a result: caches its layout and, except in TEXT
+	 * format, writes the header line.
+	 *
+	 * @param rsmd the metadata of the result
+	 * @throws java.sql.SQLException when the metadata cannot be read
+	 * @throws java.io.IOException when the writer failed
+	 */
+	public void begin(ResultSetMetaData rsmd) throws SQLException, IOException {
+		this._numCol = rsmd.getColumnCount();
+		this._names = new String[this._numCol];
+		this._keys = new String[this._numCol];
+		this._bare = new boolean[this._numCol];
+		for (int c = 0; c < this._numCol; ++c){
+			this._names[c] = rsmd.getColumnName(c + 1);
+			this._bare[c] = isBare(rsmd.getColumnType(c + 1));
+		}//end for
+		this._headerDone = false;
+
+		switch (this._format){
+			case TSV:
+			case CSV:
+				header();
+				break;
+			case JSONL:
+				for (int c = 0; c < this._numCol; ++c){
+					StringBuilder key = new StringBuilder(c == 0 ? "{" : ",");
+					jsonString(key, this._names[c]);
+					this._keys[c] = key.append(':').toString();
+				}//end for
+				break;
+			default:
+				//TEXT prints its header with the first row
+		}//end switch
+	}
+
+	/**
+	 * Method to render the current row of a result set begun with begin.
+	 *
+	 * @param rs the result set, positioned on a row
+	 * @throws java.sql.SQLException when a column cannot be read
+	 * @throws java.io.IOException when the writer failed
+	 */
+	public void row(ResultSet rs) throws SQLException, IOException {
+		if (!this._headerDone)
+			header();
+		for (int c = 0; c < this._numCol; ++c){
+			String value = rs.getString(c + 1);
+			switch (this._format){
+				case TEXT:
+					append(value == null ? "null" : value);
+					append('\t');
+					break;
+				case TSV:
+					if (c > 0) append('\t');
+					tsv(value);
+					break;
+				case CSV:
+					if (c > 0) append(',');
+					csv(value);
+					break;
+				case JSONL:
+					append(this._keys[c]);
+					json(value, this._bare[c]);
+					break;
+			}//end switch
+		}//end for
+		if (this._format == Format.JSONL)
+			append(this._numCol == 0 ? "{}" : "}");
+		append('\n');
+	}
+
+	private void header() throws IOException {
+		this._headerDone = true;
+		if (this._format == Format.JSONL)
+			return;
+		for (int c = 0; c < this._numCol; ++c){
+			switch (this._format){
+				case TEXT:
+					append(this._names[c]);
+					append('\t');
+					break;
+				case TSV:
+					if (c > 0) append('\t');
+					tsv(this._names[c]);
+					break;
+				default:
+					if (c > 0) append(',');
+					csv(this._names[c]);
+			}//end switch
+		}//end for
+		append('\n');
+	}
+
+	/**
+	 * Method to hand the buffered output to the writer and flush it.
+	 *
+	 * @throws java.io.IOException when the writer failed
+	 */
+	public void flush() throws IOException {
+		drain();
+		this._out.flush();
+	}
+
+	/**
+	 * @return the characters rendered so far
+	 */
+	public long getCharsWritten(){
+		return this._chars + this._pos;
+	}
+
+	private static boolean isBare(int sqlType){
+		switch (sqlType){
+			case Types.TINYINT:
+			case Types.SMALLINT:
+			case Types.INTEGER:
+			case Types.BIGINT:
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+			case Types.BIT:
+			case Types.BOOLEAN:
+				return true;
+			default:
+				return false;
+		}//end switch
+	}
+
+	//COPY text format: \N for NULL, backslash escapes for the separators
+	private void tsv(String value) throws IOException {
+		if (value == null){
+			append("\\N");
+			return;
+		}//end if
+		for (int i = 0; i < value.length(); ++i){
+			char ch = value.charAt(i);
+			switch (ch){
+				case '\\': append("\\\\"); break;
+				case '\t': append("\\t"); break;
+				case '\n': append("\\n"); break;
+				case '\r': append("\\r"); break;
+				default: append(ch);
+			}//end switch
+		}//end for
+	}
+
+	//RFC 4180: NULL is empty, values holding separators or quotes are quoted
+	private void csv(String value) throws IOException {
+		if (value == null)
+			return;
+		boolean quote = false;
+		for (int i = 0; i < value.length() && !quote; ++i){
+			char ch = value.charAt(i);
+			quote = ch == ',' || ch == '"' || ch == '\n' || ch == '\r';
+		}//end for
+		if (!quote){
+			append(value);
+			return;
+		}//end if
+		append('"');
+		for (int i = 0; i < value.length(); ++i){
+			char ch = value.charAt(i);
+			if (ch == '"') append('"');
+			append(ch);
+		}//end for
+		append('"');
+	}
+
+	private void json(String value, boolean bare) throws IOException {
+		if (value == null){
+			append("null");
+		}else if (bare && isJsonLiteral(value)){
+			append(value);
+		}else if (bare && (value.equals("t") || value.equals("true"))){
+			append("true");
+		}else if (bare && (value.equals("f") || value.equals("false"))){
+			append("false");
+		}else{
+			append('"');
+			for (int i = 0; i < value.length(); ++i){
+				char ch = value.charAt(i);
+				switch (ch){
+					case '"': append("\\\""); break;
+					case '\\': append("\\\\"); break;
+					case '\n': append("\\n"); break;
+					case '\r': append("\\r"); break;
+					case '\t': append("\\t"); break;
+					default:
+						if (ch < 0x20){
+							append("\\u00");
+							append(Character.forDigit(ch >> 4, 16));
+							append(Character.forDigit(ch & 15, 16));
+						}else{
+							append(ch);
+						}//end if
+				}//end switch
+			}//end for
+			append('"');
+		}//end if
+	}
+
+	//NaN and Infinity have no JSON literal and are written as strings
+	private static boolean isJsonLiteral(String value){
+		if (value.isEmpty())
+			return false;
+		char first = value.charAt(0);
+		return first == '-' || (first >= '0' && first <= '9');
+	}
+
+	private static void jsonString(StringBuilder sb, String s){
+		sb.append('"');
+		for (int i = 0; i < s.length(); ++i){
+			char ch = s.charAt(i);
+			if (ch == '"' || ch == '\\') sb.append('\\');
+			sb.append(ch);
+		}//end for
+		sb.append('"');
+	}
+
+	private void append(char ch) throws IOException {
+		if (this._pos == this._buf.length)
+			drain();
+		this._buf[this._pos++] = ch;
+	}
+
+	private void append(String s) throws IOException {
+		int len = s.length();
+		int off = 0;
+		while (off < len){
+			if (this._pos == this._buf.length)
+				drain();
+			int n = Math.min(len - off, this._buf.length - this._pos);
+			s.getChars(off, off + n, this._buf, this._pos);
+			this._pos += n;
+			off += n;
+		}//end while
+	}
+
+	private void drain() throws IOException {
+		if (this._pos == 0)
+			return;
+		this._out.write(this._buf, 0, this._pos);
+		this._chars += this._pos;
+		this._pos = 0;
+	}
+}//end ResultRenderer
@@ -0,0 +1,486 @@
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * This class finds direct and connecting itineraries between two
+ * airports from an in-memory index of the Flight graph.  Airports are
+ * numbered densely and every leg (a flight, or one Schedule row of it) is
+ * a slot in parallel int arrays; each airport keeps the slots of its
+ * departing legs sorted by departure, so the legs leaving an airport in a
+ * time window are found by binary search.  Times are minutes since the
+ * epoch, and DATE values count as midnight.
+ *
+ * A search is best-first over partial itineraries, ordered by total cost
+ * or total duration, both of which only grow as legs are added; the first
+ * k itineraries reaching the destination are therefore the k best.  Each
+ * leg is extended at most k times and no itinerary visits an airport
+ * twice.  Searches run concurrently; adds take a write lock.
+ *
+ */
+
+public class RouteIndex{
+	static final String LOAD_SQL = "SELECT F.fnum, F.cost, F.departure_airport, F.arrival_airport,\n\tCOALESCE(S.departure_time, F.actual_departure_date), COALESCE(S.arrival_time, F.actual_arrival_date)\nFROM Flight F LEFT JOIN Schedule S ON S.flightNum = F.fnum";
+	static final int LOAD_FETCH_SIZE = 10000;
+	public static final int DEFAULT_MAX_LEGS = 3;
+	public static final int DEFAULT_MIN_CONNECT_MINUTES = 60;
+	public static final int DEFAULT_MAX_LAYOVER_MINUTES = 24 * 60;
+	//partial itineraries a search may create before it gives up
+	static final int MAX_LABELS = 1 << 21;
+	private static final DateTimeFormatter MINUTE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm");
+
+	public enum Rank{ COST, DURATION }
+
+	/**
+	 * A sequence of legs from the origin to the destination.
+	 */
+	public static class Itinerary{
+		public final int[] fnums;
+		//the airports visited, one more than the legs
+		public final String[] airports;
+		public final int[] departures;
+		public final int[] arrivals;
+		public final long cost;
+
+		Itinerary(int legs, long cost){
+			this.fnums = new int[legs];
+			this.airports = new String[legs + 1];
+			this.departures = new int[legs];
+			this.arrivals = new int[legs];
+			this.cost = cost;
+		}
+
+		public int getDurationMinutes(){
+			return this.arrivals[this.arrivals.length - 1] - this.departures[0];
+		}
+
+		@Override
+		public String toString(){
+			StringBuilder sb = new StringBuilder();
+			sb.append(String.format("cost %d, %dh%02d:", this.cost, getDurationMinutes() / 60, getDurationMinutes() % 60));
+			for (int i = 0; i < this.fnums.length; ++i)
+				sb.append(String.format(" [%d %s %s -> %s %s]", this.fnums[i], this.airports[i], formatMinute(this.departures[i]),
+					this.airports[i + 1], formatMinute(this.arrivals[i])));
+			return sb.toString();
+		}
+	}//end Itinerary
+
+	private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+	private final Map<String, Integer> _airportIds = new HashMap<String, Integer>();
+	private String[] _airports = new String[64];
+	private int _airportCount = 0;
+
+	//legs, one slot per flight or schedule row
+	private int _legCount = 0;
+	private int[] _fnum = new int[1024];
+	private int[] _cost = new int[1024];
+	private int[] _from = new int[1024];
+	private int[] _to = new int[1024];
+	private int[] _dep = new int[1024];
+	private int[] _arr = new int[1024];
+
+	//per departure airport, its leg slots sorted by departure
+	private int[][] _out = new int[64][];
+	private int[] _outSize = new int[64];
+
+	/**
+	 * Method to build an index of every flight, with one leg per Schedule
+	 * row of a flight or, without one, its actual dates.
+	 *
+	 * @param esql the database to read
+	 * @return the index
+	 * @throws java.sql.SQLException when the flights cannot be read
+	 */
+	public static RouteIndex load(DBproject esql) throws SQLException {
+		final RouteIndex index = new RouteIndex();
+		esql.executeQueryAndStream(LOAD_SQL, LOAD_FETCH_SIZE, rs -> {
+			Timestamp dep = rs.getTimestamp(5);
+			Timestamp arr = rs.getTimestamp(6);
+			if (dep != null && arr != null)
+				index.append(rs.getInt(1), rs.getInt(2), rs.getString(3), rs.getString(4),
+					toMinute(dep.toLocalDateTime()), toMinute(arr.toLocalDateTime()));
+			return true;
+		});
+		//appended out of order, sorted once
+		for (int a = 0; a < index._airportCount; ++a)
+			index.sortOut(a);
+		return index;
+	}
+
+	/**
+	 * Method to add a flight, e.g. after it was inserted into Flight.
+	 *
+	 * @param fnum the flight number
+	 * @param cost the flight's cost
+	 * @param departureAirport the airport code it leaves from
+	 * @param arrivalAirport the airport code it arrives at
+	 * @param departure the departure, yyyy-MM-dd with an optional HH:mm
+	 * @param arrival the arrival, yyyy-MM-dd with an optional HH:mm
+	 */
+	public void add(int fnum, int cost, String departureAirport, String arrivalAirport, String departure, String arrival){
+		int dep = parseMinute(departure);
+		int arr = parseMinute(arrival);
+		this._lock.writeLock().lock();
+		try{
+			int slot = append(fnum, cost, departureAirport, arrivalAirport, dep, arr);
+			//moves the new slot from the end of its airport's legs to its place
+			int from = this._from[slot];
+			int[] out = this._out[from];
+			int size = this._outSize[from];
+			int at = lowerBound(out, size - 1, dep + 1);
+			System.arraycopy(out, at, out, at + 1, size - 1 - at);
+			out[at] = slot;
+		}finally{
+			this._lock.writeLock().unlock();
+		}//end try
+	}
+
+	//stores a leg and appends it to its airport's legs, unsorted
+	private int append(int fnum, int cost, String departureAirport, String arrivalAirport, int dep, int arr){
+		if (this._legCount == this._fnum.length){
+			int n = this._legCount * 2;
+			this._fnum = Arrays.copyOf(this._fnum, n);
+			this._cost = Arrays.copyOf(this._cost, n);
+			this._from = Arrays.copyOf(this._from, n);
+			this._to = Arrays.copyOf(this._to, n);
+			this._dep = Arrays.copyOf(this._dep, n);
+			this._arr = Arrays.copyOf(this._arr, n);
+		}//end if
+		int slot = this._legCount++;
+		int from = airport(departureAirport);
+		this._fnum[slot] = fnum;
+		this._cost[slot] = cost;
+		this._from[slot] = from;
+		this._to[slot] = airport(arrivalAirport);
+		this._dep[slot] = dep;
+		this._arr[slot] = arr;
+
+		int[] out = this._out[from];
+		if (out == null)
+			out = this._out[from] = new int[8];
+		else if (this._outSize[from] == out.length)
+			out = this._out[from] = Arrays.copyOf(out, out.length * 2);
+		out[this._outSize[from]++] = slot;
+		return slot;
+	}
+
+	private int airport(String code){
+		code = code.trim();
+		Integer id = this._airportIds.get(code);
+		if (id != null)
+			return id;
+		if (this._airportCount == this._airports.length){
+			int n = this._airportCount * 2;
+			this._airports = Arrays.copyOf(this._airports, n);
+			this._out = Arrays.copyOf(this._out, n);
+			this._outSize = Arrays.copyOf(this._outSize, n);
+		}//end if
+		this._airports[this._airportCount] = code;
+		this._airportIds.put(code, this._airportCount);
+		return this._airportCount++;
+	}
+
+	//sorts an airport's legs by departure through packed (departure, slot) keys
+	private void sortOut(int airport){
+		int size = this._outSize[airport];
+		int[] out = this._out[airport];
+		long[] keys = new long[size];
+		for (int i = 0; i < size; ++i)
+			keys[i] = ((long) this._dep[out[i]] << 32) | (out[i] & 0xffffffffL);
+		Arrays.sort(keys);
+		for (int i = 0; i < size; ++i)
+			out[i] = (int) keys[i];
+	}
+
+	//first position in out[0..size) departing at or after minute
+	private int lowerBound(int[] out, int size, int minute){
+		int lo = 0, hi = size;
+		while (lo < hi){
+			int mid = (lo + hi) >>> 1;
+			if (this._dep[out[mid]] < minute)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}//end while
+		return lo;
+	}
+
+	/**
+	 * Method to find the best itineraries from one airport to another.
+	 *
+	 * @param origin the airport code to leave from
+	 * @param destination the airport code to arrive at
+	 * @param earliest the earliest departure of the first leg, in epoch minutes
+	 * @param latest the latest departure of the first leg, in epoch minutes
+	 * @param rank what makes an itinerary better, its total cost or its duration
+	 * @param maxLegs the most flights per itinerary
+	 * @param minConnect the least minutes between an arrival and the next departure
+	 * @param maxLayover the most minutes between an arrival and the next departure
+	 * @param limit the most itineraries returned
+	 * @return the itineraries, best first
+	 */
+	public List<Itinerary> search(String origin, String destination, int earliest, int latest, Rank rank,
+			int maxLegs, int minConnect, int maxLayover, int limit){
+		this._lock.readLock().lock();
+		try{
+			Integer from = this._airportIds.get(origin.trim());
+			Integer to = this._airportIds.get(destination.trim());
+			List<Itinerary> found = new ArrayList<Itinerary>();
+			if (from == null || to == null || from.equals(to) || limit < 1)
+				return found;
+			return new Search(rank, to, maxLegs, minConnect, maxLayover, limit).run(from, earliest, latest);
+		}finally{
+			this._lock.readLock().unlock();
+		}//end try
+	}
+
+	public int getLegCount(){
+		this._lock.readLock().lock();
+		try{
+			return this._legCount;
+		}finally{
+			this._lock.readLock().unlock();
+		}//end try
+	}
+
+	public int getAirportCount(){
+		this._lock.readLock().lock();
+		try{
+			return this._airportCount;
+		}finally{
+			this._lock.readLock().unlock();
+		}//end try
+	}
+
+	/**
+	 * The state of one search.  A label is a partial itinerary: its last
+	 * leg, the label it extends, its first departure, cost and leg count.
+	 */
+	private class Search{
+		private final Rank _rank;
+		private final int _destination;
+		private final int _maxLegs;
+		private final int _minConnect;
+		private final int _maxLayover;
+		private final int _limit;
+
+		private int _labels = 0;
+		private int[] _leg = new int[256];
+		private int[] _parent = new int[256];
+		private int[] _start = new int[256];
+		private long[] _total = new long[256];
+		private byte[] _legs = new byte[256];
+
+		//binary min-heap of labels by rank key
+		private int _heapSize = 0;
+		private long[] _keys = new long[256];
+		private int[] _ids = new int[256];
+
+		//labels extended per leg slot, open addressing on the slot
+		private int[] _seenSlot = new int[1024];
+		private int[] _seenCount = new int[1024];
+		private int _seenSize = 0;
+
+		Search(Rank rank, int destination, int maxLegs, int minConnect, int maxLayover, int limit){
+			this._rank = rank;
+			this._destination = destination;
+			this._maxLegs = Math.max(1, Math.min(maxLegs, Byte.MAX_VALUE));
+			this._minConnect = minConnect;
+			this._maxLayover = maxLayover;
+			this._limit = limit;
+			Arrays.fill(this._seenSlot, -1);
+		}
+
+		List<Itinerary> run(int origin, int earliest, int latest){
+			List<Itinerary> found = new ArrayList<Itinerary>();
+			int[] out = _out[origin];
+			int size = _outSize[origin];
+			for (int i = lowerBound(out, size, earliest); i < size && _dep[out[i]] <= latest; ++i)
+				push(out[i], -1, _dep[out[i]], _cost[out[i]], 1);
+
+			while (this._heapSize > 0 && found.size() < this._limit){
+				int label = pop();
+				int leg = this._leg[label];
+				if (++this._seenCount[seen(leg)] > this._limit)
+					continue;
+				if (_to[leg] == this._destination){
+					found.add(itinerary(label));
+					continue;
+				}//end if
+				if (this._legs[label] >= this._maxLegs || this._labels >= MAX_LABELS)
+					continue;
+
+				int at = _to[leg];
+				out = _out[at];
+				size = _outSize[at];
+				if (out == null)
+					continue;
+				long lastDeparture = (long) _arr[leg] + this._maxLayover;
+				for (int i = lowerBound(out, size, _arr[leg] + this._minConnect); i < size && _dep[out[i]] <= lastDeparture; ++i){
+					int next = out[i];
+					//the last leg allowed must reach the destination
+					if (this._legs[label] + 1 == this._maxLegs && _to[next] != this._destination)
+						continue;
+					if (!visits(label, _to[next]))
+						push(next, label, this._start[label], this._total[label] + _cost[next], this._legs[label] + 1);
+				}//end for
+			}//end while
+			return found;
+		}
+
+		//true if the itinerary of label has been to the airport
+		private boolean visits(int label, int airport){
+			for (int l = label; l >= 0; l = this._parent[l])
+				if (_to[this._leg[l]] == airport || _from[this._leg[l]] == airport)
+					return true;
+			return false;
+		}
+
+		private Itinerary itinerary(int label){
+			Itinerary it = new Itinerary(this._legs[label], this._total[label]);
+			for (int l = label, i = this._legs[label] - 1; l >= 0; l = this._parent[l], --i){
+				int leg = this._leg[l];
+				it.fnums[i] = _fnum[leg];
+				it.departures[i] = _dep[leg];
+				it.arrivals[i] = _arr[leg];
+				it.airports[i] = _airports[_from[leg]];
+				it.airports[i + 1] = _airports[_to[leg]];
+			}//end for
+			return it;
+		}
+
+		private void push(int leg, int parent, int start, long total, int legs){
+			if (this._labels == this._leg.length){
+				int n = this._labels * 2;
+				this._leg = Arrays.copyOf(this._leg, n);
+				this._parent = Arrays.copyOf(this._parent, n);
+				this._start = Arrays.copyOf(this._start, n);
+				this._total = Arrays.copyOf(this._total, n);
+				this._legs = Arrays.copyOf(this._legs, n);
+			}//end if
+			int label = this._labels++;
+			this._leg[label] = leg;
+			this._parent[label] = parent;
+			this._start[label] = start;
+			this._total[label] = total;
+			this._legs[label] = (byte) legs;
+
+			long key = this._rank == Rank.COST ? total : (long) _arr[leg] - start;
+			if (this._heapSize == this._keys.length){
+				this._keys = Arrays.copyOf(this._keys, this._heapSize * 2);
+				this._ids = Arrays.copyOf(this._ids, this._heapSize * 2);
+			}//end if
+			int i = this._heapSize++;
+			while (i > 0){
+				int up = (i - 1) >>> 1;
+				if (this._keys[up] <= key)
+					break;
+				this._keys[i] = this._keys[up];
+				this._ids[i] = this._ids[up];
+				i = up;
+			}//end while
+			this._keys[i] = key;
+			this._ids[i] = label;
+		}
+
+		private int pop(){
+			int top = this._ids[0];
+			int n = --this._heapSize;
+			long key = this._keys[n];
+			int id = this._ids[n];
+			int i = 0;
+			while (true){
+				int child = 2 * i + 1;
+				if (child >= n)
+					break;
+				if (child + 1 < n && this._keys[child + 1] < this._keys[child])
+					++child;
+				if (key <= this._keys[child])
+					break;
+				this._keys[i] = this._keys[child];
+				this._ids[i] = this._ids[child];
+				i = child;
+			}//end while
+			this._keys[i] = key;
+			this._ids[i] = id;
+			return top;
+		}
+
+		//the position of a leg slot's extension counter
+		private int seen(int slot){
+			if (2 * (this._seenSize + 1) > this._seenSlot.length){
+				int[] slots = this._seenSlot;
+				int[] counts = this._seenCount;
+				this._seenSlot = new int[slots.length * 2];
+				this._seenCount = new int[slots.length * 2];
+				Arrays.fill(this._seenSlot, -1);
+				for (int i = 0; i < slots.length; ++i){
+					if (slots[i] < 0)
+						continue;
+					int j = find(slots[i]);
+					this._seenSlot[j] = slots[i];
+					this._seenCount[j] = counts[i];
+				}//end for
+			}//end if
+			int i = find(slot);
+			if (this._seenSlot[i] < 0){
+				this._seenSlot[i] = slot;
+				++this._seenSize;
+			}//end if
+			return i;
+		}
+
+		private int find(int slot){
+			int mask = this._seenSlot.length - 1;
+			int i = (slot * 0x9E3779B9) >>> 1 & mask;
+			while (this._seenSlot[i] >= 0 && this._seenSlot[i] != slot)
+				i = (i + 1) & mask;
+			return i;
+		}
+	}//end Search
+
+	/**
+	 * @param time a date and time
+	 * @return the minutes since the epoch
+	 */
+	public static int toMinute(LocalDateTime time){
+		return (int) (time.toEpochSecond(ZoneOffset.UTC) / 60);
+	}
+
+	/**
+	 * @param text yyyy-MM-dd, optionally followed by a space or T and HH:mm
+	 * @return the minutes since the epoch
+	 * @throws java.time.format.DateTimeParseException when the text is neither form
+	 */
+	public static int parseMinute(String text){
+		text = text.trim();
+		if (text.length() <= 10)
+			return toMinute(LocalDate.parse(text).atStartOfDay());
+		if (text.length() < 16)
+			throw new DateTimeParseException("Expected yyyy-MM-dd with an optional HH:mm: " + text, text, 0);
+		return toMinute(LocalDateTime.parse(text.substring(0, 16).replace(' ', 'T')));
+	}
+
+	/**
+	 * @param text the end of a window, yyyy-MM-dd with an optional HH:mm
+	 * @return the minutes since the epoch, the last minute of the day for a date alone
+	 */
+	public static int parseWindowEnd(String text){
+		return parseMinute(text) + (text.trim().length() <= 10 ? 24 * 60 - 1 : 0);
+	}
+
+	public static String formatMinute(int minute){
+		return LocalDateTime.ofEpochSecond(minute * 60L, 0, ZoneOffset.UTC).format(MINUTE_FORMAT);
+	}
+}//end RouteIndex
@@ -0,0 +1,20 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * This interface receives the rows of a streamed query one at a time.
+ * The result set is positioned on the current row and must not be
+ * advanced or closed by the handler.
+ *
+ */
+
+public interface RowHandler{
+	/**
+	 * Method called once per row, in result order.
+	 *
+	 * @param rs the result set positioned on the current row
+	 * @return true to receive the next row, false to stop the query early
+	 * @throws java.sql.SQLException when a column cannot be read
+	 */
+	boolean handleRow(ResultSet rs) throws SQLException;
+}//end RowHandler
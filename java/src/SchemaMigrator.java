@@ -0,0 +1,108 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * This class applies versioned schema migrations on top of
+ * sql/create.sql.  Migrations are the files V<version>__<description>.sql
+ * of a directory, applied in version order, each in its own transaction.
+ * Applied versions are recorded in the schema_version table, so running
+ * the migrator again only applies new files.
+ *
+ */
+
+public class SchemaMigrator{
+	static final Pattern MIGRATION_FILE = Pattern.compile("V(\\d+)__(.+)\\.sql");
+	static final String CREATE_VERSION_TABLE_SQL = "CREATE TABLE IF NOT EXISTS schema_version\n(\n\tversion INTEGER NOT NULL,\n\tdescription TEXT NOT NULL,\n\tapplied_at TIMESTAMP NOT NULL DEFAULT now(),\n\tPRIMARY KEY (version)\n)";
+	static final String RECORD_VERSION_SQL = "INSERT INTO schema_version (version, description) VALUES (?, ?)";
+
+	private final ConnectionPool _pool;
+
+	public SchemaMigrator(ConnectionPool pool){
+		this._pool = pool;
+	}
+
+	/**
+	 * Method to apply every migration of a directory that is not recorded
+	 * in schema_version yet.  A failing migration is rolled back and stops
+	 * the run; the ones before it stay applied.
+	 *
+	 * @param dir the directory holding the V<version>__<description>.sql files
+	 * @return the number of migrations applied
+	 * @throws java.sql.SQLException when a migration failed
+	 * @throws java.io.IOException when a migration file cannot be read
+	 */
+	public int migrate(File dir) throws SQLException, IOException {
+		File[] files = dir.listFiles((d, name) -> MIGRATION_FILE.matcher(name).matches());
+		if (files == null)
+			throw new IOException("Not a directory: " + dir);
+		Arrays.sort(files, (a, b) -> Integer.compare(versionOf(a), versionOf(b)));
+
+		ConnectionPool.PooledConnection conn = this._pool.borrow();
+		try{
+			Connection c = conn.getConnection();
+			Statement stmt = c.createStatement();
+			stmt.executeUpdate(CREATE_VERSION_TABLE_SQL);
+
+			Set<Integer> applied = new HashSet<Integer>();
+			ResultSet rs = stmt.executeQuery("SELECT version FROM schema_version");
+			while (rs.next())
+				applied.add(rs.getInt(1));
+			rs.close();
+
+			int count = 0;
+			c.setAutoCommit(false);
+			for (File f : files){
+				int version = versionOf(f);
+				if (applied.contains(version))
+					continue;
+				Matcher m = MIGRATION_FILE.matcher(f.getName());
+				m.matches();
+				String description = m.group(2).replace('_', ' ');
+
+				long start = System.nanoTime();
+				String sql = new String(Files.readAllBytes(f.toPath()), StandardCharsets.UTF_8);
+				try{
+					stmt.execute(sql);
+					PreparedStatement record = c.prepareStatement(RECORD_VERSION_SQL);
+					record.setInt(1, version);
+					record.setString(2, description);
+					record.executeUpdate();
+					record.close();
+					c.commit();
+				}catch (SQLException e){
+					c.rollback();
+					throw new SQLException("Migration " + f.getName() + " failed: " + e.getMessage(), e.getSQLState(), e);
+				}//end try
+				System.out.printf("Applied V%03d %s in %.2fs%n", version, description, (System.nanoTime() - start) / 1e9);
+				++count;
+			}//end for
+			c.setAutoCommit(true);
+			stmt.close();
+			System.out.println(count == 0 ? "Schema is up to date" : count + " migration(s) applied");
+			return count;
+		}catch (SQLException e){
+			conn.checkBroken(e);
+			throw e;
+		}finally{
+			this._pool.release(conn);
+		}//end try
+	}//end migrate
+
+	private static int versionOf(File f){
+		Matcher m = MIGRATION_FILE.matcher(f.getName());
+		m.matches();
+		return Integer.parseInt(m.group(1));
+	}
+}//end SchemaMigrator
@@ -0,0 +1,133 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * This class caches, per flight number, the capacity of the flight's
+ * plane, the number of seats sold and the departure date, so seat
+ * availability can be answered without querying Plane, FlightInfo and
+ * Flight.  Entries are loaded lazily, evicted least recently used first,
+ * and must be invalidated whenever a booking or a new flight changes the
+ * underlying rows.
+ *
+ */
+
+public class SeatInventoryCache{
+	/**
+	 * The cached inventory of one flight.
+	 */
+	public static class Entry{
+		public final int capacity;
+		public final int sold;
+		//actual_departure_date as a LocalDate epoch day
+		public final long departureDay;
+
+		public Entry(int capacity, int sold, long departureDay){
+			this.capacity = capacity;
+			this.sold = sold;
+			this.departureDay = departureDay;
+		}
+
+		public int available(){
+			return this.capacity - this.sold;
+		}
+	}//end Entry
+
+	private final int _capacity;
+	private final LinkedHashMap<Integer, Entry> _entries;
+	//bumped by every invalidation, so loads that raced one are not stored
+	private long _generation = 0;
+
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+
+	public SeatInventoryCache(int capacity){
+		this._capacity = capacity;
+		this._entries = new LinkedHashMap<Integer, Entry>(Math.min(capacity, 1024) * 2, 0.75f, true){
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest){
+				if (size() <= SeatInventoryCache.this._capacity)
+					return false;
+				++SeatInventoryCache.this._evictions;
+				return true;
+			}
+		};
+	}
+
+	/**
+	 * Method to look up a flight, counting a hit or a miss.
+	 *
+	 * @param fnum the flight number
+	 * @return the cached entry, or null when it has to be loaded
+	 */
+	public synchronized Entry get(int fnum){
+		Entry e = this._entries.get(fnum);
+		if (e == null)
+			++this._misses;
+		else
+			++this._hits;
+		return e;
+	}
+
+	/**
+	 * Method to read the generation before loading an entry from the
+	 * database.  Pass it to put, which drops the entry if the flight may
+	 * have changed while it was being loaded.
+	 *
+	 * @return the current invalidation generation
+	 */
+	public synchronized long generation(){
+		return this._generation;
+	}
+
+	/**
+	 * Method to store a freshly loaded entry.
+	 *
+	 * @param fnum the flight number
+	 * @param entry the loaded inventory
+	 * @param generation the value of generation() taken before the load
+	 */
+	public synchronized void put(int fnum, Entry entry, long generation){
+		if (generation == this._generation)
+			this._entries.put(fnum, entry);
+	}
+
+	/**
+	 * Method to drop a flight whose seats or plane changed.
+	 *
+	 * @param fnum the flight number
+	 */
+	public synchronized void invalidate(int fnum){
+		++this._generation;
+		this._entries.remove(fnum);
+	}
+
+	public synchronized void clear(){
+		++this._generation;
+		this._entries.clear();
+	}
+
+	public synchronized long getHits(){
+		return this._hits;
+	}
+
+	public synchronized long getMisses(){
+		return this._misses;
+	}
+
+	public synchronized long getEvictions(){
+		return this._evictions;
+	}
+
+	public synchronized int size(){
+		return this._entries.size();
+	}
+
+	/**
+	 * @return hits divided by lookups, or 0 before the first lookup
+	 */
+	public synchronized double getHitRate(){
+		long lookups = this._hits + this._misses;
+		return lookups == 0 ? 0 : (double) this._hits / lookups;
+	}
+}//end SeatInventoryCache
@@ -0,0 +1,118 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import org.postgresql.PGStatement;
+
+/**
+ * This class keeps a bounded, least-recently-used cache of prepared
+ * statements for a single physical connection.  Statements are keyed by
+ * their SQL template, so repeated calls with different bind values reuse
+ * the same server-side plan once the template has been executed
+ * prepareThreshold times.
+ *
+ */
+
+public class StatementCache{
+	//the connection every cached statement belongs to
+	private final Connection _connection;
+	//maximum number of statements kept open
+	private final int _capacity;
+	//executions before the driver switches to a named server-side statement
+	private final int _prepareThreshold;
+	//access ordered map, the eldest entry is the least recently used one
+	private final LinkedHashMap<String, PreparedStatement> _statements;
+
+	private long _hits = 0;
+	private long _misses = 0;
+	private long _evictions = 0;
+
+	public StatementCache(Connection connection, int capacity, int prepareThreshold){
+		this._connection = connection;
+		this._capacity = capacity;
+		this._prepareThreshold = prepareThreshold;
+		this._statements = new LinkedHashMap<String, PreparedStatement>(capacity * 2, 0.75f, true);
+	}
+
+	/**
+	 * Method to fetch the prepared statement for a SQL template, preparing
+	 * it on a miss.  The least recently used statement is closed when the
+	 * cache is full.  Callers must not close the returned statement.
+	 *
+	 * @param sql the SQL template, with '?' placeholders
+	 * @return the cached prepared statement
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public synchronized PreparedStatement prepare(String sql) throws SQLException {
+		PreparedStatement stmt = this._statements.get(sql);
+		if (stmt != null && !stmt.isClosed()){
+			++this._hits;
+			return stmt;
+		}//end if
+
+		++this._misses;
+		stmt = this._connection.prepareStatement(sql);
+		stmt.unwrap(PGStatement.class).setPrepareThreshold(this._prepareThreshold);
+		this._statements.put(sql, stmt);
+
+		//evicts the least recently used statements beyond capacity
+		Iterator<Map.Entry<String, PreparedStatement>> it = this._statements.entrySet().iterator();
+		while (this._statements.size() > this._capacity && it.hasNext()){
+			Map.Entry<String, PreparedStatement> eldest = it.next();
+			it.remove();
+			++this._evictions;
+			closeQuietly(eldest.getValue());
+		}//end while
+		return stmt;
+	}//end prepare
+
+	/**
+	 * Method to bind positional values to a prepared statement.  Values are
+	 * bound with setObject, so the server infers the parameter types.
+	 *
+	 * @param stmt the statement to bind
+	 * @param params the values, in placeholder order
+	 * @throws java.sql.SQLException when a value cannot be bound
+	 */
+	public static void bind(PreparedStatement stmt, Object... params) throws SQLException {
+		stmt.clearParameters();
+		for (int i = 0; i < params.length; ++i)
+			stmt.setObject(i + 1, params[i]);
+	}//end bind
+
+	public synchronized long getHits(){
+		return this._hits;
+	}
+
+	public synchronized long getMisses(){
+		return this._misses;
+	}
+
+	public synchronized long getEvictions(){
+		return this._evictions;
+	}
+
+	public synchronized int size(){
+		return this._statements.size();
+	}
+
+	/**
+	 * Method to close every cached statement.  The connection itself is
+	 * left open.
+	 */
+	public synchronized void close(){
+		for (PreparedStatement stmt : this._statements.values())
+			closeQuietly(stmt);
+		this._statements.clear();
+	}//end close
+
+	private static void closeQuietly(PreparedStatement stmt){
+		try{
+			stmt.close();
+		}catch (SQLException e){
+			// ignored.
+		}//end try
+	}
+}//end StatementCache
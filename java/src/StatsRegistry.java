@@ -0,0 +1,295 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * This class holds the statistics of every instrumented operation, the
+ * slow query log, and the periodic dump of the figures to a file.
+ *
+ * Calls are recorded against the operation of the method that issued
+ * them, and also against the menu operation running on the calling
+ * thread, if any.  A menu operation is timed from its start to its end,
+ * cache hits and client-side work included, less the time the user spent
+ * at its prompts.
+ *
+ */
+
+public class StatsRegistry{
+	static final String METRIC_PREFIX = "dbproject_op";
+	static final double[] QUANTILES = {0.5, 0.99, 0.999};
+
+	/**
+	 * The menu operation running on a thread, with its database work.
+	 */
+	static class Context{
+		final OperationStats op;
+		final long startNanos = System.nanoTime();
+		final long waitedFrom = WAITED.get()[0];
+		long rows = 0;
+		long bytes = 0;
+		boolean failed = false;
+
+		Context(OperationStats op){
+			this.op = op;
+		}
+	}//end Context
+
+	private final ConcurrentHashMap<String, OperationStats> _ops = new ConcurrentHashMap<String, OperationStats>();
+	private final ThreadLocal<Context> _context = new ThreadLocal<Context>();
+	//nanoseconds each thread has waited for input, see addWait
+	private static final ThreadLocal<long[]> WAITED = ThreadLocal.withInitial(() -> new long[1]);
+
+	//calls at least this slow are logged, disabled when negative
+	private volatile long _slowNanos = -1;
+	private PrintWriter _slowLog = null;
+	//false while logging to standard error, which is not closed
+	private boolean _slowLogOwned = false;
+	private ScheduledExecutorService _dumper = null;
+	private File _dumpFile = null;
+
+	/**
+	 * Method to find or create the statistics of an operation.  Callers on
+	 * hot paths should keep the returned object rather than look it up
+	 * per call.
+	 *
+	 * @param name the operation name
+	 * @return the statistics of the operation
+	 */
+	public OperationStats get(String name){
+		OperationStats op = this._ops.get(name);
+		return op != null ? op : this._ops.computeIfAbsent(name, OperationStats::new);
+	}
+
+	/**
+	 * Method to record a call that returned normally.
+	 *
+	 * @param op the operation of the calling method
+	 * @param sql the statement issued, for the slow query log
+	 * @param params the bound values, for the slow query log
+	 * @param startNanos System.nanoTime() taken before the call
+	 * @param rows the rows returned or affected
+	 * @param bytes the bytes of the values fetched
+	 */
+	public void record(OperationStats op, String sql, Object[] params, long startNanos, long rows, long bytes){
+		record(op, sql, params, startNanos, rows, bytes, false);
+	}
+
+	/**
+	 * Method to record a call that threw.
+	 *
+	 * @param op the operation of the calling method
+	 * @param sql the statement issued, for the slow query log
+	 * @param params the bound values, for the slow query log
+	 * @param startNanos System.nanoTime() taken before the call
+	 */
+	public void recordError(OperationStats op, String sql, Object[] params, long startNanos){
+		record(op, sql, params, startNanos, 0, 0, true);
+	}
+
+	private void record(OperationStats op, String sql, Object[] params, long startNanos, long rows, long bytes, boolean failed){
+		long nanos = System.nanoTime() - startNanos;
+		op.record(nanos, rows, bytes, failed);
+
+		Context ctx = this._context.get();
+		if (ctx != null){
+			ctx.rows += rows;
+			ctx.bytes += bytes;
+			ctx.failed |= failed;
+		}//end if
+
+		long slow = this._slowNanos;
+		if (slow >= 0 && nanos >= slow)
+			logSlow(op.getName(), sql, params, nanos, rows, failed);
+	}
+
+	/**
+	 * Method to start attributing calls on this thread to a menu
+	 * operation.
+	 *
+	 * @param name the menu operation
+	 */
+	public void beginOperation(String name){
+		this._context.set(new Context(get(name)));
+	}
+
+	/**
+	 * Method to record the menu operation begun on this thread, timed from
+	 * beginOperation, so work served without a database call counts too.
+	 */
+	public void endOperation(){
+		Context ctx = this._context.get();
+		if (ctx == null)
+			return;
+		this._context.remove();
+		long waited = WAITED.get()[0] - ctx.waitedFrom;
+		ctx.op.record(System.nanoTime() - ctx.startNanos - waited, ctx.rows, ctx.bytes, ctx.failed);
+	}
+
+	/**
+	 * Method to exclude a wait for the user from the menu operation
+	 * running on this thread.
+	 *
+	 * @param nanos the time spent waiting
+	 */
+	public static void addWait(long nanos){
+		WAITED.get()[0] += nanos;
+	}
+
+	/**
+	 * Method to log every call at least as slow as a threshold.
+	 *
+	 * @param thresholdMs the threshold in milliseconds
+	 * @param logFile the file appended to, or null for standard error
+	 * @throws java.io.IOException when the log cannot be opened
+	 */
+	public synchronized void setSlowQueryLog(long thresholdMs, File logFile) throws IOException {
+		closeSlowLog();
+		this._slowLog = logFile == null ? new PrintWriter(System.err, true) : new PrintWriter(new FileWriter(logFile, true), true);
+		this._slowLogOwned = logFile != null;
+		this._slowNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMs);
+	}
+
+	private synchronized void logSlow(String op, String sql, Object[] params, long nanos, long rows, boolean failed){
+		if (this._slowLog == null)
+			return;
+		this._slowLog.printf(Locale.ROOT, "%s slow %s %.3f ms rows=%d%s: %s %s%n", Instant.now(), op, nanos / 1e6, rows,
+			failed ? " FAILED" : "", sql == null ? "-" : sql.replaceAll("\\s+", " "),
+			params == null ? "[]" : Arrays.toString(params));
+	}
+
+	private synchronized void closeSlowLog(){
+		this._slowNanos = -1;
+		if (this._slowLog == null)
+			return;
+		if (this._slowLogOwned)
+			this._slowLog.close();
+		else
+			this._slowLog.flush();
+		this._slowLog = null;
+	}
+
+	/**
+	 * @return the operations, by name
+	 */
+	public List<OperationStats> getOperations(){
+		List<OperationStats> ops = new ArrayList<OperationStats>(this._ops.values());
+		Collections.sort(ops, Comparator.comparing(OperationStats::getName));
+		return ops;
+	}
+
+	/**
+	 * Method to print one line per operation that has been called.
+	 *
+	 * @param out the stream to print to
+	 */
+	public void print(PrintStream out){
+		out.printf("%-28s %9s %7s %10s %12s %9s %9s %9s %9s %9s%n", "operation", "calls", "errors",
+			"rows", "bytes", "mean ms", "p50 ms", "p99 ms", "p99.9 ms", "max ms");
+		for (OperationStats op : getOperations()){
+			if (op.getCount() == 0)
+				continue;
+			out.printf(Locale.ROOT, "%-28s %9d %7d %10d %12d %9.3f %9.3f %9.3f %9.3f %9.3f%n", op.getName(),
+				op.getCount(), op.getErrors(), op.getRows(), op.getBytes(), op.getMeanNanos() / 1e6,
+				op.percentile(0.5) / 1e6, op.percentile(0.99) / 1e6, op.percentile(0.999) / 1e6, op.getMaxNanos() / 1e6);
+		}//end for
+	}
+
+	/**
+	 * Method to write the figures in the Prometheus text format, as a
+	 * summary per operation plus counters for rows, bytes and errors.
+	 *
+	 * @param w the writer
+	 * @throws java.io.IOException when writing failed
+	 */
+	public void writeMetrics(Writer w) throws IOException {
+		List<OperationStats> ops = getOperations();
+		w.write("# TYPE " + METRIC_PREFIX + "_latency_seconds summary\n");
+		for (OperationStats op : ops){
+			String label = "op=\"" + op.getName().replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+			for (double q : QUANTILES)
+				w.write(String.format(Locale.ROOT, "%s_latency_seconds{%s,quantile=\"%s\"} %.9f\n",
+					METRIC_PREFIX, label, q, op.percentile(q) / 1e9));
+			w.write(String.format(Locale.ROOT, "%s_latency_seconds_sum{%s} %.9f\n", METRIC_PREFIX, label, op.getTotalNanos() / 1e9));
+			w.write(String.format(Locale.ROOT, "%s_latency_seconds_count{%s} %d\n", METRIC_PREFIX, label, op.getCount()));
+			w.write(String.format(Locale.ROOT, "%s_latency_seconds_max{%s} %.9f\n", METRIC_PREFIX, label, op.getMaxNanos() / 1e9));
+			w.write(String.format(Locale.ROOT, "%s_errors_total{%s} %d\n", METRIC_PREFIX, label, op.getErrors()));
+			w.write(String.format(Locale.ROOT, "%s_rows_total{%s} %d\n", METRIC_PREFIX, label, op.getRows()));
+			w.write(String.format(Locale.ROOT, "%s_bytes_total{%s} %d\n", METRIC_PREFIX, label, op.getBytes()));
+		}//end for
+	}
+
+	/**
+	 * Method to rewrite a file with the current figures periodically.  The
+	 * figures are written to a temporary file that then replaces the file,
+	 * so a scraper never reads a partial dump.
+	 *
+	 * @param file the file to rewrite
+	 * @param periodSecs the seconds between dumps
+	 */
+	public synchronized void startDump(File file, int periodSecs){
+		stopDump();
+		this._dumpFile = file;
+		this._dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "stats-dump");
+			t.setDaemon(true);
+			return t;
+		});
+		this._dumper.scheduleAtFixedRate(() -> dump(file), periodSecs, periodSecs, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Method to write the figures to a file once.
+	 *
+	 * @param file the file to replace
+	 * @return true if the file was written
+	 */
+	public boolean dump(File file){
+		File tmp = new File(file.getPath() + ".tmp");
+		try{
+			Writer w = new FileWriter(tmp);
+			try{
+				writeMetrics(w);
+			}finally{
+				w.close();
+			}//end try
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		}catch (IOException e){
+			System.err.println("Unable to write stats to " + file + ": " + e.getMessage());
+			return false;
+		}//end try
+	}
+
+	/**
+	 * Method to stop the periodic dump and the slow query log, writing the
+	 * final figures.
+	 */
+	public synchronized void close(){
+		stopDump();
+		closeSlowLog();
+	}
+
+	private synchronized void stopDump(){
+		if (this._dumper == null)
+			return;
+		this._dumper.shutdownNow();
+		this._dumper = null;
+		dump(this._dumpFile);
+	}
+}//end StatsRegistry
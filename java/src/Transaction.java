@@ -0,0 +1,126 @@
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * This class is the unit of work of DBproject.inTransaction: the
+ * statements of one logical operation, run on one connection with
+ * autocommit off and committed once.  The driver sends the BEGIN with the
+ * first statement, so an operation costs one round trip per statement
+ * sent plus the COMMIT.
+ *
+ * Writes whose results are not needed at once can be queued instead.
+ * Queued statements are sent before the next query or update and at
+ * commit, and consecutive queued statements with the same template go
+ * out as one JDBC batch, which the driver pipelines in a single network
+ * flight.
+ *
+ */
+
+public class Transaction{
+
+	/**
+	 * The statements of one logical operation.
+	 */
+	public interface Work<T>{
+		T run(Transaction tx) throws SQLException;
+	}
+
+	private final ConnectionPool.PooledConnection _conn;
+	//the template and statement of the queued statements, and how many are queued
+	private String _queuedSql = null;
+	private PreparedStatement _queuedStmt = null;
+	private int _queued = 0;
+
+	Transaction(ConnectionPool.PooledConnection conn){
+		this._conn = conn;
+	}
+
+	/**
+	 * Method to run an update after the queued statements.
+	 *
+	 * @param sql the statement, with '?' placeholders for params
+	 * @param params the values bound to the placeholders
+	 * @return the number of rows affected
+	 * @throws java.sql.SQLException when a statement failed
+	 */
+	public int executeUpdate(String sql, Object... params) throws SQLException {
+		flush();
+		PreparedStatement stmt = this._conn.prepare(sql);
+		StatementCache.bind(stmt, params);
+		return stmt.executeUpdate();
+	}
+
+	/**
+	 * Method to run a query after the queued statements.
+	 *
+	 * @param query the query, with '?' placeholders for params
+	 * @param params the values bound to the placeholders
+	 * @return the rows of the query
+	 * @throws java.sql.SQLException when a statement failed
+	 */
+	public TypedResult executeQuery(String query, Object... params) throws SQLException {
+		flush();
+		PreparedStatement stmt = this._conn.prepare(query);
+		StatementCache.bind(stmt, params);
+		ResultSet rs = stmt.executeQuery();
+		try{
+			return new TypedResult().fill(rs);
+		}finally{
+			rs.close();
+		}//end try
+	}
+
+	/**
+	 * Method to queue a write, to be sent with the writes of the same
+	 * template that follow it.
+	 *
+	 * @param sql the statement, with '?' placeholders for params
+	 * @param params the values bound to the placeholders
+	 * @throws java.sql.SQLException when the statement cannot be prepared
+	 */
+	public void queue(String sql, Object... params) throws SQLException {
+		if (this._queued > 0 && !this._queuedSql.equals(sql))
+			flush();
+		PreparedStatement stmt = this._conn.prepare(sql);
+		StatementCache.bind(stmt, params);
+		stmt.addBatch();
+		this._queuedSql = sql;
+		this._queuedStmt = stmt;
+		++this._queued;
+	}
+
+	/**
+	 * Method to send the queued statements in one batch.
+	 *
+	 * @return the number of rows they affected
+	 * @throws java.sql.SQLException when a statement failed
+	 */
+	public long flush() throws SQLException {
+		if (this._queued == 0)
+			return 0;
+		PreparedStatement stmt = this._queuedStmt;
+		this._queued = 0;
+		try{
+			long rows = 0;
+			for (int count : stmt.executeBatch())
+				rows += count == Statement.SUCCESS_NO_INFO ? 1 : Math.max(count, 0);
+			return rows;
+		}finally{
+			stmt.clearBatch();
+		}//end try
+	}
+
+	//drops the queued statements, so they never reach the next borrower
+	void discard(){
+		if (this._queued == 0)
+			return;
+		this._queued = 0;
+		try{
+			this._queuedStmt.clearBatch();
+		}catch (SQLException e){
+			// ignored, the connection is rolled back on release.
+		}//end try
+	}
+}//end Transaction
@@ -0,0 +1,381 @@
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Arrays;
+
+/**
+ * This class holds a query result in columnar, primitive-specialized
+ * buffers.  Integer columns are decoded into int[] or long[], floating
+ * point and numeric columns into double[], DATE columns into epoch days
+ * and TIMESTAMP columns into epoch milliseconds.  Text columns share one
+ * char[] that is reused when the result is refilled, so reading a result
+ * does not allocate per cell.
+ *
+ */
+
+public class TypedResult{
+	//column kinds, chosen from ResultSetMetaData.getColumnType
+	public static final int INT = 0;
+	public static final int LONG = 1;
+	public static final int DOUBLE = 2;
+	public static final int DATE = 3;
+	public static final int TIMESTAMP = 4;
+	public static final int TEXT = 5;
+
+	private static final int INITIAL_ROWS = 64;
+
+	private int _numCol = 0;
+	private int _rowCount = 0;
+	private int _capacity = 0;
+	private String[] _names = new String[0];
+	private int[] _kinds = new int[0];
+	//true for CHAR(n) columns, whose blank padding is dropped
+	private boolean[] _padded = new boolean[0];
+	//true for character columns, which the driver always sends as text
+	private boolean[] _character = new boolean[0];
+
+	//one buffer per column, only the array matching the column kind is set
+	private int[][] _ints = new int[0][];
+	private long[][] _longs = new long[0][];
+	private double[][] _doubles = new double[0][];
+	private int[][] _offsets = new int[0][];
+	private int[][] _lengths = new int[0][];
+	//null bitmap per column, one bit per row
+	private long[][] _nulls = new long[0][];
+
+	//characters of every text cell, addressed through _offsets/_lengths
+	private char[] _chars = new char[1024];
+	private int _charCount = 0;
+
+	/**
+	 * Method to decode every remaining row of a result set into this
+	 * result, replacing its previous contents.  Buffers are kept when
+	 * the column layout is unchanged and only grow when needed.
+	 *
+	 * @param rs the result set, positioned before the first row
+	 * @return this result
+	 * @throws java.sql.SQLException when a column cannot be read
+	 */
+	public TypedResult fill(ResultSet rs) throws SQLException {
+		ResultSetMetaData rsmd = rs.getMetaData ();
+		layout(rsmd);
+		this._rowCount = 0;
+		this._charCount = 0;
+
+		while (rs.next()){
+			if (this._rowCount == this._capacity)
+				grow(this._capacity * 2);
+			int row = this._rowCount++;
+			for (int c = 0; c < this._numCol; ++c){
+				int i = c + 1;
+				boolean isNull = false;
+				switch (this._kinds[c]){
+					case INT:
+						this._ints[c][row] = rs.getInt(i);
+						isNull = rs.wasNull();
+						break;
+					case LONG:
+						this._longs[c][row] = rs.getLong(i);
+						isNull = rs.wasNull();
+						break;
+					case DOUBLE:
+						this._doubles[c][row] = rs.getDouble(i);
+						isNull = rs.wasNull();
+						break;
+					case DATE:
+						java.sql.Date date = rs.getDate(i);
+						isNull = date == null;
+						this._longs[c][row] = isNull ? 0 : date.toLocalDate().toEpochDay();
+						break;
+					case TIMESTAMP:
+						Timestamp ts = rs.getTimestamp(i);
+						isNull = ts == null;
+						this._longs[c][row] = isNull ? 0 : ts.getTime();
+						break;
+					default:
+						if (this._character[c]){
+							//character values arrive in text format, getBytes hands back the wire bytes
+							byte[] raw = rs.getBytes(i);
+							isNull = raw == null;
+							appendText(c, row, raw);
+						}else{
+							String value = rs.getString(i);
+							isNull = value == null;
+							appendText(c, row, value);
+						}//end if
+				}//end switch
+				setNull(c, row, isNull);
+			}//end for
+		}//end while
+		return this;
+	}//end fill
+
+	public int getRowCount(){
+		return this._rowCount;
+	}
+
+	public int getColumnCount(){
+		return this._numCol;
+	}
+
+	/**
+	 * @return the size of the decoded values, 4 bytes per INT cell, 8 per
+	 *         other non-text cell and 1 per text character
+	 */
+	public long getByteSize(){
+		long bytes = this._charCount;
+		for (int c = 0; c < this._numCol; ++c)
+			if (this._kinds[c] != TEXT)
+				bytes += (long) this._rowCount * (this._kinds[c] == INT ? 4 : 8);
+		return bytes;
+	}
+
+	/**
+	 * @param col the zero-based column index
+	 * @return the column label reported by the driver
+	 */
+	public String getColumnName(int col){
+		return this._names[col];
+	}
+
+	/**
+	 * @param col the zero-based column index
+	 * @return one of INT, LONG, DOUBLE, DATE, TIMESTAMP or TEXT
+	 */
+	public int getColumnKind(int col){
+		return this._kinds[col];
+	}
+
+	public boolean isNull(int row, int col){
+		return (this._nulls[col][row >>> 6] & (1L << row)) != 0;
+	}
+
+	public int getInt(int row, int col){
+		checkKind(col, INT);
+		return this._ints[col][row];
+	}
+
+	/**
+	 * Method to read an integer, DATE (epoch day) or TIMESTAMP (epoch
+	 * millisecond) value.
+	 *
+	 * @param row the zero-based row index
+	 * @param col the zero-based column index
+	 * @return the value, widened for INT columns
+	 */
+	public long getLong(int row, int col){
+		if (this._kinds[col] == INT)
+			return this._ints[col][row];
+		if (this._longs[col] == null)
+			throw new IllegalStateException("Column " + this._names[col] + " is not an integer or date column");
+		return this._longs[col][row];
+	}
+
+	public double getDouble(int row, int col){
+		switch (this._kinds[col]){
+			case DOUBLE: return this._doubles[col][row];
+			case INT: return this._ints[col][row];
+			case LONG: return this._longs[col][row];
+			default: throw new IllegalStateException("Column " + this._names[col] + " is not numeric");
+		}//end switch
+	}
+
+	/**
+	 * Method to copy a text cell into a caller-owned buffer without
+	 * allocating.
+	 *
+	 * @param row the zero-based row index
+	 * @param col the zero-based column index
+	 * @param dst the destination buffer
+	 * @param dstOffset where to start writing in dst
+	 * @return the number of characters copied, or -1 for NULL
+	 */
+	public int getChars(int row, int col, char[] dst, int dstOffset){
+		checkKind(col, TEXT);
+		if (isNull(row, col))
+			return -1;
+		int len = this._lengths[col][row];
+		System.arraycopy(this._chars, this._offsets[col][row], dst, dstOffset, len);
+		return len;
+	}
+
+	/**
+	 * Method to compare a text cell with a string without allocating.
+	 *
+	 * @param row the zero-based row index
+	 * @param col the zero-based column index
+	 * @param value the string to compare with
+	 * @return true if the cell is not NULL and equals value
+	 */
+	public boolean textEquals(int row, int col, String value){
+		checkKind(col, TEXT);
+		if (isNull(row, col) || this._lengths[col][row] != value.length())
+			return false;
+		int off = this._offsets[col][row];
+		for (int i = 0; i < value.length(); ++i)
+			if (this._chars[off + i] != value.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * Method to read any cell as a string.  This allocates, and is meant
+	 * for printing rather than for hot loops.
+	 *
+	 * @param row the zero-based row index
+	 * @param col the zero-based column index
+	 * @return the cell value, or null for NULL
+	 */
+	public String getString(int row, int col){
+		if (isNull(row, col))
+			return null;
+		switch (this._kinds[col]){
+			case INT: return Integer.toString(this._ints[col][row]);
+			case LONG: return Long.toString(this._longs[col][row]);
+			case DOUBLE: return Double.toString(this._doubles[col][row]);
+			case DATE: return java.time.LocalDate.ofEpochDay(this._longs[col][row]).toString();
+			case TIMESTAMP: return new Timestamp(this._longs[col][row]).toString();
+			default: return new String(this._chars, this._offsets[col][row], this._lengths[col][row]);
+		}//end switch
+	}
+
+	//maps a JDBC type to the buffer kind used to hold it
+	private static int kindOf(int sqlType){
+		switch (sqlType){
+			case Types.INTEGER:
+			case Types.SMALLINT:
+			case Types.TINYINT:
+				return INT;
+			case Types.BIGINT:
+				return LONG;
+			case Types.REAL:
+			case Types.FLOAT:
+			case Types.DOUBLE:
+			case Types.NUMERIC:
+			case Types.DECIMAL:
+				return DOUBLE;
+			case Types.DATE:
+				return DATE;
+			case Types.TIMESTAMP:
+			case Types.TIMESTAMP_WITH_TIMEZONE:
+				return TIMESTAMP;
+			default:
+				return TEXT;
+		}//end switch
+	}
+
+	//sets up the column buffers, keeping them when the layout did not change
+	private void layout(ResultSetMetaData rsmd) throws SQLException {
+		int numCol = rsmd.getColumnCount ();
+		int[] kinds = new int[numCol];
+		boolean[] padded = new boolean[numCol];
+		boolean[] character = new boolean[numCol];
+		String[] names = new String[numCol];
+		for (int i = 1; i <= numCol; ++i){
+			kinds[i - 1] = kindOf(rsmd.getColumnType(i));
+			int type = rsmd.getColumnType(i);
+			padded[i - 1] = type == Types.CHAR;
+			character[i - 1] = type == Types.CHAR || type == Types.VARCHAR || type == Types.LONGVARCHAR;
+			names[i - 1] = rsmd.getColumnLabel(i);
+		}//end for
+		this._names = names;
+		this._padded = padded;
+		this._character = character;
+		if (numCol == this._numCol && Arrays.equals(kinds, this._kinds) && this._capacity > 0)
+			return;
+
+		this._numCol = numCol;
+		this._kinds = kinds;
+		this._ints = new int[numCol][];
+		this._longs = new long[numCol][];
+		this._doubles = new double[numCol][];
+		this._offsets = new int[numCol][];
+		this._lengths = new int[numCol][];
+		this._nulls = new long[numCol][];
+		this._capacity = 0;
+		grow(INITIAL_ROWS);
+	}
+
+	private void grow(int capacity){
+		for (int c = 0; c < this._numCol; ++c){
+			switch (this._kinds[c]){
+				case INT:
+					this._ints[c] = grow(this._ints[c], capacity);
+					break;
+				case LONG:
+				case DATE:
+				case TIMESTAMP:
+					this._longs[c] = this._longs[c] == null ? new long[capacity] : Arrays.copyOf(this._longs[c], capacity);
+					break;
+				case DOUBLE:
+					this._doubles[c] = this._doubles[c] == null ? new double[capacity] : Arrays.copyOf(this._doubles[c], capacity);
+					break;
+				default:
+					this._offsets[c] = grow(this._offsets[c], capacity);
+					this._lengths[c] = grow(this._lengths[c], capacity);
+			}//end switch
+			int words = (capacity + 63) >>> 6;
+			this._nulls[c] = this._nulls[c] == null ? new long[words] : Arrays.copyOf(this._nulls[c], words);
+		}//end for
+		this._capacity = capacity;
+	}
+
+	private static int[] grow(int[] buffer, int capacity){
+		return buffer == null ? new int[capacity] : Arrays.copyOf(buffer, capacity);
+	}
+
+	private void setNull(int col, int row, boolean isNull){
+		if (isNull)
+			this._nulls[col][row >>> 6] |= 1L << row;
+		else
+			this._nulls[col][row >>> 6] &= ~(1L << row);
+	}
+
+	//decodes UTF-8 wire bytes into the shared char buffer
+	private void appendText(int col, int row, byte[] raw){
+		this._offsets[col][row] = this._charCount;
+		if (raw == null){
+			this._lengths[col][row] = 0;
+			return;
+		}//end if
+		int len = raw.length;
+		if (this._padded[col])
+			while (len > 0 && raw[len - 1] == ' ')
+				--len;
+		if (this._charCount + len > this._chars.length)
+			this._chars = Arrays.copyOf(this._chars, Math.max(this._chars.length * 2, this._charCount + len));
+
+		int n = 0;
+		while (n < len && raw[n] >= 0){
+			this._chars[this._charCount + n] = (char) raw[n];
+			++n;
+		}//end while
+		if (n < len){
+			//non-ASCII input takes the slow path through the JDK decoder
+			String decoded = new String(raw, 0, len, java.nio.charset.StandardCharsets.UTF_8);
+			decoded.getChars(0, decoded.length(), this._chars, this._charCount);
+			n = decoded.length();
+		}//end if
+		this._lengths[col][row] = n;
+		this._charCount += n;
+	}
+
+	//copies a value the driver already decoded into the shared char buffer
+	private void appendText(int col, int row, String value){
+		this._offsets[col][row] = this._charCount;
+		int len = value == null ? 0 : value.length();
+		if (this._charCount + len > this._chars.length)
+			this._chars = Arrays.copyOf(this._chars, Math.max(this._chars.length * 2, this._charCount + len));
+		if (len > 0)
+			value.getChars(0, len, this._chars, this._charCount);
+		this._lengths[col][row] = len;
+		this._charCount += len;
+	}
+
+	private void checkKind(int col, int kind){
+		if (this._kinds[col] != kind)
+			throw new IllegalStateException("Column " + this._names[col] + " is not of the requested type");
+	}
+}//end TypedResult
@@ -7,6 +7,11 @@ echo "Copying csv files ... "
 sleep 1
 cp ../data/*.csv /tmp/$USER/myDB/data/.
 
+# PARTITIONED=1 creates Reservation hash partitioned on fid
 echo "Initializing tables .. "
 sleep 1
-psql -h localhost -p $PGPORT $USER"_DB" < ../sql/create.sql
\ No newline at end of file
+psql -h localhost -p $PGPORT ${PARTITIONED:+-v partitioned=1} $USER"_DB" < ../sql/create.sql
+
+echo "Loading data .. "
+sleep 1
+psql -h localhost -p $PGPORT $USER"_DB" < ../sql/load.sql
\ No newline at end of file
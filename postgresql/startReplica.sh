@@ -0,0 +1,30 @@
+#! /bin/bash
+# Starts a streaming replica of the server started by startPostgreSQL.sh,
+# on another port, for the --replicas option of run.sh.
+# Example: source ./startReplica.sh 10000
+folder=/tmp/$USER
+REPLICA_PORT=${1:-10000}
+REPLICA_DIR=$folder/replica$REPLICA_PORT
+export REPLICA_DATA=$REPLICA_DIR/data
+export REPLICA_SOCKETS=$REPLICA_DIR/sockets
+
+echo $REPLICA_DIR
+
+#Clear folder
+rm -rf $REPLICA_DIR
+
+#Initialize folders
+mkdir -p $REPLICA_SOCKETS
+sleep 1
+
+#Copy the primary, -R writes standby.signal and primary_conninfo so the copy follows it
+pg_basebackup -h localhost -p $PGPORT -D $REPLICA_DATA -X stream -R -c fast
+chmod 700 $REPLICA_DATA
+
+sleep 1
+#Start the replica, read-only and replaying the primary's WAL
+pg_ctl -o "-c unix_socket_directories=$REPLICA_SOCKETS -p $REPLICA_PORT -c hot_standby=on" -D $REPLICA_DATA -l $REPLICA_DIR/logfile start
+
+#Shows the replica streaming from the primary
+sleep 1
+psql -h localhost -p $PGPORT -c "SELECT client_addr, state, replay_lsn FROM pg_stat_replication" postgres
@@ -0,0 +1,6 @@
+#! /bin/bash
+# Stops the replica started by startReplica.sh on the given port.
+# Example: source ./stopReplica.sh 10000
+folder=/tmp/$USER
+REPLICA_PORT=${1:-10000}
+pg_ctl -D $folder/replica$REPLICA_PORT/data stop
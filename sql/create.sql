@@ -9,6 +9,15 @@ DROP TABLE IF EXISTS FlightInfo CASCADE;--OK
 DROP TABLE IF EXISTS Repairs CASCADE;--OK
 DROP TABLE IF EXISTS Schedule CASCADE;--OK
 
+DROP TABLE IF EXISTS RepairsPerPlane CASCADE;
+DROP TABLE IF EXISTS RepairsPerYear CASCADE;
+DROP TABLE IF EXISTS RepairsPerPlaneYearCode CASCADE;
+DROP FUNCTION IF EXISTS repairs_summary_maintain() CASCADE;
+DROP FUNCTION IF EXISTS repairs_summary_truncate() CASCADE;
+DROP FUNCTION IF EXISTS rebuild_repair_summaries() CASCADE;
+-- the migrations recorded here are undone by the drops above, so they run again
+DROP TABLE IF EXISTS schema_version;
+
 -------------
 ---DOMAINS---
 -------------
@@ -79,6 +88,32 @@ CREATE TABLE Technician
 ---RELATIONS---
 ---------------
 
+-- Reservation is the table that grows without bound. Run this script
+-- with psql -v partitioned=1 to create it hash partitioned on fid: every
+-- query of the menu names a flight, so it reads one of the 16 partitions
+-- and its indexes. A key of a partitioned table must contain the
+-- partition column, so the primary key becomes (rnum, fid). Migration
+-- migrations/partitioned/V101 converts an existing flat table.
+\if :{?partitioned}
+CREATE TABLE Reservation
+(
+	rnum INTEGER NOT NULL,
+	cid INTEGER NOT NULL,
+	fid INTEGER NOT NULL,
+	status _STATUS,
+	PRIMARY KEY (rnum, fid),
+	FOREIGN KEY (cid) REFERENCES Customer(id),
+	FOREIGN KEY (fid) REFERENCES Flight(fnum)
+) PARTITION BY HASH (fid);
+
+DO $$
+BEGIN
+	FOR i IN 0..15 LOOP
+		EXECUTE format('CREATE TABLE reservation_p%s PARTITION OF Reservation FOR VALUES WITH (MODULUS 16, REMAINDER %s)', i, i);
+	END LOOP;
+END;
+$$;
+\else
 CREATE TABLE Reservation
 (
 	rnum INTEGER NOT NULL,
@@ -89,6 +124,7 @@ CREATE TABLE Reservation
 	FOREIGN KEY (cid) REFERENCES Customer(id),
 	FOREIGN KEY (fid) REFERENCES Flight(fnum)
 );
+\endif
 
 CREATE TABLE FlightInfo
 (
@@ -126,95 +162,130 @@ CREATE TABLE Schedule
 	FOREIGN KEY (flightNum) REFERENCES Flight(fnum)
 );
 
-----------------------------
--- INSERT DATA STATEMENTS --
-----------------------------
-
-COPY Customer (
-	id,
-	fname,
-	lname,
-	gtype,
-	dob,
-	address,
-	phone,
-	zipcode
-)
-FROM 'customer.csv'
-WITH DELIMITER ',';
-
-COPY Pilot (
-	id,
-	fullname,
-	nationality
-)
-FROM 'pilots.csv'
-WITH DELIMITER ',';
-
-COPY Plane (
-	id,
-	make,
-	model,
-	age,
-	seats
-)
-FROM 'planes.csv'
-WITH DELIMITER ',';
-
-COPY Technician (
-	id,
-	full_name
-)
-FROM 'technician.csv'
-WITH DELIMITER ',';
-
-COPY Flight (
-	fnum,
-	cost,
-	num_sold,
-	num_stops,
-	actual_departure_date,
-	actual_arrival_date,
-	arrival_airport,
-	departure_airport
-)
-FROM 'flights.csv'
-WITH DELIMITER ',';
-
-COPY Reservation (
-	rnum,
-	cid,
-	fid,
-	status
-)
-FROM 'reservation.csv'
-WITH DELIMITER ',';
-
-COPY FlightInfo (
-	fiid,
-	flight_id,
-	pilot_id,
-	plane_id
-)
-FROM 'flightinfo.csv'
-WITH DELIMITER ',';
-
-COPY Repairs (
-	rid,
-	repair_date,
-	repair_code,
-	pilot_id,
-	plane_id,
-	technician_id
-)
-FROM 'repairs.csv'
-WITH DELIMITER ',';
-
-COPY Schedule (
-	id,
-	flightNum,
-	departure_time,
-	arrival_time
-)
-FROM 'schedule.csv'
-WITH DELIMITER ',';
\ No newline at end of file
+---------------
+---SEQUENCES---
+---------------
+-- Key generators, dropped together with their owning tables. Clients
+-- reserve blocks of values from them.
+CREATE SEQUENCE customer_id_seq OWNED BY Customer.id;
+CREATE SEQUENCE pilot_id_seq OWNED BY Pilot.id;
+CREATE SEQUENCE flight_fnum_seq OWNED BY Flight.fnum;
+CREATE SEQUENCE plane_id_seq OWNED BY Plane.id;
+CREATE SEQUENCE technician_id_seq OWNED BY Technician.id;
+CREATE SEQUENCE reservation_rnum_seq OWNED BY Reservation.rnum;
+CREATE SEQUENCE flightinfo_fiid_seq OWNED BY FlightInfo.fiid;
+CREATE SEQUENCE repairs_rid_seq OWNED BY Repairs.rid;
+CREATE SEQUENCE schedule_id_seq OWNED BY Schedule.id;
+
+ALTER TABLE Customer ALTER COLUMN id SET DEFAULT nextval('customer_id_seq');
+ALTER TABLE Pilot ALTER COLUMN id SET DEFAULT nextval('pilot_id_seq');
+ALTER TABLE Flight ALTER COLUMN fnum SET DEFAULT nextval('flight_fnum_seq');
+ALTER TABLE Plane ALTER COLUMN id SET DEFAULT nextval('plane_id_seq');
+ALTER TABLE Technician ALTER COLUMN id SET DEFAULT nextval('technician_id_seq');
+ALTER TABLE Reservation ALTER COLUMN rnum SET DEFAULT nextval('reservation_rnum_seq');
+ALTER TABLE FlightInfo ALTER COLUMN fiid SET DEFAULT nextval('flightinfo_fiid_seq');
+ALTER TABLE Repairs ALTER COLUMN rid SET DEFAULT nextval('repairs_rid_seq');
+ALTER TABLE Schedule ALTER COLUMN id SET DEFAULT nextval('schedule_id_seq');
+
+----------------------
+---REPAIR SUMMARIES---
+----------------------
+-- Pre-aggregated repair counts, kept current by statement-level triggers
+-- on Repairs so menu options 7 and 8 do not scan the repair history.
+-- A NULL repair_code is counted under '--'. Rows may drop to a count of
+-- zero after deletes; readers filter them out.
+CREATE TABLE RepairsPerPlaneYearCode
+(
+	plane_id INTEGER NOT NULL,
+	repair_year INTEGER NOT NULL,
+	repair_code CHAR(2) NOT NULL,
+	repair_count INTEGER NOT NULL,
+	PRIMARY KEY (plane_id, repair_year, repair_code)
+);
+
+CREATE TABLE RepairsPerPlane
+(
+	plane_id INTEGER NOT NULL,
+	repair_count INTEGER NOT NULL,
+	PRIMARY KEY (plane_id)
+);
+
+CREATE TABLE RepairsPerYear
+(
+	repair_year INTEGER NOT NULL,
+	repair_count INTEGER NOT NULL,
+	PRIMARY KEY (repair_year)
+);
+
+CREATE FUNCTION repairs_summary_maintain() RETURNS trigger AS $$
+BEGIN
+	IF TG_OP IN ('UPDATE', 'DELETE') THEN
+		UPDATE RepairsPerPlaneYearCode S SET repair_count = S.repair_count - D.n
+		FROM (SELECT plane_id, EXTRACT(year FROM repair_date)::int AS repair_year, COALESCE(repair_code, '--') AS repair_code, count(*) AS n
+		      FROM old_rows GROUP BY 1, 2, 3) D
+		WHERE S.plane_id = D.plane_id AND S.repair_year = D.repair_year AND S.repair_code = D.repair_code;
+
+		UPDATE RepairsPerPlane S SET repair_count = S.repair_count - D.n
+		FROM (SELECT plane_id, count(*) AS n FROM old_rows GROUP BY 1) D
+		WHERE S.plane_id = D.plane_id;
+
+		UPDATE RepairsPerYear S SET repair_count = S.repair_count - D.n
+		FROM (SELECT EXTRACT(year FROM repair_date)::int AS repair_year, count(*) AS n FROM old_rows GROUP BY 1) D
+		WHERE S.repair_year = D.repair_year;
+	END IF;
+
+	IF TG_OP IN ('INSERT', 'UPDATE') THEN
+		INSERT INTO RepairsPerPlaneYearCode AS S (plane_id, repair_year, repair_code, repair_count)
+		SELECT plane_id, EXTRACT(year FROM repair_date)::int, COALESCE(repair_code, '--'), count(*)
+		FROM new_rows GROUP BY 1, 2, 3
+		ON CONFLICT (plane_id, repair_year, repair_code) DO UPDATE SET repair_count = S.repair_count + EXCLUDED.repair_count;
+
+		INSERT INTO RepairsPerPlane AS S (plane_id, repair_count)
+		SELECT plane_id, count(*) FROM new_rows GROUP BY 1
+		ON CONFLICT (plane_id) DO UPDATE SET repair_count = S.repair_count + EXCLUDED.repair_count;
+
+		INSERT INTO RepairsPerYear AS S (repair_year, repair_count)
+		SELECT EXTRACT(year FROM repair_date)::int, count(*) FROM new_rows GROUP BY 1
+		ON CONFLICT (repair_year) DO UPDATE SET repair_count = S.repair_count + EXCLUDED.repair_count;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION repairs_summary_truncate() RETURNS trigger AS $$
+BEGIN
+	TRUNCATE RepairsPerPlaneYearCode, RepairsPerPlane, RepairsPerYear;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Full rebuild from the repair history, e.g. after the summaries drifted
+-- or triggers were disabled for a load.
+CREATE FUNCTION rebuild_repair_summaries() RETURNS void AS $$
+BEGIN
+	LOCK TABLE Repairs IN SHARE MODE;
+	TRUNCATE RepairsPerPlaneYearCode, RepairsPerPlane, RepairsPerYear;
+
+	INSERT INTO RepairsPerPlaneYearCode (plane_id, repair_year, repair_code, repair_count)
+	SELECT plane_id, EXTRACT(year FROM repair_date)::int, COALESCE(repair_code, '--'), count(*)
+	FROM Repairs GROUP BY 1, 2, 3;
+
+	INSERT INTO RepairsPerPlane (plane_id, repair_count)
+	SELECT plane_id, sum(repair_count) FROM RepairsPerPlaneYearCode GROUP BY 1;
+
+	INSERT INTO RepairsPerYear (repair_year, repair_count)
+	SELECT repair_year, sum(repair_count) FROM RepairsPerPlaneYearCode GROUP BY 1;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER repairs_summary_insert AFTER INSERT ON Repairs
+	REFERENCING NEW TABLE AS new_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_maintain();
+CREATE TRIGGER repairs_summary_update AFTER UPDATE ON Repairs
+	REFERENCING OLD TABLE AS old_rows NEW TABLE AS new_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_maintain();
+CREATE TRIGGER repairs_summary_delete AFTER DELETE ON Repairs
+	REFERENCING OLD TABLE AS old_rows
+	FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_maintain();
+CREATE TRIGGER repairs_summary_truncate AFTER TRUNCATE ON Repairs
+	FOR EACH STATEMENT EXECUTE PROCEDURE repairs_summary_truncate();
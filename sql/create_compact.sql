@@ -0,0 +1,317 @@
+--------------------------------------
+-- COMPACT STORAGE SCHEMA VARIANT --
+--------------------------------------
+-- The tables of create.sql in the schema compact, stored without the
+-- blank padding of CHAR(n): names and addresses are VARCHAR, status and
+-- repair codes are SMALLINT codes decoded by lookup tables, departure
+-- and arrival times are TIMESTAMP instead of DATE, and airports are
+-- INTEGER keys of an Airport dimension. Columns are ordered widest
+-- fixed-width first so rows carry no alignment padding.
+--
+-- CompactSchemaMigrator (compact-migrate) runs this file, keeps the
+-- compact tables in step with the original ones through the triggers of
+-- start_sync while it copies the existing rows in short batches, then
+-- adds the foreign keys and indexes with finish_migration. The triggers
+-- are removed with stop_sync afterwards unless --keep-sync is given, and
+-- bulk loads remove them before they start. Running the file again drops
+-- the schema and its triggers and starts over.
+--
+-- Times are only as exact as their source: rows copied from a DATE
+-- column arrive at midnight.
+DROP SCHEMA IF EXISTS compact CASCADE;
+CREATE SCHEMA compact;
+
+------------------
+---CODE LOOKUPS---
+------------------
+CREATE TABLE compact.ReservationStatus
+(
+	code SMALLINT NOT NULL,
+	status CHAR(1) NOT NULL UNIQUE,
+	PRIMARY KEY (code)
+);
+INSERT INTO compact.ReservationStatus (code, status) VALUES (0, 'W'), (1, 'C'), (2, 'R');
+
+CREATE TABLE compact.RepairCode
+(
+	code SMALLINT NOT NULL,
+	repair_code CHAR(2) NOT NULL UNIQUE,
+	PRIMARY KEY (code)
+);
+INSERT INTO compact.RepairCode (code, repair_code) VALUES (0, 'MJ'), (1, 'MN'), (2, 'SV');
+
+CREATE FUNCTION compact.status_code(p_status CHAR) RETURNS SMALLINT AS $$
+	SELECT CASE p_status WHEN 'W' THEN 0 WHEN 'C' THEN 1 WHEN 'R' THEN 2 END::SMALLINT;
+$$ LANGUAGE sql IMMUTABLE;
+
+CREATE FUNCTION compact.repair_code(p_code CHAR) RETURNS SMALLINT AS $$
+	SELECT CASE p_code WHEN 'MJ' THEN 0 WHEN 'MN' THEN 1 WHEN 'SV' THEN 2 END::SMALLINT;
+$$ LANGUAGE sql IMMUTABLE;
+
+--------------
+---AIRPORTS---
+--------------
+CREATE TABLE compact.Airport
+(
+	id INTEGER NOT NULL,
+	code VARCHAR(5) NOT NULL UNIQUE,
+	PRIMARY KEY (id)
+);
+CREATE SEQUENCE compact.airport_id_seq OWNED BY compact.Airport.id;
+ALTER TABLE compact.Airport ALTER COLUMN id SET DEFAULT nextval('compact.airport_id_seq');
+
+-- The key of an airport code, added on first use. Concurrent first uses
+-- of a code agree on one key.
+CREATE FUNCTION compact.airport_id(p_code CHAR) RETURNS INTEGER AS $$
+DECLARE
+	v_id INTEGER;
+BEGIN
+	SELECT id INTO v_id FROM compact.Airport WHERE code = p_code::VARCHAR;
+	IF NOT FOUND THEN
+		INSERT INTO compact.Airport (code) VALUES (p_code::VARCHAR) ON CONFLICT (code) DO NOTHING;
+		SELECT id INTO v_id FROM compact.Airport WHERE code = p_code::VARCHAR;
+	END IF;
+	RETURN v_id;
+END;
+$$ LANGUAGE plpgsql;
+
+------------
+---TABLES---
+------------
+CREATE TABLE compact.Customer
+(
+	id INTEGER NOT NULL,
+	dob DATE NOT NULL,
+	gtype _GENDER NOT NULL,
+	fname VARCHAR(24) NOT NULL,
+	lname VARCHAR(24) NOT NULL,
+	address VARCHAR(256),
+	phone VARCHAR(10),
+	zipcode VARCHAR(10),
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE compact.Pilot
+(
+	id INTEGER NOT NULL,
+	fullname VARCHAR(128),
+	nationality VARCHAR(24),
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE compact.Flight
+(
+	actual_departure_date TIMESTAMP NOT NULL,
+	actual_arrival_date TIMESTAMP NOT NULL,
+	fnum INTEGER NOT NULL,
+	cost _PINTEGER NOT NULL,
+	num_sold _PZEROINTEGER NOT NULL,
+	num_stops _PZEROINTEGER NOT NULL,
+	arrival_airport INTEGER NOT NULL,
+	departure_airport INTEGER NOT NULL,
+	PRIMARY KEY (fnum)
+);
+
+CREATE TABLE compact.Plane
+(
+	id INTEGER NOT NULL,
+	age _YEAR_1970 NOT NULL,
+	seats _SEATS NOT NULL,
+	make VARCHAR(32) NOT NULL,
+	model VARCHAR(64) NOT NULL,
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE compact.Technician
+(
+	id INTEGER NOT NULL,
+	full_name VARCHAR(128) NOT NULL,
+	PRIMARY KEY (id)
+);
+
+CREATE TABLE compact.Reservation
+(
+	rnum INTEGER NOT NULL,
+	cid INTEGER NOT NULL,
+	fid INTEGER NOT NULL,
+	status SMALLINT CHECK (status BETWEEN 0 AND 2),
+	PRIMARY KEY (rnum)
+);
+
+CREATE TABLE compact.FlightInfo
+(
+	fiid INTEGER NOT NULL,
+	flight_id INTEGER NOT NULL,
+	pilot_id INTEGER NOT NULL,
+	plane_id INTEGER NOT NULL,
+	PRIMARY KEY (fiid)
+);
+
+CREATE TABLE compact.Repairs
+(
+	rid INTEGER NOT NULL,
+	repair_date DATE NOT NULL,
+	pilot_id INTEGER NOT NULL,
+	plane_id INTEGER NOT NULL,
+	technician_id INTEGER NOT NULL,
+	repair_code SMALLINT CHECK (repair_code BETWEEN 0 AND 2),
+	PRIMARY KEY (rid)
+);
+
+CREATE TABLE compact.Schedule
+(
+	departure_time TIMESTAMP NOT NULL,
+	arrival_time TIMESTAMP NOT NULL,
+	id INTEGER NOT NULL,
+	flightNum INTEGER NOT NULL,
+	PRIMARY KEY (id)
+);
+
+------------------
+---SOURCE VIEWS---
+------------------
+-- The rows of each original table converted to its compact table, in
+-- the compact column order. The copy and the triggers both read these,
+-- so every conversion is written once.
+CREATE VIEW compact.customer_src AS
+SELECT id, dob, gtype, fname, lname, address, phone, zipcode FROM public.Customer;
+CREATE VIEW compact.pilot_src AS
+SELECT id, fullname, nationality FROM public.Pilot;
+CREATE VIEW compact.flight_src AS
+SELECT actual_departure_date::TIMESTAMP, actual_arrival_date::TIMESTAMP, fnum, cost, num_sold, num_stops,
+	compact.airport_id(arrival_airport) AS arrival_airport, compact.airport_id(departure_airport) AS departure_airport
+FROM public.Flight;
+CREATE VIEW compact.plane_src AS
+SELECT id, age, seats, make, model FROM public.Plane;
+CREATE VIEW compact.technician_src AS
+SELECT id, full_name FROM public.Technician;
+CREATE VIEW compact.reservation_src AS
+SELECT rnum, cid, fid, compact.status_code(status) AS status FROM public.Reservation;
+CREATE VIEW compact.flightinfo_src AS
+SELECT fiid, flight_id, pilot_id, plane_id FROM public.FlightInfo;
+CREATE VIEW compact.repairs_src AS
+SELECT rid, repair_date, pilot_id, plane_id, technician_id, compact.repair_code(repair_code) AS repair_code FROM public.Repairs;
+CREATE VIEW compact.schedule_src AS
+SELECT departure_time::TIMESTAMP, arrival_time::TIMESTAMP, id, flightNum FROM public.Schedule;
+
+-------------
+---SYNCING---
+-------------
+-- The tables and keys kept in step, parents before the tables
+-- referencing them.
+CREATE TABLE compact.synced
+(
+	load_order INTEGER NOT NULL,
+	name TEXT NOT NULL,
+	key TEXT NOT NULL,
+	PRIMARY KEY (name)
+);
+INSERT INTO compact.synced (load_order, name, key) VALUES
+	(1, 'customer', 'id'), (2, 'pilot', 'id'), (3, 'plane', 'id'), (4, 'technician', 'id'), (5, 'flight', 'fnum'),
+	(6, 'reservation', 'rnum'), (7, 'flightinfo', 'fiid'), (8, 'repairs', 'rid'), (9, 'schedule', 'id');
+
+-- Row trigger on an original table, arguments: table name, key column,
+-- compact column list. Deletes and key changes remove the old row, the
+-- new one is upserted in place so rows referencing it are not disturbed.
+-- The table is named explicitly because a trigger on a partitioned table
+-- fires with the partition's name.
+CREATE FUNCTION compact.sync_row() RETURNS trigger AS $$
+DECLARE
+	v_table TEXT := TG_ARGV[0];
+	v_key TEXT := TG_ARGV[1];
+	v_moved BOOLEAN := TG_OP = 'DELETE';
+BEGIN
+	IF TG_OP = 'UPDATE' THEN
+		EXECUTE format('SELECT ($1).%I IS DISTINCT FROM ($2).%I', v_key, v_key) INTO v_moved USING OLD, NEW;
+	END IF;
+	IF v_moved THEN
+		EXECUTE format('DELETE FROM compact.%I WHERE %I = ($1).%I', v_table, v_key, v_key) USING OLD;
+	END IF;
+	IF TG_OP <> 'DELETE' THEN
+		EXECUTE format('INSERT INTO compact.%I SELECT * FROM compact.%I WHERE %I = ($1).%I ON CONFLICT (%I) DO UPDATE SET (%s) = ROW(EXCLUDED.*)',
+			v_table, v_table || '_src', v_key, v_key, v_key, TG_ARGV[2]) USING NEW;
+	END IF;
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION compact.sync_truncate() RETURNS trigger AS $$
+BEGIN
+	EXECUTE format('TRUNCATE compact.%I CASCADE', TG_ARGV[0]);
+	RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Installs the triggers. Rows written from then on reach the compact
+-- tables as they commit; the rows written before are copied by backfill.
+CREATE FUNCTION compact.start_sync() RETURNS void AS $$
+DECLARE
+	r RECORD;
+	v_columns TEXT;
+BEGIN
+	FOR r IN SELECT name, key FROM compact.synced ORDER BY load_order LOOP
+		SELECT string_agg(quote_ident(attname), ', ' ORDER BY attnum) INTO v_columns
+		FROM pg_attribute
+		WHERE attrelid = format('compact.%I', r.name)::regclass AND attnum > 0 AND NOT attisdropped;
+		EXECUTE format('CREATE TRIGGER compact_sync AFTER INSERT OR UPDATE OR DELETE ON public.%I FOR EACH ROW EXECUTE PROCEDURE compact.sync_row(%L, %L, %L)',
+			r.name, r.name, r.key, v_columns);
+		EXECUTE format('CREATE TRIGGER compact_sync_truncate AFTER TRUNCATE ON public.%I FOR EACH STATEMENT EXECUTE PROCEDURE compact.sync_truncate(%L)',
+			r.name, r.name);
+	END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE FUNCTION compact.stop_sync() RETURNS void AS $$
+DECLARE
+	r RECORD;
+BEGIN
+	FOR r IN SELECT name FROM compact.synced LOOP
+		EXECUTE format('DROP TRIGGER IF EXISTS compact_sync ON public.%I', r.name);
+		EXECUTE format('DROP TRIGGER IF EXISTS compact_sync_truncate ON public.%I', r.name);
+	END LOOP;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Copies the rows of a table with keys in [p_from, p_to) that are not
+-- there yet. The source rows are locked while they are copied, so an
+-- update or delete of one waits and its trigger then replaces the copy.
+CREATE FUNCTION compact.backfill(p_table TEXT, p_from INTEGER, p_to INTEGER) RETURNS BIGINT AS $$
+DECLARE
+	v_key TEXT;
+	v_rows BIGINT;
+BEGIN
+	SELECT key INTO STRICT v_key FROM compact.synced WHERE name = p_table;
+	EXECUTE format('WITH batch AS (SELECT * FROM compact.%I WHERE %I >= $1 AND %I < $2 FOR SHARE) INSERT INTO compact.%I SELECT * FROM batch ON CONFLICT (%I) DO NOTHING',
+		p_table || '_src', v_key, v_key, p_table, v_key) USING p_from, p_to;
+	GET DIAGNOSTICS v_rows = ROW_COUNT;
+	RETURN v_rows;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Foreign keys and the secondary indexes of V001, added once the copy is
+-- complete: a row arriving through a trigger may reference a parent that
+-- has not been copied yet.
+CREATE FUNCTION compact.finish_migration() RETURNS void AS $$
+BEGIN
+	ALTER TABLE compact.Flight ADD FOREIGN KEY (arrival_airport) REFERENCES compact.Airport(id);
+	ALTER TABLE compact.Flight ADD FOREIGN KEY (departure_airport) REFERENCES compact.Airport(id);
+	ALTER TABLE compact.Reservation ADD FOREIGN KEY (cid) REFERENCES compact.Customer(id);
+	ALTER TABLE compact.Reservation ADD FOREIGN KEY (fid) REFERENCES compact.Flight(fnum);
+	ALTER TABLE compact.FlightInfo ADD FOREIGN KEY (flight_id) REFERENCES compact.Flight(fnum);
+	ALTER TABLE compact.FlightInfo ADD FOREIGN KEY (pilot_id) REFERENCES compact.Pilot(id);
+	ALTER TABLE compact.FlightInfo ADD FOREIGN KEY (plane_id) REFERENCES compact.Plane(id);
+	ALTER TABLE compact.Repairs ADD FOREIGN KEY (pilot_id) REFERENCES compact.Pilot(id);
+	ALTER TABLE compact.Repairs ADD FOREIGN KEY (plane_id) REFERENCES compact.Plane(id);
+	ALTER TABLE compact.Repairs ADD FOREIGN KEY (technician_id) REFERENCES compact.Technician(id);
+	ALTER TABLE compact.Schedule ADD FOREIGN KEY (flightNum) REFERENCES compact.Flight(fnum);
+
+	CREATE INDEX IF NOT EXISTS reservation_fid_status_idx ON compact.Reservation (fid, status);
+	CREATE INDEX IF NOT EXISTS reservation_cid_fid_idx ON compact.Reservation (cid, fid) INCLUDE (status, rnum);
+	CREATE INDEX IF NOT EXISTS flightinfo_flight_id_idx ON compact.FlightInfo (flight_id) INCLUDE (fiid, plane_id);
+	CREATE INDEX IF NOT EXISTS repairs_plane_id_idx ON compact.Repairs (plane_id);
+	CREATE INDEX IF NOT EXISTS repairs_repair_date_idx ON compact.Repairs (repair_date);
+	CREATE INDEX IF NOT EXISTS schedule_flightnum_idx ON compact.Schedule (flightNum);
+	ANALYZE compact.Airport, compact.Customer, compact.Pilot, compact.Flight, compact.Plane, compact.Technician,
+		compact.Reservation, compact.FlightInfo, compact.Repairs, compact.Schedule;
+END;
+$$ LANGUAGE plpgsql;
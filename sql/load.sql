@@ -0,0 +1,106 @@
+----------------------------
+-- INSERT DATA STATEMENTS --
+----------------------------
+
+COPY Customer (
+	id,
+	fname,
+	lname,
+	gtype,
+	dob,
+	address,
+	phone,
+	zipcode
+)
+FROM 'customer.csv'
+WITH DELIMITER ',';
+
+COPY Pilot (
+	id,
+	fullname,
+	nationality
+)
+FROM 'pilots.csv'
+WITH DELIMITER ',';
+
+COPY Plane (
+	id,
+	make,
+	model,
+	age,
+	seats
+)
+FROM 'planes.csv'
+WITH DELIMITER ',';
+
+COPY Technician (
+	id,
+	full_name
+)
+FROM 'technician.csv'
+WITH DELIMITER ',';
+
+COPY Flight (
+	fnum,
+	cost,
+	num_sold,
+	num_stops,
+	actual_departure_date,
+	actual_arrival_date,
+	arrival_airport,
+	departure_airport
+)
+FROM 'flights.csv'
+WITH DELIMITER ',';
+
+COPY Reservation (
+	rnum,
+	cid,
+	fid,
+	status
+)
+FROM 'reservation.csv'
+WITH DELIMITER ',';
+
+COPY FlightInfo (
+	fiid,
+	flight_id,
+	pilot_id,
+	plane_id
+)
+FROM 'flightinfo.csv'
+WITH DELIMITER ',';
+
+COPY Repairs (
+	rid,
+	repair_date,
+	repair_code,
+	pilot_id,
+	plane_id,
+	technician_id
+)
+FROM 'repairs.csv'
+WITH DELIMITER ',';
+
+COPY Schedule (
+	id,
+	flightNum,
+	departure_time,
+	arrival_time
+)
+FROM 'schedule.csv'
+WITH DELIMITER ',';
+
+-----------------------------------------
+-- MOVE KEY SEQUENCES PAST LOADED DATA --
+-----------------------------------------
+
+SELECT setval('customer_id_seq', COALESCE(max(id), 0) + 1, false) FROM Customer;
+SELECT setval('pilot_id_seq', COALESCE(max(id), 0) + 1, false) FROM Pilot;
+SELECT setval('flight_fnum_seq', COALESCE(max(fnum), 0) + 1, false) FROM Flight;
+SELECT setval('plane_id_seq', COALESCE(max(id), 0) + 1, false) FROM Plane;
+SELECT setval('technician_id_seq', COALESCE(max(id), 0) + 1, false) FROM Technician;
+SELECT setval('reservation_rnum_seq', COALESCE(max(rnum), 0) + 1, false) FROM Reservation;
+SELECT setval('flightinfo_fiid_seq', COALESCE(max(fiid), 0) + 1, false) FROM FlightInfo;
+SELECT setval('repairs_rid_seq', COALESCE(max(rid), 0) + 1, false) FROM Repairs;
+SELECT setval('schedule_id_seq', COALESCE(max(id), 0) + 1, false) FROM Schedule;
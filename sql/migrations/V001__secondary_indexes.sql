@@ -0,0 +1,18 @@
+----------------------------------------------
+-- V001: SECONDARY INDEXES FOR MENU QUERIES --
+----------------------------------------------
+-- Booking and the passenger status count probe Reservation by flight and
+-- status, and by customer and flight; INCLUDE lets both answer from the
+-- index alone.
+CREATE INDEX IF NOT EXISTS reservation_fid_status_idx ON Reservation (fid, status);
+CREATE INDEX IF NOT EXISTS reservation_cid_fid_idx ON Reservation (cid, fid) INCLUDE (status, rnum);
+
+-- Seat availability and booking look up the plane of a flight.
+CREATE INDEX IF NOT EXISTS flightinfo_flight_id_idx ON FlightInfo (flight_id) INCLUDE (fiid, plane_id);
+
+-- Repair summary rebuilds and plane/technician deletes.
+CREATE INDEX IF NOT EXISTS repairs_plane_id_idx ON Repairs (plane_id);
+CREATE INDEX IF NOT EXISTS repairs_repair_date_idx ON Repairs (repair_date);
+
+-- Departure times of a flight.
+CREATE INDEX IF NOT EXISTS schedule_flightnum_idx ON Schedule (flightNum);
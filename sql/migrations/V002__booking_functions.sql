@@ -0,0 +1,121 @@
+-----------------------------------------------
+-- V002: SERVER-SIDE BOOKING, ONE ROUND TRIP --
+-----------------------------------------------
+-- book_flight runs the whole booking transaction of BookingEngine on the
+-- server: lock the flight row, return an existing reservation of the
+-- customer, or insert one that takes a seat ('R') or waits ('W'). Called
+-- as a single autocommitted statement it costs one round trip and one
+-- commit. A missing flight raises no_data_found (P0002).
+CREATE OR REPLACE FUNCTION book_flight(p_cid INTEGER, p_fid INTEGER, p_rnum INTEGER,
+	OUT rnum INTEGER, OUT status CHAR(1), OUT created BOOLEAN) AS $$
+DECLARE
+	v_sold INTEGER;
+	v_seats INTEGER;
+	v_status CHAR(1);
+BEGIN
+	SELECT F.num_sold, P.seats INTO v_sold, v_seats
+	FROM Flight F, FlightInfo FI, Plane P
+	WHERE F.fnum = p_fid AND FI.flight_id = F.fnum AND FI.plane_id = P.id
+	ORDER BY FI.fiid
+	LIMIT 1
+	FOR UPDATE OF F;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'Flight % does not exist or has no plane assigned', p_fid USING ERRCODE = 'P0002';
+	END IF;
+
+	SELECT R.rnum, R.status INTO rnum, status
+	FROM Reservation R
+	WHERE R.cid = p_cid AND R.fid = p_fid
+	LIMIT 1;
+	IF FOUND THEN
+		created := false;
+		RETURN;
+	END IF;
+
+	v_status := CASE WHEN v_sold < v_seats THEN 'R' ELSE 'W' END;
+	INSERT INTO Reservation (rnum, cid, fid, status) VALUES (p_rnum, p_cid, p_fid, v_status);
+	IF v_status = 'R' THEN
+		UPDATE Flight F SET num_sold = F.num_sold + 1 WHERE F.fnum = p_fid;
+	END IF;
+	rnum := p_rnum;
+	status := v_status;
+	created := true;
+END;
+$$ LANGUAGE plpgsql;
+
+-- update_reservation_status changes the status of a customer's
+-- reservation in one autocommitted call, keeping num_sold in step: moving
+-- a waitlisted (or status-less) reservation to 'R' or 'C' takes a seat,
+-- raising check_violation (23514) on a full flight, and moving a seated
+-- one to 'W' frees its seat. Returns a row of NULLs when the customer has
+-- no reservation on the flight.
+CREATE OR REPLACE FUNCTION update_reservation_status(p_cid INTEGER, p_fid INTEGER, p_status CHAR(1),
+	OUT rnum INTEGER, OUT status CHAR(1)) AS $$
+DECLARE
+	v_sold INTEGER;
+	v_seats INTEGER;
+	v_old CHAR(1);
+	v_was_seated BOOLEAN;
+	v_seated BOOLEAN := p_status <> 'W';
+BEGIN
+	SELECT F.num_sold, P.seats INTO v_sold, v_seats
+	FROM Flight F, FlightInfo FI, Plane P
+	WHERE F.fnum = p_fid AND FI.flight_id = F.fnum AND FI.plane_id = P.id
+	ORDER BY FI.fiid
+	LIMIT 1
+	FOR UPDATE OF F;
+	IF NOT FOUND THEN
+		RAISE EXCEPTION 'Flight % does not exist or has no plane assigned', p_fid USING ERRCODE = 'P0002';
+	END IF;
+
+	SELECT R.rnum, R.status INTO rnum, v_old
+	FROM Reservation R
+	WHERE R.cid = p_cid AND R.fid = p_fid
+	LIMIT 1;
+	IF NOT FOUND THEN
+		rnum := NULL;
+		RETURN;
+	END IF;
+
+	v_was_seated := v_old IS NOT NULL AND v_old <> 'W';
+	IF v_seated AND NOT v_was_seated THEN
+		IF v_sold >= v_seats THEN
+			RAISE EXCEPTION 'Flight % is full, reservation % stays waitlisted', p_fid, rnum USING ERRCODE = 'check_violation';
+		END IF;
+		UPDATE Flight F SET num_sold = F.num_sold + 1 WHERE F.fnum = p_fid;
+	ELSIF v_was_seated AND NOT v_seated THEN
+		UPDATE Flight F SET num_sold = F.num_sold - 1 WHERE F.fnum = p_fid AND F.num_sold > 0;
+	END IF;
+	UPDATE Reservation R SET status = p_status WHERE R.rnum = update_reservation_status.rnum AND R.fid = p_fid;
+	status := p_status;
+END;
+$$ LANGUAGE plpgsql;
+
+-- book_flights books a group of requests in one statement, so a group
+-- commit flushes the WAL once for all of them. Each booking runs in its
+-- own subtransaction: a failing one returns its error and leaves the
+-- others in place. Flights are locked in ascending order, so concurrent
+-- groups cannot deadlock. idx is the 1-based position in the arrays.
+CREATE OR REPLACE FUNCTION book_flights(p_cids INTEGER[], p_fids INTEGER[], p_rnums INTEGER[])
+RETURNS TABLE (idx INTEGER, rnum INTEGER, status CHAR(1), created BOOLEAN, error TEXT) AS $$
+DECLARE
+	r RECORD;
+BEGIN
+	FOR r IN SELECT u.i, u.cid, u.fid, u.rnum
+	         FROM unnest(p_cids, p_fids, p_rnums) WITH ORDINALITY AS u(cid, fid, rnum, i)
+	         ORDER BY u.fid, u.i LOOP
+		idx := r.i;
+		BEGIN
+			SELECT B.rnum, B.status, B.created INTO rnum, status, created
+			FROM book_flight(r.cid, r.fid, r.rnum) B;
+			error := NULL;
+		EXCEPTION WHEN OTHERS THEN
+			rnum := NULL;
+			status := NULL;
+			created := false;
+			error := SQLSTATE || ' ' || SQLERRM;
+		END;
+		RETURN NEXT;
+	END LOOP;
+END;
+$$ LANGUAGE plpgsql;
@@ -0,0 +1,46 @@
+------------------------------------------------
+-- V101: RESERVATION HASH PARTITIONED ON FID --
+------------------------------------------------
+-- Optional: applied with migrate sql/migrations/partitioned, after the
+-- migrations of sql/migrations. It rebuilds a flat Reservation as the
+-- partitioned variant of sql/create.sql (psql -v partitioned=1): 16 hash
+-- partitions on fid, primary key (rnum, fid) and the V001 indexes on
+-- every partition. Writers wait while the rows are copied, readers only
+-- for the final swap. A Reservation that is already partitioned is left
+-- as it is. Optional migrations are numbered from 101 so they never
+-- share a version with the main series.
+--
+-- Status is not a second partitioning level: a key must contain every
+-- partition column, and status is nullable, so Reservation would lose
+-- its primary key, and every status change would move the row to
+-- another partition. Inside a partition, reservation_fid_status_idx
+-- already reads only the rows of one flight and status.
+DO $$
+BEGIN
+	IF (SELECT relkind FROM pg_class WHERE oid = 'reservation'::regclass) = 'p' THEN
+		RAISE NOTICE 'Reservation is already partitioned';
+		RETURN;
+	END IF;
+
+	LOCK TABLE Reservation IN EXCLUSIVE MODE;
+	CREATE TABLE reservation_partitioned (LIKE Reservation INCLUDING DEFAULTS) PARTITION BY HASH (fid);
+	FOR i IN 0..15 LOOP
+		EXECUTE format('CREATE TABLE reservation_p%s PARTITION OF reservation_partitioned FOR VALUES WITH (MODULUS 16, REMAINDER %s)', i, i);
+	END LOOP;
+	INSERT INTO reservation_partitioned SELECT * FROM Reservation;
+
+	-- the sequence would be dropped with the table owning it
+	ALTER SEQUENCE reservation_rnum_seq OWNED BY NONE;
+	DROP TABLE Reservation;
+	ALTER TABLE reservation_partitioned RENAME TO Reservation;
+	ALTER SEQUENCE reservation_rnum_seq OWNED BY Reservation.rnum;
+
+	-- keys and indexes are built after the copy, one pass per partition
+	ALTER TABLE Reservation ADD PRIMARY KEY (rnum, fid);
+	ALTER TABLE Reservation ADD FOREIGN KEY (cid) REFERENCES Customer(id);
+	ALTER TABLE Reservation ADD FOREIGN KEY (fid) REFERENCES Flight(fnum);
+	CREATE INDEX reservation_fid_status_idx ON Reservation (fid, status);
+	CREATE INDEX reservation_cid_fid_idx ON Reservation (cid, fid) INCLUDE (status, rnum);
+	ANALYZE Reservation;
+END;
+$$;